@@ -0,0 +1,286 @@
+import java.util.Arrays;
+
+/**
+ * Keeps track of which parts of a field hold anything, so that passes over
+ * the whole field (clearing it, counting it, drawing it) can skip the parts
+ * that are empty. After a crash of the populations most of a large field
+ * is empty, and such passes then look at only a small part of it.
+ *
+ * The field is divided into square tiles, the same as the buckets of the
+ * PerceptionGrid. For every tile the number of things in it is counted,
+ * and every tile something was placed in or removed from since the start
+ * of the step is marked as changed. A tile is active if it is occupied or
+ * has changed; a drawing only has to redraw active tiles, since every
+ * other tile is empty now and was already empty before the step.
+ *
+ * Tiles are numbered row by row. To visit the occupied tiles:
+ * <pre>
+ * for (int tile = tiles.nextOccupied(0); tile >= 0; tile = tiles.nextOccupied(tile + 1)) ...
+ * </pre>
+ *
+ * @author Nikolay Tsanov
+ */
+public class ActiveTiles
+{
+    // The size of a tile, in locations along each side.
+    public static final int TILE_SIZE = PerceptionGrid.BUCKET_SIZE;
+    // log2 of TILE_SIZE.
+    private static final int TILE_SHIFT = 3;
+
+    // The size of the field.
+    private final int depth, width;
+    // The number of tiles in each direction.
+    private final int tileRows, tileCols;
+    // The number of things in every tile.
+    private final int[] counts;
+    // One bit per tile that holds anything.
+    private final long[] occupied;
+    // One bit per tile that changed since the start of the step.
+    private final long[] changed;
+    // The number of tiles that hold anything.
+    private int occupiedCount;
+
+    /**
+     * Create the tiles of an empty field.
+     *
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public ActiveTiles(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        tileRows = (depth + TILE_SIZE - 1) >> TILE_SHIFT;
+        tileCols = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+        counts = new int[tileRows * tileCols];
+        occupied = new long[(counts.length + 63) >> 6];
+        changed = new long[occupied.length];
+    }
+
+    /**
+     * Count something that was placed at a location.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     */
+    public void added(int row, int col)
+    {
+        int tile = tileOf(row, col);
+        if (counts[tile]++ == 0) {
+            occupied[tile >> 6] |= 1L << tile;
+            occupiedCount++;
+        }
+        changed[tile >> 6] |= 1L << tile;
+    }
+
+    /**
+     * Stop counting something that was removed from a location.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     */
+    public void removed(int row, int col)
+    {
+        int tile = tileOf(row, col);
+        if (--counts[tile] == 0) {
+            occupied[tile >> 6] &= ~(1L << tile);
+            occupiedCount--;
+        }
+        changed[tile >> 6] |= 1L << tile;
+    }
+
+    /**
+     * Forget everything, as for an empty field. The tiles that were
+     * occupied count as changed.
+     */
+    public void clear()
+    {
+        for (int word = 0; word < occupied.length; word++) {
+            changed[word] |= occupied[word];
+        }
+        Arrays.fill(counts, 0);
+        Arrays.fill(occupied, 0);
+        occupiedCount = 0;
+    }
+
+    /**
+     * Start a new step: no tile has changed yet.
+     */
+    public void beginStep()
+    {
+        Arrays.fill(changed, 0);
+    }
+
+    /**
+     * Find the next tile that holds anything.
+     *
+     * @param from The tile to start looking at.
+     * @return The first occupied tile at or after from, or -1 if there is none.
+     */
+    public int nextOccupied(int from)
+    {
+        return next(from, false);
+    }
+
+    /**
+     * Find the next tile that holds anything or changed since the start of the step.
+     *
+     * @param from The tile to start looking at.
+     * @return The first active tile at or after from, or -1 if there is none.
+     */
+    public int nextActive(int from)
+    {
+        return next(from, true);
+    }
+
+    /**
+     * Find the next tile that changed since the start of the step.
+     *
+     * @param from The tile to start looking at.
+     * @return The first changed tile at or after from, or -1 if there is none.
+     */
+    public int nextChanged(int from)
+    {
+        if (from >= counts.length) {
+            return -1;
+        }
+        int word = from >> 6;
+        long bits = changed[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == changed.length) {
+                return -1;
+            }
+            bits = changed[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Return whether a tile holds anything.
+     *
+     * @param tile The tile.
+     * @return true if the tile is occupied.
+     */
+    public boolean isOccupied(int tile)
+    {
+        return counts[tile] > 0;
+    }
+
+    /**
+     * Return whether anything was placed in or removed from a tile since the start of the step.
+     *
+     * @param tile The tile.
+     * @return true if the tile changed.
+     */
+    public boolean isChanged(int tile)
+    {
+        return (changed[tile >> 6] & (1L << tile)) != 0;
+    }
+
+    /**
+     * @return The number of tiles that hold anything.
+     */
+    public int getOccupiedCount()
+    {
+        return occupiedCount;
+    }
+
+    /**
+     * @return The number of tiles that hold anything or changed since the start of the step.
+     */
+    public int getActiveCount()
+    {
+        int count = 0;
+        for (int word = 0; word < occupied.length; word++) {
+            count += Long.bitCount(occupied[word] | changed[word]);
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of tiles.
+     */
+    public int getTileCount()
+    {
+        return counts.length;
+    }
+
+    /**
+     * @return The number of tile columns.
+     */
+    public int getTileCols()
+    {
+        return tileCols;
+    }
+
+    /**
+     * @return The number of tile rows.
+     */
+    public int getTileRows()
+    {
+        return tileRows;
+    }
+
+    /**
+     * @param tile The tile.
+     * @return The first row of the tile.
+     */
+    public int getTop(int tile)
+    {
+        return (tile / tileCols) << TILE_SHIFT;
+    }
+
+    /**
+     * @param tile The tile.
+     * @return The row after the last row of the tile.
+     */
+    public int getBottom(int tile)
+    {
+        return Math.min(depth, getTop(tile) + TILE_SIZE);
+    }
+
+    /**
+     * @param tile The tile.
+     * @return The first column of the tile.
+     */
+    public int getLeft(int tile)
+    {
+        return (tile % tileCols) << TILE_SHIFT;
+    }
+
+    /**
+     * @param tile The tile.
+     * @return The column after the last column of the tile.
+     */
+    public int getRight(int tile)
+    {
+        return Math.min(width, getLeft(tile) + TILE_SIZE);
+    }
+
+    /**
+     * Find the next tile whose bit is set, in the occupied tiles or also in the changed ones.
+     */
+    private int next(int from, boolean includeChanged)
+    {
+        if (from >= counts.length) {
+            return -1;
+        }
+        int word = from >> 6;
+        long bits = (occupied[word] | (includeChanged ? changed[word] : 0)) & (-1L << from);
+        while (bits == 0) {
+            if (++word == occupied.length) {
+                return -1;
+            }
+            bits = occupied[word] | (includeChanged ? changed[word] : 0);
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @return The tile holding a location.
+     */
+    private int tileOf(int row, int col)
+    {
+        return (row >> TILE_SHIFT) * tileCols + (col >> TILE_SHIFT);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * The birth, death and predation rates of the species in a part of the
+ * field that is not simulated organism by organism, but only as the density
+ * of every species (the share of its locations holding that species).
+ *
+ * The rates are derived from the constants of the species kernels,
+ * assuming the organisms are spread evenly over the part of the field:
+ * <ul>
+ * <li>an adult gives birth with its breeding probability to an average
+ * litter, as far as there is free space; the share of adults follows from
+ * the breeding age and the current death rate;</li>
+ * <li>one in MAX_AGE organisms dies of age every step;</li>
+ * <li>an organism dies of overcrowding if all its neighbours are taken;</li>
+ * <li>a predator eats if one of its 8 neighbours holds prey, and a prey can
+ * only be eaten once, so each kind of meal is bounded by both sides;</li>
+ * <li>a predator starves if its meals give it less food than it uses;</li>
+ * <li>a battle between a hunter and a wolf is won by either side equally often,
+ * as both get a random strength.</li>
+ * </ul>
+ *
+ * @author Nikolay Tsanov
+ */
+public class AggregateRates
+{
+    // The number of neighbours of a location.
+    private static final int NEIGHBOURS = 8;
+    // The share of battles won by the hunter.
+    private static final double HUNTER_WINS = 0.5;
+    // The share of wolves hungry enough to eat rabbits.
+    private static final double HUNGRY_WOLVES = (WolfKernel.RABBIT_HUNGER_LEVEL + 1.0) / WolfKernel.MAX_FOOD_LEVEL;
+    // The food a rabbit gives a wolf.
+    private static final int WOLF_RABBIT_FOOD_VALUE = WolfKernel.RABBIT_FOOD_VALUE;
+    // The food a rabbit gives a hunter.
+    private static final int HUNTER_RABBIT_FOOD_VALUE = HunterKernel.RABBIT_FOOD_VALUE;
+
+    // The age at which each species can breed: [species].
+    private final int[] breedingAge;
+    // Births per adult and step, when all neighbours are free: [species].
+    private final double[] births;
+    // Deaths of age per organism and step: [species].
+    private final double[] ageing;
+    // The most food a predator can hold: [species], 0 for species that do not eat.
+    private final int[] maxFood;
+
+    /**
+     * Derive the rates from the constants of the species.
+     */
+    public AggregateRates()
+    {
+        int count = Species.values().length;
+        breedingAge = new int[count];
+        births = new double[count];
+        ageing = new double[count];
+        maxFood = new int[count];
+        calibrate(Species.RABBIT, Rabbit.BREEDING_AGE, Rabbit.MAX_AGE, Rabbit.BREEDING_PROBABILITY, Rabbit.MAX_LITTER_SIZE, 0);
+        calibrate(Species.FOX, Fox.BREEDING_AGE, Fox.MAX_AGE, Fox.BREEDING_PROBABILITY, Fox.MAX_LITTER_SIZE, Fox.RABBIT_FOOD_VALUE);
+        calibrate(Species.WOLF, Wolf.BREEDING_AGE, Wolf.MAX_AGE, Wolf.BREEDING_PROBABILITY, Wolf.MAX_LITTER_SIZE, Wolf.MAX_FOOD_LEVEL);
+        calibrate(Species.HUNTER, Hunter.BREEDING_AGE, Hunter.MAX_AGE, Hunter.BREEDING_PROBABILITY, Hunter.MAX_LITTER_SIZE, Hunter.MAX_FOOD_LEVEL);
+    }
+
+    /**
+     * Advance the densities of a part of the field by one step.
+     *
+     * @param density The density of every species, indexed by ordinal; updated in place.
+     */
+    public void advance(double[] density)
+    {
+        int rabbit = Species.RABBIT.ordinal();
+        int fox = Species.FOX.ordinal();
+        int wolf = Species.WOLF.ordinal();
+        int hunter = Species.HUNTER.ordinal();
+        double free = 1;
+        for (double d : density) {
+            free -= d;
+        }
+        free = Math.max(0, free);
+        double crowded = Math.pow(1 - free, NEIGHBOURS);
+
+        // The chance of a predator to find each kind of meal in a step.
+        double foxFindsRabbit = meet(density[rabbit]);
+        double wolfFindsFox = meet(density[fox]);
+        double wolfFindsRabbit = (1 - wolfFindsFox) * meet(density[rabbit]) * HUNGRY_WOLVES;
+        double hunterFindsWolf = meet(density[wolf]);
+        double hunterFindsRabbit = (1 - hunterFindsWolf) * meet(density[rabbit]);
+
+        // The organisms eaten in the step, as densities. A prey can only be
+        // eaten once, so no more prey than predators meeting it is eaten.
+        double battles = Math.min(density[wolf] * meet(density[hunter]), density[hunter] * hunterFindsWolf);
+        double[] eaten = new double[density.length];
+        eaten[rabbit] = Math.min(density[rabbit] * meet(density[fox]), density[fox] * foxFindsRabbit)
+                + Math.min(density[rabbit] * meet(density[wolf]), density[wolf] * wolfFindsRabbit)
+                + Math.min(density[rabbit] * meet(density[hunter]), density[hunter] * hunterFindsRabbit);
+        eaten[fox] = Math.min(density[fox] * meet(density[wolf]), density[wolf] * wolfFindsFox);
+        eaten[wolf] = battles * HUNTER_WINS;
+        eaten[hunter] = battles * (1 - HUNTER_WINS);
+
+        // The food a predator finds in a step, on average.
+        double[] food = new double[density.length];
+        food[fox] = foxFindsRabbit * Fox.RABBIT_FOOD_VALUE;
+        food[wolf] = wolfFindsFox * Wolf.MAX_FOOD_LEVEL + wolfFindsRabbit * WOLF_RABBIT_FOOD_VALUE;
+        food[hunter] = hunterFindsWolf * HUNTER_WINS * Hunter.MAX_FOOD_LEVEL + hunterFindsRabbit * HUNTER_RABBIT_FOOD_VALUE;
+
+        double total = 0;
+        for (int s = 0; s < density.length; s++) {
+            double d = density[s];
+            if (d <= 0) {
+                continue;
+            }
+            double deaths = ageing[s] + crowded + eaten[s] / d;
+            if (maxFood[s] > 0) {
+                deaths += starvation(food[s], maxFood[s]);
+            }
+            // With a constant death rate, the share of organisms that live
+            // long enough to breed falls off exponentially with the breeding age.
+            double adults = Math.exp(-breedingAge[s] * deaths);
+            density[s] = Math.max(0, d * (1 + births[s] * adults * free - deaths));
+            total += density[s];
+        }
+        // A location holds at most one organism.
+        if (total > 1) {
+            for (int s = 0; s < density.length; s++) {
+                density[s] /= total;
+            }
+        }
+    }
+
+    /**
+     * Derive the rates of one species.
+     */
+    private void calibrate(Species species, int breedingAge, int maxAge, double breedingProbability,
+                           int maxLitterSize, int maxFood)
+    {
+        double litter = (maxLitterSize + 1) / 2.0;
+        this.breedingAge[species.ordinal()] = breedingAge;
+        births[species.ordinal()] = breedingProbability * litter;
+        ageing[species.ordinal()] = 1.0 / maxAge;
+        this.maxFood[species.ordinal()] = maxFood;
+    }
+
+    /**
+     * Return the share of predators that starve in a step. A predator uses
+     * one unit of food per step; if it finds less than that on average it
+     * starves within a full stomach's worth of steps, and even if it finds
+     * more it starves after enough steps without a meal.
+     *
+     * @param food    The food found per step, on average.
+     * @param maxFood The most food the predator can hold.
+     * @return The share of predators starving.
+     */
+    private static double starvation(double food, int maxFood)
+    {
+        double shortfall = Math.max(0, 1 - food) / maxFood;
+        double unlucky = Math.pow(Math.max(0, 1 - food / maxFood), maxFood);
+        return Math.max(shortfall, unlucky);
+    }
+
+    /**
+     * @return The chance that at least one neighbour holds a species of the given density.
+     */
+    private static double meet(double density)
+    {
+        return 1 - Math.pow(1 - density, NEIGHBOURS);
+    }
+}
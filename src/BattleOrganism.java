@@ -12,12 +12,14 @@ public abstract class BattleOrganism extends Organism
     /**
      * Call back the superclass constructor.
      *
-     * @param field    Field instance that will be passed to the superclass
-     * @param location Location instance that will be passed to the superclass
+     * @param field     Field instance that will be passed to the superclass
+     * @param location  Location instance that will be passed to the superclass
+     * @param age       The age that will be passed to the superclass
+     * @param foodLevel The food level that will be passed to the superclass
      */
-    protected BattleOrganism(Field field, Location location)
+    protected BattleOrganism(Field field, Location location, int age, int foodLevel)
     {
-        super(field, location);
+        super(field, location, age, foodLevel);
     }
 
     /**
@@ -0,0 +1,82 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * A claim on every location of a field that any thread can take, for one
+ * round at a time: the first thread to claim a location in a round gets
+ * it, with a compare-and-set, and every later claim in the round fails.
+ * Organisms planning their step on several threads claim the locations
+ * they mean to move to, give birth into or eat from, so no two of them
+ * ever get the same one. A claim holds for the whole round, also on a
+ * location its owner leaves during the round.
+ *
+ * A claim is the number of the round it was taken in, so a new round
+ * starts by counting up, without clearing anything.
+ *
+ * @author Nikolay Tsanov
+ */
+public class CellClaims
+{
+    // Compare-and-set on the elements of the claims.
+    private static final VarHandle CLAIM = MethodHandles.arrayElementVarHandle(int[].class);
+
+    // The width of the field.
+    private final int width;
+    // The round every location was last claimed in, row by row.
+    private final int[] claims;
+    // The current round, never 0.
+    private int round;
+
+    /**
+     * Create the claims of a field, none of them taken.
+     *
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public CellClaims(int depth, int width)
+    {
+        this.width = width;
+        claims = new int[depth * width];
+        round = 1;
+    }
+
+    /**
+     * Start a new round, in which every location is free to claim again.
+     * Must not be called while other threads claim.
+     */
+    public void nextRound()
+    {
+        if (round == Integer.MAX_VALUE) {
+            Arrays.fill(claims, 0);
+            round = 0;
+        }
+        round++;
+    }
+
+    /**
+     * Claim a location for this round.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return true if the claim was taken, false if someone has it already.
+     */
+    public boolean claim(int row, int col)
+    {
+        int cell = row * width + col;
+        int seen = (int) CLAIM.getAcquire(claims, cell);
+        return seen != round && CLAIM.compareAndSet(claims, cell, seen, round);
+    }
+
+    /**
+     * Return whether a location is claimed in this round.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return true if someone has it.
+     */
+    public boolean isClaimed(int row, int col)
+    {
+        return (int) CLAIM.getAcquire(claims, row * width + col) == round;
+    }
+}
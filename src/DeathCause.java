@@ -0,0 +1,16 @@
+/**
+ * The reasons for which an organism can die.
+ *
+ * @author Nikolay Tsanov
+ */
+public enum DeathCause
+{
+    // The organism lived beyond the maximum age of its species.
+    AGE,
+    // The organism ran out of food.
+    STARVATION,
+    // The organism was eaten or killed in a fight.
+    PREDATION,
+    // The organism had no free location to move to.
+    OVERCROWDING
+}
@@ -0,0 +1,240 @@
+import java.util.Arrays;
+
+/**
+ * The colour of every block of a field when it is shown zoomed out, too
+ * small to draw its locations one by one: the colours of the species,
+ * mixed in proportion to how many of each live in the block.
+ *
+ * Blocks come in levels, as the images of a mipmap: level 0 are the
+ * tiles of the field (8x8 locations), and every level above joins 2x2
+ * blocks of the level below. A view picks the level whose blocks are
+ * about a pixel, so drawing takes as long as there are pixels, however
+ * large the field.
+ *
+ * The counts and colour of a block are kept until something in it
+ * changes. After every step the blocks over the tiles that changed are
+ * marked, with all the blocks above them, and a marked block is worked
+ * out again the next time it is asked for, from the blocks below it.
+ * Level 0 is read from the PerceptionGrid of the field.
+ *
+ * @author Nikolay Tsanov
+ */
+public class DensityMipmap implements StepListener
+{
+    // The field shown.
+    private final Field field;
+    // The number of block rows and columns of every level.
+    private final int[] blockRows, blockCols;
+    // The count of every species in every block above level 0: [level][species][block].
+    private final int[][][] counts;
+    // The colour of every block: [level][block].
+    private final int[][] colors;
+    // Whether the counts and colour of a block must be worked out again: [level][block].
+    private final boolean[][] dirty;
+    // The RGB value of every species code, with empty at 0.
+    private int[] palette;
+
+    /**
+     * Create the mipmap of a field. Add it as a step listener of the
+     * simulation, so it hears about the changes.
+     *
+     * @param field   The field.
+     * @param palette The RGB value of every species code, with empty at 0.
+     */
+    public DensityMipmap(Field field, int[] palette)
+    {
+        this.field = field;
+        this.palette = palette.clone();
+        ActiveTiles tiles = field.getActiveTiles();
+        int levels = 1;
+        for (int size = Math.max(tiles.getTileRows(), tiles.getTileCols()); size > 1; size = (size + 1) / 2) {
+            levels++;
+        }
+        blockRows = new int[levels];
+        blockCols = new int[levels];
+        counts = new int[levels][][];
+        colors = new int[levels][];
+        dirty = new boolean[levels][];
+        for (int level = 0; level < levels; level++) {
+            blockRows[level] = level == 0 ? tiles.getTileRows() : (blockRows[level - 1] + 1) / 2;
+            blockCols[level] = level == 0 ? tiles.getTileCols() : (blockCols[level - 1] + 1) / 2;
+            int blocks = blockRows[level] * blockCols[level];
+            counts[level] = level == 0 ? null : new int[Species.values().length][blocks];
+            colors[level] = new int[blocks];
+            dirty[level] = new boolean[blocks];
+        }
+        invalidate();
+    }
+
+    /**
+     * Mark the blocks over the tiles that changed in the step.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public void stepCompleted(int step, Field field)
+    {
+        ActiveTiles tiles = field.getActiveTiles();
+        int tileCols = tiles.getTileCols();
+        for (int tile = tiles.nextChanged(0); tile >= 0; tile = tiles.nextChanged(tile + 1)) {
+            int blockRow = tile / tileCols;
+            int blockCol = tile % tileCols;
+            // A marked block has all blocks above it marked already.
+            for (int level = 0; level < dirty.length; level++) {
+                int block = blockRow * blockCols[level] + blockCol;
+                if (dirty[level][block]) {
+                    break;
+                }
+                dirty[level][block] = true;
+                blockRow >>= 1;
+                blockCol >>= 1;
+            }
+        }
+    }
+
+    /**
+     * Change the colours of the species.
+     *
+     * @param newPalette The RGB value of every species code, with empty at 0.
+     */
+    public void setPalette(int[] newPalette)
+    {
+        palette = newPalette.clone();
+        invalidate();
+    }
+
+    /**
+     * Work out every block again when it is next asked for.
+     */
+    public void invalidate()
+    {
+        for (boolean[] levelDirty : dirty) {
+            Arrays.fill(levelDirty, true);
+        }
+    }
+
+    /**
+     * Return the colour of a block.
+     *
+     * @param level    The level.
+     * @param blockRow The row of the block.
+     * @param blockCol The column of the block.
+     * @return The RGB value of the block.
+     */
+    public int getColor(int level, int blockRow, int blockCol)
+    {
+        int block = blockRow * blockCols[level] + blockCol;
+        if (dirty[level][block]) {
+            refresh(level, blockRow, blockCol);
+        }
+        return colors[level][block];
+    }
+
+    /**
+     * Return how many organisms of a species live in a block.
+     *
+     * @param level    The level.
+     * @param species  The species.
+     * @param blockRow The row of the block.
+     * @param blockCol The column of the block.
+     * @return The number of organisms.
+     */
+    public int getCount(int level, Species species, int blockRow, int blockCol)
+    {
+        if (level == 0) {
+            return field.getPerceptionGrid().getCount(species, blockRow, blockCol);
+        }
+        int block = blockRow * blockCols[level] + blockCol;
+        if (dirty[level][block]) {
+            refresh(level, blockRow, blockCol);
+        }
+        return counts[level][species.ordinal()][block];
+    }
+
+    /**
+     * Return the lowest level whose blocks are at least the given size.
+     *
+     * @param cells The size of a block, in locations along each side.
+     * @return The level, or the top level if no block is that large.
+     */
+    public int getLevelFor(double cells)
+    {
+        int level = 0;
+        while (level < blockRows.length - 1 && getBlockSize(level) < cells) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @return The size of the blocks of a level, in locations along each side.
+     */
+    public int getBlockSize(int level)
+    {
+        return ActiveTiles.TILE_SIZE << level;
+    }
+
+    /**
+     * @return The number of block rows of a level.
+     */
+    public int getBlockRows(int level)
+    {
+        return blockRows[level];
+    }
+
+    /**
+     * @return The number of block columns of a level.
+     */
+    public int getBlockCols(int level)
+    {
+        return blockCols[level];
+    }
+
+    /**
+     * @return The number of levels.
+     */
+    public int getLevelCount()
+    {
+        return blockRows.length;
+    }
+
+    /**
+     * Work out the counts and colour of a block from the blocks below it.
+     */
+    private void refresh(int level, int blockRow, int blockCol)
+    {
+        int block = blockRow * blockCols[level] + blockCol;
+        Species[] species = Species.values();
+        long red = 0, green = 0, blue = 0;
+        int organisms = 0;
+        for (Species s : species) {
+            int count;
+            if (level == 0) {
+                count = field.getPerceptionGrid().getCount(s, blockRow, blockCol);
+            } else {
+                count = 0;
+                for (int row = blockRow * 2; row < Math.min(blockRows[level - 1], blockRow * 2 + 2); row++) {
+                    for (int col = blockCol * 2; col < Math.min(blockCols[level - 1], blockCol * 2 + 2); col++) {
+                        count += getCount(level - 1, s, row, col);
+                    }
+                }
+                counts[level][s.ordinal()][block] = count;
+            }
+            int rgb = palette[s.getCode()];
+            red += (long) count * ((rgb >> 16) & 0xFF);
+            green += (long) count * ((rgb >> 8) & 0xFF);
+            blue += (long) count * (rgb & 0xFF);
+            organisms += count;
+        }
+        int size = getBlockSize(level);
+        long cells = (long) (Math.min(field.getDepth(), (blockRow + 1) * size) - blockRow * size)
+                * (Math.min(field.getWidth(), (blockCol + 1) * size) - blockCol * size);
+        long empty = Math.max(0, cells - organisms);
+        red += empty * ((palette[0] >> 16) & 0xFF);
+        green += empty * ((palette[0] >> 8) & 0xFF);
+        blue += empty * (palette[0] & 0xFF);
+        long total = Math.max(1, empty + organisms);
+        colors[level][block] = (int) (red / total) << 16 | (int) (green / total) << 8 | (int) (blue / total);
+        dirty[level][block] = false;
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -13,24 +15,124 @@ import java.util.Random;
  */
 public class Field
 {
-    // A random number generator for providing random locations.
-    private static final Random rand = Randomizer.getRandom();
+    /**
+     * The order in which the locations of the field are kept in memory.
+     */
+    public enum CellLayout
+    {
+        // Row by row.
+        ROW_MAJOR,
+        // Along a Z-order (Morton) curve inside square tiles, which are
+        // laid out row by row, so that locations near each other in the
+        // field are mostly near each other in memory too.
+        Z_ORDER
+    }
+
+    // The largest side of a Z-order tile, in locations; a power of two.
+    private static final int Z_TILE_SIZE = 16;
+    // The most Z-order may pad the field by, as a fraction of its locations: 1 / Z_PADDING_DIVISOR.
+    private static final int Z_PADDING_DIVISOR = 4;
 
     // The depth and width of the field.
     private int depth, width;
-    // Storage for the animals.
-    private Object[][] field;
+    // A random number generator for providing random locations and
+    // for the organisms living in the field.
+    private final Random rand;
+    // Storage for the animals, in the order of the layout; null while the field is kept in a store.
+    private Object[] cells;
+    // The order in which the locations are stored.
+    private CellLayout layout;
+    // The index of a location in cells is rowOffset[row] + colOffset[col].
+    private int[] rowOffset, colOffset;
+    // The births, deaths and battles happening in the field.
+    private SimulationEvents events;
+    // The steps at which the organisms in the field die of old age or starvation.
+    private TimingWheel timingWheel;
+    // Counts the organisms of every species in every part of the field.
+    private PerceptionGrid perception;
+    // One bit per location for every species, and for occupied locations.
+    private OccupancyPlanes planes;
+    // Which tiles of the field hold anything or changed in this step.
+    private ActiveTiles tiles;
+    // The store outside the heap the field is kept in, or null if it is kept in cells.
+    private OffHeapCellStore store;
+    // While the field is kept in a store: the animals by their slot in it (slot 0 is never
+    // used), the slots given back, and the first slot never used.
+    private Object[] occupants;
+    private int[] freeSlots;
+    private int freeSlotCount, nextSlot;
+    // A hash of the contents of the field, or null if it is not kept.
+    private WorldFingerprint fingerprint;
+    // How far predators can see, in locations; 0 if they only see their neighbours.
+    private int visionRadius;
+    // The id the next organism created in the field gets; never reused, not even after clearing.
+    private long nextOrganismId;
 
     /**
-     * Represent a field of the given dimensions.
+     * Represent a field of the given dimensions, using the shared
+     * random number generator.
      * @param depth The depth of the field.
      * @param width The width of the field.
      */
     public Field(int depth, int width)
     {
+        this(depth, width, Randomizer.getRandom());
+    }
+
+    /**
+     * Represent a field of the given dimensions with its own
+     * random number generator, so that several simulations can run
+     * independently of each other.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param rand The random number generator for the field.
+     */
+    public Field(int depth, int width, Random rand)
+    {
+        this(depth, width, rand, null);
+    }
+
+    /**
+     * Represent an empty field kept in a store outside the heap from the
+     * start, so that no grid of its size is ever made on the heap (see
+     * attachCellStore). Whatever the store held is replaced.
+     * @param store The store, which gives the size of the field.
+     * @param rand The random number generator for the field.
+     */
+    public Field(OffHeapCellStore store, Random rand)
+    {
+        this(store.getDepth(), store.getWidth(), rand, store);
+    }
+
+    /**
+     * Represent an empty field, kept on the heap or in a store.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param rand The random number generator for the field.
+     * @param store The store to keep the field in, or null to keep it on the heap.
+     */
+    private Field(int depth, int width, Random rand, OffHeapCellStore store)
+    {
+        this.rand = rand;
         this.depth = depth;
         this.width = width;
-        field = new Object[depth][width];
+        setOffsets(CellLayout.ROW_MAJOR);
+        if (store == null) {
+            cells = new Object[cellCount()];
+        } else {
+            for(int row = 0; row < depth; row++) {
+                for(int col = 0; col < width; col++) {
+                    store.setOccupant(row, col, (byte) 0, 0);
+                }
+            }
+            this.store = store;
+            clearSlots();
+        }
+        events = new SimulationEvents();
+        timingWheel = new TimingWheel();
+        perception = new PerceptionGrid(this);
+        planes = new OccupancyPlanes(depth, width);
+        tiles = new ActiveTiles(depth, width);
     }
 
     /**
@@ -38,11 +140,28 @@ public class Field
      */
     public void clear()
     {
-        for(int row = 0; row < depth; row++) {
-            for(int col = 0; col < width; col++) {
-                field[row][col] = null;
+        // Only the occupied tiles have anything to clear.
+        for(int tile = tiles.nextOccupied(0); tile >= 0; tile = tiles.nextOccupied(tile + 1)) {
+            for(int row = tiles.getTop(tile); row < tiles.getBottom(tile); row++) {
+                for(int col = tiles.getLeft(tile); col < tiles.getRight(tile); col++) {
+                    if (store == null) {
+                        cells[rowOffset[row] + colOffset[col]] = null;
+                    } else {
+                        store.setOccupant(row, col, (byte) 0, 0);
+                    }
+                }
             }
         }
+        if (store != null) {
+            clearSlots();
+        }
+        tiles.clear();
+        perception.clear();
+        planes.clear();
+        timingWheel.clear();
+        if (fingerprint != null) {
+            fingerprint.clear();
+        }
     }
 
     /**
@@ -51,7 +170,18 @@ public class Field
      */
     public void clear(Location location)
     {
-        field[location.getRow()][location.getCol()] = null;
+        int row = location.getRow();
+        int col = location.getCol();
+        Object previous = getObjectAt(row, col);
+        if (previous != null) {
+            removed(previous, row, col);
+            if (store == null) {
+                cells[rowOffset[row] + colOffset[col]] = null;
+            } else {
+                freeSlot(store.getSlot(row, col));
+                store.setOccupant(row, col, (byte) 0, 0);
+            }
+        }
     }
 
     /**
@@ -76,7 +206,52 @@ public class Field
      */
     public void place(Object animal, Location location)
     {
-        field[location.getRow()][location.getCol()] = animal;
+        int row = location.getRow();
+        int col = location.getCol();
+        Object previous = getObjectAt(row, col);
+        if (previous != animal) {
+            removed(previous, row, col);
+            if (animal != null) {
+                Species species = Species.of(animal);
+                if (species != null) {
+                    perception.added(species, row, col);
+                    if (fingerprint != null) {
+                        fingerprint.placed(species, row, col);
+                    }
+                }
+                planes.set(row, col, species);
+                tiles.added(row, col);
+            }
+            if (store == null) {
+                cells[rowOffset[row] + colOffset[col]] = animal;
+            } else {
+                if (previous != null) {
+                    freeSlot(store.getSlot(row, col));
+                }
+                store.setOccupant(row, col, Species.codeOf(animal), animal == null ? 0 : takeSlot(animal));
+            }
+        }
+    }
+
+    /**
+     * Update the bookkeeping of the field for something that leaves a location.
+     * @param animal What leaves the location, may be null.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     */
+    private void removed(Object animal, int row, int col)
+    {
+        if (animal != null) {
+            Species species = Species.of(animal);
+            if (species != null) {
+                perception.removed(species, row, col);
+                if (fingerprint != null) {
+                    fingerprint.removed(species, row, col);
+                }
+            }
+            planes.clear(row, col);
+            tiles.removed(row, col);
+        }
     }
 
     /**
@@ -97,7 +272,10 @@ public class Field
      */
     public Object getObjectAt(int row, int col)
     {
-        return field[row][col];
+        if (store != null) {
+            return occupants[store.getSlot(row, col)];
+        }
+        return cells[rowOffset[row] + colOffset[col]];
     }
 
     /**
@@ -145,14 +323,7 @@ public class Field
      */
     public List<Location> getFreeAdjacentLocations(Location location)
     {
-        List<Location> free = new LinkedList<Location>();
-        List<Location> adjacent = adjacentLocations(location);
-        for(Location next : adjacent) {
-            if(getObjectAt(next) == null) {
-                free.add(next);
-            }
-        }
-        return free;
+        return shuffledLocations(location, planes.freeMask(location.getRow(), location.getCol()));
     }
 
     /**
@@ -165,14 +336,459 @@ public class Field
      */
     public Location freeAdjacentLocation(Location location)
     {
-        // The available free ones.
-        List<Location> free = getFreeAdjacentLocations(location);
-        if(free.size() > 0) {
-            return free.get(0);
+        return randomLocation(location, planes.freeMask(location.getRow(), location.getCol()));
+    }
+
+    /**
+     * Pick a random adjacent location holding an organism of a species.
+     * @param species The species to look for.
+     * @param location The location from which to look.
+     * @return An adjacent location holding the species, or null if there is none.
+     */
+    public Location randomAdjacentLocationOf(Species species, Location location)
+    {
+        return randomLocation(location, planes.speciesMask(species, location.getRow(), location.getCol()));
+    }
+
+    /**
+     * Get a shuffled list of the adjacent locations holding an organism of a species.
+     * @param species The species to look for.
+     * @param location The location from which to look.
+     * @return The adjacent locations holding the species, in random order.
+     */
+    public List<Location> adjacentLocationsOf(Species species, Location location)
+    {
+        return shuffledLocations(location, planes.speciesMask(species, location.getRow(), location.getCol()));
+    }
+
+    /**
+     * Return whether a location holds anything, without looking at the location itself.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return true if the location is occupied.
+     */
+    public boolean isOccupied(int row, int col)
+    {
+        return planes.isOccupied(row, col);
+    }
+
+    /**
+     * Start keeping a fingerprint of the contents of the field, starting
+     * from what is in the field now.
+     * @param regionSize The size of the regions of the fingerprint.
+     * @return The fingerprint.
+     */
+    public WorldFingerprint enableFingerprint(int regionSize)
+    {
+        WorldFingerprint newFingerprint = new WorldFingerprint(depth, width, regionSize);
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++) {
+                Species species = Species.of(getObjectAt(row, col));
+                if(species != null) {
+                    newFingerprint.placed(species, row, col);
+                }
+            }
+        }
+        fingerprint = newFingerprint;
+        return fingerprint;
+    }
+
+    /**
+     * Keep the field in a store outside the heap from now on, moving its
+     * contents into the store, or move it back onto the heap. While the
+     * field is kept in a store it has no grid on the heap: every location
+     * is read from and written to the store, which holds the species there
+     * and the slot of the organism in a table of the field's occupants.
+     * That table grows with the number of organisms, not with the size of
+     * the field; what stays on the heap per location are the bits of the
+     * occupancy planes and the counts of the perception grid and tiles. The store is laid out row
+     * by row, and so is the field while it is kept there. Whatever the
+     * store held is replaced; the state of the organisms is only written
+     * to it by Simulator.checkpoint.
+     * @param newStore The store, of the same size as the field, or null to keep the field on the heap.
+     */
+    public void attachCellStore(OffHeapCellStore newStore)
+    {
+        if (newStore == store) {
+            return;
         }
-        else {
+        if (newStore != null && (newStore.getDepth() != depth || newStore.getWidth() != width)) {
+            throw new IllegalArgumentException("The field is " + depth + "x" + width
+                    + ", the store " + newStore.getDepth() + "x" + newStore.getWidth());
+        }
+        if (newStore == null) {
+            Object[] newCells = new Object[cellCount()];
+            for(int row = 0; row < depth; row++) {
+                for(int col = 0; col < width; col++) {
+                    newCells[rowOffset[row] + colOffset[col]] = getObjectAt(row, col);
+                }
+            }
+            cells = newCells;
+            store = null;
+            occupants = null;
+            freeSlots = null;
+            return;
+        }
+        // Every location is written, so nothing the store held before is left.
+        if (store == null) {
+            clearSlots();
+            for(int row = 0; row < depth; row++) {
+                for(int col = 0; col < width; col++) {
+                    Object animal = getObjectAt(row, col);
+                    newStore.setOccupant(row, col, Species.codeOf(animal), animal == null ? 0 : takeSlot(animal));
+                }
+            }
+            cells = null;
+            setOffsets(CellLayout.ROW_MAJOR);
+        } else {
+            for(int row = 0; row < depth; row++) {
+                for(int col = 0; col < width; col++) {
+                    newStore.setOccupant(row, col, store.getCode(row, col), store.getSlot(row, col));
+                }
+            }
+        }
+        store = newStore;
+    }
+
+    /**
+     * Return the store outside the heap the field is kept in.
+     * @return The store, or null if the field is kept on the heap.
+     */
+    public OffHeapCellStore getCellStore()
+    {
+        return store;
+    }
+
+    /**
+     * Empty the table of the occupants of a field kept in a store.
+     */
+    private void clearSlots()
+    {
+        if (occupants == null) {
+            occupants = new Object[64];
+            freeSlots = new int[64];
+        } else {
+            Arrays.fill(occupants, 0, nextSlot, null);
+        }
+        freeSlotCount = 0;
+        nextSlot = 1;
+    }
+
+    /**
+     * Give an animal a slot in the table of the occupants.
+     * @param animal The animal.
+     * @return Its slot.
+     */
+    private int takeSlot(Object animal)
+    {
+        int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        } else {
+            slot = nextSlot++;
+            if (slot == occupants.length) {
+                occupants = Arrays.copyOf(occupants, slot * 2);
+            }
+        }
+        occupants[slot] = animal;
+        return slot;
+    }
+
+    /**
+     * Give back the slot of an animal that left the field.
+     * @param slot The slot.
+     */
+    private void freeSlot(int slot)
+    {
+        occupants[slot] = null;
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    /**
+     * Return the fingerprint of the field.
+     * @return The fingerprint, or null if it is not kept.
+     */
+    public WorldFingerprint getFingerprint()
+    {
+        return fingerprint;
+    }
+
+    /**
+     * Return the occupancy bit planes of the field. They must not be changed.
+     * @return The planes.
+     */
+    public OccupancyPlanes getOccupancyPlanes()
+    {
+        return planes;
+    }
+
+    /**
+     * Change the order in which the locations are kept in memory. The
+     * contents of the field stay where they are in the field. A field kept
+     * in a store (see attachCellStore) is always laid out row by row.
+     * @param newLayout The new order.
+     */
+    public void setCellLayout(CellLayout newLayout)
+    {
+        if (newLayout == layout) {
+            return;
+        }
+        if (store != null) {
+            throw new IllegalStateException("A field kept in a store is laid out row by row.");
+        }
+        Object[] newCells = new Object[cellCount(newLayout)];
+        int[] oldRowOffset = rowOffset;
+        int[] oldColOffset = colOffset;
+        setOffsets(newLayout);
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++) {
+                newCells[rowOffset[row] + colOffset[col]] = cells[oldRowOffset[row] + oldColOffset[col]];
+            }
+        }
+        cells = newCells;
+    }
+
+    /**
+     * Return the order in which the locations are kept in memory.
+     * @return The layout.
+     */
+    public CellLayout getCellLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * Return where a location is kept in memory. Organisms sorted by this
+     * index are visited in the order of the layout.
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return The index of the location in the storage.
+     */
+    public int cellIndex(int row, int col)
+    {
+        return rowOffset[row] + colOffset[col];
+    }
+
+    /**
+     * Compute the offsets of the rows and columns for a layout, and make it the current one.
+     * In Z-order the field is cut into square tiles of zTileSize locations
+     * a side, kept one after another row by row; within a tile the bits of
+     * the row and the column are interleaved, the row taking the odd bits.
+     * @param newLayout The layout.
+     */
+    private void setOffsets(CellLayout newLayout)
+    {
+        layout = newLayout;
+        rowOffset = new int[depth];
+        colOffset = new int[width];
+        if (newLayout == CellLayout.ROW_MAJOR) {
+            for(int row = 0; row < depth; row++) {
+                rowOffset[row] = row * width;
+            }
+            for(int col = 0; col < width; col++) {
+                colOffset[col] = col;
+            }
+            return;
+        }
+        int tileSize = zTileSize(depth, width);
+        int bits = Integer.numberOfTrailingZeros(tileSize);
+        int tileCells = tileSize * tileSize;
+        int tileCols = (width + tileSize - 1) / tileSize;
+        for(int row = 0; row < depth; row++) {
+            rowOffset[row] = (row >>> bits) * tileCols * tileCells + interleave(row & (tileSize - 1), bits, 1);
+        }
+        for(int col = 0; col < width; col++) {
+            colOffset[col] = (col >>> bits) * tileCells + interleave(col & (tileSize - 1), bits, 0);
+        }
+    }
+
+    /**
+     * Choose the side of the Z-order tiles of a field: the largest power of
+     * two up to Z_TILE_SIZE for which rounding the field up to whole tiles
+     * adds at most 1 / Z_PADDING_DIVISOR to its locations. A side of 1 adds
+     * nothing, and is row by row.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @return The side of a tile.
+     */
+    private static int zTileSize(int depth, int width)
+    {
+        long locations = (long) depth * width;
+        int tileSize = Z_TILE_SIZE;
+        while (tileSize > 1 && paddedCount(depth, width, tileSize) - locations > locations / Z_PADDING_DIVISOR) {
+            tileSize >>= 1;
+        }
+        return tileSize;
+    }
+
+    /**
+     * @return The number of locations of a field rounded up to whole tiles of the given side.
+     */
+    private static long paddedCount(int depth, int width, int tileSize)
+    {
+        return (long) ((depth + tileSize - 1) / tileSize) * ((width + tileSize - 1) / tileSize) * tileSize * tileSize;
+    }
+
+    /**
+     * Spread the low bits of a value over every other bit.
+     * @param value The value.
+     * @param bits The number of low bits to spread.
+     * @param first The position of the first bit, 0 or 1.
+     * @return The spread bits.
+     */
+    private static int interleave(int value, int bits, int first)
+    {
+        int spread = 0;
+        for(int bit = 0; bit < bits; bit++) {
+            spread |= ((value >>> bit) & 1) << (2 * bit + first);
+        }
+        return spread;
+    }
+
+    /**
+     * @return The number of cells the current layout needs.
+     */
+    private int cellCount()
+    {
+        return cellCount(layout);
+    }
+
+    /**
+     * @return The number of cells a layout needs; Z-order rounds the field
+     *         up to whole tiles, adding at most 1 / Z_PADDING_DIVISOR.
+     */
+    private int cellCount(CellLayout cellLayout)
+    {
+        if (cellLayout == CellLayout.ROW_MAJOR) {
+            return depth * width;
+        }
+        return (int) paddedCount(depth, width, zTileSize(depth, width));
+    }
+
+    /**
+     * Return the counts of the species in every bucket of the field. They must not be changed.
+     * @return The perception grid.
+     */
+    public PerceptionGrid getPerceptionGrid()
+    {
+        return perception;
+    }
+
+    /**
+     * Return the tiles of the field, which tell which parts of it hold
+     * anything. They must not be changed, except to begin a step.
+     * @return The tiles.
+     */
+    public ActiveTiles getActiveTiles()
+    {
+        return tiles;
+    }
+
+    /**
+     * Pick one of the neighbours in a mask at random.
+     * @param location The location the mask belongs to.
+     * @param mask A neighbour mask, see OccupancyPlanes.
+     * @return The neighbour, or null if the mask is empty.
+     */
+    private Location randomLocation(Location location, int mask)
+    {
+        if (mask == 0) {
             return null;
         }
+        int bit = OccupancyPlanes.nthSetBit(mask, rand.nextInt(Integer.bitCount(mask)));
+        return OccupancyPlanes.neighbour(location.getRow(), location.getCol(), bit);
+    }
+
+    /**
+     * Turn the neighbours in a mask into a list in random order.
+     * @param location The location the mask belongs to.
+     * @param mask A neighbour mask, see OccupancyPlanes.
+     * @return The neighbours, shuffled.
+     */
+    private List<Location> shuffledLocations(Location location, int mask)
+    {
+        List<Location> locations = new ArrayList<Location>(Integer.bitCount(mask));
+        while (mask != 0) {
+            int bit = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            locations.add(OccupancyPlanes.neighbour(location.getRow(), location.getCol(), bit));
+        }
+        if (locations.size() > 1) {
+            Collections.shuffle(locations, rand);
+        }
+        return locations;
+    }
+
+    /**
+     * Find the nearest live organism of a species that can be seen from a location.
+     * @param species The species to look for.
+     * @param location Where to look from.
+     * @param radius How far to look.
+     * @return The location of the nearest organism, or null if none is within the radius.
+     */
+    public Location nearestOrganism(Species species, Location location, int radius)
+    {
+        return perception.nearest(species, location, radius);
+    }
+
+    /**
+     * Count the organisms of a species within a radius of a location,
+     * including the location itself.
+     * @param species The species to count.
+     * @param location Where to look from.
+     * @param radius How far to look.
+     * @return The number of organisms of the species.
+     */
+    public int countOrganisms(Species species, Location location, int radius)
+    {
+        return perception.countWithin(species, location, radius);
+    }
+
+    /**
+     * Find the free adjacent location that is nearest to a target.
+     * Of several equally near locations, a random one is chosen.
+     * @param location The location to move from.
+     * @param target The location to move towards.
+     * @return A free adjacent location, or null if there is none.
+     */
+    public Location freeAdjacentLocationTowards(Location location, Location target)
+    {
+        Location best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        // The adjacent locations are shuffled, so ties are broken at random.
+        for (Location next : adjacentLocations(location)) {
+            if (getObjectAt(next) == null) {
+                int rowDistance = next.getRow() - target.getRow();
+                int colDistance = next.getCol() - target.getCol();
+                int distance = rowDistance * rowDistance + colDistance * colDistance;
+                if (distance < bestDistance) {
+                    best = next;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Set how far predators can see when looking for prey.
+     * @param visionRadius The radius in locations; 0 or 1 if they only see their neighbours.
+     */
+    public void setVisionRadius(int visionRadius)
+    {
+        this.visionRadius = visionRadius;
+    }
+
+    /**
+     * Return how far predators can see when looking for prey.
+     * @return The radius in locations.
+     */
+    public int getVisionRadius()
+    {
+        return visionRadius;
     }
 
     /**
@@ -210,6 +826,43 @@ public class Field
         return locations;
     }
 
+    /**
+     * Return the random number generator used in this field.
+     * @return The random number generator.
+     */
+    public Random getRandom()
+    {
+        return rand;
+    }
+
+    /**
+     * Return the events of the simulation taking place in this field.
+     * @return The events of the simulation.
+     */
+    public SimulationEvents getEvents()
+    {
+        return events;
+    }
+
+    /**
+     * Return the timing wheel of the organisms in this field. Its step is
+     * the current step of the simulation.
+     * @return The timing wheel.
+     */
+    public TimingWheel getTimingWheel()
+    {
+        return timingWheel;
+    }
+
+    /**
+     * Hand out the id of an organism created in the field.
+     * @return An id no other organism of the field has had.
+     */
+    long newOrganismId()
+    {
+        return nextOrganismId++;
+    }
+
     /**
      * Return the depth of the field.
      * @return The depth of the field.
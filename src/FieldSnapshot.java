@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * A compact copy of the contents of a field at one step: one byte per
+ * location holding the code of the species there (0 for empty), in row
+ * major order. Snapshots are cheap to take and can safely be handed to
+ * other threads, while the field itself keeps changing.
+ *
+ * @author Nikolay Tsanov
+ */
+public class FieldSnapshot
+{
+    // The step the snapshot was taken at.
+    private int step;
+    // The size of the field.
+    private final int depth, width;
+    // The species code of every location, row by row.
+    private final byte[] cells;
+    // One bit per tile of ActiveTiles that may hold codes other than 0.
+    private final long[] filled;
+
+    /**
+     * Create an empty snapshot for a field of the given size.
+     *
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public FieldSnapshot(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        this.cells = new byte[depth * width];
+        int tiles = ((depth + ActiveTiles.TILE_SIZE - 1) / ActiveTiles.TILE_SIZE)
+                * ((width + ActiveTiles.TILE_SIZE - 1) / ActiveTiles.TILE_SIZE);
+        this.filled = new long[(tiles + 63) >> 6];
+    }
+
+    /**
+     * Take a snapshot of a field.
+     *
+     * @param step  The current step.
+     * @param field The field.
+     * @return A new snapshot.
+     */
+    public static FieldSnapshot capture(int step, Field field)
+    {
+        FieldSnapshot snapshot = new FieldSnapshot(field.getDepth(), field.getWidth());
+        snapshot.copyFrom(step, field);
+        return snapshot;
+    }
+
+    /**
+     * Overwrite this snapshot with the current contents of a field of the same size.
+     *
+     * @param step  The current step.
+     * @param field The field.
+     */
+    public void copyFrom(int step, Field field)
+    {
+        if (field.getDepth() != depth || field.getWidth() != width) {
+            throw new IllegalArgumentException("The field is " + field.getDepth() + "x" + field.getWidth()
+                    + ", the snapshot " + depth + "x" + width);
+        }
+        this.step = step;
+        ActiveTiles tiles = field.getActiveTiles();
+        // Empty the tiles filled before that are empty now; the occupied ones are overwritten.
+        for (int word = 0; word < filled.length; word++) {
+            for (long bits = filled[word]; bits != 0; bits &= bits - 1) {
+                int tile = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (!tiles.isOccupied(tile)) {
+                    for (int row = tiles.getTop(tile); row < tiles.getBottom(tile); row++) {
+                        Arrays.fill(cells, row * width + tiles.getLeft(tile), row * width + tiles.getRight(tile), (byte) 0);
+                    }
+                }
+            }
+        }
+        // Only the occupied tiles have anything to copy.
+        Arrays.fill(filled, 0);
+        for (int tile = tiles.nextOccupied(0); tile >= 0; tile = tiles.nextOccupied(tile + 1)) {
+            for (int row = tiles.getTop(tile); row < tiles.getBottom(tile); row++) {
+                int index = row * width + tiles.getLeft(tile);
+                for (int col = tiles.getLeft(tile); col < tiles.getRight(tile); col++) {
+                    cells[index++] = Species.codeOf(field.getObjectAt(row, col));
+                }
+            }
+            filled[tile >> 6] |= 1L << tile;
+        }
+    }
+
+    /**
+     * Overwrite this snapshot with another snapshot of the same size.
+     *
+     * @param other The snapshot to copy.
+     */
+    public void copyFrom(FieldSnapshot other)
+    {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("The snapshots have different sizes.");
+        }
+        this.step = other.step;
+        System.arraycopy(other.cells, 0, cells, 0, cells.length);
+        System.arraycopy(other.filled, 0, filled, 0, filled.length);
+    }
+
+    /**
+     * @return The step the snapshot was taken at.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Return the species code at a location.
+     *
+     * @param row The row.
+     * @param col The column.
+     * @return The code of the species there, or 0 if the location was empty.
+     */
+    public int getCode(int row, int col)
+    {
+        return cells[row * width + col];
+    }
+
+    /**
+     * Return the species codes of all locations. The array is not a copy.
+     *
+     * @return The codes, row by row.
+     */
+    public byte[] getCells()
+    {
+        return cells;
+    }
+}
@@ -65,6 +65,16 @@ public class FieldStats
      * @param animalClass The class of animal to increment.
      */
     public void incrementCount(Class animalClass)
+    {
+        addCount(animalClass, 1);
+    }
+
+    /**
+     * Add to the count for one class of animal.
+     * @param animalClass The class of animal to count.
+     * @param amount The number of animals to add.
+     */
+    public void addCount(Class<?> animalClass, int amount)
     {
         Counter count = counters.get(animalClass);
         if(count == null) {
@@ -73,7 +83,7 @@ public class FieldStats
             count = new Counter(animalClass.getName());
             counters.put(animalClass, count);
         }
-        count.increment();
+        count.increment(amount);
     }
 
     /**
@@ -84,6 +94,27 @@ public class FieldStats
         countsValid = true;
     }
 
+    /**
+     * Count the animals in a snapshot of a field. Afterwards the counts
+     * are valid, whatever field is passed to the other methods.
+     * @param snapshot The snapshot to generate the stats for.
+     */
+    public void countSnapshot(FieldSnapshot snapshot)
+    {
+        reset();
+        int[] codeCounts = new int[Species.values().length + 1];
+        for(byte code : snapshot.getCells()) {
+            codeCounts[code]++;
+        }
+        for(Species species : Species.values()) {
+            int count = codeCounts[species.getCode()];
+            if(count > 0) {
+                addCount(species.getOrganismClass(), count);
+            }
+        }
+        countsValid = true;
+    }
+
     /**
      * Determine whether the simulation is still viable.
      * I.e., should it continue to run.
@@ -115,11 +146,15 @@ public class FieldStats
     private void generateCounts(Field field)
     {
         reset();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Object animal = field.getObjectAt(row, col);
-                if(animal != null) {
-                    incrementCount(animal.getClass());
+        // Empty tiles have nothing to count.
+        ActiveTiles tiles = field.getActiveTiles();
+        for(int tile = tiles.nextOccupied(0); tile >= 0; tile = tiles.nextOccupied(tile + 1)) {
+            for(int row = tiles.getTop(tile); row < tiles.getBottom(tile); row++) {
+                for(int col = tiles.getLeft(tile); col < tiles.getRight(tile); col++) {
+                    Object animal = field.getObjectAt(row, col);
+                    if(animal != null) {
+                        incrementCount(animal.getClass());
+                    }
                 }
             }
         }
@@ -0,0 +1,262 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes the WorldFingerprint of every step of a simulation to a file, and
+ * compares two such files to find where two runs went apart.
+ *
+ * A trace starts with a header (magic number, version, depth, width,
+ * region size and number of regions), followed by one record per step:
+ * the step, the world hash and the hash of every region.
+ *
+ * To compare two engines, record a trace of each with the same seed and
+ * run "java FingerprintTrace first.trace second.trace", which reports the
+ * first step at which the traces differ and the regions that differ then.
+ *
+ * @author Nikolay Tsanov
+ */
+public class FingerprintTrace implements StepListener, Closeable
+{
+    // Identifies trace files: "FNRF".
+    private static final int MAGIC = 0x464E5246;
+    // The version of the file format.
+    private static final int VERSION = 1;
+    // The most differing regions listed by a comparison.
+    private static final int MAX_REPORTED_REGIONS = 20;
+
+    // The file being written.
+    private final DataOutputStream out;
+    // The first error that happened while writing, if any.
+    private IOException failure;
+    // Whether the header has been written.
+    private boolean started;
+
+    /**
+     * Create a trace file. The fingerprint of the simulation must be enabled.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file cannot be created.
+     */
+    public FingerprintTrace(File file) throws IOException
+    {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /**
+     * Write the fingerprint of a step.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public void stepCompleted(int step, Field field)
+    {
+        WorldFingerprint fingerprint = field.getFingerprint();
+        if (fingerprint == null) {
+            throw new IllegalStateException("The fingerprint of the field is not enabled.");
+        }
+        if (failure != null) {
+            return;
+        }
+        try {
+            if (!started) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(fingerprint.getDepth());
+                out.writeInt(fingerprint.getWidth());
+                out.writeInt(fingerprint.getRegionSize());
+                out.writeInt(fingerprint.getRegionCount());
+                started = true;
+            }
+            out.writeInt(step);
+            out.writeLong(fingerprint.getWorldHash());
+            for (int region = 0; region < fingerprint.getRegionCount(); region++) {
+                out.writeLong(fingerprint.getRegionHash(region));
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Finish the file.
+     *
+     * @throws IOException if writing any of the steps failed.
+     */
+    public void close() throws IOException
+    {
+        out.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Compare two traces, step by step.
+     *
+     * @param first  The first trace.
+     * @param second The second trace.
+     * @return A description of the first difference, or null if the traces are the same.
+     * @throws IOException if a trace cannot be read.
+     */
+    public static String compare(File first, File second) throws IOException
+    {
+        try (DataInputStream a = open(first); DataInputStream b = open(second)) {
+            int[] headerA = readHeader(a, first);
+            int[] headerB = readHeader(b, second);
+            for (int i = 0; i < headerA.length; i++) {
+                if (headerA[i] != headerB[i]) {
+                    return "The traces are of different fields or regions: "
+                            + describeHeader(headerA) + " and " + describeHeader(headerB);
+                }
+            }
+            Record recordA = new Record(headerA[3]);
+            Record recordB = new Record(headerB[3]);
+            while (true) {
+                boolean moreA = recordA.read(a);
+                boolean moreB = recordB.read(b);
+                if (!moreA || !moreB) {
+                    if (moreA == moreB) {
+                        return null;
+                    }
+                    Record longer = moreA ? recordA : recordB;
+                    return (moreA ? second : first) + " ends before step " + longer.step + ".";
+                }
+                if (recordA.step != recordB.step) {
+                    return "The traces are at different steps: " + recordA.step + " and " + recordB.step;
+                }
+                if (recordA.world != recordB.world) {
+                    return describeDifference(recordA, recordB, headerA);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare two trace files named on the command line.
+     *
+     * @param args The two trace files.
+     * @throws IOException if a trace cannot be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2) {
+            System.out.println("Usage: FingerprintTrace first.trace second.trace");
+            return;
+        }
+        String difference = compare(new File(args[0]), new File(args[1]));
+        System.out.println(difference == null ? "The traces are the same." : difference);
+        if (difference != null) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Open a trace for reading.
+     */
+    private static DataInputStream open(File file) throws IOException
+    {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    /**
+     * Read the header of a trace.
+     *
+     * @return The depth, width, region size and number of regions.
+     */
+    private static int[] readHeader(DataInputStream in, File file) throws IOException
+    {
+        if (in.readInt() != MAGIC) {
+            throw new IOException(file + " is not a fingerprint trace.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException(file + " has version " + version + ", expected " + VERSION + ".");
+        }
+        return new int[] {in.readInt(), in.readInt(), in.readInt(), in.readInt()};
+    }
+
+    /**
+     * @return The header of a trace in words.
+     */
+    private static String describeHeader(int[] header)
+    {
+        return header[0] + "x" + header[1] + " in regions of " + header[2];
+    }
+
+    /**
+     * List the regions that differ between two records of the same step.
+     *
+     * @param header The header of the traces.
+     */
+    private static String describeDifference(Record a, Record b, int[] header)
+    {
+        int depth = header[0];
+        int width = header[1];
+        int regionSize = header[2];
+        int regionCols = (width + regionSize - 1) / regionSize;
+        StringBuilder text = new StringBuilder("The traces differ first at step " + a.step + ", in region");
+        int differing = 0;
+        for (int region = 0; region < a.regions.length; region++) {
+            if (a.regions[region] == b.regions[region]) {
+                continue;
+            }
+            differing++;
+            if (differing <= MAX_REPORTED_REGIONS) {
+                int top = (region / regionCols) * regionSize;
+                int left = (region % regionCols) * regionSize;
+                text.append(differing == 1 ? "s:" : ",");
+                text.append(" rows ").append(top).append('-').append(Math.min(depth, top + regionSize) - 1);
+                text.append(" cols ").append(left).append('-').append(Math.min(width, left + regionSize) - 1);
+            }
+        }
+        if (differing > MAX_REPORTED_REGIONS) {
+            text.append(" and ").append(differing - MAX_REPORTED_REGIONS).append(" more");
+        }
+        return text.append(" (").append(differing).append(" of ").append(a.regions.length).append(" regions).").toString();
+    }
+
+    /**
+     * The fingerprint of one step, as read from a trace.
+     */
+    private static class Record
+    {
+        // The step.
+        private int step;
+        // The world hash.
+        private long world;
+        // The hash of every region.
+        private final long[] regions;
+
+        private Record(int regionCount)
+        {
+            regions = new long[regionCount];
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return false if the trace has ended.
+         */
+        private boolean read(DataInputStream in) throws IOException
+        {
+            try {
+                step = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            world = in.readLong();
+            for (int region = 0; region < regions.length; region++) {
+                regions[region] = in.readLong();
+            }
+            return true;
+        }
+    }
+}
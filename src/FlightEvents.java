@@ -0,0 +1,113 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder event types emitted by the simulation.
+ * They show up under "Foxes and Rabbits" in JDK Mission Control, next to
+ * the GC and JIT events of the same recording.
+ *
+ * Births and deaths are not recorded one organism at a time; they are
+ * counted during a step and committed as one event per species (and
+ * cause) when the step ends, which keeps them cheap for large populations.
+ *
+ * @author Nikolay Tsanov
+ */
+public class FlightEvents
+{
+    /**
+     * A single step of the simulation. Its duration is the time of the step.
+     */
+    @Name("fnr.Step")
+    @Label("Simulation Step")
+    @Category("Foxes and Rabbits")
+    @StackTrace(false)
+    public static class StepEvent extends Event
+    {
+        @Label("Step")
+        int step;
+
+        @Label("Organisms")
+        @Description("How many organisms acted in the step")
+        int organisms;
+
+        @Label("Births")
+        int births;
+
+        @Label("Deaths")
+        int deaths;
+
+        @Label("Battles")
+        int battles;
+    }
+
+    /**
+     * The births of one species during a step.
+     */
+    @Name("fnr.Births")
+    @Label("Births")
+    @Category("Foxes and Rabbits")
+    @StackTrace(false)
+    public static class BirthEvent extends Event
+    {
+        @Label("Step")
+        int step;
+
+        @Label("Species")
+        String species;
+
+        @Label("Count")
+        int count;
+    }
+
+    /**
+     * The deaths of one species for one cause during a step.
+     */
+    @Name("fnr.Deaths")
+    @Label("Deaths")
+    @Category("Foxes and Rabbits")
+    @StackTrace(false)
+    public static class DeathEvent extends Event
+    {
+        @Label("Step")
+        int step;
+
+        @Label("Species")
+        String species;
+
+        @Label("Cause")
+        String cause;
+
+        @Label("Count")
+        int count;
+    }
+
+    /**
+     * A fight between a hunter and a single wolf or a pack of wolves.
+     */
+    @Name("fnr.Battle")
+    @Label("Battle")
+    @Category("Foxes and Rabbits")
+    @StackTrace(false)
+    public static class BattleEvent extends Event
+    {
+        @Label("Step")
+        int step;
+
+        @Label("Hunter Strength")
+        int hunterStrength;
+
+        @Label("Wolves")
+        int wolves;
+
+        @Label("Wolf Strength")
+        @Description("The strength of the wolf, or the combined strength of the pack")
+        int wolfStrength;
+
+        @Label("Hunter Won")
+        boolean hunterWon;
+    }
+}
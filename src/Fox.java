@@ -1,6 +1,5 @@
 import java.util.List;
-import java.util.Iterator;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A simple model of a fox.
@@ -9,29 +8,21 @@ import java.util.Random;
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class Fox extends Organism
+public class Fox extends Organism implements StepPlanner
 {
     // Characteristics shared by all foxes (class variables).
 
     // The age at which a fox can start to breed.
-    private static final int BREEDING_AGE = 15;
+    static final int BREEDING_AGE = FoxKernel.BREEDING_AGE;
     // The age to which a fox can live.
-    private static final int MAX_AGE = 150;
+    static final int MAX_AGE = FoxKernel.MAX_AGE;
     // The likelihood of a fox breeding.
-    private static final double BREEDING_PROBABILITY = 0.08;
+    static final double BREEDING_PROBABILITY = FoxKernel.BREEDING_PROBABILITY;
     // The maximum number of births.
-    private static final int MAX_LITTER_SIZE = 2;
+    static final int MAX_LITTER_SIZE = FoxKernel.MAX_LITTER_SIZE;
     // The food value of a single rabbit. In effect, this is the
     // number of steps a fox can go before it has to eat again.
-    private static final int RABBIT_FOOD_VALUE = 9;
-
-    // Individual characteristics (instance fields).
-
-    // The fox's food level, which is increased by eating rabbits.
-    private int foodLevel;
-
-    // A shared random number generator to control breeding.
-    private static final Random rand = Randomizer.getRandom();
+    static final int RABBIT_FOOD_VALUE = FoxKernel.RABBIT_FOOD_VALUE;
 
     /**
      * Create a fox. A fox can be created as a new born (age zero
@@ -43,13 +34,8 @@ public class Fox extends Organism
      */
     public Fox(boolean randomAge, Field field, Location location)
     {
-        super(field, location);
-        if (randomAge) {
-            super.setAge(rand.nextInt(MAX_AGE));
-            foodLevel = rand.nextInt(RABBIT_FOOD_VALUE);
-        } else {
-            foodLevel = RABBIT_FOOD_VALUE;
-        }
+        super(field, location, randomAge ? field.getRandom().nextInt(MAX_AGE) : 0,
+                randomAge ? field.getRandom().nextInt(RABBIT_FOOD_VALUE) : RABBIT_FOOD_VALUE);
     }
 
     /**
@@ -61,22 +47,21 @@ public class Fox extends Organism
      */
     public void act(List<Organism> newFoxes)
     {
-        incrementAge();
-        decrementFoodLevel();
+        // Death of old age or hunger comes from the timing wheel of the field.
         if (isAlive()) {
             giveBirth(newFoxes);
             // Move towards a source of food if found.
             Location newLocation = findFood();
             if (newLocation == null) {
-                // No food found - try to move to a free location.
-                newLocation = getField().freeAdjacentLocation(getLocation());
+                // No food found - try to move to a free location, towards rabbits in sight.
+                newLocation = freeLocationTowards(Species.RABBIT);
             }
             // See if it was possible to move.
             if (newLocation != null) {
                 setLocation(newLocation);
             } else {
                 // Overcrowding.
-                setDead();
+                setDead(DeathCause.OVERCROWDING);
             }
         }
     }
@@ -89,69 +74,42 @@ public class Fox extends Organism
      */
     private Location findFood()
     {
-        Field field = getField();
-        List<Location> adjacent = field.adjacentLocations(getLocation());
-        Iterator<Location> it = adjacent.iterator();
-        while (it.hasNext()) {
-            Location where = it.next();
-            Object animal = field.getObjectAt(where);
-            if (animal instanceof Rabbit) {
-                Rabbit rabbit = (Rabbit) animal;
-                if (rabbit.isAlive()) {
-                    rabbit.setDead();
-                    foodLevel = RABBIT_FOOD_VALUE;
-                    // Remove the dead rabbit from the field.
-                    return where;
-                }
-            }
-        }
-        return null;
+        return FoxKernel.findFood(this);
     }
 
     /**
-     * Check whether or not this fox is to give birth at this step.
-     * New births will be made into free adjacent locations.
+     * Plan the step of the fox for a ParallelStepEngine.
      *
-     * @param newFoxes A list to return newly born foxes.
+     * @param engine The engine.
+     * @param i      The place of the fox in the list of the step.
+     * @param rand   The random number generator of the fox in this step.
      */
-    private void giveBirth(List<Organism> newFoxes)
+    public void planStep(ParallelStepEngine engine, int i, SplittableRandom rand)
     {
-        // New foxes are born into adjacent locations.
-        // Get a list of adjacent free locations.
-        Field field = getField();
-        List<Location> free = field.getFreeAdjacentLocations(getLocation());
-        int births = breed();
-        for (int b = 0; b < births && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            Fox young = new Fox(false, field, loc);
-            newFoxes.add(young);
-        }
+        FoxKernel.plan(this, engine, i, rand);
     }
 
     /**
-     * Generate a number representing the number of births,
-     * if it can breed.
+     * Carry out the step planned by planStep.
      *
-     * @return The number of births (may be zero).
+     * @param engine   The engine that planned the step.
+     * @param i        The place of the fox in the list of the step.
+     * @param newFoxes A list to return newly born foxes.
      */
-    private int breed()
+    public void applyStep(ParallelStepEngine engine, int i, List<Organism> newFoxes)
     {
-        int births = 0;
-        if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
-        }
-        return births;
+        FoxKernel.apply(this, engine, i, newFoxes);
     }
 
     /**
-     * Make this fox more hungry. This could result in the fox's death.
+     * Check whether or not this fox is to give birth at this step.
+     * New births will be made into free adjacent locations.
+     *
+     * @param newFoxes A list to return newly born foxes.
      */
-    private void decrementFoodLevel()
+    private void giveBirth(List<Organism> newFoxes)
     {
-        foodLevel--;
-        if (foodLevel <= 0) {
-            setDead();
-        }
+        FoxKernel.giveBirth(this, newFoxes);
     }
 
     /**
@@ -164,6 +122,16 @@ public class Fox extends Organism
         return BREEDING_AGE;
     }
 
+    /**
+     * Foxes starve when they do not eat.
+     *
+     * @return true
+     */
+    protected boolean needsFood()
+    {
+        return true;
+    }
+
     /**
      * Return the maximum allowed age for a wolf.
      *
@@ -173,4 +141,14 @@ public class Fox extends Organism
     {
         return MAX_AGE;
     }
+
+    /**
+     * Return the species of the fox.
+     *
+     * @return Species.FOX
+     */
+    protected Species getSpecies()
+    {
+        return Species.FOX;
+    }
 }
@@ -0,0 +1,175 @@
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * The rules of the fox, with the numbers of SpeciesDefinition.FOX
+ * built in.
+ *
+ * Generated by SpeciesKernelGenerator from SpeciesDefinition.FOX; do not
+ * edit, change the definition and run the generator again.
+ *
+ * @author Nikolay Tsanov
+ */
+final class FoxKernel
+{
+    // The age at which a fox can start to breed.
+    static final int BREEDING_AGE = 15;
+    // The age to which a fox can live.
+    static final int MAX_AGE = 150;
+    // The likelihood of a fox breeding.
+    static final double BREEDING_PROBABILITY = 0.08;
+    // The maximum number of births.
+    static final int MAX_LITTER_SIZE = 2;
+    // The most food a fox can hold.
+    static final int MAX_FOOD_LEVEL = 9;
+    // The food a rabbit gives.
+    static final int RABBIT_FOOD_VALUE = 9;
+
+    private FoxKernel()
+    {
+    }
+
+    /**
+     * Return the number of young a fox has at this step.
+     *
+     * @param rand The random number generator of the simulation.
+     * @param age  The age of the fox.
+     * @return The number of births (may be zero).
+     */
+    static int litterSize(Random rand, int age)
+    {
+        if (age >= BREEDING_AGE && rand.nextDouble() <= BREEDING_PROBABILITY) {
+            return rand.nextInt(MAX_LITTER_SIZE) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Return the number of young a fox has at this step.
+     *
+     * @param rand The random number generator of the fox in this step.
+     * @param age  The age of the fox.
+     * @return The number of births (may be zero).
+     */
+    static int litterSize(SplittableRandom rand, int age)
+    {
+        if (age >= BREEDING_AGE && rand.nextDouble() <= BREEDING_PROBABILITY) {
+            return rand.nextInt(MAX_LITTER_SIZE) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Let a fox give birth at this step, if it does. New births
+     * are made into free adjacent locations.
+     *
+     * @param parent   The fox.
+     * @param newborns A list to return newly born organisms.
+     */
+    static void giveBirth(Fox parent, List<Organism> newborns)
+    {
+        Field field = parent.getField();
+        Location location = parent.getLocation();
+        List<Location> free = field.getFreeAdjacentLocations(location);
+        // Only as many can be born as there are free locations.
+        int born = Math.min(litterSize(parent.getRandom(), parent.getAge()), free.size());
+        for (int b = 0; b < born; b++) {
+            newborns.add(new Fox(false, field, free.get(b)));
+        }
+        if (born > 0) {
+            field.getEvents().born(Species.FOX, born, location);
+        }
+    }
+
+    /**
+     * Let a fox look for prey in the adjacent locations, in the
+     * order of its diet, and eat the first live one found.
+     *
+     * @param predator The fox.
+     * @return Where food was found, or null if it wasn't.
+     */
+    static Location findFood(Fox predator)
+    {
+        Field field = predator.getField();
+        Location where;
+        Organism prey;
+        where = field.randomAdjacentLocationOf(Species.RABBIT, predator.getLocation());
+        prey = where == null ? null : (Organism) field.getObjectAt(where);
+        if (prey != null && prey.isAlive()) {
+            predator.kill(prey);
+            eat(predator, 0);
+            return where;
+        }
+        return null;
+    }
+
+    /**
+     * Let a fox have the food a prey of its diet gives.
+     *
+     * @param predator The fox.
+     * @param meal     The place of the prey in the diet.
+     */
+    static void eat(Fox predator, int meal)
+    {
+        switch (meal) {
+            case 0:
+                predator.setFoodLevel(Math.min(predator.getFoodLevel() + RABBIT_FOOD_VALUE, MAX_FOOD_LEVEL));
+                break;
+            default:
+                throw new IllegalArgumentException("A fox has no meal " + meal + ".");
+        }
+    }
+
+    /**
+     * Plan the step of a fox for a ParallelStepEngine, as act takes it:
+     * claim the locations of its young, then that of a prey of its diet to
+     * eat and move to, or else a free location to move to, towards the
+     * first prey of its diet if one is in sight.
+     *
+     * @param organism The fox.
+     * @param engine   The engine.
+     * @param i        The place of the fox in the list of the step.
+     * @param rand     The random number generator of the fox in this step.
+     */
+    static void plan(Fox organism, ParallelStepEngine engine, int i, SplittableRandom rand)
+    {
+        engine.claimBirths(i, litterSize(rand, organism.getAge()), rand);
+        if (engine.claimPrey(i, 0, Species.RABBIT, rand)) {
+            return;
+        }
+        engine.claimDestination(i, Species.RABBIT, rand);
+    }
+
+    /**
+     * Carry out the step of a fox planned by plan.
+     *
+     * @param organism The fox.
+     * @param engine   The engine that planned the step.
+     * @param i        The place of the fox in the list of the step.
+     * @param newborns A list to return newly born organisms.
+     */
+    static void apply(Fox organism, ParallelStepEngine engine, int i, List<Organism> newborns)
+    {
+        Field field = organism.getField();
+        int born = engine.getBirthCount(i);
+        for (int b = 0; b < born; b++) {
+            newborns.add(new Fox(false, field, engine.getBirth(i, b)));
+        }
+        if (born > 0) {
+            field.getEvents().born(Species.FOX, born, organism.getLocation());
+        }
+        Location where = engine.getPrey(i);
+        if (where != null) {
+            organism.kill((Organism) field.getObjectAt(where));
+            eat(organism, engine.getMeal(i));
+        }
+        Location destination = engine.getDestination(i);
+        if (destination != null) {
+            organism.setLocation(destination);
+        } else {
+            // Overcrowding.
+            organism.setDead(DeathCause.OVERCROWDING);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders the steps of a simulation into image frames without a window,
+ * either as a sequence of PNG files or as a raw RGB video stream that can
+ * be piped into an encoder, e.g.
+ * ffmpeg -f rawvideo -pix_fmt rgb24 -s WIDTHxHEIGHT -i - run.mp4
+ * The species are drawn in their Species colors, as in the SimulatorView.
+ *
+ * The simulation thread only copies the field; the frames are rendered
+ * and encoded by a pool of worker threads. At most a fixed number of
+ * frames can be waiting, after which the simulation waits for the workers.
+ * The exporter can also be a stage of a StepPipeline, in which case the
+ * pipeline's snapshots are copied instead of the field.
+ *
+ * @author Nikolay Tsanov
+ */
+public class FrameExporter implements StepListener, PipelineStage
+{
+    // Color used for empty locations.
+    private static final Color EMPTY_COLOR = Color.white;
+
+    // The pixels drawn for each location, in both directions.
+    private final int scale;
+    // Only every this many steps is a frame exported.
+    private final int frameInterval;
+    // The directory the PNG files are written to, or null for a raw stream.
+    private final File directory;
+    // The raw stream the frames are written to, or null for PNG files.
+    private final OutputStream stream;
+    // Renders and encodes the frames.
+    private final ExecutorService workers;
+    // Bounds the number of frames that are waiting or being rendered.
+    private final Semaphore pending;
+    // The frames of a raw stream, in the order they must be written.
+    private final BlockingQueue<Future<byte[]>> ordered;
+    // Writes the frames of a raw stream, in order.
+    private final Thread streamWriter;
+    // The RGB value of every species code, with empty at 0.
+    private final int[] palette;
+    // The first error that happened while exporting, if any.
+    private volatile IOException failure;
+    // How many frames were exported.
+    private int frames;
+
+    /**
+     * Create an exporter that writes one PNG file per frame,
+     * named frame-000000.png, frame-000001.png and so on.
+     *
+     * @param directory     The directory to write the files to; created if missing.
+     * @param scale         The pixels drawn for each location.
+     * @param frameInterval Export a frame every this many steps.
+     * @param threads       The number of worker threads.
+     * @param queueSize     The number of frames that may wait for a worker.
+     * @throws IOException if the directory cannot be created.
+     */
+    public FrameExporter(File directory, int scale, int frameInterval, int threads, int queueSize) throws IOException
+    {
+        this(directory, null, scale, frameInterval, threads, queueSize);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+    }
+
+    /**
+     * Create an exporter that writes all frames to a raw stream of 8 bit
+     * RGB pixels, row by row, one frame after the other.
+     *
+     * @param stream        The stream to write to; closed by close.
+     * @param scale         The pixels drawn for each location.
+     * @param frameInterval Export a frame every this many steps.
+     * @param threads       The number of worker threads.
+     * @param queueSize     The number of frames that may wait for a worker.
+     */
+    public FrameExporter(OutputStream stream, int scale, int frameInterval, int threads, int queueSize)
+    {
+        this(null, stream, scale, frameInterval, threads, queueSize);
+    }
+
+    /**
+     * Create an exporter writing to a directory or a stream.
+     */
+    private FrameExporter(File directory, OutputStream stream, int scale, int frameInterval, int threads, int queueSize)
+    {
+        if (scale <= 0 || frameInterval <= 0 || threads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("The scale, interval, threads and queue size must be greater than zero.");
+        }
+        this.directory = directory;
+        this.stream = stream;
+        this.scale = scale;
+        this.frameInterval = frameInterval;
+        this.workers = Executors.newFixedThreadPool(threads, (runnable) -> {
+            Thread thread = new Thread(runnable, "frame-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pending = new Semaphore(threads + queueSize);
+
+        palette = new int[Species.values().length + 1];
+        palette[0] = EMPTY_COLOR.getRGB();
+        for (Species species : Species.values()) {
+            palette[species.getCode()] = species.getColor().getRGB();
+        }
+
+        if (stream != null) {
+            ordered = new ArrayBlockingQueue<Future<byte[]>>(threads + queueSize);
+            streamWriter = new Thread(this::writeStream, "frame-exporter-writer");
+            streamWriter.setDaemon(true);
+            streamWriter.start();
+        } else {
+            ordered = null;
+            streamWriter = null;
+        }
+    }
+
+    /**
+     * Queue a frame of the field, if the step is one that is exported.
+     * Waits if too many frames are already waiting.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public void stepCompleted(int step, Field field)
+    {
+        if (step % frameInterval != 0 || failure != null) {
+            return;
+        }
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        submit(FieldSnapshot.capture(step, field));
+    }
+
+    /**
+     * Queue a frame of a pipeline snapshot, if its step is one that is
+     * exported. Waits if too many frames are already waiting.
+     *
+     * @param snapshot The field after a step.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void process(FieldSnapshot snapshot) throws InterruptedException
+    {
+        if (snapshot.getStep() % frameInterval != 0 || failure != null) {
+            return;
+        }
+        pending.acquire();
+        FieldSnapshot copy = new FieldSnapshot(snapshot.getDepth(), snapshot.getWidth());
+        copy.copyFrom(snapshot);
+        submit(copy);
+    }
+
+    /**
+     * Hand a frame to the workers. A permit must have been acquired for it.
+     *
+     * @param snapshot The field to render; not changed afterwards.
+     */
+    private void submit(FieldSnapshot snapshot)
+    {
+        int frame = frames++;
+        if (stream != null) {
+            Future<byte[]> pixels = workers.submit(() -> toRgbBytes(render(snapshot)));
+            // There are as many places in the queue as permits, so this only
+            // fails once the writer has given up after an error.
+            ordered.offer(pixels);
+        } else {
+            workers.submit(() -> {
+                try {
+                    File file = new File(directory, String.format("frame-%06d.png", frame));
+                    ImageIO.write(render(snapshot), "png", file);
+                } catch (IOException e) {
+                    fail(e);
+                } finally {
+                    pending.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return How many frames were queued for export.
+     */
+    public int getFrameCount()
+    {
+        return frames;
+    }
+
+    /**
+     * Wait until all queued frames are written, then stop the workers
+     * (and close the stream, if writing to one).
+     *
+     * @throws IOException if writing any of the frames failed.
+     */
+    public void close() throws IOException
+    {
+        workers.shutdown();
+        try {
+            if (streamWriter != null) {
+                // An empty frame tells the writer there is nothing more to come.
+                Future<byte[]> end = CompletableFuture.completedFuture(new byte[0]);
+                while (streamWriter.isAlive() && !ordered.offer(end, 100, TimeUnit.MILLISECONDS)) {
+                    // The writer is still busy with earlier frames.
+                }
+                streamWriter.join();
+            }
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting for the remaining frames.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Draw a snapshot of the field.
+     *
+     * @param snapshot The field.
+     * @return The image.
+     */
+    private BufferedImage render(FieldSnapshot snapshot)
+    {
+        int imageWidth = snapshot.getWidth() * scale;
+        BufferedImage image = new BufferedImage(imageWidth, snapshot.getDepth() * scale, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        byte[] cells = snapshot.getCells();
+        int index = 0;
+        for (int row = 0; row < snapshot.getDepth(); row++) {
+            int rowStart = row * scale * imageWidth;
+            for (int col = 0; col < snapshot.getWidth(); col++) {
+                int rgb = palette[cells[index++]];
+                int start = rowStart + col * scale;
+                for (int x = 0; x < scale; x++) {
+                    pixels[start + x] = rgb;
+                }
+            }
+            // The other pixel rows of the location are copies of the first.
+            for (int y = 1; y < scale; y++) {
+                System.arraycopy(pixels, rowStart, pixels, rowStart + y * imageWidth, imageWidth);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Turn an image into 8 bit RGB bytes.
+     */
+    private static byte[] toRgbBytes(BufferedImage image)
+    {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        byte[] rgb = new byte[pixels.length * 3];
+        for (int i = 0, j = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            rgb[j++] = (byte) (pixel >> 16);
+            rgb[j++] = (byte) (pixel >> 8);
+            rgb[j++] = (byte) pixel;
+        }
+        return rgb;
+    }
+
+    /**
+     * Write the frames of a raw stream in order, until an empty frame arrives.
+     */
+    private void writeStream()
+    {
+        try (OutputStream out = new BufferedOutputStream(stream, 1 << 16)) {
+            while (true) {
+                byte[] frame = ordered.take().get();
+                if (frame.length == 0) {
+                    break;
+                }
+                out.write(frame);
+                pending.release();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (ExecutionException e) {
+            fail(new IOException("Rendering a frame failed", e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            // Let the simulation move on; the error is reported by close.
+            pending.release(Integer.MAX_VALUE / 2);
+        }
+    }
+
+    /**
+     * Remember the first error.
+     */
+    private synchronized void fail(IOException e)
+    {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Run a simulation without a window and export its frames as PNG files.
+     * Arguments: depth width steps seed directory [scale] [interval].
+     *
+     * @param args The command line arguments.
+     * @throws IOException if the frames cannot be written.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 5) {
+            System.out.println("Usage: FrameExporter depth width steps seed directory [scale] [interval]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        int width = Integer.parseInt(args[1]);
+        int steps = Integer.parseInt(args[2]);
+        long seed = Long.parseLong(args[3]);
+        int scale = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+        int interval = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        Simulator simulator = new Simulator(depth, width, seed);
+        FrameExporter exporter = new FrameExporter(new File(args[4]), scale, interval, threads, threads * 2);
+        simulator.addStepListener(exporter);
+        exporter.stepCompleted(simulator.getStep(), simulator.getField());
+        simulator.simulate(steps);
+        exporter.close();
+        System.out.println("Exported " + exporter.getFrameCount() + " frames to " + args[4]);
+    }
+}
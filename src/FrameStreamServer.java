@@ -0,0 +1,560 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small embedded server that streams a running simulation to remote
+ * viewers over WebSocket. Opening the server's address in a browser shows
+ * a viewer page; other programs can connect a WebSocket to /stream.
+ *
+ * Every message is a binary frame that starts with a 13 byte header:
+ * the frame type (1 byte, 0 = keyframe, 1 = delta), the step, the depth
+ * and the width of the field (each a big endian int). A keyframe then
+ * holds the whole field run-length encoded, as pairs of (run length as a
+ * varint, species code as a byte), row by row. A delta holds the number
+ * of changed locations as a varint, followed by one (gap as a varint,
+ * species code as a byte) pair per changed location, where the gap is the
+ * number of unchanged locations skipped since the previous change.
+ * Species codes are those of Species.getCode, with 0 for empty.
+ *
+ * The simulation thread never waits for a viewer: every viewer has a
+ * small queue of frames, and when it is full the frame is dropped and the
+ * viewer gets a keyframe as soon as there is room again.
+ *
+ * The server listens on the loopback address unless it is given another
+ * one, and has no authentication. Every connection has a thread of its
+ * own, so the number of connections at once is bounded, and a connection
+ * must send its request within HANDSHAKE_MILLIS, in lines of at most
+ * MAX_LINE_LENGTH characters and at most MAX_HEADERS headers, or it is
+ * closed.
+ *
+ * @author Nikolay Tsanov
+ */
+public class FrameStreamServer implements StepListener
+{
+    // The frame types.
+    private static final byte KEYFRAME = 0;
+    private static final byte DELTA = 1;
+    // How many frames may wait to be sent to a single viewer.
+    private static final int CLIENT_QUEUE_SIZE = 4;
+    // Deltas with more changed locations than 1 in this many are sent as keyframes.
+    private static final int DELTA_LIMIT_DIVISOR = 2;
+    // The magic value used to accept a WebSocket connection (RFC 6455).
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    // The most connections (viewers and requests being read) at once.
+    public static final int MAX_CONNECTIONS = 16;
+    // How long a connection may take to send its request, in milliseconds.
+    private static final int HANDSHAKE_MILLIS = 5000;
+    // The longest line of a request, and the most headers it may have.
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_HEADERS = 100;
+
+    // Accepts connections from viewers.
+    private final ServerSocket serverSocket;
+    // The connected viewers.
+    private final List<Client> clients;
+    // One permit per connection that may still be open.
+    private final Semaphore connections;
+    // The field as it was sent in the previous frame, or null if there was none.
+    private FieldSnapshot previous;
+    // The field as it is now.
+    private FieldSnapshot current;
+    // Used to encode the frames.
+    private final ByteArrayOutputStream buffer;
+    // Whether the server has been closed.
+    private volatile boolean closed;
+
+    /**
+     * Start a server listening on the loopback address only.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException if the port cannot be opened.
+     */
+    public FrameStreamServer(int port) throws IOException
+    {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Start a server.
+     *
+     * @param address The address to listen on, or null for all interfaces; anyone who can
+     *                reach it can watch the simulation.
+     * @param port    The port to listen on, or 0 for any free port.
+     * @throws IOException if the port cannot be opened.
+     */
+    public FrameStreamServer(InetAddress address, int port) throws IOException
+    {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(address, port));
+        clients = new CopyOnWriteArrayList<Client>();
+        connections = new Semaphore(MAX_CONNECTIONS);
+        buffer = new ByteArrayOutputStream();
+
+        Thread acceptor = new Thread(this::acceptClients, "frame-stream-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return The address the server is listening on.
+     */
+    public InetAddress getAddress()
+    {
+        return serverSocket.getInetAddress();
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The number of connected viewers.
+     */
+    public int getClientCount()
+    {
+        return clients.size();
+    }
+
+    /**
+     * Stop the server and disconnect all viewers.
+     */
+    public void close()
+    {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Closing anyway.
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    /**
+     * Send the new state of the field to every viewer.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public synchronized void stepCompleted(int step, Field field)
+    {
+        if (clients.isEmpty()) {
+            // Nobody is watching; start from a keyframe when somebody does.
+            previous = null;
+            return;
+        }
+
+        if (current == null || current.getDepth() != field.getDepth() || current.getWidth() != field.getWidth()) {
+            current = new FieldSnapshot(field.getDepth(), field.getWidth());
+            previous = null;
+        }
+        current.copyFrom(step, field);
+
+        // After a reset the previous frame says nothing about the new one.
+        boolean restart = previous == null || step <= previous.getStep();
+        byte[] keyframe = null;
+        byte[] delta = null;
+        for (Client client : clients) {
+            byte[] frame;
+            if (restart || client.needsKeyframe) {
+                if (keyframe == null) {
+                    keyframe = encodeKeyframe(current);
+                }
+                frame = keyframe;
+            } else {
+                if (delta == null) {
+                    delta = encodeDelta(previous, current);
+                    if (delta == null) {
+                        // Too much has changed for a delta to pay off.
+                        if (keyframe == null) {
+                            keyframe = encodeKeyframe(current);
+                        }
+                        delta = keyframe;
+                    }
+                }
+                frame = delta;
+            }
+
+            if (client.queue.offer(frame)) {
+                client.needsKeyframe = false;
+            } else {
+                // The viewer is too slow; drop the frame and resynchronise later.
+                client.needsKeyframe = true;
+            }
+        }
+
+        FieldSnapshot swap = previous == null ? new FieldSnapshot(current.getDepth(), current.getWidth()) : previous;
+        previous = current;
+        current = swap;
+    }
+
+    /**
+     * Encode the whole field.
+     *
+     * @param snapshot The field.
+     * @return The keyframe.
+     */
+    private byte[] encodeKeyframe(FieldSnapshot snapshot)
+    {
+        writeHeader(KEYFRAME, snapshot);
+        byte[] cells = snapshot.getCells();
+        int index = 0;
+        while (index < cells.length) {
+            byte code = cells[index];
+            int run = 1;
+            while (index + run < cells.length && cells[index + run] == code) {
+                run++;
+            }
+            writeVarint(run);
+            buffer.write(code);
+            index += run;
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encode the changes between two states of the field.
+     *
+     * @param before The field as the viewers know it.
+     * @param after  The field as it is now.
+     * @return The delta frame, or null if too much has changed.
+     */
+    private byte[] encodeDelta(FieldSnapshot before, FieldSnapshot after)
+    {
+        byte[] old = before.getCells();
+        byte[] cells = after.getCells();
+        int limit = cells.length / DELTA_LIMIT_DIVISOR;
+        int changed = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (old[i] != cells[i] && ++changed > limit) {
+                return null;
+            }
+        }
+
+        writeHeader(DELTA, after);
+        writeVarint(changed);
+        int last = -1;
+        for (int i = 0; i < cells.length; i++) {
+            if (old[i] != cells[i]) {
+                writeVarint(i - last - 1);
+                buffer.write(cells[i]);
+                last = i;
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Start a new frame in the buffer.
+     *
+     * @param type     The frame type.
+     * @param snapshot The field the frame describes.
+     */
+    private void writeHeader(byte type, FieldSnapshot snapshot)
+    {
+        buffer.reset();
+        buffer.write(type);
+        writeInt(snapshot.getStep());
+        writeInt(snapshot.getDepth());
+        writeInt(snapshot.getWidth());
+    }
+
+    /**
+     * Write a big endian int to the buffer.
+     */
+    private void writeInt(int value)
+    {
+        buffer.write(value >>> 24);
+        buffer.write(value >>> 16);
+        buffer.write(value >>> 8);
+        buffer.write(value);
+    }
+
+    /**
+     * Write a non-negative int to the buffer, 7 bits per byte, lowest bits first.
+     */
+    private void writeVarint(int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            buffer.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.write(value);
+    }
+
+    /**
+     * Accept viewers until the server is closed. Connections over
+     * MAX_CONNECTIONS are turned away.
+     */
+    private void acceptClients()
+    {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!connections.tryAcquire()) {
+                    reject(socket);
+                    continue;
+                }
+                Thread handshake = new Thread(() -> handleConnection(socket), "frame-stream-client");
+                handshake.setDaemon(true);
+                handshake.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("The frame stream stopped accepting viewers: " + e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tell a connection that there are too many viewers, and close it.
+     *
+     * @param socket The connection.
+     */
+    private static void reject(Socket socket)
+    {
+        try (Socket rejected = socket) {
+            rejected.getOutputStream().write(("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n"
+                    + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            // The connection is turned away either way.
+        }
+    }
+
+    /**
+     * Answer a new connection: serve the viewer page, or upgrade it to a
+     * WebSocket and start streaming to it. Gives back the connection's
+     * permit when it ends.
+     *
+     * @param socket The new connection.
+     */
+    private void handleConnection(Socket socket)
+    {
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_MILLIS);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HANDSHAKE_MILLIS);
+            InputStream in = socket.getInputStream();
+            String key = null;
+            int headers = 0;
+            String line = readLine(in, deadline);
+            while (line != null && !line.isEmpty()) {
+                if (++headers > MAX_HEADERS) {
+                    throw new IOException("Too many headers.");
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                    key = line.substring(colon + 1).trim();
+                }
+                line = readLine(in, deadline);
+            }
+
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            if (key == null) {
+                byte[] page = StreamViewerPage.HTML.getBytes(StandardCharsets.UTF_8);
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\nContent-Length: "
+                        + page.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(page);
+                out.flush();
+                socket.close();
+                return;
+            }
+
+            out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            // A viewer sends nothing unless it closes the connection.
+            socket.setSoTimeout(0);
+            Client client = new Client(socket, out);
+            clients.add(client);
+            client.writer.start();
+            client.readUntilClosed(in);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Already broken.
+            }
+        } finally {
+            connections.release();
+        }
+    }
+
+    /**
+     * Read a line of an HTTP request.
+     *
+     * @param deadline The System.nanoTime by which the whole request must be read.
+     * @return The line without its line break, or null at the end of the stream.
+     * @throws IOException if the line is too long or the request takes too long.
+     */
+    private static String readLine(InputStream in, long deadline) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c = in.read();
+        if (c < 0) {
+            return null;
+        }
+        while (c >= 0 && c != '\n') {
+            if (c != '\r') {
+                if (line.length() == MAX_LINE_LENGTH) {
+                    throw new IOException("A request line is too long.");
+                }
+                line.append((char) c);
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new SocketTimeoutException("The request took too long.");
+            }
+            c = in.read();
+        }
+        return line.toString();
+    }
+
+    /**
+     * Compute the answer to a WebSocket key.
+     */
+    private static String acceptKey(String key)
+    {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required by every Java platform", e);
+        }
+    }
+
+    /**
+     * A connected viewer.
+     */
+    private class Client
+    {
+        // The connection to the viewer.
+        private final Socket socket;
+        // Where the frames are written to.
+        private final OutputStream out;
+        // The frames waiting to be sent.
+        private final BlockingQueue<byte[]> queue;
+        // Whether the next frame sent must be a keyframe.
+        private volatile boolean needsKeyframe;
+        // The thread sending the queued frames.
+        private final Thread writer;
+
+        /**
+         * Create a viewer that will be sent a keyframe first.
+         */
+        private Client(Socket socket, OutputStream out)
+        {
+            this.socket = socket;
+            this.out = out;
+            this.queue = new ArrayBlockingQueue<byte[]>(CLIENT_QUEUE_SIZE);
+            this.needsKeyframe = true;
+            this.writer = new Thread(this::writeFrames, "frame-stream-writer");
+            this.writer.setDaemon(true);
+        }
+
+        /**
+         * Send the queued frames until the connection is closed.
+         */
+        private void writeFrames()
+        {
+            try {
+                while (!socket.isClosed()) {
+                    byte[] frame = queue.take();
+                    out.write(0x82); // final fragment of a binary message
+                    if (frame.length < 126) {
+                        out.write(frame.length);
+                    } else if (frame.length < 65536) {
+                        out.write(126);
+                        out.write(frame.length >>> 8);
+                        out.write(frame.length);
+                    } else {
+                        out.write(127);
+                        for (int shift = 56; shift >= 0; shift -= 8) {
+                            out.write((int) ((long) frame.length >>> shift));
+                        }
+                    }
+                    out.write(frame);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // The viewer went away.
+            }
+            close();
+        }
+
+        /**
+         * Read (and ignore) what the viewer sends, until it closes the connection.
+         */
+        private void readUntilClosed(InputStream in)
+        {
+            DataInputStream data = new DataInputStream(in);
+            byte[] discard = new byte[256];
+            try {
+                while (true) {
+                    int opcode = data.readUnsignedByte() & 0x0F;
+                    int second = data.readUnsignedByte();
+                    long length = second & 0x7F;
+                    if (length == 126) {
+                        length = data.readUnsignedShort();
+                    } else if (length == 127) {
+                        length = data.readLong();
+                    }
+                    if ((second & 0x80) != 0) {
+                        data.skipBytes(4); // masking key
+                    }
+                    while (length > 0) {
+                        int chunk = (int) Math.min(length, discard.length);
+                        data.readFully(discard, 0, chunk);
+                        length -= chunk;
+                    }
+                    if (opcode == 0x8) {
+                        break; // the viewer closed the connection
+                    }
+                }
+            } catch (IOException e) {
+                // The connection broke.
+            }
+            close();
+        }
+
+        /**
+         * Disconnect the viewer.
+         */
+        private void close()
+        {
+            clients.remove(this);
+            writer.interrupt();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Where things happen in a simulation over a window of recent steps: for
+ * every species, how often it occupied each part of the field, where it
+ * was born and where it was killed. The field is divided into square heat
+ * cells, coarser than its locations, and every kind of map counts per
+ * heat cell.
+ *
+ * The maps are kept up to date as the simulation runs, rather than worked
+ * out from the field: births and kills are counted as they are reported to
+ * the SimulationEvents of the field, and the occupancy is added after
+ * every step from the counts of the PerceptionGrid, for the tiles that are
+ * occupied only. An event costs a couple of array increments.
+ *
+ * The window is a ring of slices of a fixed number of steps. Everything is
+ * counted both in the current slice and in the window; when the slice is
+ * full, the oldest slice is taken off the window and reused. The window so
+ * always holds between slices - 1 and slices whole slices of steps.
+ *
+ * Add the maps as a step listener of the simulation and as a listener of
+ * the events of its field. Births and deaths in regions that a
+ * LevelOfDetail simulates coarsely are not reported, so not counted.
+ * The maps may be read on another thread while the simulation runs, e.g.
+ * to draw them: counting, moving the window on and reading all lock the
+ * maps, so a reader never sees a window half moved on. The counts of
+ * different heat cells read one by one may still be a step apart; use
+ * getCounts to read them all as of the same step.
+ *
+ * @author Nikolay Tsanov
+ */
+public class Heatmaps implements StepListener, SimulationEventListener
+{
+    /**
+     * The kinds of map.
+     */
+    public enum Kind
+    {
+        // The number of organisms in a heat cell, summed over the steps.
+        OCCUPANCY,
+        // The number of organisms born to parents in a heat cell.
+        BIRTHS,
+        // The number of organisms eaten or killed in a fight in a heat cell.
+        KILLS
+    }
+
+    // The size of a heat cell, in locations along each side.
+    private final int cellSize;
+    // The number of heat cell rows and columns.
+    private final int rows, cols;
+    // The number of steps in a slice, and the number of slices in the window.
+    private final int sliceSteps, slices;
+    // The counts of every slice: [kind][species][slice * cells + cell].
+    private final int[][][] sliceCounts;
+    // The counts of the window, the sum of all slices: [kind][species][cell].
+    private final int[][][] windowCounts;
+    // The number of steps counted in every slice.
+    private final int[] sliceStepCounts;
+    // The slice being filled.
+    private int currentSlice;
+    // The number of steps counted in the window.
+    private int windowSteps;
+    // The last step counted, or -1.
+    private int lastStep;
+
+    /**
+     * Create empty maps of a field.
+     *
+     * @param field      The field.
+     * @param cellSize   The size of a heat cell, in locations along each side;
+     *                   a multiple of PerceptionGrid.BUCKET_SIZE.
+     * @param sliceSteps The number of steps in a slice of the window.
+     * @param slices     The number of slices in the window, at least 2.
+     */
+    public Heatmaps(Field field, int cellSize, int sliceSteps, int slices)
+    {
+        if (cellSize <= 0 || cellSize % PerceptionGrid.BUCKET_SIZE != 0) {
+            throw new IllegalArgumentException("The cell size must be a multiple of " + PerceptionGrid.BUCKET_SIZE + ".");
+        }
+        if (sliceSteps <= 0 || slices < 2) {
+            throw new IllegalArgumentException("The window must have at least two slices of at least one step.");
+        }
+        this.cellSize = cellSize;
+        this.rows = (field.getDepth() + cellSize - 1) / cellSize;
+        this.cols = (field.getWidth() + cellSize - 1) / cellSize;
+        this.sliceSteps = sliceSteps;
+        this.slices = slices;
+        int kinds = Kind.values().length;
+        int speciesCount = Species.values().length;
+        sliceCounts = new int[kinds][speciesCount][slices * rows * cols];
+        windowCounts = new int[kinds][speciesCount][rows * cols];
+        sliceStepCounts = new int[slices];
+        lastStep = -1;
+    }
+
+    /**
+     * Add the occupancy after a step, and move the window on when the
+     * slice is full. A step that is not after the last one counted (the
+     * simulation was reset) starts the maps again.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public synchronized void stepCompleted(int step, Field field)
+    {
+        if (step <= lastStep) {
+            clear();
+        }
+        lastStep = step;
+        PerceptionGrid perception = field.getPerceptionGrid();
+        ActiveTiles tiles = field.getActiveTiles();
+        int tileCols = tiles.getTileCols();
+        Species[] species = Species.values();
+        for (int tile = tiles.nextOccupied(0); tile >= 0; tile = tiles.nextOccupied(tile + 1)) {
+            int bucketRow = tile / tileCols;
+            int bucketCol = tile % tileCols;
+            int cell = (bucketRow * PerceptionGrid.BUCKET_SIZE / cellSize) * cols
+                    + bucketCol * PerceptionGrid.BUCKET_SIZE / cellSize;
+            for (Species s : species) {
+                int count = perception.getCount(s, bucketRow, bucketCol);
+                if (count > 0) {
+                    add(Kind.OCCUPANCY, s, cell, count);
+                }
+            }
+        }
+        sliceStepCounts[currentSlice]++;
+        windowSteps++;
+        if (sliceStepCounts[currentSlice] == sliceSteps) {
+            nextSlice();
+        }
+    }
+
+    /**
+     * Count the births at the location of the parent.
+     *
+     * @param species  The species of the newborns.
+     * @param count    How many were born.
+     * @param location The location of the parent.
+     */
+    public synchronized void born(Species species, int count, Location location)
+    {
+        add(Kind.BIRTHS, species, cellOf(location), count);
+    }
+
+    /**
+     * Count a death if the organism was killed.
+     *
+     * @param species  The species of the organism.
+     * @param cause    Why it died.
+     * @param location Where it died.
+     */
+    public synchronized void died(Species species, DeathCause cause, Location location)
+    {
+        if (cause == DeathCause.PREDATION) {
+            add(Kind.KILLS, species, cellOf(location), 1);
+        }
+    }
+
+    /**
+     * Forget everything.
+     */
+    public synchronized void clear()
+    {
+        for (int[][] kindCounts : sliceCounts) {
+            for (int[] counts : kindCounts) {
+                Arrays.fill(counts, 0);
+            }
+        }
+        for (int[][] kindCounts : windowCounts) {
+            for (int[] counts : kindCounts) {
+                Arrays.fill(counts, 0);
+            }
+        }
+        Arrays.fill(sliceStepCounts, 0);
+        currentSlice = 0;
+        windowSteps = 0;
+        lastStep = -1;
+    }
+
+    /**
+     * Return the count of a heat cell over the window.
+     *
+     * @param kind    The kind of map.
+     * @param species The species, or null for all species together.
+     * @param row     The row of the heat cell.
+     * @param col     The column of the heat cell.
+     * @return The count.
+     */
+    public synchronized int getCount(Kind kind, Species species, int row, int col)
+    {
+        int cell = row * cols + col;
+        if (species != null) {
+            return windowCounts[kind.ordinal()][species.ordinal()][cell];
+        }
+        int count = 0;
+        for (int[] counts : windowCounts[kind.ordinal()]) {
+            count += counts[cell];
+        }
+        return count;
+    }
+
+    /**
+     * Return a copy of the counts of every heat cell over the window, all
+     * as of the same step.
+     *
+     * @param kind    The kind of map.
+     * @param species The species, or null for all species together.
+     * @return The counts, indexed by row * getCols() + col.
+     */
+    public synchronized int[] getCounts(Kind kind, Species species)
+    {
+        if (species != null) {
+            return windowCounts[kind.ordinal()][species.ordinal()].clone();
+        }
+        int[] total = new int[rows * cols];
+        for (int[] counts : windowCounts[kind.ordinal()]) {
+            for (int cell = 0; cell < total.length; cell++) {
+                total[cell] += counts[cell];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Return the largest count of any heat cell over the window.
+     *
+     * @param kind    The kind of map.
+     * @param species The species, or null for all species together.
+     * @return The largest count.
+     */
+    public synchronized int getLargestCount(Kind kind, Species species)
+    {
+        int largest = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                largest = Math.max(largest, getCount(kind, species, row, col));
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * @return The number of steps counted in the window.
+     */
+    public synchronized int getWindowSteps()
+    {
+        return windowSteps;
+    }
+
+    /**
+     * @return The size of a heat cell, in locations along each side.
+     */
+    public int getCellSize()
+    {
+        return cellSize;
+    }
+
+    /**
+     * @return The number of heat cell rows.
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * @return The number of heat cell columns.
+     */
+    public int getCols()
+    {
+        return cols;
+    }
+
+    /**
+     * Write every heat cell that counted anything over the window as
+     * comma separated values, one line per kind, species and heat cell:
+     * the kind, the species, the first row and column of the heat cell,
+     * the count and the count per step of the window.
+     *
+     * @param out Where to write to.
+     * @throws IOException if writing fails.
+     */
+    public synchronized void write(Writer out) throws IOException
+    {
+        out.write("kind,species,row,col,count,perStep\n");
+        for (Kind kind : Kind.values()) {
+            for (Species species : Species.values()) {
+                int[] counts = windowCounts[kind.ordinal()][species.ordinal()];
+                for (int cell = 0; cell < counts.length; cell++) {
+                    if (counts[cell] > 0) {
+                        out.write(kind + "," + species.getDisplayName() + "," + (cell / cols) * cellSize + ","
+                                + (cell % cols) * cellSize + "," + counts[cell] + ","
+                                + String.format("%.4f", (double) counts[cell] / Math.max(1, windowSteps)) + "\n");
+                    }
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Count something in a heat cell, in the current slice and the window.
+     * The caller holds the lock.
+     */
+    private void add(Kind kind, Species species, int cell, int count)
+    {
+        sliceCounts[kind.ordinal()][species.ordinal()][currentSlice * rows * cols + cell] += count;
+        windowCounts[kind.ordinal()][species.ordinal()][cell] += count;
+    }
+
+    /**
+     * Start the next slice, taking the oldest one off the window.
+     */
+    private void nextSlice()
+    {
+        currentSlice = (currentSlice + 1) % slices;
+        int cells = rows * cols;
+        int start = currentSlice * cells;
+        for (int kind = 0; kind < sliceCounts.length; kind++) {
+            for (int species = 0; species < sliceCounts[kind].length; species++) {
+                int[] slice = sliceCounts[kind][species];
+                int[] window = windowCounts[kind][species];
+                for (int cell = 0; cell < cells; cell++) {
+                    window[cell] -= slice[start + cell];
+                }
+                Arrays.fill(slice, start, start + cells, 0);
+            }
+        }
+        windowSteps -= sliceStepCounts[currentSlice];
+        sliceStepCounts[currentSlice] = 0;
+    }
+
+    /**
+     * @return The heat cell holding a location.
+     */
+    private int cellOf(Location location)
+    {
+        return (location.getRow() / cellSize) * cols + location.getCol() / cellSize;
+    }
+}
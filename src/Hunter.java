@@ -1,7 +1,5 @@
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
 
 /**
  * A model of a hunter.
@@ -17,25 +15,17 @@ public class Hunter extends BattleOrganism
     // Characteristics shared by all hunters (class variables).
 
     // The max strength for a hunter
-    private static final int MAX_STRENGTH = 100;
+    private static final int MAX_STRENGTH = HunterKernel.MAX_STRENGTH;
     // The max food level for a hunter
-    private static final int MAX_FOOD_LEVEL = 12;
+    static final int MAX_FOOD_LEVEL = HunterKernel.MAX_FOOD_LEVEL;
     // The age at which a hunter can start to breed.
-    private static final int BREEDING_AGE = 60;
+    static final int BREEDING_AGE = HunterKernel.BREEDING_AGE;
     // The age to which a hunter can live.
-    private static final int MAX_AGE = 400;
+    static final int MAX_AGE = HunterKernel.MAX_AGE;
     // The likelihood of a hunter breeding.
-    private static final double BREEDING_PROBABILITY = 0.06;
+    static final double BREEDING_PROBABILITY = HunterKernel.BREEDING_PROBABILITY;
     // The maximum number of births.
-    private static final int MAX_LITTER_SIZE = 3;
-
-    // Individual characteristics (instance fields).
-
-    // The hunter's food level, which is increased by eating rabbits.
-    private int foodLevel;
-
-    // A shared random number generator to control breeding.
-    private static final Random rand = Randomizer.getRandom();
+    static final int MAX_LITTER_SIZE = HunterKernel.MAX_LITTER_SIZE;
 
     /**
      * Create a hunter. A hunter can be created as a new born (age zero
@@ -47,16 +37,11 @@ public class Hunter extends BattleOrganism
      */
     public Hunter(boolean randomAge, Field field, Location location)
     {
-        super(field, location);
-        if (randomAge) {
-            super.setAge(rand.nextInt(MAX_AGE));
-            this.foodLevel = rand.nextInt(MAX_FOOD_LEVEL);
-        } else {
-            this.foodLevel = MAX_FOOD_LEVEL;
-        }
+        super(field, location, randomAge ? field.getRandom().nextInt(MAX_AGE) : 0,
+                randomAge ? field.getRandom().nextInt(MAX_FOOD_LEVEL) : MAX_FOOD_LEVEL);
 
         // Always assign random strength so the simulation can be more interesting
-        this.setStrengthLevel(rand.nextInt(this.getMaxStrengthLevel()));
+        this.setStrengthLevel(getRandom().nextInt(this.getMaxStrengthLevel()));
     }
 
     /**
@@ -68,8 +53,7 @@ public class Hunter extends BattleOrganism
      */
     public void act(List<Organism> newHunter)
     {
-        incrementAge();
-        decrementFoodLevel();
+        // Death of old age or hunger comes from the timing wheel of the field.
         decrementStrength();
         if (isAlive()) {
             giveBirth(newHunter);
@@ -86,7 +70,7 @@ public class Hunter extends BattleOrganism
                 setLocation(newLocation);
             } else {
                 // Overcrowding.
-                setDead();
+                setDead(DeathCause.OVERCROWDING);
             }
         }
     }
@@ -100,38 +84,16 @@ public class Hunter extends BattleOrganism
     private Location findFood()
     {
         Field field = getField();
-        List<Location> adjacent = field.adjacentLocations(getLocation());
-        Iterator<Location> it = adjacent.iterator();
-
-        Rabbit randomRabbit = null; // backup rabbit
         ArrayList<Wolf> wolves = new ArrayList<Wolf>();
-
-        while (it.hasNext()) {
-            Location where = it.next();
-            Object animal = field.getObjectAt(where);
-
-            if (animal instanceof Wolf) {
-                Wolf wolf = (Wolf) animal;
-                if (wolf.isAlive()) wolves.add(wolf);
-            } else if (animal instanceof Rabbit) {
-                Rabbit rabbit = (Rabbit) animal;
-                if (rabbit.isAlive()) randomRabbit = rabbit;
-            }
+        for (Location where : field.adjacentLocationsOf(Species.WOLF, getLocation())) {
+            Wolf wolf = (Wolf) field.getObjectAt(where);
+            if (wolf.isAlive()) wolves.add(wolf);
         }
 
         // We check if there are any wolves around the hunter.
         // If there are none around, then we check if there is a rabbit and kill it.
         if (wolves.size() == 0) {
-            if (randomRabbit != null) {
-                Location where = randomRabbit.getLocation();
-
-                randomRabbit.setDead();
-                this.incrementStrength(5);
-                this.incrementFoodLevel(6);
-
-                // Remove the dead rabbit from the field.
-                return where;
-            }
+            return HunterKernel.findFood(this);
         } else if (wolves.size() > 1) {
             // If there are more than one, then it is considered a pack.
             int totalWolfStrength = 0;
@@ -144,27 +106,26 @@ public class Hunter extends BattleOrganism
             // If the strength of the hunter is bigger or the same as the pack's strength, it kills all of the wolves
             // and moves to one of the locations.
             if (this.getStrengthLevel() >= totalWolfStrength) {
-                this.incrementStrength(10);
-                this.foodLevel = MAX_FOOD_LEVEL;
+                field.getEvents().battle(this.getStrengthLevel(), wolves.size(), totalWolfStrength, true);
+                this.incrementStrength(HunterKernel.WOLF_WIN_STRENGTH_GAIN);
+                this.incrementFoodLevel(HunterKernel.WOLF_PACK_FOOD_VALUE);
 
                 // Since the wolves are in a random order, we just take the first one.
                 Location where = wolves.get(0).getLocation();
 
                 for (Wolf wolf : wolves) {
-                    wolf.setDead();
+                    kill(wolf);
                 }
-
-                System.out.println("Hunter wins! Hunter: " + this.getStrengthLevel() + " Pack:" + totalWolfStrength + " \n ---");
                 return where;
             } else {
                 // Otherwise the pack wins. All of the wolves get strength and food from the fight.
-                System.out.println("The pack wins! Hunter: " + this.getStrengthLevel() + " Pack: " + totalWolfStrength + " \n ---");
+                field.getEvents().battle(this.getStrengthLevel(), wolves.size(), totalWolfStrength, false);
                 // The hunter is killed, so he is set as dead
-                this.setDead();
+                wolves.get(0).kill(this);
 
                 for (Wolf wolf : wolves) {
-                    wolf.incrementStrength(3);
-                    wolf.incrementFoodLevel(5);
+                    wolf.incrementStrength(WolfKernel.HUNTER_WIN_STRENGTH_GAIN);
+                    wolf.incrementFoodLevel(WolfKernel.HUNTER_PACK_FOOD_VALUE);
                 }
             }
         } else {
@@ -172,41 +133,34 @@ public class Hunter extends BattleOrganism
             // We compare their strength levels and the toughest wins.
             Wolf wolf = wolves.get(0);
             Location where = wolf.getLocation();
-            System.out.println("Wolf: " + wolf.getStrengthLevel());
-            System.out.println("Hunter: " + this.getStrengthLevel());
 
             if (this.getStrengthLevel() > wolf.getStrengthLevel()) {
-                wolf.setDead();
-                this.foodLevel = MAX_FOOD_LEVEL;
-                this.incrementStrength(10);
-
-                System.out.println("Hunter wins! \n ---");
+                field.getEvents().battle(this.getStrengthLevel(), 1, wolf.getStrengthLevel(), true);
+                kill(wolf);
+                this.incrementFoodLevel(HunterKernel.WOLF_WIN_FOOD_VALUE);
+                this.incrementStrength(HunterKernel.WOLF_WIN_STRENGTH_GAIN);
                 return where;
             } else if (this.getStrengthLevel() == wolf.getStrengthLevel()) {
-                boolean randWin = rand.nextBoolean();
+                boolean randWin = getRandom().nextBoolean();
 
                 // When the wolf and the hunter have the same strength levels. the victory is on random
+                field.getEvents().battle(this.getStrengthLevel(), 1, wolf.getStrengthLevel(), randWin);
                 if (randWin) {
-                    wolf.setDead();
-                    this.foodLevel = MAX_FOOD_LEVEL;
-                    this.incrementStrength(10);
-
-                    System.out.println("Hunter wins! \n ---");
+                    kill(wolf);
+                    this.incrementFoodLevel(HunterKernel.WOLF_WIN_FOOD_VALUE);
+                    this.incrementStrength(HunterKernel.WOLF_WIN_STRENGTH_GAIN);
                     return where;
                 } else {
-                    this.setDead();
-                    wolf.incrementFoodLevel(wolf.getMaxFoodLevel());
-                    wolf.incrementStrength(3);
-
-                    System.out.println("Wolf wins! \n ---");
+                    wolf.kill(this);
+                    wolf.incrementFoodLevel(WolfKernel.HUNTER_WIN_FOOD_VALUE);
+                    wolf.incrementStrength(WolfKernel.HUNTER_WIN_STRENGTH_GAIN);
                 }
 
             } else {
-                this.setDead();
-                wolf.incrementFoodLevel(wolf.getMaxFoodLevel());
-                wolf.incrementStrength(3);
-
-                System.out.println("Wolf wins! \n ---");
+                field.getEvents().battle(this.getStrengthLevel(), 1, wolf.getStrengthLevel(), false);
+                wolf.kill(this);
+                wolf.incrementFoodLevel(WolfKernel.HUNTER_WIN_FOOD_VALUE);
+                wolf.incrementStrength(WolfKernel.HUNTER_WIN_STRENGTH_GAIN);
             }
         }
 
@@ -222,31 +176,7 @@ public class Hunter extends BattleOrganism
      */
     private void giveBirth(List<Organism> newHunters)
     {
-        // New hunters are born into adjacent locations.
-        // Get a list of adjacent free locations.
-        Field field = getField();
-        List<Location> free = field.getFreeAdjacentLocations(getLocation());
-        int births = breed();
-        for (int b = 0; b < births && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            Hunter young = new Hunter(false, field, loc);
-            newHunters.add(young);
-        }
-    }
-
-    /**
-     * Generate a number representing the number of births,
-     * if it can breed.
-     *
-     * @return The number of births (may be zero).
-     */
-    private int breed()
-    {
-        int births = 0;
-        if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
-        }
-        return births;
+        HunterKernel.giveBirth(this, newHunters);
     }
 
     /**
@@ -256,21 +186,7 @@ public class Hunter extends BattleOrganism
      */
     protected void incrementFoodLevel(int foodLevel)
     {
-        this.foodLevel = this.foodLevel + foodLevel;
-        if (this.foodLevel > MAX_FOOD_LEVEL) {
-            this.foodLevel = MAX_FOOD_LEVEL;
-        }
-    }
-
-    /**
-     * Make this hunter more hungry. This could result in the hunter's death.
-     */
-    private void decrementFoodLevel()
-    {
-        foodLevel--;
-        if (foodLevel <= 0) {
-            setDead();
-        }
+        setFoodLevel(Math.min(getFoodLevel() + foodLevel, MAX_FOOD_LEVEL));
     }
 
     /**
@@ -293,6 +209,16 @@ public class Hunter extends BattleOrganism
         return BREEDING_AGE;
     }
 
+    /**
+     * Hunters starve when they do not eat.
+     *
+     * @return true
+     */
+    protected boolean needsFood()
+    {
+        return true;
+    }
+
     /**
      * Return the maximum age that is allowed for a hunter.
      *
@@ -302,4 +228,14 @@ public class Hunter extends BattleOrganism
     {
         return MAX_AGE;
     }
+
+    /**
+     * Return the species of the hunter.
+     *
+     * @return Species.HUNTER
+     */
+    protected Species getSpecies()
+    {
+        return Species.HUNTER;
+    }
 }
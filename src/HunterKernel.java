@@ -0,0 +1,116 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The rules of the hunter, with the numbers of SpeciesDefinition.HUNTER
+ * built in.
+ *
+ * Generated by SpeciesKernelGenerator from SpeciesDefinition.HUNTER; do not
+ * edit, change the definition and run the generator again.
+ *
+ * @author Nikolay Tsanov
+ */
+final class HunterKernel
+{
+    // The age at which a hunter can start to breed.
+    static final int BREEDING_AGE = 60;
+    // The age to which a hunter can live.
+    static final int MAX_AGE = 400;
+    // The likelihood of a hunter breeding.
+    static final double BREEDING_PROBABILITY = 0.06;
+    // The maximum number of births.
+    static final int MAX_LITTER_SIZE = 3;
+    // The most food a hunter can hold.
+    static final int MAX_FOOD_LEVEL = 12;
+    // The most strength a hunter can have.
+    static final int MAX_STRENGTH = 100;
+    // The food a rabbit gives.
+    static final int RABBIT_FOOD_VALUE = 6;
+    // The strength a rabbit gives.
+    static final int RABBIT_STRENGTH_GAIN = 5;
+    // What winning a fight with a wolf gives: strength, food when alone, and food for every member of a pack.
+    static final int WOLF_WIN_STRENGTH_GAIN = 10;
+    static final int WOLF_WIN_FOOD_VALUE = 12;
+    static final int WOLF_PACK_FOOD_VALUE = 12;
+
+    private HunterKernel()
+    {
+    }
+
+    /**
+     * Return the number of young a hunter has at this step.
+     *
+     * @param rand The random number generator of the simulation.
+     * @param age  The age of the hunter.
+     * @return The number of births (may be zero).
+     */
+    static int litterSize(Random rand, int age)
+    {
+        if (age >= BREEDING_AGE && rand.nextDouble() <= BREEDING_PROBABILITY) {
+            return rand.nextInt(MAX_LITTER_SIZE) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Let a hunter give birth at this step, if it does. New births
+     * are made into free adjacent locations.
+     *
+     * @param parent   The hunter.
+     * @param newborns A list to return newly born organisms.
+     */
+    static void giveBirth(Hunter parent, List<Organism> newborns)
+    {
+        Field field = parent.getField();
+        Location location = parent.getLocation();
+        List<Location> free = field.getFreeAdjacentLocations(location);
+        // Only as many can be born as there are free locations.
+        int born = Math.min(litterSize(parent.getRandom(), parent.getAge()), free.size());
+        for (int b = 0; b < born; b++) {
+            newborns.add(new Hunter(false, field, free.get(b)));
+        }
+        if (born > 0) {
+            field.getEvents().born(Species.HUNTER, born, location);
+        }
+    }
+
+    /**
+     * Let a hunter look for prey in the adjacent locations, in the
+     * order of its diet, and eat the first live one found.
+     *
+     * @param predator The hunter.
+     * @return Where food was found, or null if it wasn't.
+     */
+    static Location findFood(Hunter predator)
+    {
+        Field field = predator.getField();
+        Location where;
+        Organism prey;
+        where = field.randomAdjacentLocationOf(Species.RABBIT, predator.getLocation());
+        prey = where == null ? null : (Organism) field.getObjectAt(where);
+        if (prey != null && prey.isAlive()) {
+            predator.kill(prey);
+            eat(predator, 0);
+            return where;
+        }
+        return null;
+    }
+
+    /**
+     * Let a hunter have the food and strength a prey of its diet gives.
+     *
+     * @param predator The hunter.
+     * @param meal     The place of the prey in the diet.
+     */
+    static void eat(Hunter predator, int meal)
+    {
+        switch (meal) {
+            case 0:
+                predator.setFoodLevel(Math.min(predator.getFoodLevel() + RABBIT_FOOD_VALUE, MAX_FOOD_LEVEL));
+                predator.incrementStrength(RABBIT_STRENGTH_GAIN);
+                break;
+            default:
+                throw new IllegalArgumentException("A hunter has no meal " + meal + ".");
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * A fixed size histogram of latencies measured in nanoseconds.
+ * Values are counted in power-of-two buckets, so recording a value is a
+ * couple of arithmetic operations and never allocates. Percentiles are
+ * therefore approximate: they are reported as the upper bound of the
+ * bucket that contains them.
+ *
+ * The histogram is written by a single thread (the simulation thread).
+ * Readers on other threads, e.g. JMX, may see slightly stale values.
+ *
+ * @author Nikolay Tsanov
+ */
+public class LatencyHistogram
+{
+    // One bucket for every possible bit length of a non-negative long.
+    private static final int BUCKETS = 64;
+
+    // How many values fell into each bucket.
+    private final long[] buckets;
+    // How many values have been recorded.
+    private long count;
+    // The sum of all recorded values.
+    private long total;
+    // The largest value recorded so far.
+    private long max;
+
+    /**
+     * Create an empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        buckets = new long[BUCKETS];
+    }
+
+    /**
+     * Record a single latency.
+     *
+     * @param nanos The latency in nanoseconds. Negative values are counted as zero.
+     */
+    public void record(long nanos)
+    {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        // Bucket n holds the values from 2^n up to, but excluding, 2^(n+1).
+        int bucket = nanos == 0 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros(nanos);
+        buckets[bucket]++;
+        count++;
+        total += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    /**
+     * @return How many values have been recorded.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The mean of the recorded values in nanoseconds, or zero if there are none.
+     */
+    public double getMean()
+    {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * @return The largest recorded value in nanoseconds.
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * @return The sum of all recorded values in nanoseconds.
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * Return an upper bound for the given percentile.
+     *
+     * @param percentile A percentile between 0 and 100.
+     * @return The upper bound of the bucket holding the percentile, in nanoseconds.
+     */
+    public long getPercentile(double percentile)
+    {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += buckets[bucket];
+            if (seen >= rank && seen > 0) {
+                long upper = bucket >= 62 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1;
+                return Math.min(upper, max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Forget all recorded values.
+     */
+    public void reset()
+    {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            buckets[bucket] = 0;
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+}
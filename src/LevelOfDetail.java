@@ -0,0 +1,394 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simulates the parts of a large field that nobody is looking at in less
+ * detail. The field is divided into square regions. Regions that overlap a
+ * focus window are detailed: their organisms are simulated one by one, as
+ * usual. All other regions are coarse: they only hold the density of every
+ * species and are advanced with the AggregateRates, which costs the same
+ * for a region however many organisms it holds.
+ *
+ * When a focus window leaves a region, its organisms are counted into
+ * densities and taken out of the field. When a focus window enters a
+ * region, organisms are created from the densities at random locations.
+ * Organisms moving from a detailed region into a coarse one are taken
+ * into its densities, and coarse regions send organisms into neighbouring
+ * detailed regions at the same rate, so populations flow across the border.
+ * Between coarse regions the densities even out in the same way.
+ *
+ * Births and deaths in coarse regions are not reported as SimulationEvents.
+ *
+ * @author Nikolay Tsanov
+ */
+public class LevelOfDetail
+{
+    // The share of an organism's moves that cross into the region next to it,
+    // for an organism at the border of a region: 3 of its 8 neighbours.
+    private static final double CROSSING = 3.0 / 8;
+
+    // The field.
+    private final Field field;
+    // The size of a region, in locations along each side.
+    private final int regionSize;
+    // The number of regions in each direction.
+    private final int regionRows, regionCols;
+    // Whether each region is simulated organism by organism.
+    private final boolean[] detailed;
+    // The density of every species in every coarse region: [region][species].
+    private final double[][] density;
+    // The rates coarse regions are advanced with.
+    private final AggregateRates rates;
+    // The areas of the field that are simulated in detail, in locations
+    // (x is the column, y the row).
+    private List<Rectangle> focusWindows;
+
+    /**
+     * Divide a field into regions. All regions start out detailed, and
+     * become coarse at the next update unless a focus window covers them.
+     *
+     * @param field      The field.
+     * @param regionSize The size of a region, in locations along each side.
+     */
+    public LevelOfDetail(Field field, int regionSize)
+    {
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("The region size must be greater than zero.");
+        }
+        this.field = field;
+        this.regionSize = regionSize;
+        regionRows = (field.getDepth() + regionSize - 1) / regionSize;
+        regionCols = (field.getWidth() + regionSize - 1) / regionSize;
+        detailed = new boolean[regionRows * regionCols];
+        density = new double[regionRows * regionCols][Species.values().length];
+        rates = new AggregateRates();
+        focusWindows = new ArrayList<Rectangle>();
+        clear();
+    }
+
+    /**
+     * Set the areas of the field to simulate in detail. The regions are
+     * promoted and demoted at the next update.
+     *
+     * @param windows The areas, in locations (x is the column, y the row).
+     */
+    public void setFocusWindows(List<Rectangle> windows)
+    {
+        List<Rectangle> copy = new ArrayList<Rectangle>();
+        for (Rectangle window : windows) {
+            copy.add(new Rectangle(window));
+        }
+        focusWindows = copy;
+    }
+
+    /**
+     * @return A copy of the areas of the field simulated in detail.
+     */
+    public List<Rectangle> getFocusWindows()
+    {
+        List<Rectangle> copy = new ArrayList<Rectangle>();
+        for (Rectangle window : focusWindows) {
+            copy.add(new Rectangle(window));
+        }
+        return copy;
+    }
+
+    /**
+     * Forget all densities and make every region detailed, e.g. after the
+     * field was populated again.
+     */
+    public void clear()
+    {
+        for (int region = 0; region < detailed.length; region++) {
+            detailed[region] = true;
+            for (int s = 0; s < density[region].length; s++) {
+                density[region][s] = 0;
+            }
+        }
+    }
+
+    /**
+     * Bring the regions up to date with the focus windows and advance the
+     * coarse regions by one step. Called by the simulator at the start of
+     * every step, before the organisms act.
+     *
+     * @param organisms The organisms of the simulation; organisms are
+     *                  removed from and added to it.
+     */
+    public void update(List<Organism> organisms)
+    {
+        boolean[] wanted = wantedDetail();
+        List<Integer> promoted = new ArrayList<Integer>();
+        for (int region = 0; region < detailed.length; region++) {
+            if (wanted[region] && !detailed[region]) {
+                promoted.add(region);
+            }
+            detailed[region] = wanted[region];
+        }
+
+        // Organisms in coarse regions become densities; this demotes regions
+        // the focus has left and takes in organisms that crossed the border.
+        for (Iterator<Organism> it = organisms.iterator(); it.hasNext(); ) {
+            Organism organism = it.next();
+            Location location = organism.getLocation();
+            if (location == null) {
+                continue;
+            }
+            int region = regionOf(location.getRow(), location.getCol());
+            if (!detailed[region]) {
+                density[region][organism.getSpecies().ordinal()] += 1.0 / cellsOf(region);
+                organism.withdraw();
+                it.remove();
+            }
+        }
+
+        for (int region : promoted) {
+            promote(region, organisms);
+        }
+
+        for (int region = 0; region < detailed.length; region++) {
+            if (!detailed[region]) {
+                rates.advance(density[region]);
+            }
+        }
+        exchange(organisms);
+    }
+
+    /**
+     * Create the organisms of all coarse regions and make every region
+     * detailed, e.g. before the level of detail is switched off.
+     *
+     * @param organisms The organisms of the simulation; organisms are added to it.
+     */
+    public void promoteAll(List<Organism> organisms)
+    {
+        for (int region = 0; region < detailed.length; region++) {
+            if (!detailed[region]) {
+                detailed[region] = true;
+                promote(region, organisms);
+            }
+        }
+    }
+
+    /**
+     * Return whether a location lies in a detailed region.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return true if the organisms there are simulated one by one.
+     */
+    public boolean isDetailed(int row, int col)
+    {
+        return detailed[regionOf(row, col)];
+    }
+
+    /**
+     * Return the density of a species around a location in a coarse region.
+     *
+     * @param species The species.
+     * @param row     The row of the location.
+     * @param col     The column of the location.
+     * @return The share of locations holding the species, or 0 in detailed regions.
+     */
+    public double getDensity(Species species, int row, int col)
+    {
+        return density[regionOf(row, col)][species.ordinal()];
+    }
+
+    /**
+     * Return the expected number of organisms of a species in the coarse regions.
+     *
+     * @param species The species.
+     * @return The number of organisms, not rounded.
+     */
+    public double getCoarsePopulation(Species species)
+    {
+        double population = 0;
+        for (int region = 0; region < detailed.length; region++) {
+            if (!detailed[region]) {
+                population += density[region][species.ordinal()] * cellsOf(region);
+            }
+        }
+        return population;
+    }
+
+    /**
+     * @return The number of regions that are currently simulated in detail.
+     */
+    public int getDetailedRegionCount()
+    {
+        int count = 0;
+        for (boolean regionDetailed : detailed) {
+            if (regionDetailed) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The size of a region, in locations along each side.
+     */
+    public int getRegionSize()
+    {
+        return regionSize;
+    }
+
+    /**
+     * @return For every region, whether a focus window overlaps it.
+     */
+    private boolean[] wantedDetail()
+    {
+        boolean[] wanted = new boolean[detailed.length];
+        for (Rectangle window : focusWindows) {
+            int top = Math.max(0, window.y);
+            int bottom = Math.min(field.getDepth() - 1, window.y + window.height - 1);
+            int left = Math.max(0, window.x);
+            int right = Math.min(field.getWidth() - 1, window.x + window.width - 1);
+            for (int regionRow = top / regionSize; regionRow <= bottom / regionSize; regionRow++) {
+                for (int regionCol = left / regionSize; regionCol <= right / regionSize; regionCol++) {
+                    wanted[regionRow * regionCols + regionCol] = true;
+                }
+            }
+        }
+        return wanted;
+    }
+
+    /**
+     * Create the organisms of a region from its densities.
+     */
+    private void promote(int region, List<Organism> organisms)
+    {
+        Random rand = field.getRandom();
+        double[] regionDensity = density[region];
+        int top = (region / regionCols) * regionSize;
+        int left = (region % regionCols) * regionSize;
+        int bottom = Math.min(field.getDepth(), top + regionSize);
+        int right = Math.min(field.getWidth(), left + regionSize);
+        for (int row = top; row < bottom; row++) {
+            for (int col = left; col < right; col++) {
+                if (field.isOccupied(row, col)) {
+                    continue;
+                }
+                Species species = pick(regionDensity, rand.nextDouble());
+                if (species != null) {
+                    organisms.add(species.create(true, field, new Location(row, col)));
+                }
+            }
+        }
+        for (int s = 0; s < regionDensity.length; s++) {
+            regionDensity[s] = 0;
+        }
+    }
+
+    /**
+     * Let populations flow between neighbouring regions, where at least
+     * one of them is coarse.
+     */
+    private void exchange(List<Organism> organisms)
+    {
+        for (int regionRow = 0; regionRow < regionRows; regionRow++) {
+            for (int regionCol = 0; regionCol < regionCols; regionCol++) {
+                int region = regionRow * regionCols + regionCol;
+                if (regionCol + 1 < regionCols) {
+                    exchange(region, region + 1, false, organisms);
+                }
+                if (regionRow + 1 < regionRows) {
+                    exchange(region, region + regionCols, true, organisms);
+                }
+            }
+        }
+    }
+
+    /**
+     * Let populations flow across the border between two regions.
+     *
+     * @param first    The region above or to the left.
+     * @param second   The region below or to the right.
+     * @param vertical Whether second lies below first.
+     */
+    private void exchange(int first, int second, boolean vertical, List<Organism> organisms)
+    {
+        if (detailed[first] && detailed[second]) {
+            return;
+        }
+        int border = vertical ? Math.min(regionSize, field.getWidth() - (first % regionCols) * regionSize)
+                              : Math.min(regionSize, field.getDepth() - (first / regionCols) * regionSize);
+        if (!detailed[first] && !detailed[second]) {
+            // Densities even out between coarse regions.
+            for (int s = 0; s < Species.values().length; s++) {
+                double flow = (density[first][s] - density[second][s]) * CROSSING * border;
+                density[first][s] -= flow / cellsOf(first);
+                density[second][s] += flow / cellsOf(second);
+            }
+            return;
+        }
+
+        // Organisms leave the coarse region into free locations along the
+        // border of the detailed one.
+        int coarse = detailed[first] ? second : first;
+        int row, col, rowStep, colStep;
+        if (vertical) {
+            row = detailed[first] ? (second / regionCols) * regionSize - 1 : (second / regionCols) * regionSize;
+            col = (first % regionCols) * regionSize;
+            rowStep = 0;
+            colStep = 1;
+        } else {
+            row = (first / regionCols) * regionSize;
+            col = detailed[first] ? (second % regionCols) * regionSize - 1 : (second % regionCols) * regionSize;
+            rowStep = 1;
+            colStep = 0;
+        }
+        Random rand = field.getRandom();
+        double[] regionDensity = density[coarse];
+        for (int i = 0; i < border; i++, row += rowStep, col += colStep) {
+            if (field.isOccupied(row, col)) {
+                continue;
+            }
+            Species species = pick(regionDensity, rand.nextDouble() / CROSSING);
+            if (species != null) {
+                organisms.add(species.create(true, field, new Location(row, col)));
+                regionDensity[species.ordinal()] = Math.max(0, regionDensity[species.ordinal()] - 1.0 / cellsOf(coarse));
+            }
+        }
+    }
+
+    /**
+     * Pick a species by its share of the locations.
+     *
+     * @param regionDensity The density of every species.
+     * @param chance        A random number, at least 0.
+     * @return The species, or null for an empty location.
+     */
+    private static Species pick(double[] regionDensity, double chance)
+    {
+        for (Species species : Species.values()) {
+            chance -= regionDensity[species.ordinal()];
+            if (chance < 0) {
+                return species;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The region holding a location.
+     */
+    private int regionOf(int row, int col)
+    {
+        return (row / regionSize) * regionCols + col / regionSize;
+    }
+
+    /**
+     * @return The number of locations in a region; regions at the edges may be smaller.
+     */
+    private int cellsOf(int region)
+    {
+        int rows = Math.min(regionSize, field.getDepth() - (region / regionCols) * regionSize);
+        int cols = Math.min(regionSize, field.getWidth() - (region % regionCols) * regionSize);
+        return rows * cols;
+    }
+}
@@ -0,0 +1,433 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs whole simulations of a few typical scenarios at several grid sizes
+ * and numbers of threads, to see how the engine scales. Every thread runs
+ * a simulation of its own, with its own seed.
+ *
+ * For every run it reports the steps per second (of all threads together),
+ * the nanoseconds per organism update (per thread), the peak resident
+ * memory of the process and the time spent in garbage collection. The
+ * results are written to a CSV file and compared against a stored baseline:
+ * a run that is slower, or uses more memory, than the baseline by more than
+ * the tolerance counts as a regression.
+ *
+ * Usage: MacroBenchmark [--quick] [--threads 1,2,4] [--out results.csv]
+ * [--baseline baseline.csv] [--tolerance 0.1] [--update-baseline]
+ *
+ * @author Nikolay Tsanov
+ */
+public class MacroBenchmark
+{
+    // Where the baseline is kept, unless another file is given.
+    private static final String DEFAULT_BASELINE = "benchmarks/macro-baseline.csv";
+    // The columns of the CSV files.
+    private static final String CSV_HEADER = "scenario,depth,width,threads,steps,stepsPerSecond,nsPerUpdate,peakRssKb,gcMillis";
+    // The seed of the first thread; the other threads count up from it.
+    private static final long SEED = 20240101L;
+
+    /**
+     * The scenarios: how the field is populated, at which sizes, for how long.
+     */
+    public enum Scenario
+    {
+        // Rabbits only, filling the field until overcrowding limits them.
+        RABBIT_SATURATION(new double[] {0.5, 0, 0, 0}, new int[][] {{100, 100}, {400, 400}, {1000, 1000}}, 200),
+        // Many foxes and wolves hunting a large rabbit population.
+        PREDATOR_HEAVY(new double[] {0.2, 0.1, 0.03, 0}, new int[][] {{100, 100}, {400, 400}, {1000, 1000}}, 200),
+        // Many wolves and hunters, so battles happen all the time.
+        BATTLE_HEAVY(new double[] {0.1, 0.03, 0.06, 0.06}, new int[][] {{100, 100}, {400, 400}, {1000, 1000}}, 200),
+        // A huge field with few organisms, where the cost of the empty field shows.
+        SPARSE_HUGE_WORLD(new double[] {0.004, 0.001, 0.0004, 0.0002}, new int[][] {{2000, 2000}, {4000, 4000}}, 100);
+
+        // The creation probability of every species, indexed by ordinal.
+        private final double[] probabilities;
+        // The sizes of the field, as {depth, width}.
+        private final int[][] sizes;
+        // The steps of a run.
+        private final int steps;
+
+        Scenario(double[] probabilities, int[][] sizes, int steps)
+        {
+            this.probabilities = probabilities;
+            this.sizes = sizes;
+            this.steps = steps;
+        }
+
+        /**
+         * Create a simulator populated for this scenario.
+         *
+         * @param depth The depth of the field.
+         * @param width The width of the field.
+         * @param seed  The seed of the simulation.
+         * @return The simulator.
+         */
+        public Simulator createSimulator(int depth, int width, long seed)
+        {
+            Simulator simulator = new Simulator(depth, width, seed);
+            for (Species species : Species.values()) {
+                simulator.setCreationProbability(species, probabilities[species.ordinal()]);
+            }
+            simulator.reset();
+            return simulator;
+        }
+    }
+
+    /**
+     * The measurements of one run.
+     */
+    public static class Result
+    {
+        // The name of the scenario.
+        private final String scenario;
+        // The size of the field, the simulations run at once and the steps of each.
+        private final int depth, width, threads, steps;
+        // The steps of all threads per second, and the time per organism update per thread.
+        private final double stepsPerSecond, nsPerUpdate;
+        // The peak resident memory and the time spent in garbage collection.
+        private final long peakRssKb, gcMillis;
+
+        /**
+         * Create a result from its measurements.
+         */
+        public Result(String scenario, int depth, int width, int threads, int steps,
+                      double stepsPerSecond, double nsPerUpdate, long peakRssKb, long gcMillis)
+        {
+            this.scenario = scenario;
+            this.depth = depth;
+            this.width = width;
+            this.threads = threads;
+            this.steps = steps;
+            this.stepsPerSecond = stepsPerSecond;
+            this.nsPerUpdate = nsPerUpdate;
+            this.peakRssKb = peakRssKb;
+            this.gcMillis = gcMillis;
+        }
+
+        /**
+         * @return What identifies the run in a baseline.
+         */
+        public String getKey()
+        {
+            return scenario + "," + depth + "," + width + "," + threads;
+        }
+
+        /**
+         * @return The result as a line of CSV.
+         */
+        public String toCsv()
+        {
+            return String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%.2f,%.1f,%d,%d", scenario, depth, width, threads, steps,
+                    stepsPerSecond, nsPerUpdate, peakRssKb, gcMillis);
+        }
+
+        /**
+         * Read a result from a line of CSV.
+         *
+         * @param line The line.
+         * @return The result.
+         */
+        public static Result fromCsv(String line)
+        {
+            String[] f = line.split(",");
+            return new Result(f[0], Integer.parseInt(f[1]), Integer.parseInt(f[2]), Integer.parseInt(f[3]),
+                    Integer.parseInt(f[4]), Double.parseDouble(f[5]), Double.parseDouble(f[6]),
+                    Long.parseLong(f[7]), Long.parseLong(f[8]));
+        }
+
+        public String toString()
+        {
+            return String.format("%-18s %5dx%-5d %2d threads  %9.1f steps/s  %8.1f ns/update  %8d kB peak  %6d ms gc",
+                    scenario, depth, width, threads, stepsPerSecond, nsPerUpdate, peakRssKb, gcMillis);
+        }
+    }
+
+    /**
+     * Run one scenario at one size with a number of threads, after a
+     * shorter warm-up run of the same kind.
+     *
+     * @param scenario The scenario.
+     * @param depth    The depth of the field.
+     * @param width    The width of the field.
+     * @param threads  The number of simulations run at the same time.
+     * @param steps    The steps every simulation runs.
+     * @return The measurements.
+     * @throws InterruptedException if interrupted while waiting for the threads.
+     */
+    public Result run(Scenario scenario, int depth, int width, int threads, int steps) throws InterruptedException
+    {
+        measure(scenario, depth, width, threads, Math.max(1, steps / 5));
+        System.gc();
+        resetPeakRss();
+        long gcBefore = gcMillis();
+        long[] totals = measure(scenario, depth, width, threads, steps);
+        long gc = gcMillis() - gcBefore;
+        long elapsed = totals[0];
+        long updates = totals[1];
+        double stepsPerSecond = (double) steps * threads / (elapsed / 1e9);
+        double nsPerUpdate = updates == 0 ? 0 : (double) elapsed * threads / updates;
+        return new Result(scenario.name(), depth, width, threads, steps, stepsPerSecond, nsPerUpdate, peakRssKb(), gc);
+    }
+
+    /**
+     * Run the simulations and time them.
+     *
+     * @return The nanoseconds taken by all threads, and the organism updates done.
+     */
+    private long[] measure(Scenario scenario, int depth, int width, int threads, int steps) throws InterruptedException
+    {
+        List<Simulator> simulators = new ArrayList<Simulator>();
+        for (int i = 0; i < threads; i++) {
+            simulators.add(scenario.createSimulator(depth, width, SEED + i));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong updates = new AtomicLong();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (Simulator simulator : simulators) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long acted = 0;
+                for (int step = 0; step < steps; step++) {
+                    acted += simulator.getOrganismCount();
+                    simulator.simulateOneStep();
+                }
+                updates.addAndGet(acted);
+            }, "benchmark-" + workers.size());
+            workers.add(worker);
+            worker.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new long[] {System.nanoTime() - begin, updates.get()};
+    }
+
+    /**
+     * @return The total time spent in garbage collection so far, in milliseconds.
+     */
+    private static long gcMillis()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+
+    /**
+     * Reset the peak resident memory of the process, where Linux allows it,
+     * so every run reports its own peak.
+     */
+    private static void resetPeakRss()
+    {
+        try (FileWriter writer = new FileWriter("/proc/self/clear_refs")) {
+            writer.write("5");
+        } catch (IOException e) {
+            // Not on Linux, or not allowed: the peak of the whole process is reported.
+        }
+    }
+
+    /**
+     * @return The peak resident memory of the process in kilobytes, or -1 if unknown.
+     */
+    private static long peakRssKb()
+    {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not on Linux.
+        }
+        return -1;
+    }
+
+    /**
+     * Read a CSV file of results.
+     *
+     * @param file The file.
+     * @return The results, by key.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Map<String, Result> readResults(File file) throws IOException
+    {
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("scenario,")) {
+                    continue;
+                }
+                Result result = Result.fromCsv(line);
+                results.put(result.getKey(), result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Write results to a CSV file.
+     *
+     * @param file    The file; its directory is created if missing.
+     * @param results The results.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeResults(File file, List<Result> results) throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println(CSV_HEADER);
+            for (Result result : results) {
+                out.println(result.toCsv());
+            }
+        }
+    }
+
+    /**
+     * Compare results against a baseline.
+     *
+     * @param results   The results.
+     * @param baseline  The baseline, by key.
+     * @param tolerance The share by which a result may be worse than the baseline.
+     * @return A line for every regression; empty if there are none.
+     */
+    public static List<String> findRegressions(List<Result> results, Map<String, Result> baseline, double tolerance)
+    {
+        List<String> regressions = new ArrayList<String>();
+        for (Result result : results) {
+            Result base = baseline.get(result.getKey());
+            if (base == null) {
+                continue;
+            }
+            if (result.stepsPerSecond < base.stepsPerSecond * (1 - tolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s: %.1f steps/s, baseline %.1f", result.getKey(),
+                        result.stepsPerSecond, base.stepsPerSecond));
+            }
+            if (result.nsPerUpdate > base.nsPerUpdate * (1 + tolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s: %.1f ns/update, baseline %.1f", result.getKey(),
+                        result.nsPerUpdate, base.nsPerUpdate));
+            }
+            if (base.peakRssKb > 0 && result.peakRssKb > base.peakRssKb * (1 + tolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s: %d kB peak, baseline %d kB", result.getKey(),
+                        result.peakRssKb, base.peakRssKb));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Run the suite. The battle messages of the hunters are not printed
+     * while the simulations run.
+     *
+     * @param args See the class comment.
+     * @throws Exception if the results cannot be written or the runs are interrupted.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        boolean quick = false;
+        boolean updateBaseline = false;
+        int[] threadCounts = {1, Math.max(1, Runtime.getRuntime().availableProcessors())};
+        File out = new File("macro-benchmark.csv");
+        File baselineFile = new File(DEFAULT_BASELINE);
+        double tolerance = 0.1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick":
+                    quick = true;
+                    break;
+                case "--update-baseline":
+                    updateBaseline = true;
+                    break;
+                case "--threads":
+                    String[] counts = args[++i].split(",");
+                    threadCounts = new int[counts.length];
+                    for (int c = 0; c < counts.length; c++) {
+                        threadCounts[c] = Integer.parseInt(counts[c].trim());
+                    }
+                    break;
+                case "--out":
+                    out = new File(args[++i]);
+                    break;
+                case "--baseline":
+                    baselineFile = new File(args[++i]);
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+
+        MacroBenchmark benchmark = new MacroBenchmark();
+        List<Result> results = new ArrayList<Result>();
+        PrintStream console = System.out;
+        for (Scenario scenario : Scenario.values()) {
+            // The quick suite only runs the smallest size, for a quarter of the steps.
+            int sizes = quick ? 1 : scenario.sizes.length;
+            int steps = quick ? Math.max(10, scenario.steps / 4) : scenario.steps;
+            for (int s = 0; s < sizes; s++) {
+                for (int threads : threadCounts) {
+                    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                    Result result;
+                    try {
+                        result = benchmark.run(scenario, scenario.sizes[s][0], scenario.sizes[s][1], threads, steps);
+                    } finally {
+                        System.setOut(console);
+                    }
+                    results.add(result);
+                    console.println(result);
+                }
+            }
+        }
+        writeResults(out, results);
+        console.println("Results written to " + out);
+
+        if (updateBaseline) {
+            writeResults(baselineFile, results);
+            console.println("Baseline written to " + baselineFile);
+        } else if (baselineFile.isFile()) {
+            List<String> regressions = findRegressions(results, readResults(baselineFile), tolerance);
+            if (regressions.isEmpty()) {
+                console.println("No regressions against " + baselineFile);
+            } else {
+                console.println("Regressions against " + baselineFile + ":");
+                for (String regression : regressions) {
+                    console.println("  " + regression);
+                }
+                System.exit(1);
+            }
+        } else {
+            console.println("No baseline at " + baselineFile + "; run with --update-baseline to store one.");
+        }
+    }
+}
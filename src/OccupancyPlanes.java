@@ -0,0 +1,256 @@
+import java.util.Arrays;
+
+/**
+ * One bit per location of a field for every species, plus one for
+ * "occupied by anything". The planes are stored row by row, each row
+ * starting on a new long, so a row can be changed without touching its
+ * neighbours.
+ *
+ * The neighbourhood of a location is returned as an 8 bit mask, read off
+ * the three rows around it with a few shifts. The bits stand for:
+ * <pre>
+ *   0 1 2
+ *   3 . 4
+ *   5 6 7
+ * </pre>
+ * where bit 0 is the location up and to the left (row - 1, col - 1).
+ *
+ * @author Nikolay Tsanov
+ */
+public class OccupancyPlanes
+{
+    // The row and column offsets of each bit of a neighbour mask.
+    private static final int[] ROW_OFFSET = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] COL_OFFSET = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    // The size of the field.
+    private final int depth, width;
+    // The number of longs holding one row.
+    private final int wordsPerRow;
+    // The locations holding anything.
+    private final long[] occupied;
+    // The locations holding each species: [species][word].
+    private final long[][] species;
+
+    /**
+     * Create empty planes for a field.
+     *
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public OccupancyPlanes(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        wordsPerRow = (width + 63) >>> 6;
+        occupied = new long[depth * wordsPerRow];
+        species = new long[Species.values().length][depth * wordsPerRow];
+    }
+
+    /**
+     * Mark a location as holding something.
+     *
+     * @param row     The row of the location.
+     * @param col     The column of the location.
+     * @param species The species there, or null if it is not an organism.
+     */
+    public void set(int row, int col, Species species)
+    {
+        int word = row * wordsPerRow + (col >>> 6);
+        long bit = 1L << col;
+        occupied[word] |= bit;
+        if (species != null) {
+            this.species[species.ordinal()][word] |= bit;
+        }
+    }
+
+    /**
+     * Mark a location as empty.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     */
+    public void clear(int row, int col)
+    {
+        int word = row * wordsPerRow + (col >>> 6);
+        long bit = ~(1L << col);
+        occupied[word] &= bit;
+        for (long[] plane : species) {
+            plane[word] &= bit;
+        }
+    }
+
+    /**
+     * Mark the whole field as empty.
+     */
+    public void clear()
+    {
+        Arrays.fill(occupied, 0);
+        for (long[] plane : species) {
+            Arrays.fill(plane, 0);
+        }
+    }
+
+    /**
+     * Clear a range of rows.
+     *
+     * @param fromRow The first row to clear.
+     * @param toRow   The row after the last row to clear.
+     */
+    public void clearRows(int fromRow, int toRow)
+    {
+        Arrays.fill(occupied, fromRow * wordsPerRow, toRow * wordsPerRow, 0);
+        for (long[] plane : species) {
+            Arrays.fill(plane, fromRow * wordsPerRow, toRow * wordsPerRow, 0);
+        }
+    }
+
+    /**
+     * @return true if the location holds anything.
+     */
+    public boolean isOccupied(int row, int col)
+    {
+        return (occupied[row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    /**
+     * Return the mask of the free neighbours of a location.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return The neighbours that lie within the field and are empty.
+     */
+    public int freeMask(int row, int col)
+    {
+        return validMask(row, col) & ~neighbourMask(occupied, row, col);
+    }
+
+    /**
+     * Return the mask of the neighbours of a location that hold a species.
+     *
+     * @param species The species.
+     * @param row     The row of the location.
+     * @param col     The column of the location.
+     * @return The neighbours holding the species.
+     */
+    public int speciesMask(Species species, int row, int col)
+    {
+        return neighbourMask(this.species[species.ordinal()], row, col);
+    }
+
+    /**
+     * Return the mask of the neighbours of a location that lie within the field.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return The valid neighbours.
+     */
+    public int validMask(int row, int col)
+    {
+        int mask = 0xFF;
+        if (row == 0) {
+            mask &= ~0x07;
+        }
+        if (row == depth - 1) {
+            mask &= ~0xE0;
+        }
+        if (col == 0) {
+            mask &= ~0x29;
+        }
+        if (col == width - 1) {
+            mask &= ~0x94;
+        }
+        return mask;
+    }
+
+    /**
+     * Turn a bit of a neighbour mask into a location.
+     *
+     * @param row The row of the location the mask belongs to.
+     * @param col The column of the location the mask belongs to.
+     * @param bit The bit, between 0 and 7.
+     * @return The neighbouring location.
+     */
+    public static Location neighbour(int row, int col, int bit)
+    {
+        return new Location(row + ROW_OFFSET[bit], col + COL_OFFSET[bit]);
+    }
+
+    /**
+     * Return the index of the n-th set bit of a mask.
+     *
+     * @param mask A mask with more than n bits set.
+     * @param n    Which of the set bits, counting from 0.
+     * @return The index of the bit.
+     */
+    public static int nthSetBit(int mask, int n)
+    {
+        for (int i = 0; i < n; i++) {
+            mask &= mask - 1;
+        }
+        return Integer.numberOfTrailingZeros(mask);
+    }
+
+    /**
+     * @return The number of longs holding one row of a plane.
+     */
+    public int getWordsPerRow()
+    {
+        return wordsPerRow;
+    }
+
+    /**
+     * Return the plane of a species. It must not be changed.
+     *
+     * @param species The species.
+     * @return The plane, row by row, getWordsPerRow longs per row.
+     */
+    public long[] getPlane(Species species)
+    {
+        return this.species[species.ordinal()];
+    }
+
+    /**
+     * Return the plane of occupied locations. It must not be changed.
+     *
+     * @return The plane, row by row, getWordsPerRow longs per row.
+     */
+    public long[] getOccupiedPlane()
+    {
+        return occupied;
+    }
+
+    /**
+     * Read the 8 neighbours of a location off a plane.
+     */
+    private int neighbourMask(long[] plane, int row, int col)
+    {
+        int above = threeBits(plane, row - 1, col);
+        int middle = threeBits(plane, row, col);
+        int below = threeBits(plane, row + 1, col);
+        return above | (middle & 1) << 3 | (middle & 4) << 2 | below << 5;
+    }
+
+    /**
+     * Read the bits of columns col - 1, col and col + 1 of a row, lowest first.
+     * Rows and columns outside the field read as 0.
+     */
+    private int threeBits(long[] plane, int row, int col)
+    {
+        if (row < 0 || row >= depth) {
+            return 0;
+        }
+        int base = row * wordsPerRow;
+        if (col == 0) {
+            return (int) (plane[base] << 1) & 0x6;
+        }
+        int start = col - 1;
+        int word = base + (start >>> 6);
+        int offset = start & 63;
+        long bits = plane[word] >>> offset;
+        if (offset > 61 && (start >>> 6) + 1 < wordsPerRow) {
+            bits |= plane[word + 1] << (64 - offset);
+        }
+        return (int) bits & 0x7;
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The grid of a field kept outside the Java heap: for every location the
+ * species living there and the slot of the organism in the field's table
+ * of occupants, and, as of the last checkpoint, the age, food level and
+ * strength of the organism. While a store is attached to a field (see
+ * Field.attachCellStore), the field has no grid of references on the
+ * heap: it reads and writes the locations here, and keeps the organisms
+ * themselves in a table that grows with their number rather than with
+ * the size of the world. The garbage collector does not scan the store.
+ *
+ * A store either lives in plain native memory, or is mapped to a file. A
+ * file-backed store is written by the operating system as it sees fit and
+ * survives the program, so a world saved with Simulator.checkpoint can be
+ * opened again after a restart without reading it: open() only maps the
+ * file, and the pages are read as Simulator.restore rebuilds the world.
+ *
+ * The file is a header (magic number, version, depth, width and step)
+ * followed by one record of RECORD_SIZE bytes per location, row by row,
+ * all little-endian. A record holds the species code (0 for empty), the
+ * strength, the food level, the age and the slot; the slots only mean
+ * something to the field the store is attached to. Memory is divided into
+ * chunks of at most 1 GB, so worlds larger than 2 GB can be kept.
+ *
+ * @author Nikolay Tsanov
+ */
+public class OffHeapCellStore implements Closeable
+{
+    // The size of the record of a location, in bytes.
+    public static final int RECORD_SIZE = 16;
+
+    // Identifies store files: "FNRC".
+    private static final int MAGIC = 0x464E5243;
+    // The version of the file format.
+    private static final int VERSION = 2;
+    // The size of the header, in bytes; a multiple of RECORD_SIZE.
+    private static final int HEADER_SIZE = 64;
+    // The positions of the header fields.
+    private static final int DEPTH_POSITION = 8, WIDTH_POSITION = 12, STEP_POSITION = 16;
+    // The positions of the parts of a record.
+    private static final int CODE_OFFSET = 0, STRENGTH_OFFSET = 1, FOOD_OFFSET = 2, AGE_OFFSET = 4, SLOT_OFFSET = 8;
+    // log2 of the size of a chunk, in bytes.
+    private static final int CHUNK_SHIFT = 30;
+    // The size of a chunk, in bytes; a multiple of RECORD_SIZE.
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+    // The size of the world.
+    private final int depth, width;
+    // The memory, in chunks of CHUNK_SIZE bytes (the last may be smaller).
+    private final ByteBuffer[] chunks;
+    // The file the memory is mapped to, or null.
+    private final File file;
+
+    /**
+     * Create a store over memory that is already there.
+     */
+    private OffHeapCellStore(int depth, int width, ByteBuffer[] chunks, File file)
+    {
+        this.depth = depth;
+        this.width = width;
+        this.chunks = chunks;
+        this.file = file;
+    }
+
+    /**
+     * Create an empty store in native memory.
+     *
+     * @param depth The depth of the world.
+     * @param width The width of the world.
+     * @return The store.
+     */
+    public static OffHeapCellStore allocate(int depth, int width)
+    {
+        long size = sizeOf(depth, width);
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, size - i * CHUNK_SIZE));
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        OffHeapCellStore store = new OffHeapCellStore(depth, width, chunks, null);
+        store.writeHeader();
+        return store;
+    }
+
+    /**
+     * Create an empty store mapped to a file. An existing file is replaced.
+     *
+     * @param file  The file.
+     * @param depth The depth of the world.
+     * @param width The width of the world.
+     * @return The store.
+     * @throws IOException if the file cannot be created.
+     */
+    public static OffHeapCellStore create(File file, int depth, int width) throws IOException
+    {
+        long size = sizeOf(depth, width);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            OffHeapCellStore store = new OffHeapCellStore(depth, width, map(channel, size), file);
+            store.writeHeader();
+            return store;
+        }
+    }
+
+    /**
+     * Open a store that was saved to a file.
+     *
+     * @param file The file.
+     * @return The store, with the world as it was saved.
+     * @throws IOException if the file cannot be read or is not a store.
+     */
+    public static OffHeapCellStore open(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading.
+            }
+            if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a cell store.");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException(file + " has version " + version + ", expected " + VERSION + ".");
+            }
+            int depth = header.getInt(DEPTH_POSITION);
+            int width = header.getInt(WIDTH_POSITION);
+            long size = sizeOf(depth, width);
+            if (channel.size() < size) {
+                throw new IOException(file + " is shorter than a " + depth + "x" + width + " world.");
+            }
+            return new OffHeapCellStore(depth, width, map(channel, size), file);
+        }
+    }
+
+    /**
+     * Return the species code at a location.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return The code of the species, or 0 if the location is empty.
+     */
+    public byte getCode(int row, int col)
+    {
+        long position = positionOf(row, col);
+        return chunkOf(position).get(offsetOf(position) + CODE_OFFSET);
+    }
+
+    /**
+     * Set the species code at a location.
+     *
+     * @param row  The row of the location.
+     * @param col  The column of the location.
+     * @param code The code of the species, or 0 to make the location empty.
+     */
+    public void setCode(int row, int col, byte code)
+    {
+        long position = positionOf(row, col);
+        chunkOf(position).put(offsetOf(position) + CODE_OFFSET, code);
+    }
+
+    /**
+     * Return the slot of the organism at a location in the table of the
+     * field the store is attached to.
+     *
+     * @param row The row of the location.
+     * @param col The column of the location.
+     * @return The slot, or 0 if the location is empty.
+     */
+    public int getSlot(int row, int col)
+    {
+        long position = positionOf(row, col);
+        return chunkOf(position).getInt(offsetOf(position) + SLOT_OFFSET);
+    }
+
+    /**
+     * Set the species code and the slot of the organism at a location.
+     *
+     * @param row  The row of the location.
+     * @param col  The column of the location.
+     * @param code The code of the species, or 0 to make the location empty.
+     * @param slot The slot of the organism, or 0 if the location is empty.
+     */
+    public void setOccupant(int row, int col, byte code, int slot)
+    {
+        long position = positionOf(row, col);
+        ByteBuffer chunk = chunkOf(position);
+        int offset = offsetOf(position);
+        chunk.put(offset + CODE_OFFSET, code);
+        chunk.putInt(offset + SLOT_OFFSET, slot);
+    }
+
+    /**
+     * Set the state of the organism at a location.
+     *
+     * @param row       The row of the location.
+     * @param col       The column of the location.
+     * @param age       The age of the organism.
+     * @param foodLevel The food level of the organism.
+     * @param strength  The strength of the organism.
+     */
+    public void setState(int row, int col, int age, int foodLevel, int strength)
+    {
+        long position = positionOf(row, col);
+        ByteBuffer chunk = chunkOf(position);
+        int offset = offsetOf(position);
+        chunk.put(offset + STRENGTH_OFFSET, (byte) strength);
+        chunk.putShort(offset + FOOD_OFFSET, (short) foodLevel);
+        chunk.putInt(offset + AGE_OFFSET, age);
+    }
+
+    /**
+     * @return The age of the organism at a location.
+     */
+    public int getAge(int row, int col)
+    {
+        long position = positionOf(row, col);
+        return chunkOf(position).getInt(offsetOf(position) + AGE_OFFSET);
+    }
+
+    /**
+     * @return The food level of the organism at a location.
+     */
+    public int getFoodLevel(int row, int col)
+    {
+        long position = positionOf(row, col);
+        return chunkOf(position).getShort(offsetOf(position) + FOOD_OFFSET);
+    }
+
+    /**
+     * @return The strength of the organism at a location.
+     */
+    public int getStrength(int row, int col)
+    {
+        long position = positionOf(row, col);
+        return chunkOf(position).get(offsetOf(position) + STRENGTH_OFFSET);
+    }
+
+    /**
+     * @return The step the world was saved at.
+     */
+    public int getStep()
+    {
+        return chunks[0].getInt(STEP_POSITION);
+    }
+
+    /**
+     * Record the step the world is saved at.
+     *
+     * @param step The step.
+     */
+    public void setStep(int step)
+    {
+        chunks[0].putInt(STEP_POSITION, step);
+    }
+
+    /**
+     * Write the changes of a file-backed store to the file. Does nothing
+     * for a store in native memory.
+     */
+    public void force()
+    {
+        if (file != null) {
+            for (ByteBuffer chunk : chunks) {
+                ((MappedByteBuffer) chunk).force();
+            }
+        }
+    }
+
+    /**
+     * Write the changes to the file, if there is one. The memory itself is
+     * released once the store is no longer used.
+     */
+    public void close()
+    {
+        force();
+    }
+
+    /**
+     * @return The depth of the world.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the world.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return The file the store is mapped to, or null if it is in native memory.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Write the header for the size of the world, at step 0.
+     */
+    private void writeHeader()
+    {
+        ByteBuffer header = chunks[0];
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(DEPTH_POSITION, depth);
+        header.putInt(WIDTH_POSITION, width);
+        header.putInt(STEP_POSITION, 0);
+    }
+
+    /**
+     * Map a file in chunks.
+     */
+    private static ByteBuffer[] map(FileChannel channel, long size) throws IOException
+    {
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = i * CHUNK_SIZE;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK_SIZE, size - start));
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    /**
+     * @return The size of a store for a world, in bytes.
+     */
+    private static long sizeOf(int depth, int width)
+    {
+        if (depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("The dimensions must be greater than zero.");
+        }
+        return HEADER_SIZE + (long) depth * width * RECORD_SIZE;
+    }
+
+    /**
+     * @return The number of chunks needed for a size.
+     */
+    private static int chunkCount(long size)
+    {
+        return (int) ((size + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+    }
+
+    /**
+     * @return The position of the record of a location, in bytes.
+     */
+    private long positionOf(int row, int col)
+    {
+        return HEADER_SIZE + ((long) row * width + col) * RECORD_SIZE;
+    }
+
+    /**
+     * @return The chunk holding a position.
+     */
+    private ByteBuffer chunkOf(long position)
+    {
+        return chunks[(int) (position >> CHUNK_SHIFT)];
+    }
+
+    /**
+     * @return The offset of a position within its chunk.
+     */
+    private static int offsetOf(long position)
+    {
+        return (int) (position & (CHUNK_SIZE - 1));
+    }
+}
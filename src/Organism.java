@@ -1,4 +1,5 @@
 import java.util.List;
+import java.util.Random;
 
 /**
  * A class representing shared characteristics of organisms.
@@ -9,58 +10,182 @@ import java.util.List;
  */
 public abstract class Organism
 {
+    // Identifies the organism among all organisms ever created in its field.
+    private final long id;
     // The organism's field.
     private Field field;
     // The organism's position in the field.
     private Location location;
 
-    // The organism's age
-    private int age;
+    // The step at which the organism was of age 0; its age is the number of steps since.
+    private int birthStep;
+    // The step of the organism's last meal, and its food level right after it.
+    // The food level goes down by one every step from there.
+    private int mealStep, mealFoodLevel;
+    // The step the organism is to be woken at by the timing wheel of the field, if any.
+    private int wakeStep;
     // Whether the organism is alive or not.
     private boolean alive;
 
     /**
-     * Create a new organism at location in field.
+     * Create a new organism at location in field, and schedule its death
+     * of old age or starvation with the timing wheel of the field.
      *
-     * @param field    The field currently occupied.
-     * @param location The location within the field.
+     * @param field     The field currently occupied.
+     * @param location  The location within the field.
+     * @param age       The age of the organism.
+     * @param foodLevel The food level of the organism; ignored if it does not need to eat.
      */
-    public Organism(Field field, Location location)
+    public Organism(Field field, Location location, int age, int foodLevel)
     {
         alive = true;
+        id = field.newOrganismId();
         this.field = field;
         setLocation(location);
+        int now = field.getTimingWheel().getStep();
+        birthStep = now - age;
+        mealStep = now;
+        mealFoodLevel = foodLevel;
+        wakeStep = Integer.MAX_VALUE;
+        schedule();
     }
 
     /**
-     * Sets the organism's age
+     * Return the id of the organism. Ids are handed out by the field in the
+     * order the organisms are created, and stay with the organism all its life.
+     *
+     * @return The id.
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * Sets the organism's age, e.g. when a saved world is loaded.
+     * Must only be used while the organism is alive.
      *
      * @param age Accepts an integer that will be set as the age of the organism
      */
     protected void setAge(int age)
     {
-        this.age = age;
+        birthStep = field.getTimingWheel().getStep() - age;
+        schedule();
     }
 
     /**
-     * Returns the organism's age
+     * Returns the organism's age. It is worked out from the step of its
+     * birth, so must only be used while the organism is alive.
      *
      * @return age Returns an integer representation of the age of the current organism
      */
     protected int getAge()
     {
-        return this.age;
+        return field.getTimingWheel().getStep() - birthStep;
     }
 
     /**
-     * Increments the organism's age
+     * Returns the organism's food level. It is worked out from the last
+     * meal, so must only be used while the organism is alive.
+     *
+     * @return The food level, or 0 for organisms that do not need to eat
      */
-    protected void incrementAge()
+    protected int getFoodLevel()
     {
-        this.age++;
-        if (this.age > this.getMaxAge()) {
-            this.setDead();
+        if (!needsFood()) {
+            return 0;
         }
+        return mealFoodLevel - (field.getTimingWheel().getStep() - mealStep);
+    }
+
+    /**
+     * Sets the organism's food level, e.g. after a meal or when a saved
+     * world is loaded. Organisms that do not need to eat ignore it.
+     * Must only be used while the organism is alive.
+     *
+     * @param foodLevel The food level
+     */
+    protected void setFoodLevel(int foodLevel)
+    {
+        if (needsFood()) {
+            mealStep = field.getTimingWheel().getStep();
+            mealFoodLevel = foodLevel;
+            schedule();
+        }
+    }
+
+    /**
+     * Return whether the organism starves when its food level runs out.
+     *
+     * @return false; overridden by the organisms that eat.
+     */
+    protected boolean needsFood()
+    {
+        return false;
+    }
+
+    /**
+     * Called by the timing wheel of the field at a step the organism was
+     * scheduled at. The organism dies if it is due; if a meal put its
+     * death off, it schedules itself again.
+     *
+     * @param step The current step.
+     * @return true if the organism died.
+     */
+    boolean wake(int step)
+    {
+        if (!isScheduledAt(step)) {
+            return false;
+        }
+        wakeStep = Integer.MAX_VALUE;
+        int oldAgeStep = birthStep + getMaxAge() + 1;
+        int dueStep = getDueStep();
+        if (dueStep > step) {
+            schedule();
+            return false;
+        }
+        setDead(dueStep == oldAgeStep ? DeathCause.AGE : DeathCause.STARVATION);
+        return true;
+    }
+
+    /**
+     * Return whether an entry of the timing wheel at a step still counts,
+     * that is, the organism is alive and has not been scheduled earlier since.
+     *
+     * @param step The step of the entry.
+     * @return true if the organism is to be woken at the step.
+     */
+    boolean isScheduledAt(int step)
+    {
+        return alive && wakeStep == step;
+    }
+
+    /**
+     * Schedule the organism with the timing wheel of the field if it is
+     * now due earlier than it is scheduled. If it is due later, it stays
+     * scheduled where it is, and schedules itself again when woken.
+     */
+    private void schedule()
+    {
+        TimingWheel wheel = field.getTimingWheel();
+        int step = Math.max(getDueStep(), wheel.getStep() + 1);
+        if (step < wakeStep) {
+            wakeStep = step;
+            wheel.schedule(this, step);
+        }
+    }
+
+    /**
+     * @return The step at which the organism dies of old age or
+     * starvation, whichever comes first; old age at the same step.
+     */
+    private int getDueStep()
+    {
+        int oldAgeStep = birthStep + getMaxAge() + 1;
+        if (needsFood()) {
+            return Math.min(oldAgeStep, mealStep + mealFoodLevel);
+        }
+        return oldAgeStep;
     }
 
     /**
@@ -68,6 +193,11 @@ public abstract class Organism
      */
     abstract protected int getMaxAge();
 
+    /**
+     * @return the species this organism belongs to
+     */
+    abstract protected Species getSpecies();
+
     /**
      * Make this organism act - that is: make it do
      * whatever it wants/needs to do.
@@ -89,8 +219,28 @@ public abstract class Organism
     /**
      * Indicate that the organism is no longer alive.
      * It is removed from the field.
+     *
+     * @param cause Why the organism died.
+     */
+    protected void setDead(DeathCause cause)
+    {
+        if (alive && field != null) {
+            field.getEvents().died(getSpecies(), cause, location);
+        }
+        alive = false;
+        if (location != null) {
+            field.clear(location);
+            location = null;
+            field = null;
+        }
+    }
+
+    /**
+     * Take the organism out of the field without it dying, e.g. because its
+     * part of the field is no longer simulated organism by organism.
+     * Afterwards the organism counts as not alive.
      */
-    protected void setDead()
+    protected void withdraw()
     {
         alive = false;
         if (location != null) {
@@ -119,11 +269,23 @@ public abstract class Organism
     {
         if (location != null) {
             field.clear(location);
+            field.getEvents().moved(getSpecies(), location, newLocation);
         }
         location = newLocation;
         field.place(this, newLocation);
     }
 
+    /**
+     * Kill another organism, e.g. to eat it or in a fight.
+     *
+     * @param prey The organism to kill.
+     */
+    protected void kill(Organism prey)
+    {
+        field.getEvents().killed(getSpecies(), prey.getSpecies(), prey.getLocation());
+        prey.setDead(DeathCause.PREDATION);
+    }
+
     /**
      * Returns the breeding age of a specific specie
      *
@@ -139,6 +301,37 @@ public abstract class Organism
         return this.getAge() >= this.getBreedingAge();
     }
 
+    /**
+     * Find a free adjacent location to move to. If the predators of the
+     * field can see beyond their neighbours and there is prey in sight,
+     * the location nearest to the prey is chosen, otherwise a random one.
+     *
+     * @param prey The species to move towards.
+     * @return A free adjacent location, or null if there is none.
+     */
+    protected Location freeLocationTowards(Species prey)
+    {
+        int radius = field.getVisionRadius();
+        if (radius > 1) {
+            Location target = field.nearestOrganism(prey, location, radius);
+            if (target != null) {
+                return field.freeAdjacentLocationTowards(location, target);
+            }
+        }
+        return field.freeAdjacentLocation(location);
+    }
+
+    /**
+     * Return the random number generator of the organism's simulation.
+     * Must only be used while the organism is alive.
+     *
+     * @return The random number generator of the field.
+     */
+    protected Random getRandom()
+    {
+        return field.getRandom();
+    }
+
     /**
      * Return the organism's field.
      *
@@ -0,0 +1,446 @@
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lets the organisms act in a step on several threads. A step has two
+ * phases:
+ * <ol>
+ * <li>Plan, in parallel. Every organism decides what it does from the
+ * field as it was at the start of the step, and claims every location it
+ * needs in the CellClaims of the engine: its own, those its young are
+ * born into, the one of the prey it eats, and the one it moves to. A
+ * claim lost to another thread makes it try the next free candidate of
+ * its neighbourhood; a prey claimed by another predator is lost, as one
+ * already eaten would be. An organism whose own location was claimed by
+ * a predator first has been eaten, and plans nothing.</li>
+ * <li>Apply, on the calling thread, in the order of the organisms: the
+ * plans are carried out through the usual methods of the field and the
+ * organisms, so the bookkeeping of the field, the events and the timing
+ * wheel see one change at a time, as in a sequential step.</li>
+ * </ol>
+ * As every location is claimed at most once, no two plans can clash:
+ * a prey is eaten by one predator only, and two organisms never move
+ * into the same location.
+ *
+ * This is not quite the model of a sequential step. There, an organism
+ * that moves away or dies frees its location at once, and those later in
+ * the list may move or give birth into it in the same step. Here every
+ * organism holds the claim on its own location for the whole step, and
+ * all plan from the field as it was at the start, so a location freed in
+ * a step is only taken again in the next one. A run with the engine
+ * therefore follows a different course from a sequential run, even on
+ * one thread, and not only because its random numbers are drawn in
+ * another order. The organisms are planned in chunks by a
+ * work-stealing pool, so threads that finish the chunks of thinly
+ * populated parts of the list take over chunks from the others.
+ *
+ * What an organism plans and how the plan is carried out is generated
+ * into the kernel of its species by the SpeciesKernelGenerator, from the
+ * same definition and with the same rules as the code it runs when it
+ * acts one by one, and the organism offers it as a StepPlanner: the
+ * engine only offers the claims. Aggressive species, whose kernels do
+ * not plan, such as the hunters who pick fights with whole packs of
+ * wolves, are no step planners and act one by one after the plans are
+ * carried out.
+ *
+ * Every organism plans with a random number generator of its own, seeded
+ * from the field's generator and its place in the list. With one thread
+ * a step is therefore repeatable; with more, which of two organisms wins
+ * a location depends on which thread gets there first.
+ *
+ * The engine owns the threads of its pool. They end when they have been
+ * idle for a while, or at once on shutdown; the Simulator that made the
+ * engine shuts it down when it is given another one or is shut down
+ * itself.
+ *
+ * @author Nikolay Tsanov
+ */
+public class ParallelStepEngine
+{
+    // The organisms planned as one piece of work; larger pieces are split and may be stolen.
+    private static final int CHUNK = 256;
+    // The most locations an organism claims for its young: its neighbours.
+    private static final int MAX_BIRTHS = 8;
+    // What became of the plan of an organism.
+    private static final byte NOT_PLANNED = 0, PLANNED = 1, ONE_BY_ONE = 2;
+
+    // The field the organisms live in.
+    private final Field field;
+    // The locations claimed in the current step.
+    private final CellClaims claims;
+    // Runs the planning.
+    private final ForkJoinPool pool;
+
+    // The organisms of the current step, in the order they act.
+    private Organism[] acting = new Organism[0];
+    // What became of the plan of every organism.
+    private byte[] plans = new byte[0];
+    // The location of the prey every organism eats, or -1, and the place of the meal in its diet.
+    private int[] preyCells = new int[0];
+    private byte[] meals = new byte[0];
+    // The location every organism moves to, or -1 if it has none.
+    private int[] destinations = new int[0];
+    // The locations every organism's young are born into: [organism * MAX_BIRTHS + birth].
+    private int[] births = new int[0];
+    private byte[] birthCounts = new byte[0];
+    // Seeds the generators of the organisms in the current step.
+    private long stepSeed;
+    // The time spent planning the organisms of every species on all threads, or null if not measured.
+    private AtomicLongArray planNanos;
+
+    /**
+     * Create an engine for the organisms of a field.
+     *
+     * @param field   The field.
+     * @param threads The number of threads that plan.
+     */
+    public ParallelStepEngine(Field field, int threads)
+    {
+        this.field = field;
+        this.claims = new CellClaims(field.getDepth(), field.getWidth());
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Let all organisms act for a step. Organisms that die stay in the
+     * list, to be removed by the caller.
+     *
+     * @param organisms    The organisms, in the order they act.
+     * @param newOrganisms A list to receive newly born organisms.
+     * @param actNanos     Receives the time the organisms of every species
+     *                     took to act, planning on all threads included,
+     *                     indexed by ordinal; or null not to measure it.
+     */
+    public void step(List<Organism> organisms, List<Organism> newOrganisms, long[] actNanos)
+    {
+        int count = organisms.size();
+        ensureCapacity(count);
+        acting = organisms.toArray(acting);
+        claims.nextRound();
+        stepSeed = field.getRandom().nextLong();
+        planNanos = actNanos == null ? null : new AtomicLongArray(actNanos.length);
+        pool.invoke(new Plan(0, count));
+
+        for (int i = 0; i < count; i++) {
+            if (plans[i] == PLANNED) {
+                long start = actNanos == null ? 0 : System.nanoTime();
+                ((StepPlanner) acting[i]).applyStep(this, i, newOrganisms);
+                if (actNanos != null) {
+                    actNanos[acting[i].getSpecies().ordinal()] += System.nanoTime() - start;
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Organism organism = acting[i];
+            if (plans[i] == ONE_BY_ONE && organism.isAlive()) {
+                long start = actNanos == null ? 0 : System.nanoTime();
+                organism.act(newOrganisms);
+                if (actNanos != null) {
+                    actNanos[organism.getSpecies().ordinal()] += System.nanoTime() - start;
+                }
+            }
+            acting[i] = null;
+        }
+        if (actNanos != null) {
+            for (int species = 0; species < actNanos.length; species++) {
+                actNanos[species] += planNanos.get(species);
+            }
+        }
+    }
+
+    /**
+     * @return The number of threads that plan.
+     */
+    public int getThreads()
+    {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stop the threads of the engine. It cannot be used afterwards.
+     */
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Claim free neighbours of an organism for its young, as many as it
+     * has or as are left.
+     *
+     * @param i      The place of the organism in the list.
+     * @param litter The number of young.
+     * @param rand   The generator of the organism.
+     */
+    void claimBirths(int i, int litter, SplittableRandom rand)
+    {
+        Location location = acting[i].getLocation();
+        int row = location.getRow();
+        int col = location.getCol();
+        int born = 0;
+        for (int candidates = field.getOccupancyPlanes().freeMask(row, col); born < litter && candidates != 0; ) {
+            int bit = takeRandomBit(candidates, rand);
+            candidates &= ~(1 << bit);
+            Location next = OccupancyPlanes.neighbour(row, col, bit);
+            if (claims.claim(next.getRow(), next.getCol())) {
+                births[i * MAX_BIRTHS + born++] = next.getRow() * field.getWidth() + next.getCol();
+            }
+        }
+        birthCounts[i] = (byte) born;
+    }
+
+    /**
+     * Pick a random neighbour of an organism holding a prey of a species,
+     * as Field.randomAdjacentLocationOf does, and claim it to eat the prey
+     * and move there. A prey that died, or was claimed by another predator
+     * first, is lost.
+     *
+     * @param i     The place of the organism in the list.
+     * @param meal  The place of the prey in the diet of the organism.
+     * @param prey  The species of the prey.
+     * @param rand  The generator of the organism.
+     * @return true if the organism eats the prey.
+     */
+    boolean claimPrey(int i, int meal, Species prey, SplittableRandom rand)
+    {
+        Location location = acting[i].getLocation();
+        int row = location.getRow();
+        int col = location.getCol();
+        int mask = field.getOccupancyPlanes().speciesMask(prey, row, col);
+        if (mask == 0) {
+            return false;
+        }
+        Location next = OccupancyPlanes.neighbour(row, col, takeRandomBit(mask, rand));
+        Object object = field.getObjectAt(next.getRow(), next.getCol());
+        if (object instanceof Organism && ((Organism) object).isAlive() && claims.claim(next.getRow(), next.getCol())) {
+            preyCells[i] = next.getRow() * field.getWidth() + next.getCol();
+            meals[i] = (byte) meal;
+            destinations[i] = preyCells[i];
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Claim a free neighbour for an organism to move to: the one nearest
+     * to the nearest organism of a species in sight, as
+     * Organism.freeLocationTowards picks it, or else a random one. A
+     * neighbour claimed by someone else is passed over.
+     *
+     * @param i      The place of the organism in the list.
+     * @param target The species to move towards, or null to move at random.
+     * @param rand   The generator of the organism.
+     */
+    void claimDestination(int i, Species target, SplittableRandom rand)
+    {
+        Location location = acting[i].getLocation();
+        int row = location.getRow();
+        int col = location.getCol();
+        int free = field.getOccupancyPlanes().freeMask(row, col);
+        Location towards = null;
+        int radius = field.getVisionRadius();
+        if (target != null && radius > 1) {
+            towards = field.nearestOrganism(target, location, radius);
+        }
+        destinations[i] = -1;
+        while (free != 0) {
+            int bit = takeRandomBit(free, rand);
+            if (towards != null) {
+                // Of the neighbours left, the nearest to the target; ties go to the random one.
+                int bestDistance = distance(OccupancyPlanes.neighbour(row, col, bit), towards);
+                for (int others = free & ~(1 << bit); others != 0; others &= others - 1) {
+                    int other = Integer.numberOfTrailingZeros(others);
+                    int otherDistance = distance(OccupancyPlanes.neighbour(row, col, other), towards);
+                    if (otherDistance < bestDistance) {
+                        bit = other;
+                        bestDistance = otherDistance;
+                    }
+                }
+            }
+            free &= ~(1 << bit);
+            Location next = OccupancyPlanes.neighbour(row, col, bit);
+            if (claims.claim(next.getRow(), next.getCol())) {
+                destinations[i] = next.getRow() * field.getWidth() + next.getCol();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param i The place of an organism in the list.
+     * @return The number of young the organism has.
+     */
+    int getBirthCount(int i)
+    {
+        return birthCounts[i];
+    }
+
+    /**
+     * @param i The place of an organism in the list.
+     * @param b The young.
+     * @return Where the young is born.
+     */
+    Location getBirth(int i, int b)
+    {
+        return toLocation(births[i * MAX_BIRTHS + b]);
+    }
+
+    /**
+     * @param i The place of an organism in the list.
+     * @return Where the prey the organism eats is, or null if it eats none.
+     */
+    Location getPrey(int i)
+    {
+        return preyCells[i] < 0 ? null : toLocation(preyCells[i]);
+    }
+
+    /**
+     * @param i The place of an organism in the list.
+     * @return The place in its diet of the prey the organism eats.
+     */
+    int getMeal(int i)
+    {
+        return meals[i];
+    }
+
+    /**
+     * @param i The place of an organism in the list.
+     * @return Where the organism moves to, or null if it has nowhere to go.
+     */
+    Location getDestination(int i)
+    {
+        return destinations[i] < 0 ? null : toLocation(destinations[i]);
+    }
+
+    /**
+     * Plan the step of an organism, claiming the locations it needs.
+     *
+     * @param i The place of the organism in the list.
+     */
+    private void plan(int i)
+    {
+        plans[i] = NOT_PLANNED;
+        Organism organism = acting[i];
+        if (!organism.isAlive()) {
+            return;
+        }
+        Location location = organism.getLocation();
+        if (!claims.claim(location.getRow(), location.getCol())) {
+            // Eaten by a predator that planned first.
+            return;
+        }
+        birthCounts[i] = 0;
+        preyCells[i] = -1;
+        destinations[i] = -1;
+        if (organism instanceof StepPlanner) {
+            ((StepPlanner) organism).planStep(this, i, new SplittableRandom(mix(stepSeed + i)));
+            plans[i] = PLANNED;
+        } else {
+            plans[i] = ONE_BY_ONE;
+        }
+    }
+
+    /**
+     * Make room for the plans of a number of organisms.
+     */
+    private void ensureCapacity(int count)
+    {
+        if (plans.length >= count) {
+            return;
+        }
+        int capacity = Math.max(count, plans.length * 2);
+        acting = new Organism[capacity];
+        plans = new byte[capacity];
+        preyCells = new int[capacity];
+        meals = new byte[capacity];
+        destinations = new int[capacity];
+        births = new int[capacity * MAX_BIRTHS];
+        birthCounts = new byte[capacity];
+    }
+
+    /**
+     * @return A random set bit of a mask, which must not be 0.
+     */
+    private static int takeRandomBit(int mask, SplittableRandom rand)
+    {
+        return OccupancyPlanes.nthSetBit(mask, rand.nextInt(Integer.bitCount(mask)));
+    }
+
+    /**
+     * @return The location with a row * width + col number.
+     */
+    private Location toLocation(int cell)
+    {
+        return new Location(cell / field.getWidth(), cell % field.getWidth());
+    }
+
+    /**
+     * @return The squared distance between two locations.
+     */
+    private static int distance(Location a, Location b)
+    {
+        int rows = a.getRow() - b.getRow();
+        int cols = a.getCol() - b.getCol();
+        return rows * rows + cols * cols;
+    }
+
+    /**
+     * @return The bits of a number, mixed so that close numbers seed unrelated generators.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Plans a range of the organisms, splitting it while it is larger than a chunk.
+     */
+    private class Plan extends RecursiveAction
+    {
+        // Tasks are not serialized, but ForkJoinTask is Serializable.
+        private static final long serialVersionUID = 1L;
+
+        // The range of organisms, from inclusive to exclusive.
+        private final int from, to;
+
+        /**
+         * @param from The first organism of the range.
+         * @param to   The organism after the range.
+         */
+        Plan(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute()
+        {
+            if (to - from <= CHUNK) {
+                if (planNanos == null) {
+                    for (int i = from; i < to; i++) {
+                        plan(i);
+                    }
+                    return;
+                }
+                // Added up here, so that the threads meet once per chunk.
+                long[] nanos = new long[planNanos.length()];
+                for (int i = from; i < to; i++) {
+                    long start = System.nanoTime();
+                    plan(i);
+                    nanos[acting[i].getSpecies().ordinal()] += System.nanoTime() - start;
+                }
+                for (int species = 0; species < nanos.length; species++) {
+                    planNanos.addAndGet(species, nanos[species]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Plan(from, middle), new Plan(middle, to));
+        }
+    }
+}
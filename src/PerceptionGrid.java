@@ -0,0 +1,271 @@
+/**
+ * Answers questions about what an organism can see within a radius of its
+ * location: "where is the nearest fox?" or "how many wolves are around?".
+ *
+ * The field is divided into square buckets, and the grid keeps count of
+ * how many organisms of each species are in every bucket. The field tells
+ * the grid about every change, so the counts are always up to date.
+ * A query only looks at the locations of buckets that contain the
+ * species it asks about, and can count whole buckets without looking at
+ * their locations at all.
+ *
+ * Distances are measured in steps of a king's move (the larger of the row
+ * and column distance), since organisms move to any of their 8 neighbours.
+ *
+ * @author Nikolay Tsanov
+ */
+public class PerceptionGrid
+{
+    // The size of a bucket, in locations along each side.
+    public static final int BUCKET_SIZE = 8;
+    // log2 of BUCKET_SIZE.
+    private static final int BUCKET_SHIFT = 3;
+
+    // The field whose organisms are counted.
+    private final Field field;
+    // The number of buckets in each direction.
+    private final int bucketRows, bucketCols;
+    // The count of every species in every bucket: [species][bucket].
+    private final int[][] counts;
+    // The count of every species in the whole field.
+    private final int[] totals;
+
+    /**
+     * Create an empty grid for a field.
+     *
+     * @param field The field.
+     */
+    public PerceptionGrid(Field field)
+    {
+        this.field = field;
+        bucketRows = (field.getDepth() + BUCKET_SIZE - 1) >> BUCKET_SHIFT;
+        bucketCols = (field.getWidth() + BUCKET_SIZE - 1) >> BUCKET_SHIFT;
+        counts = new int[Species.values().length][bucketRows * bucketCols];
+        totals = new int[Species.values().length];
+    }
+
+    /**
+     * Count an organism that was placed at a location.
+     *
+     * @param species The species of the organism.
+     * @param row     The row of the location.
+     * @param col     The column of the location.
+     */
+    public void added(Species species, int row, int col)
+    {
+        counts[species.ordinal()][bucketOf(row, col)]++;
+        totals[species.ordinal()]++;
+    }
+
+    /**
+     * Stop counting an organism that was removed from a location.
+     *
+     * @param species The species of the organism.
+     * @param row     The row of the location.
+     * @param col     The column of the location.
+     */
+    public void removed(Species species, int row, int col)
+    {
+        counts[species.ordinal()][bucketOf(row, col)]--;
+        totals[species.ordinal()]--;
+    }
+
+    /**
+     * Forget all organisms.
+     */
+    public void clear()
+    {
+        for (int[] speciesCounts : counts) {
+            for (int bucket = 0; bucket < speciesCounts.length; bucket++) {
+                speciesCounts[bucket] = 0;
+            }
+        }
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = 0;
+        }
+    }
+
+    /**
+     * Return how many organisms of a species are in a bucket.
+     *
+     * @param species   The species.
+     * @param bucketRow The row of the bucket.
+     * @param bucketCol The column of the bucket.
+     * @return The number of organisms.
+     */
+    public int getCount(Species species, int bucketRow, int bucketCol)
+    {
+        return counts[species.ordinal()][bucketRow * bucketCols + bucketCol];
+    }
+
+    /**
+     * Return how many organisms of a species are in the field.
+     *
+     * @param species The species.
+     * @return The number of organisms.
+     */
+    public int getTotal(Species species)
+    {
+        return totals[species.ordinal()];
+    }
+
+    /**
+     * @return The number of bucket rows.
+     */
+    public int getBucketRows()
+    {
+        return bucketRows;
+    }
+
+    /**
+     * @return The number of bucket columns.
+     */
+    public int getBucketCols()
+    {
+        return bucketCols;
+    }
+
+    /**
+     * Count the organisms of a species within a radius of a location.
+     * The location itself is included.
+     *
+     * @param species The species to count.
+     * @param center  The location to look from.
+     * @param radius  How far to look.
+     * @return The number of organisms of the species within the radius.
+     */
+    public int countWithin(Species species, Location center, int radius)
+    {
+        int[] speciesCounts = counts[species.ordinal()];
+        int top = Math.max(0, center.getRow() - radius);
+        int bottom = Math.min(field.getDepth() - 1, center.getRow() + radius);
+        int left = Math.max(0, center.getCol() - radius);
+        int right = Math.min(field.getWidth() - 1, center.getCol() + radius);
+
+        int count = 0;
+        for (int bucketRow = top >> BUCKET_SHIFT; bucketRow <= bottom >> BUCKET_SHIFT; bucketRow++) {
+            int rowStart = Math.max(top, bucketRow << BUCKET_SHIFT);
+            int rowEnd = Math.min(bottom, (bucketRow << BUCKET_SHIFT) + BUCKET_SIZE - 1);
+            for (int bucketCol = left >> BUCKET_SHIFT; bucketCol <= right >> BUCKET_SHIFT; bucketCol++) {
+                int bucketCount = speciesCounts[bucketRow * bucketCols + bucketCol];
+                if (bucketCount == 0) {
+                    continue;
+                }
+                int colStart = Math.max(left, bucketCol << BUCKET_SHIFT);
+                int colEnd = Math.min(right, (bucketCol << BUCKET_SHIFT) + BUCKET_SIZE - 1);
+                if (isWholeBucket(bucketRow, bucketCol, rowStart, rowEnd, colStart, colEnd)) {
+                    count += bucketCount;
+                } else {
+                    count += scan(species, rowStart, rowEnd, colStart, colEnd);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find the nearest organism of a species within a radius of a location.
+     * The location itself is not considered. Of several organisms at the
+     * same distance, the one closest in a straight line is chosen.
+     *
+     * @param species The species to look for.
+     * @param center  The location to look from.
+     * @param radius  How far to look.
+     * @return The location of the nearest live organism, or null if there is none.
+     */
+    public Location nearest(Species species, Location center, int radius)
+    {
+        int[] speciesCounts = counts[species.ordinal()];
+        int centerRow = center.getRow();
+        int centerCol = center.getCol();
+        int centerBucketRow = centerRow >> BUCKET_SHIFT;
+        int centerBucketCol = centerCol >> BUCKET_SHIFT;
+        int maxRing = (radius + BUCKET_SIZE - 1) >> BUCKET_SHIFT;
+
+        int bestDistance = Integer.MAX_VALUE;
+        int bestStraight = Integer.MAX_VALUE;
+        int bestRow = -1, bestCol = -1;
+
+        // Visit the buckets in rings around the bucket of the center. Every
+        // location in ring n is more than (n - 1) * BUCKET_SIZE away.
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (ring >= 1 && (ring - 1) * BUCKET_SIZE >= bestDistance) {
+                break;
+            }
+            for (int bucketRow = centerBucketRow - ring; bucketRow <= centerBucketRow + ring; bucketRow++) {
+                if (bucketRow < 0 || bucketRow >= bucketRows) {
+                    continue;
+                }
+                boolean edgeRow = bucketRow == centerBucketRow - ring || bucketRow == centerBucketRow + ring;
+                int step = edgeRow || ring == 0 ? 1 : 2 * ring;
+                for (int bucketCol = centerBucketCol - ring; bucketCol <= centerBucketCol + ring; bucketCol += step) {
+                    if (bucketCol < 0 || bucketCol >= bucketCols
+                            || speciesCounts[bucketRow * bucketCols + bucketCol] == 0) {
+                        continue;
+                    }
+                    int rowStart = Math.max(bucketRow << BUCKET_SHIFT, centerRow - radius);
+                    int rowEnd = Math.min(Math.min((bucketRow << BUCKET_SHIFT) + BUCKET_SIZE, field.getDepth()) - 1, centerRow + radius);
+                    int colStart = Math.max(bucketCol << BUCKET_SHIFT, centerCol - radius);
+                    int colEnd = Math.min(Math.min((bucketCol << BUCKET_SHIFT) + BUCKET_SIZE, field.getWidth()) - 1, centerCol + radius);
+                    for (int row = rowStart; row <= rowEnd; row++) {
+                        for (int col = colStart; col <= colEnd; col++) {
+                            if (row == centerRow && col == centerCol) {
+                                continue;
+                            }
+                            Object organism = field.getObjectAt(row, col);
+                            if (Species.of(organism) != species || !((Organism) organism).isAlive()) {
+                                continue;
+                            }
+                            int rowDistance = Math.abs(row - centerRow);
+                            int colDistance = Math.abs(col - centerCol);
+                            int distance = Math.max(rowDistance, colDistance);
+                            int straight = rowDistance * rowDistance + colDistance * colDistance;
+                            if (distance < bestDistance || (distance == bestDistance && straight < bestStraight)) {
+                                bestDistance = distance;
+                                bestStraight = straight;
+                                bestRow = row;
+                                bestCol = col;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return bestRow < 0 ? null : new Location(bestRow, bestCol);
+    }
+
+    /**
+     * @return The index of the bucket holding a location.
+     */
+    private int bucketOf(int row, int col)
+    {
+        return (row >> BUCKET_SHIFT) * bucketCols + (col >> BUCKET_SHIFT);
+    }
+
+    /**
+     * @return true if the given range covers every location of the bucket.
+     */
+    private boolean isWholeBucket(int bucketRow, int bucketCol, int rowStart, int rowEnd, int colStart, int colEnd)
+    {
+        return rowStart == bucketRow << BUCKET_SHIFT
+                && rowEnd == Math.min(field.getDepth(), (bucketRow << BUCKET_SHIFT) + BUCKET_SIZE) - 1
+                && colStart == bucketCol << BUCKET_SHIFT
+                && colEnd == Math.min(field.getWidth(), (bucketCol << BUCKET_SHIFT) + BUCKET_SIZE) - 1;
+    }
+
+    /**
+     * Count the organisms of a species in a rectangle by looking at every location.
+     */
+    private int scan(Species species, int rowStart, int rowEnd, int colStart, int colEnd)
+    {
+        int count = 0;
+        for (int row = rowStart; row <= rowEnd; row++) {
+            for (int col = colStart; col <= colEnd; col++) {
+                if (Species.of(field.getObjectAt(row, col)) == species) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
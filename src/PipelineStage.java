@@ -0,0 +1,18 @@
+/**
+ * One stage of a StepPipeline, such as counting, rendering or exporting
+ * the field. Each stage runs on its own thread and is handed a snapshot
+ * of the field for the steps it keeps up with, in order.
+ *
+ * @author Nikolay Tsanov
+ */
+public interface PipelineStage
+{
+    /**
+     * Process the field of one step. The snapshot is reused for later steps
+     * once this method returns, so it must be copied to be kept.
+     *
+     * @param snapshot The field after the step.
+     * @throws InterruptedException if the pipeline is stopped while waiting.
+     */
+    void process(FieldSnapshot snapshot) throws InterruptedException;
+}
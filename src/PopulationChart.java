@@ -0,0 +1,260 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import javax.swing.JPanel;
+
+/**
+ * A live chart of the population of every species over the whole run,
+ * drawn from a PopulationHistory.
+ *
+ * The chart is drawn into an image and extended as steps come in: a new
+ * step only draws the line from the last point, so a frame costs the same
+ * however long the run is. The x axis holds twice the steps run so far,
+ * and the y axis half as much again as the largest population; when the
+ * run outgrows either, the chart is drawn again at the new scale, from the
+ * finest level of the history that holds the whole run, thinned out to
+ * about one point per pixel with PopulationHistory.downsample. That
+ * happens once every time the run doubles in length.
+ *
+ * @author Nikolay Tsanov
+ */
+public class PopulationChart extends JPanel
+{
+    // Charts are not serialized, but Swing components are Serializable.
+    private static final long serialVersionUID = 1L;
+
+    // The space around the plot, in pixels.
+    private static final int MARGIN = 4;
+    // The space for the labels at the top, in pixels.
+    private static final int LABEL_HEIGHT = 14;
+    // The color of the background and of the axis.
+    private static final Color BACKGROUND = Color.white, AXIS = Color.lightGray;
+
+    // The history shown.
+    private final PopulationHistory history;
+    // The color of every species, indexed by ordinal.
+    private final Color[] colors;
+    // The size the chart would like to be.
+    private final Dimension preferredSize;
+    // The chart, as drawn so far.
+    private BufferedImage image;
+    // The step at the left edge, and the steps per pixel.
+    private int firstStep;
+    private double stepsPerPixel;
+    // The population at the top edge.
+    private float top;
+    // The last step drawn, or -1 if nothing is drawn.
+    private int lastStep;
+    // The last point drawn of every species, in pixels.
+    private final int[] lastX, lastY;
+    // Reused to read from the history.
+    private final int[] steps;
+    private final float[][] values;
+
+    /**
+     * Create a chart of a history.
+     *
+     * @param history The history.
+     * @param colors  The color of every species, indexed by ordinal.
+     * @param width   The width the chart would like to have.
+     * @param height  The height the chart would like to have.
+     */
+    public PopulationChart(PopulationHistory history, Color[] colors, int width, int height)
+    {
+        this.history = history;
+        this.colors = colors.clone();
+        this.preferredSize = new Dimension(width, height);
+        int speciesCount = Species.values().length;
+        lastX = new int[speciesCount];
+        lastY = new int[speciesCount];
+        steps = new int[PopulationHistory.CAPACITY];
+        values = new float[speciesCount][PopulationHistory.CAPACITY];
+        lastStep = -1;
+    }
+
+    /**
+     * Tell the GUI manager how big we would like to be.
+     */
+    public Dimension getPreferredSize()
+    {
+        return preferredSize;
+    }
+
+    /**
+     * Change the color of a species. The chart is drawn again.
+     *
+     * @param species The species.
+     * @param color   The color.
+     */
+    public void setColor(Species species, Color color)
+    {
+        colors[species.ordinal()] = color;
+        lastStep = -1;
+    }
+
+    /**
+     * Draw the steps recorded since the last update. Must be called on the
+     * event dispatch thread.
+     */
+    public void update()
+    {
+        if (image == null || image.getWidth() != getWidth() || image.getHeight() != getHeight()) {
+            if (getWidth() <= 0 || getHeight() <= 0) {
+                return;
+            }
+            image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+            lastStep = -1;
+        }
+        int count = lastStep < 0 ? -1 : history.copySince(lastStep, steps, values);
+        if (count < 0) {
+            redraw();
+        } else if (count > 0) {
+            extend(count);
+        }
+        repaint();
+    }
+
+    /**
+     * Copy the chart to the screen.
+     */
+    public void paintComponent(Graphics g)
+    {
+        super.paintComponent(g);
+        if (image != null) {
+            g.drawImage(image, 0, 0, null);
+        }
+    }
+
+    /**
+     * Draw new steps onto the chart, or the whole chart again if they do not fit.
+     *
+     * @param count The number of new steps in steps and values.
+     */
+    private void extend(int count)
+    {
+        if (xOf(steps[count - 1]) >= image.getWidth() - MARGIN || maxOf(count) > top) {
+            redraw();
+            return;
+        }
+        Graphics2D g = graphics();
+        for (int i = 0; i < count; i++) {
+            int x = xOf(steps[i]);
+            for (int species = 0; species < values.length; species++) {
+                int y = yOf(values[species][i]);
+                // Many steps may share a pixel column; only draw what moves.
+                if (x != lastX[species] || y != lastY[species]) {
+                    g.setColor(colors[species]);
+                    g.drawLine(lastX[species], lastY[species], x, y);
+                    lastX[species] = x;
+                    lastY[species] = y;
+                }
+            }
+        }
+        g.dispose();
+        lastStep = steps[count - 1];
+    }
+
+    /**
+     * Draw the whole run again at a scale with room to grow.
+     */
+    private void redraw()
+    {
+        int level = history.getWholeRunLevel();
+        int count = history.copy(level, steps, values);
+        int plotWidth = image.getWidth() - 2 * MARGIN;
+        Graphics2D g = graphics();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        if (count == 0) {
+            g.dispose();
+            lastStep = -1;
+            return;
+        }
+        firstStep = steps[0];
+        int lastRecorded = history.getLastStep();
+        stepsPerPixel = Math.max(1.0, 2.0 * (lastRecorded - firstStep + 1) / plotWidth);
+        top = Math.max(10, history.getLargest() * 1.5f);
+
+        g.setColor(AXIS);
+        g.drawLine(MARGIN, yOf(0), image.getWidth() - MARGIN, yOf(0));
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 10));
+        g.drawString(String.format("%.0f", top) + "   steps " + firstStep + "-"
+                + (firstStep + (int) (stepsPerPixel * plotWidth)), MARGIN, MARGIN + 10);
+
+        for (int species = 0; species < values.length; species++) {
+            g.setColor(colors[species]);
+            int[] chosen = PopulationHistory.downsample(steps, values[species], count, Math.max(3, plotWidth));
+            int x = xOf(steps[chosen[0]]);
+            int y = yOf(values[species][chosen[0]]);
+            for (int i = 1; i < chosen.length; i++) {
+                int nextX = xOf(steps[chosen[i]]);
+                int nextY = yOf(values[species][chosen[i]]);
+                g.drawLine(x, y, nextX, nextY);
+                x = nextX;
+                y = nextY;
+            }
+            lastX[species] = x;
+            lastY[species] = y;
+        }
+        g.dispose();
+        lastStep = steps[count - 1];
+        // Coarse levels end before the last step; draw on from level 0,
+        // or skip the few steps level 0 no longer holds.
+        if (lastStep < lastRecorded) {
+            int recent = history.copySince(lastStep, steps, values);
+            if (recent > 0) {
+                extend(recent);
+            } else {
+                lastStep = lastRecorded;
+            }
+        }
+    }
+
+    /**
+     * @return A graphics context for the image, with smooth lines.
+     */
+    private Graphics2D graphics()
+    {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setStroke(new BasicStroke(1.2f));
+        return g;
+    }
+
+    /**
+     * @return The largest population of any species in the first count points.
+     */
+    private float maxOf(int count)
+    {
+        float max = 0;
+        for (float[] speciesValues : values) {
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, speciesValues[i]);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return The pixel column of a step.
+     */
+    private int xOf(int step)
+    {
+        return MARGIN + (int) ((step - firstStep) / stepsPerPixel);
+    }
+
+    /**
+     * @return The pixel row of a population.
+     */
+    private int yOf(float population)
+    {
+        int plotTop = MARGIN + LABEL_HEIGHT;
+        int plotBottom = image.getHeight() - MARGIN;
+        return plotBottom - (int) ((plotBottom - plotTop) * population / top);
+    }
+}
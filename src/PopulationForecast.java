@@ -0,0 +1,143 @@
+/**
+ * Where a PopulationModel expects the populations to be some steps ahead,
+ * and how sure it is. The expected population of a species is the mean
+ * over the trajectories the model ran; its range holds all but the
+ * highest and lowest 5% of them. Half the width of the range is the
+ * error bound of the forecast. The bound only covers the noise of the
+ * fitted model, not how well the model fits: the residual error of every
+ * species tells that, as the spread of its log growth around the fit in
+ * a single step.
+ *
+ * @author Nikolay Tsanov
+ */
+public class PopulationForecast
+{
+    // The step forecast from.
+    private final int fromStep;
+    // The number of steps ahead.
+    private final int steps;
+    // The number of trajectories run.
+    private final int trajectories;
+    // The mean population of every species, indexed by ordinal.
+    private final double[] expected;
+    // The range of the population of every species, indexed by ordinal.
+    private final double[] lower, upper;
+    // The spread of the log growth of every species around the fit in a step.
+    private final double[] residualError;
+
+    /**
+     * Describe a forecast.
+     *
+     * @param fromStep      The step forecast from.
+     * @param steps         The number of steps ahead.
+     * @param trajectories  The number of trajectories run.
+     * @param expected      The mean population of every species, indexed by ordinal.
+     * @param lower         The low end of the range of every species.
+     * @param upper         The high end of the range of every species.
+     * @param residualError The spread of the log growth of every species around the fit in a step.
+     */
+    public PopulationForecast(int fromStep, int steps, int trajectories, double[] expected,
+                              double[] lower, double[] upper, double[] residualError)
+    {
+        this.fromStep = fromStep;
+        this.steps = steps;
+        this.trajectories = trajectories;
+        this.expected = expected;
+        this.lower = lower;
+        this.upper = upper;
+        this.residualError = residualError;
+    }
+
+    /**
+     * @return The step forecast from.
+     */
+    public int getFromStep()
+    {
+        return fromStep;
+    }
+
+    /**
+     * @return The step forecast.
+     */
+    public int getToStep()
+    {
+        return fromStep + steps;
+    }
+
+    /**
+     * @return The number of steps ahead.
+     */
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * @return The number of trajectories run.
+     */
+    public int getTrajectories()
+    {
+        return trajectories;
+    }
+
+    /**
+     * @param species A species.
+     * @return The expected population of the species.
+     */
+    public double getExpected(Species species)
+    {
+        return expected[species.ordinal()];
+    }
+
+    /**
+     * @param species A species.
+     * @return The low end of the range of the population of the species.
+     */
+    public double getLower(Species species)
+    {
+        return lower[species.ordinal()];
+    }
+
+    /**
+     * @param species A species.
+     * @return The high end of the range of the population of the species.
+     */
+    public double getUpper(Species species)
+    {
+        return upper[species.ordinal()];
+    }
+
+    /**
+     * @param species A species.
+     * @return Half the width of the range of the population of the species.
+     */
+    public double getErrorBound(Species species)
+    {
+        return (upper[species.ordinal()] - lower[species.ordinal()]) / 2;
+    }
+
+    /**
+     * @param species A species.
+     * @return The spread of the log growth of the species around the fit in a step.
+     */
+    public double getResidualError(Species species)
+    {
+        return residualError[species.ordinal()];
+    }
+
+    /**
+     * @return A string of the form "Steps 100-10100: Rabbit=4000 +-300 (3700-4600) ..."
+     */
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Steps ").append(fromStep).append('-').append(getToStep()).append(':');
+        for (Species species : Species.values()) {
+            builder.append(' ').append(species.getDisplayName()).append('=')
+                    .append(Math.round(getExpected(species))).append(" +-").append(Math.round(getErrorBound(species)))
+                    .append(" (").append(Math.round(getLower(species))).append('-')
+                    .append(Math.round(getUpper(species))).append(')');
+        }
+        return builder.toString();
+    }
+}
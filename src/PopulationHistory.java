@@ -0,0 +1,324 @@
+/**
+ * The population of every species at every step of a run, kept in a fixed
+ * amount of memory however long the run is.
+ *
+ * The history has a number of levels, each a ring of CAPACITY points.
+ * Level 0 holds the last CAPACITY steps as they were. Every point of level
+ * k stands for LEVEL_FACTOR points of level k - 1, so level k reaches
+ * LEVEL_FACTOR^k times further back at a coarser resolution. For every
+ * species it keeps the one of those points farthest from their mean,
+ * rather than the mean, so the peaks and troughs of population cycles
+ * survive. To show the whole run, take the finest level that still holds
+ * its start.
+ *
+ * The history listens to the simulation and may be read from another
+ * thread, e.g. by a chart on the event dispatch thread.
+ *
+ * @author Nikolay Tsanov
+ */
+public class PopulationHistory implements StepListener
+{
+    // The number of points of every level.
+    public static final int CAPACITY = 4096;
+    // The number of points of a level joined into one point of the level above.
+    public static final int LEVEL_FACTOR = 4;
+    // The number of levels; the top one reaches back 4^11 * 4096 steps.
+    public static final int LEVELS = 12;
+
+    // The step of every point: [level][point].
+    private final int[][] steps;
+    // The population of every species at every point: [level][species][point].
+    private final float[][][] values;
+    // The number of points every level holds.
+    private final int[] sizes;
+    // Where the next point of every level goes.
+    private final int[] heads;
+    // The points waiting to be joined into a point of every level: [level][species][point].
+    private final float[][][] pending;
+    // The number of points waiting for every level, and the step of the first of them.
+    private final int[] pendingCounts, pendingSteps;
+    // The first and last step recorded, or -1.
+    private int firstStep, lastStep;
+    // The largest population of any species recorded.
+    private float largest;
+    // Reused for the counts of a step, and for the points passed to every level.
+    private final float[] stepCounts;
+    private final float[][] joined;
+
+    /**
+     * Create an empty history.
+     */
+    public PopulationHistory()
+    {
+        int speciesCount = Species.values().length;
+        steps = new int[LEVELS][CAPACITY];
+        values = new float[LEVELS][speciesCount][CAPACITY];
+        sizes = new int[LEVELS];
+        heads = new int[LEVELS];
+        pending = new float[LEVELS][speciesCount][LEVEL_FACTOR];
+        pendingCounts = new int[LEVELS];
+        pendingSteps = new int[LEVELS];
+        stepCounts = new float[speciesCount];
+        joined = new float[LEVELS][speciesCount];
+        clear();
+    }
+
+    /**
+     * Record the populations after a step. A step that is not after the
+     * last one recorded (the simulation was reset) starts a new history.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public void stepCompleted(int step, Field field)
+    {
+        PerceptionGrid perception = field.getPerceptionGrid();
+        synchronized (this) {
+            for (Species species : Species.values()) {
+                stepCounts[species.ordinal()] = perception.getTotal(species);
+            }
+            record(step, stepCounts);
+        }
+    }
+
+    /**
+     * Record the populations at a step.
+     *
+     * @param step   The step.
+     * @param counts The population of every species, indexed by ordinal.
+     */
+    public synchronized void record(int step, float[] counts)
+    {
+        if (step <= lastStep) {
+            clear();
+        }
+        if (firstStep < 0) {
+            firstStep = step;
+        }
+        lastStep = step;
+        for (float count : counts) {
+            largest = Math.max(largest, count);
+        }
+        add(0, step, counts);
+    }
+
+    /**
+     * Forget everything.
+     */
+    public synchronized void clear()
+    {
+        for (int level = 0; level < LEVELS; level++) {
+            sizes[level] = 0;
+            heads[level] = 0;
+            pendingCounts[level] = 0;
+        }
+        firstStep = -1;
+        lastStep = -1;
+        largest = 0;
+    }
+
+    /**
+     * Return the finest level that still holds the first step recorded.
+     *
+     * @return The level.
+     */
+    public synchronized int getWholeRunLevel()
+    {
+        for (int level = 0; level < LEVELS - 1; level++) {
+            if (sizes[level] < CAPACITY) {
+                return level;
+            }
+        }
+        return LEVELS - 1;
+    }
+
+    /**
+     * Copy the points of a level, oldest first.
+     *
+     * @param level      The level.
+     * @param stepsOut   Receives the step of every point; CAPACITY long.
+     * @param valuesOut  Receives the population of every species at every point: [species][point], CAPACITY long.
+     * @return The number of points copied.
+     */
+    public synchronized int copy(int level, int[] stepsOut, float[][] valuesOut)
+    {
+        return copyFrom(level, sizes[level], stepsOut, valuesOut);
+    }
+
+    /**
+     * Copy the steps of level 0 after a given step, oldest first.
+     *
+     * @param afterStep The last step already known.
+     * @param stepsOut  Receives the step of every point; CAPACITY long.
+     * @param valuesOut Receives the population of every species at every point: [species][point], CAPACITY long.
+     * @return The number of steps copied, or -1 if some of the steps after
+     *         the given one are no longer held, or the history was started again.
+     */
+    public synchronized int copySince(int afterStep, int[] stepsOut, float[][] valuesOut)
+    {
+        if (lastStep < afterStep || afterStep < firstStep - 1) {
+            return -1;
+        }
+        int count = lastStep - afterStep;
+        if (count > sizes[0]) {
+            return -1;
+        }
+        return copyFrom(0, count, stepsOut, valuesOut);
+    }
+
+    /**
+     * @return The first step recorded, or -1 if there is none.
+     */
+    public synchronized int getFirstStep()
+    {
+        return firstStep;
+    }
+
+    /**
+     * @return The last step recorded, or -1 if there is none.
+     */
+    public synchronized int getLastStep()
+    {
+        return lastStep;
+    }
+
+    /**
+     * @return The largest population of any species recorded.
+     */
+    public synchronized float getLargest()
+    {
+        return largest;
+    }
+
+    /**
+     * Choose the points that best keep the shape of a series when drawn
+     * with fewer points, with the Largest-Triangle-Three-Buckets algorithm:
+     * the first and last points are kept, the rest is divided into equal
+     * buckets, and from every bucket the point is kept that makes the
+     * largest triangle with the point kept before it and the mean of the
+     * next bucket. Peaks and troughs survive, unlike with averaging.
+     *
+     * @param x         The x of every point, increasing.
+     * @param y         The y of every point.
+     * @param count     The number of points.
+     * @param threshold The number of points wanted, at least 3.
+     * @return The indices of the chosen points, in order.
+     */
+    public static int[] downsample(int[] x, float[] y, int count, int threshold)
+    {
+        if (threshold >= count || threshold < 3) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] chosen = new int[threshold];
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int previous = 0;
+        chosen[0] = 0;
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // The mean of the next bucket, or the last point.
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min(count, (int) ((bucket + 2) * bucketSize) + 1);
+            double meanX = 0, meanY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                meanX += x[i];
+                meanY += y[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            meanX /= nextCount;
+            meanY /= nextCount;
+
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double largest = -1;
+            int best = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((x[previous] - meanX) * (y[i] - y[previous])
+                        - (x[previous] - x[i]) * (meanY - y[previous]));
+                if (area > largest) {
+                    largest = area;
+                    best = i;
+                }
+            }
+            chosen[bucket + 1] = best;
+            previous = best;
+        }
+        chosen[threshold - 1] = count - 1;
+        return chosen;
+    }
+
+    /**
+     * Add a point to a level, and pass it on to the level above.
+     */
+    private void add(int level, int step, float[] counts)
+    {
+        int head = heads[level];
+        steps[level][head] = step;
+        for (int species = 0; species < counts.length; species++) {
+            values[level][species][head] = counts[species];
+        }
+        heads[level] = (head + 1) % CAPACITY;
+        if (sizes[level] < CAPACITY) {
+            sizes[level]++;
+        }
+
+        int above = level + 1;
+        if (above == LEVELS) {
+            return;
+        }
+        if (pendingCounts[above] == 0) {
+            pendingSteps[above] = step;
+        }
+        int waiting = pendingCounts[above]++;
+        for (int species = 0; species < counts.length; species++) {
+            pending[above][species][waiting] = counts[species];
+        }
+        if (pendingCounts[above] == LEVEL_FACTOR) {
+            for (int species = 0; species < counts.length; species++) {
+                joined[above][species] = farthestFromMean(pending[above][species]);
+            }
+            pendingCounts[above] = 0;
+            add(above, pendingSteps[above], joined[above]);
+        }
+    }
+
+    /**
+     * @return The value farthest from the mean of the values.
+     */
+    private static float farthestFromMean(float[] points)
+    {
+        double mean = 0;
+        for (float point : points) {
+            mean += point;
+        }
+        mean /= points.length;
+        float farthest = points[0];
+        for (float point : points) {
+            if (Math.abs(point - mean) > Math.abs(farthest - mean)) {
+                farthest = point;
+            }
+        }
+        return farthest;
+    }
+
+    /**
+     * Copy the newest points of a level, oldest first.
+     */
+    private int copyFrom(int level, int count, int[] stepsOut, float[][] valuesOut)
+    {
+        int start = heads[level] - count;
+        if (start < 0) {
+            start += CAPACITY;
+        }
+        for (int i = 0; i < count; i++) {
+            int point = (start + i) % CAPACITY;
+            stepsOut[i] = steps[level][point];
+            for (int species = 0; species < valuesOut.length; species++) {
+                valuesOut[species][i] = values[level][species][point];
+            }
+        }
+        return count;
+    }
+}
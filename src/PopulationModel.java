@@ -0,0 +1,344 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * A model of how the population of every species changes from step to
+ * step, fitted to the populations a simulation has had so far. It is a
+ * stochastic Lotka-Volterra model in discrete time: the growth of every
+ * species in a step is a rate of its own plus a linear effect of the
+ * density of every species, prey and predators alike, with noise.
+ * <pre>
+ *     ln(x_i(t + 1) / x_i(t)) = r_i + sum_j a_ij * x_j(t) / cells + e_i,  e_i ~ N(0, s_i^2)
+ * </pre>
+ * For every species this is a linear regression of the log growth on the
+ * densities. The model keeps its normal equations and updates them after
+ * every step, so fitting costs the same however long the run is. Older
+ * steps count for less by a factor FORGETTING per step, so the model
+ * follows a run that settles into a different regime. The density effects
+ * are shrunk a little towards 0, which keeps the fit sensible while a
+ * species barely changes, or is extinct.
+ *
+ * The model forecasts by running many trajectories of the fitted model
+ * with their noise, and reports the mean of every species and the range
+ * the trajectories end in; see PopulationForecast.
+ *
+ * @author Nikolay Tsanov
+ */
+public class PopulationModel implements StepListener
+{
+    // How much a step counts less than the step after it.
+    public static final double FORGETTING = 0.998;
+    // The number of steps fitted, counted with their weights, before the model forecasts.
+    public static final int MIN_FITTED_STEPS = 50;
+    // How much the density effects are shrunk towards 0, relative to the data.
+    private static final double SHRINKAGE = 1e-3;
+    // The share of trajectories left out of the range at either end.
+    private static final double TAIL = 0.05;
+
+    // The number of species, and of terms of every regression: a constant and the densities.
+    private final int speciesCount, terms;
+    // The normal equations of every species: [species][term][term] and [species][term].
+    private final double[][][] xtx;
+    private final double[][] xty;
+    // The weighted sum of squared log growths of every species.
+    private final double[] yty;
+    // The weighted number of steps fitted for every species.
+    private final double[] fittedSteps;
+    // The populations after the last step recorded, and the number of locations.
+    private final double[] lastCounts;
+    private int cells;
+    // The last step recorded, or -1.
+    private int lastStep;
+    // Reused for the terms of a step, and for the populations after a step.
+    private final double[] x, stepCounts;
+
+    /**
+     * Create a model that has not seen any steps.
+     */
+    public PopulationModel()
+    {
+        speciesCount = Species.values().length;
+        terms = speciesCount + 1;
+        xtx = new double[speciesCount][terms][terms];
+        xty = new double[speciesCount][terms];
+        yty = new double[speciesCount];
+        fittedSteps = new double[speciesCount];
+        lastCounts = new double[speciesCount];
+        x = new double[terms];
+        stepCounts = new double[speciesCount];
+        lastStep = -1;
+    }
+
+    /**
+     * Fit the populations after a step.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public void stepCompleted(int step, Field field)
+    {
+        PerceptionGrid perception = field.getPerceptionGrid();
+        synchronized (this) {
+            for (Species species : Species.values()) {
+                stepCounts[species.ordinal()] = perception.getTotal(species);
+            }
+            record(step, stepCounts, field.getDepth() * field.getWidth());
+        }
+    }
+
+    /**
+     * Fit the populations at a step. Only a step right after the last one
+     * recorded adds to the fit; after a gap, the model goes on from the
+     * new populations. A step that is not after the last one recorded
+     * (the simulation was reset) starts the model again.
+     *
+     * @param step   The step.
+     * @param counts The population of every species, indexed by ordinal.
+     * @param cells  The number of locations of the field.
+     */
+    public synchronized void record(int step, double[] counts, int cells)
+    {
+        if (step <= lastStep || cells != this.cells) {
+            clear();
+        }
+        if (step == lastStep + 1 && lastStep >= 0) {
+            x[0] = 1;
+            for (int j = 0; j < speciesCount; j++) {
+                x[j + 1] = lastCounts[j] / cells;
+            }
+            for (int i = 0; i < speciesCount; i++) {
+                // Nothing can be learnt from a species that is or goes extinct.
+                if (lastCounts[i] <= 0 || counts[i] <= 0) {
+                    continue;
+                }
+                double y = Math.log(counts[i] / lastCounts[i]);
+                forget(i);
+                for (int a = 0; a < terms; a++) {
+                    for (int b = 0; b < terms; b++) {
+                        xtx[i][a][b] += x[a] * x[b];
+                    }
+                    xty[i][a] += x[a] * y;
+                }
+                yty[i] += y * y;
+                fittedSteps[i]++;
+            }
+        }
+        System.arraycopy(counts, 0, lastCounts, 0, speciesCount);
+        this.cells = cells;
+        lastStep = step;
+    }
+
+    /**
+     * Forget everything.
+     */
+    public synchronized void clear()
+    {
+        for (int i = 0; i < speciesCount; i++) {
+            for (double[] row : xtx[i]) {
+                Arrays.fill(row, 0);
+            }
+            Arrays.fill(xty[i], 0);
+        }
+        Arrays.fill(yty, 0);
+        Arrays.fill(fittedSteps, 0);
+        Arrays.fill(lastCounts, 0);
+        lastStep = -1;
+    }
+
+    /**
+     * @return The last step recorded, or -1 if there is none.
+     */
+    public synchronized int getLastStep()
+    {
+        return lastStep;
+    }
+
+    /**
+     * Return whether the model has seen enough steps of every living
+     * species to forecast.
+     *
+     * @return true if it can forecast.
+     */
+    public synchronized boolean isFitted()
+    {
+        if (lastStep < 0) {
+            return false;
+        }
+        for (int i = 0; i < speciesCount; i++) {
+            if (lastCounts[i] > 0 && fittedSteps[i] < MIN_FITTED_STEPS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forecast the populations a number of steps after the last step
+     * recorded, by running trajectories of the fitted model.
+     *
+     * @param steps        The number of steps ahead.
+     * @param trajectories The number of trajectories to run, at least 2.
+     * @param rand         Seeds the noise of the trajectories.
+     * @return The forecast.
+     * @throws IllegalStateException if the model is not fitted yet.
+     */
+    public synchronized PopulationForecast forecast(int steps, int trajectories, Random rand)
+    {
+        if (!isFitted()) {
+            throw new IllegalStateException("The model needs " + MIN_FITTED_STEPS
+                    + " steps of every living species before it can forecast.");
+        }
+        double[][] coefficients = new double[speciesCount][];
+        double[] residual = new double[speciesCount];
+        for (int i = 0; i < speciesCount; i++) {
+            if (lastCounts[i] > 0) {
+                coefficients[i] = solve(i);
+                residual[i] = residualError(i, coefficients[i]);
+            }
+        }
+
+        // The populations every trajectory ends with: [species][trajectory].
+        double[][] ends = new double[speciesCount][trajectories];
+        double[] counts = new double[speciesCount];
+        for (int t = 0; t < trajectories; t++) {
+            SplittableRandom noise = new SplittableRandom(rand.nextLong());
+            System.arraycopy(lastCounts, 0, counts, 0, speciesCount);
+            for (int s = 0; s < steps; s++) {
+                advance(counts, coefficients, residual, noise);
+            }
+            for (int i = 0; i < speciesCount; i++) {
+                ends[i][t] = counts[i];
+            }
+        }
+
+        double[] expected = new double[speciesCount];
+        double[] lower = new double[speciesCount];
+        double[] upper = new double[speciesCount];
+        int tail = (int) Math.floor(TAIL * (trajectories - 1));
+        for (int i = 0; i < speciesCount; i++) {
+            double[] end = ends[i];
+            Arrays.sort(end);
+            double sum = 0;
+            for (double count : end) {
+                sum += count;
+            }
+            expected[i] = sum / trajectories;
+            lower[i] = end[tail];
+            upper[i] = end[trajectories - 1 - tail];
+        }
+        return new PopulationForecast(lastStep, steps, trajectories, expected, lower, upper, residual);
+    }
+
+    /**
+     * Move the populations of a trajectory on by a step. A species that
+     * falls below one organism dies out.
+     */
+    private void advance(double[] counts, double[][] coefficients, double[] residual, SplittableRandom noise)
+    {
+        x[0] = 1;
+        for (int j = 0; j < speciesCount; j++) {
+            x[j + 1] = counts[j] / cells;
+        }
+        double total = 0;
+        for (int i = 0; i < speciesCount; i++) {
+            if (counts[i] <= 0) {
+                continue;
+            }
+            double growth = residual[i] * noise.nextGaussian();
+            for (int a = 0; a < terms; a++) {
+                growth += coefficients[i][a] * x[a];
+            }
+            counts[i] *= Math.exp(growth);
+            if (counts[i] < 1) {
+                counts[i] = 0;
+            }
+            total += counts[i];
+        }
+        // There is room for one organism per location only.
+        if (total > cells) {
+            for (int i = 0; i < speciesCount; i++) {
+                counts[i] *= cells / total;
+            }
+        }
+    }
+
+    /**
+     * Solve the normal equations of a species, with the density effects
+     * shrunk towards 0, by Gaussian elimination with partial pivoting.
+     *
+     * @return The coefficients: the rate, then the effect of every density.
+     */
+    private double[] solve(int species)
+    {
+        double[][] a = new double[terms][terms + 1];
+        for (int row = 0; row < terms; row++) {
+            System.arraycopy(xtx[species][row], 0, a[row], 0, terms);
+            a[row][terms] = xty[species][row];
+        }
+        for (int term = 1; term < terms; term++) {
+            // The density of an extinct species is always 0; shrinkage keeps its effect at 0.
+            a[term][term] += SHRINKAGE * xtx[species][term][term] + 1e-12;
+        }
+        for (int col = 0; col < terms; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < terms; row++) {
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+                    pivot = row;
+                }
+            }
+            double[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+            for (int row = col + 1; row < terms; row++) {
+                double factor = a[row][col] / a[col][col];
+                for (int k = col; k <= terms; k++) {
+                    a[row][k] -= factor * a[col][k];
+                }
+            }
+        }
+        double[] coefficients = new double[terms];
+        for (int row = terms - 1; row >= 0; row--) {
+            double sum = a[row][terms];
+            for (int k = row + 1; k < terms; k++) {
+                sum -= a[row][k] * coefficients[k];
+            }
+            coefficients[row] = sum / a[row][row];
+        }
+        return coefficients;
+    }
+
+    /**
+     * @return The standard deviation of the log growth of a species
+     * around what the fitted coefficients predict.
+     */
+    private double residualError(int species, double[] coefficients)
+    {
+        // The sum of squared residuals follows from the normal equations.
+        double squares = yty[species];
+        for (int a = 0; a < terms; a++) {
+            squares -= 2 * coefficients[a] * xty[species][a];
+            for (int b = 0; b < terms; b++) {
+                squares += coefficients[a] * xtx[species][a][b] * coefficients[b];
+            }
+        }
+        return Math.sqrt(Math.max(0, squares) / Math.max(1, fittedSteps[species] - terms));
+    }
+
+    /**
+     * Make the steps fitted so far of a species count less, before the next one is added.
+     */
+    private void forget(int species)
+    {
+        for (double[] row : xtx[species]) {
+            for (int b = 0; b < terms; b++) {
+                row[b] *= FORGETTING;
+            }
+        }
+        for (int a = 0; a < terms; a++) {
+            xty[species][a] *= FORGETTING;
+        }
+        yty[species] *= FORGETTING;
+        fittedSteps[species] *= FORGETTING;
+    }
+}
@@ -1,5 +1,5 @@
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A simple model of a rabbit.
@@ -8,21 +8,18 @@ import java.util.Random;
  * @author David J. Barnes and Michael Kölling
  * @version 2011.07.31
  */
-public class Rabbit extends Organism
+public class Rabbit extends Organism implements StepPlanner
 {
     // Characteristics shared by all rabbits (class variables).
 
     // The age at which a rabbit can start to breed.
-    private static final int BREEDING_AGE = 5;
+    static final int BREEDING_AGE = RabbitKernel.BREEDING_AGE;
     // The age to which a rabbit can live.
-    private static final int MAX_AGE = 40;
+    static final int MAX_AGE = RabbitKernel.MAX_AGE;
     // The likelihood of a rabbit breeding.
-    private static final double BREEDING_PROBABILITY = 0.12;
+    static final double BREEDING_PROBABILITY = RabbitKernel.BREEDING_PROBABILITY;
     // The maximum number of births.
-    private static final int MAX_LITTER_SIZE = 4;
-
-    // A shared random number generator to control breeding.
-    private static final Random rand = Randomizer.getRandom();
+    static final int MAX_LITTER_SIZE = RabbitKernel.MAX_LITTER_SIZE;
 
     /**
      * Create a new rabbit. A rabbit may be created with age
@@ -34,10 +31,7 @@ public class Rabbit extends Organism
      */
     public Rabbit(boolean randomAge, Field field, Location location)
     {
-        super(field, location);
-        if (randomAge) {
-            super.setAge(rand.nextInt(MAX_AGE));
-        }
+        super(field, location, randomAge ? field.getRandom().nextInt(MAX_AGE) : 0, 0);
     }
 
     /**
@@ -48,7 +42,7 @@ public class Rabbit extends Organism
      */
     public void act(List<Organism> newRabbits)
     {
-        incrementAge();
+        // Death of old age comes from the timing wheel of the field.
         if (isAlive()) {
             giveBirth(newRabbits);
             // Try to move into a free location.
@@ -57,44 +51,44 @@ public class Rabbit extends Organism
                 setLocation(newLocation);
             } else {
                 // Overcrowding.
-                setDead();
+                setDead(DeathCause.OVERCROWDING);
             }
         }
     }
 
     /**
-     * Check whether or not this rabbit is to give birth at this step.
-     * New births will be made into free adjacent locations.
+     * Plan the step of the rabbit for a ParallelStepEngine.
+     *
+     * @param engine The engine.
+     * @param i      The place of the rabbit in the list of the step.
+     * @param rand   The random number generator of the rabbit in this step.
+     */
+    public void planStep(ParallelStepEngine engine, int i, SplittableRandom rand)
+    {
+        RabbitKernel.plan(this, engine, i, rand);
+    }
+
+    /**
+     * Carry out the step planned by planStep.
      *
+     * @param engine     The engine that planned the step.
+     * @param i          The place of the rabbit in the list of the step.
      * @param newRabbits A list to return newly born rabbits.
      */
-    private void giveBirth(List<Organism> newRabbits)
+    public void applyStep(ParallelStepEngine engine, int i, List<Organism> newRabbits)
     {
-        // New rabbits are born into adjacent locations.
-        // Get a list of adjacent free locations.
-        Field field = getField();
-        List<Location> free = field.getFreeAdjacentLocations(getLocation());
-        int births = breed();
-        for (int b = 0; b < births && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            Rabbit young = new Rabbit(false, field, loc);
-            newRabbits.add(young);
-        }
+        RabbitKernel.apply(this, engine, i, newRabbits);
     }
 
     /**
-     * Generate a number representing the number of births,
-     * if it can breed.
+     * Check whether or not this rabbit is to give birth at this step.
+     * New births will be made into free adjacent locations.
      *
-     * @return The number of births (may be zero).
+     * @param newRabbits A list to return newly born rabbits.
      */
-    private int breed()
+    private void giveBirth(List<Organism> newRabbits)
     {
-        int births = 0;
-        if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
-        }
-        return births;
+        RabbitKernel.giveBirth(this, newRabbits);
     }
 
     /**
@@ -116,4 +110,14 @@ public class Rabbit extends Organism
     {
         return BREEDING_AGE;
     }
+
+    /**
+     * Return the species of the rabbit.
+     *
+     * @return Species.RABBIT
+     */
+    protected Species getSpecies()
+    {
+        return Species.RABBIT;
+    }
 }
@@ -0,0 +1,123 @@
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * The rules of the rabbit, with the numbers of SpeciesDefinition.RABBIT
+ * built in.
+ *
+ * Generated by SpeciesKernelGenerator from SpeciesDefinition.RABBIT; do not
+ * edit, change the definition and run the generator again.
+ *
+ * @author Nikolay Tsanov
+ */
+final class RabbitKernel
+{
+    // The age at which a rabbit can start to breed.
+    static final int BREEDING_AGE = 5;
+    // The age to which a rabbit can live.
+    static final int MAX_AGE = 40;
+    // The likelihood of a rabbit breeding.
+    static final double BREEDING_PROBABILITY = 0.12;
+    // The maximum number of births.
+    static final int MAX_LITTER_SIZE = 4;
+
+    private RabbitKernel()
+    {
+    }
+
+    /**
+     * Return the number of young a rabbit has at this step.
+     *
+     * @param rand The random number generator of the simulation.
+     * @param age  The age of the rabbit.
+     * @return The number of births (may be zero).
+     */
+    static int litterSize(Random rand, int age)
+    {
+        if (age >= BREEDING_AGE && rand.nextDouble() <= BREEDING_PROBABILITY) {
+            return rand.nextInt(MAX_LITTER_SIZE) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Return the number of young a rabbit has at this step.
+     *
+     * @param rand The random number generator of the rabbit in this step.
+     * @param age  The age of the rabbit.
+     * @return The number of births (may be zero).
+     */
+    static int litterSize(SplittableRandom rand, int age)
+    {
+        if (age >= BREEDING_AGE && rand.nextDouble() <= BREEDING_PROBABILITY) {
+            return rand.nextInt(MAX_LITTER_SIZE) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Let a rabbit give birth at this step, if it does. New births
+     * are made into free adjacent locations.
+     *
+     * @param parent   The rabbit.
+     * @param newborns A list to return newly born organisms.
+     */
+    static void giveBirth(Rabbit parent, List<Organism> newborns)
+    {
+        Field field = parent.getField();
+        Location location = parent.getLocation();
+        List<Location> free = field.getFreeAdjacentLocations(location);
+        // Only as many can be born as there are free locations.
+        int born = Math.min(litterSize(parent.getRandom(), parent.getAge()), free.size());
+        for (int b = 0; b < born; b++) {
+            newborns.add(new Rabbit(false, field, free.get(b)));
+        }
+        if (born > 0) {
+            field.getEvents().born(Species.RABBIT, born, location);
+        }
+    }
+
+    /**
+     * Plan the step of a rabbit for a ParallelStepEngine, as act takes it:
+     * claim the locations of its young, then that of a prey of its diet to
+     * eat and move to, or else a free location to move to.
+     *
+     * @param organism The rabbit.
+     * @param engine   The engine.
+     * @param i        The place of the rabbit in the list of the step.
+     * @param rand     The random number generator of the rabbit in this step.
+     */
+    static void plan(Rabbit organism, ParallelStepEngine engine, int i, SplittableRandom rand)
+    {
+        engine.claimBirths(i, litterSize(rand, organism.getAge()), rand);
+        engine.claimDestination(i, null, rand);
+    }
+
+    /**
+     * Carry out the step of a rabbit planned by plan.
+     *
+     * @param organism The rabbit.
+     * @param engine   The engine that planned the step.
+     * @param i        The place of the rabbit in the list of the step.
+     * @param newborns A list to return newly born organisms.
+     */
+    static void apply(Rabbit organism, ParallelStepEngine engine, int i, List<Organism> newborns)
+    {
+        Field field = organism.getField();
+        int born = engine.getBirthCount(i);
+        for (int b = 0; b < born; b++) {
+            newborns.add(new Rabbit(false, field, engine.getBirth(i, b)));
+        }
+        if (born > 0) {
+            field.getEvents().born(Species.RABBIT, born, organism.getLocation());
+        }
+        Location destination = engine.getDestination(i);
+        if (destination != null) {
+            organism.setLocation(destination);
+        } else {
+            // Overcrowding.
+            organism.setDead(DeathCause.OVERCROWDING);
+        }
+    }
+}
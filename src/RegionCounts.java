@@ -0,0 +1,256 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the organisms of a species in any rectangle of a field, in
+ * constant time, e.g. "how many wolves are in this selection?".
+ *
+ * For every species a summed-area table holds, for every location, the
+ * number of organisms above and to the left of it. The count of a
+ * rectangle then follows from the four corners of the table:
+ * <pre>
+ *     count = sum(bottom, right) - sum(top, right) - sum(bottom, left) + sum(top, left)
+ * </pre>
+ *
+ * The tables are brought up to date after every step, from the
+ * OccupancyPlanes of the field. Only the rows of the tiles that changed
+ * in the step are counted again; below the first of them, a column of
+ * a table only changes as far down as the counts above it changed, and
+ * is left alone from the first row on where they did not. The columns
+ * are shared out in bands of 64, one long of a plane each, between the
+ * threads of the counter, one band of one species at a time.
+ *
+ * Queries may come from any thread; they wait while the tables are
+ * brought up to date.
+ *
+ * @author Nikolay Tsanov
+ */
+public class RegionCounts implements StepListener
+{
+    // The number of columns of a band, those of one long of a plane.
+    private static final int BAND_WIDTH = 64;
+
+    // The size of the field.
+    private final int depth, width;
+    // The number of entries of a row of a table: one more than the field is wide.
+    private final int stride;
+    // The summed-area table of every species: [species][row * stride + col],
+    // the number of organisms in rows above row and columns left of col.
+    private final int[][] tables;
+    // The rows that changed since the tables were brought up to date.
+    private final boolean[] changedRows;
+    // Brings the bands up to date, or null to do it on the calling thread.
+    private final ExecutorService workers;
+
+    /**
+     * Create the counts of a field, up to date with its current state. Add
+     * it as a step listener of the simulation, so it hears about the changes.
+     *
+     * @param field   The field.
+     * @param threads The number of threads that bring the tables up to date, at least 1.
+     */
+    public RegionCounts(Field field, int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        depth = field.getDepth();
+        width = field.getWidth();
+        stride = width + 1;
+        tables = new int[Species.values().length][(depth + 1) * stride];
+        changedRows = new boolean[depth];
+        workers = threads == 1 ? null : Executors.newFixedThreadPool(threads, (runnable) -> {
+            Thread thread = new Thread(runnable, "region-counts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Arrays.fill(changedRows, true);
+        update(field.getOccupancyPlanes());
+    }
+
+    /**
+     * Bring the tables up to date with the rows of the tiles that changed in the step.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public void stepCompleted(int step, Field field)
+    {
+        ActiveTiles tiles = field.getActiveTiles();
+        int tileCols = tiles.getTileCols();
+        synchronized (this) {
+            for (int tile = tiles.nextChanged(0); tile >= 0; tile = tiles.nextChanged(tile + 1)) {
+                int tileRow = tile / tileCols;
+                for (int row = tiles.getTop(tile); row < tiles.getBottom(tile); row++) {
+                    changedRows[row] = true;
+                }
+                // The rest of the tiles of the row mark the same rows.
+                tile = (tileRow + 1) * tileCols - 1;
+            }
+            update(field.getOccupancyPlanes());
+        }
+    }
+
+    /**
+     * Return how many organisms of a species are in a rectangle of the
+     * field. The rectangle is clipped to the field.
+     *
+     * @param species The species.
+     * @param top     The first row.
+     * @param left    The first column.
+     * @param bottom  The row after the last row.
+     * @param right   The column after the last column.
+     * @return The number of organisms.
+     */
+    public synchronized int count(Species species, int top, int left, int bottom, int right)
+    {
+        top = Math.max(0, top);
+        left = Math.max(0, left);
+        bottom = Math.min(depth, bottom);
+        right = Math.min(width, right);
+        if (top >= bottom || left >= right) {
+            return 0;
+        }
+        int[] table = tables[species.ordinal()];
+        return table[bottom * stride + right] - table[top * stride + right]
+                - table[bottom * stride + left] + table[top * stride + left];
+    }
+
+    /**
+     * Return how many organisms of a species are in a rectangle of the
+     * field, given as in LevelOfDetail: x and width are columns, y and
+     * height are rows. The rectangle is clipped to the field.
+     *
+     * @param species The species.
+     * @param area    The rectangle.
+     * @return The number of organisms.
+     */
+    public int count(Species species, Rectangle area)
+    {
+        return count(species, area.y, area.x, area.y + area.height, area.x + area.width);
+    }
+
+    /**
+     * Return how many organisms of every species are in a rectangle of the
+     * field, all as of the same step. The rectangle is clipped to the field.
+     *
+     * @param area The rectangle, as for count.
+     * @return The number of organisms of every species, indexed by ordinal.
+     */
+    public synchronized int[] countAll(Rectangle area)
+    {
+        int[] counts = new int[Species.values().length];
+        for (Species species : Species.values()) {
+            counts[species.ordinal()] = count(species, area);
+        }
+        return counts;
+    }
+
+    /**
+     * Stop the threads of the counter.
+     */
+    public void shutdown()
+    {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Bring every band of every table up to date with the changed rows,
+     * and forget which rows changed.
+     */
+    private void update(OccupancyPlanes planes)
+    {
+        int firstChanged = 0;
+        while (firstChanged < depth && !changedRows[firstChanged]) {
+            firstChanged++;
+        }
+        if (firstChanged == depth) {
+            return;
+        }
+        int from = firstChanged;
+        int bands = (width + BAND_WIDTH - 1) / BAND_WIDTH;
+        if (workers == null) {
+            for (Species species : Species.values()) {
+                for (int band = 0; band < bands; band++) {
+                    updateBand(planes, species, band, from);
+                }
+            }
+        } else {
+            List<Future<?>> updates = new ArrayList<Future<?>>();
+            for (Species species : Species.values()) {
+                for (int band = 0; band < bands; band++) {
+                    int bandIndex = band;
+                    updates.add(workers.submit(() -> updateBand(planes, species, bandIndex, from)));
+                }
+            }
+            try {
+                for (Future<?> update : updates) {
+                    update.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Counting the regions failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Counting the regions was interrupted", e);
+            }
+        }
+        Arrays.fill(changedRows, firstChanged, depth, false);
+    }
+
+    /**
+     * Bring a band of the table of a species up to date, from the first
+     * changed row down. A changed row is counted again from the plane;
+     * below it, an entry changes by as much as the entry above it did,
+     * until no entry of the band changes any more.
+     *
+     * @param planes  The planes of the field.
+     * @param species The species.
+     * @param band    The band: columns band * 64 to band * 64 + 63.
+     * @param from    The first changed row.
+     */
+    private void updateBand(OccupancyPlanes planes, Species species, int band, int from)
+    {
+        int[] table = tables[species.ordinal()];
+        long[] plane = planes.getPlane(species);
+        int wordsPerRow = planes.getWordsPerRow();
+        int firstCol = band * BAND_WIDTH;
+        int endCol = Math.min(width, firstCol + BAND_WIDTH);
+        // How much every entry of the band changed in the row last brought up to date.
+        int[] change = new int[endCol - firstCol];
+        boolean changing = false;
+        for (int row = from; row < depth; row++) {
+            int above = row * stride;
+            int below = above + stride;
+            if (changedRows[row]) {
+                int rowStart = row * wordsPerRow;
+                // The organisms of the row left of the band.
+                int sum = 0;
+                for (int word = 0; word < band; word++) {
+                    sum += Long.bitCount(plane[rowStart + word]);
+                }
+                long bits = plane[rowStart + band];
+                changing = false;
+                for (int col = firstCol; col < endCol; col++) {
+                    sum += (int) (bits >>> col) & 1;
+                    int entry = table[above + col + 1] + sum;
+                    int delta = entry - table[below + col + 1];
+                    change[col - firstCol] = delta;
+                    changing |= delta != 0;
+                    table[below + col + 1] = entry;
+                }
+            } else if (changing) {
+                for (int col = firstCol; col < endCol; col++) {
+                    table[below + col + 1] += change[col - firstCol];
+                }
+            }
+        }
+    }
+}
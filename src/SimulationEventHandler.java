@@ -0,0 +1,18 @@
+/**
+ * Reads the events of a SimulationEventRing, on the thread of its
+ * subscription, in the order they happened.
+ *
+ * @author Nikolay Tsanov
+ */
+public interface SimulationEventHandler
+{
+    /**
+     * Called for every event.
+     *
+     * @param event      The event; only valid until the method returns.
+     * @param sequence   The sequence of the event in the ring.
+     * @param endOfBatch true for the last event of the batch read at once,
+     *                   e.g. to flush what was collected.
+     */
+    void onEvent(SimulationEventRing.Event event, long sequence, boolean endOfBatch);
+}
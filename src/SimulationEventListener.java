@@ -0,0 +1,84 @@
+/**
+ * Is told about what happens in a simulation, where it happened, as it
+ * happens. Listeners are added to the SimulationEvents of a field, are
+ * called on the thread that runs the simulation, in the middle of a step,
+ * and must only take note: they must not change the field.
+ *
+ * Only births and deaths have to be listened to; the other methods do
+ * nothing unless they are overridden.
+ *
+ * @author Nikolay Tsanov
+ */
+public interface SimulationEventListener
+{
+    /**
+     * Called when organisms of a species were born.
+     *
+     * @param species  The species of the newborns.
+     * @param count    How many were born.
+     * @param location The location of the parent.
+     */
+    void born(Species species, int count, Location location);
+
+    /**
+     * Called when an organism died.
+     *
+     * @param species  The species of the organism.
+     * @param cause    Why it died.
+     * @param location Where it died.
+     */
+    void died(Species species, DeathCause cause, Location location);
+
+    /**
+     * Called when an organism moved to another location.
+     *
+     * @param species The species of the organism.
+     * @param from    Where it was.
+     * @param to      Where it is now.
+     */
+    default void moved(Species species, Location from, Location to)
+    {
+    }
+
+    /**
+     * Called when an organism killed another, before the other is reported dead.
+     *
+     * @param predator The species of the killer.
+     * @param prey     The species of the killed organism.
+     * @param location Where the killed organism was.
+     */
+    default void killed(Species predator, Species prey, Location location)
+    {
+    }
+
+    /**
+     * Called after a fight between a hunter and one or more wolves.
+     *
+     * @param hunterStrength The strength of the hunter before the fight.
+     * @param wolves         How many wolves took part.
+     * @param wolfStrength   The combined strength of the wolves.
+     * @param hunterWon      true if the hunter won the fight.
+     */
+    default void battle(int hunterStrength, int wolves, int wolfStrength, boolean hunterWon)
+    {
+    }
+
+    /**
+     * Called before the organisms act in a step.
+     *
+     * @param step The number of the step.
+     */
+    default void stepStarted(int step)
+    {
+    }
+
+    /**
+     * Called after the organisms acted in a step.
+     *
+     * @param step      The number of the step.
+     * @param organisms How many organisms acted in the step.
+     */
+    default void stepEnded(int step, int organisms)
+    {
+    }
+}
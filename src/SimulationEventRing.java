@@ -0,0 +1,579 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stream of the events of a simulation (births, deaths, moves, kills,
+ * battles and the start and end of every step) that any number of
+ * observers can read on their own threads, without the simulation taking
+ * a lock or allocating memory to publish them.
+ *
+ * The events are written into a ring of preallocated slots, one array per
+ * field of an event, by the thread that runs the simulation, which is the
+ * only writer. Every event gets the next sequence number; the ring
+ * publishes it by moving its cursor on. Every subscription keeps the
+ * sequence of the last event it read, and reads all events published
+ * since in one batch, through a reused Event that is only valid during
+ * the call to the handler.
+ *
+ * When the ring is full, the backpressure policy of every subscription
+ * decides what happens: the simulation waits for a BLOCK subscription to
+ * read on, and overwrites the events a DROP subscription has not read
+ * yet, which it then skips and counts as dropped. Use BLOCK where every
+ * event matters, like a recorder, and DROP where a sample is enough,
+ * like the display.
+ *
+ * Add the ring as a listener of the events of a field:
+ * <pre>
+ * SimulationEventRing ring = new SimulationEventRing(1 &lt;&lt; 16);
+ * field.getEvents().addListener(ring);
+ * ring.startConsumer("recorder", handler, StepPipeline.Backpressure.BLOCK);
+ * </pre>
+ *
+ * @author Nikolay Tsanov
+ */
+public class SimulationEventRing implements SimulationEventListener
+{
+    /**
+     * The types of event.
+     */
+    public enum Type
+    {
+        // Organisms were born: species, location of the parent, count.
+        BIRTH,
+        // An organism died: species, cause, location.
+        DEATH,
+        // An organism moved: species, location, new location.
+        MOVE,
+        // An organism killed another: species of the killer, prey, location of the prey.
+        KILL,
+        // A hunter fought wolves: count of wolves, strengths, whether the hunter won.
+        BATTLE,
+        // A step started.
+        STEP_START,
+        // A step ended: count of the organisms that acted.
+        STEP_END
+    }
+
+    // Read and written with release and acquire semantics.
+    private static final VarHandle CURSOR, SEQUENCE;
+    // The values of the enums, kept so that reading an event allocates nothing.
+    private static final Type[] TYPES = Type.values();
+    private static final DeathCause[] CAUSES = DeathCause.values();
+    private static final Species[] SPECIES = Species.values();
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            CURSOR = lookup.findVarHandle(SimulationEventRing.class, "cursor", long.class);
+            SEQUENCE = lookup.findVarHandle(Subscription.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // The number of slots, a power of two, and the mask giving the slot of a sequence.
+    private final int capacity, mask;
+    // The fields of the event in every slot.
+    private final byte[] types, species, details;
+    private final int[] steps, rows, cols, toRows, toCols, counts, strengths, otherStrengths;
+    // The sequence of the last event published, or -1.
+    private volatile long cursor = -1;
+    // The sequence the next event gets. Only used by the simulation thread.
+    private long next;
+    // The lowest sequence read by any BLOCK subscription when last looked at.
+    private long gate = -1;
+    // The step being simulated. Only used by the simulation thread.
+    private int step;
+    // The subscriptions; replaced as a whole when one is added or removed.
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    /**
+     * Create an empty ring.
+     *
+     * @param capacity The number of events it holds, a power of two.
+     */
+    public SimulationEventRing(int capacity)
+    {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two.");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        types = new byte[capacity];
+        species = new byte[capacity];
+        details = new byte[capacity];
+        steps = new int[capacity];
+        rows = new int[capacity];
+        cols = new int[capacity];
+        toRows = new int[capacity];
+        toCols = new int[capacity];
+        counts = new int[capacity];
+        strengths = new int[capacity];
+        otherStrengths = new int[capacity];
+    }
+
+    /**
+     * Start reading the events published from now on. Read them by calling
+     * poll, on any one thread, or hand them to startConsumer instead.
+     * A BLOCK subscription that stops polling without being closed stops
+     * the simulation once the ring is full.
+     *
+     * @param policy What the simulation does when the subscription falls a full ring behind.
+     * @return The subscription.
+     */
+    public synchronized Subscription subscribe(StepPipeline.Backpressure policy)
+    {
+        Subscription subscription = new Subscription(policy, cursor);
+        Subscription[] added = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        added[subscriptions.length] = subscription;
+        subscriptions = added;
+        return subscription;
+    }
+
+    /**
+     * Start a thread that reads the events published from now on and hands
+     * them to a handler, until the subscription is closed.
+     *
+     * @param name    The name of the thread.
+     * @param handler The handler.
+     * @param policy  What the simulation does when the handler falls a full ring behind.
+     * @return The subscription.
+     */
+    public Subscription startConsumer(String name, SimulationEventHandler handler, StepPipeline.Backpressure policy)
+    {
+        Subscription subscription = subscribe(policy);
+        Thread thread = new Thread(() -> {
+            int idle = 0;
+            while (!subscription.isClosed()) {
+                idle = subscription.poll(handler) > 0 ? 0 : idle(idle);
+            }
+        }, name);
+        thread.setDaemon(true);
+        subscription.thread = thread;
+        thread.start();
+        return subscription;
+    }
+
+    /**
+     * @return The number of events the ring holds.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return The sequence of the last event published, or -1.
+     */
+    public long getCursor()
+    {
+        return cursor;
+    }
+
+    /**
+     * Publish a birth.
+     */
+    public void born(Species species, int count, Location location)
+    {
+        long sequence = claim(Type.BIRTH, species);
+        int slot = (int) sequence & mask;
+        rows[slot] = location.getRow();
+        cols[slot] = location.getCol();
+        counts[slot] = count;
+        publish(sequence);
+    }
+
+    /**
+     * Publish a death.
+     */
+    public void died(Species species, DeathCause cause, Location location)
+    {
+        long sequence = claim(Type.DEATH, species);
+        int slot = (int) sequence & mask;
+        details[slot] = (byte) cause.ordinal();
+        rows[slot] = location.getRow();
+        cols[slot] = location.getCol();
+        publish(sequence);
+    }
+
+    /**
+     * Publish a move.
+     */
+    public void moved(Species species, Location from, Location to)
+    {
+        long sequence = claim(Type.MOVE, species);
+        int slot = (int) sequence & mask;
+        rows[slot] = from.getRow();
+        cols[slot] = from.getCol();
+        toRows[slot] = to.getRow();
+        toCols[slot] = to.getCol();
+        publish(sequence);
+    }
+
+    /**
+     * Publish a kill.
+     */
+    public void killed(Species predator, Species prey, Location location)
+    {
+        long sequence = claim(Type.KILL, predator);
+        int slot = (int) sequence & mask;
+        details[slot] = prey.getCode();
+        rows[slot] = location.getRow();
+        cols[slot] = location.getCol();
+        publish(sequence);
+    }
+
+    /**
+     * Publish a battle.
+     */
+    public void battle(int hunterStrength, int wolves, int wolfStrength, boolean hunterWon)
+    {
+        long sequence = claim(Type.BATTLE, Species.HUNTER);
+        int slot = (int) sequence & mask;
+        details[slot] = (byte) (hunterWon ? 1 : 0);
+        counts[slot] = wolves;
+        strengths[slot] = hunterStrength;
+        otherStrengths[slot] = wolfStrength;
+        publish(sequence);
+    }
+
+    /**
+     * Publish the start of a step.
+     */
+    public void stepStarted(int step)
+    {
+        this.step = step;
+        publish(claim(Type.STEP_START, null));
+    }
+
+    /**
+     * Publish the end of a step.
+     */
+    public void stepEnded(int step, int organisms)
+    {
+        long sequence = claim(Type.STEP_END, null);
+        counts[(int) sequence & mask] = organisms;
+        publish(sequence);
+    }
+
+    /**
+     * Take the next slot, waiting for the BLOCK subscriptions to read the
+     * event in it if the ring is full, and fill in the fields every event has.
+     *
+     * @return The sequence of the event.
+     */
+    private long claim(Type type, Species eventSpecies)
+    {
+        long sequence = next++;
+        long wrapPoint = sequence - capacity;
+        if (wrapPoint > gate) {
+            int idle = 0;
+            long lowest;
+            while (wrapPoint > (lowest = lowestBlockingSequence(sequence))) {
+                idle = idle(idle);
+            }
+            gate = lowest;
+        }
+        int slot = (int) sequence & mask;
+        types[slot] = (byte) type.ordinal();
+        species[slot] = eventSpecies == null ? 0 : eventSpecies.getCode();
+        steps[slot] = step;
+        return sequence;
+    }
+
+    /**
+     * Make an event visible to the subscriptions.
+     */
+    private void publish(long sequence)
+    {
+        CURSOR.setRelease(this, sequence);
+    }
+
+    /**
+     * @param sequence The sequence being claimed.
+     * @return The lowest sequence read by any BLOCK subscription, or one
+     *         below the sequence if there is none.
+     */
+    private long lowestBlockingSequence(long sequence)
+    {
+        long lowest = sequence - 1;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.policy == StepPipeline.Backpressure.BLOCK) {
+                lowest = Math.min(lowest, (long) SEQUENCE.getAcquire(subscription));
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * Wait a little, longer the longer there was nothing to do: spin
+     * first, then give up the processor, then sleep for a tenth of a
+     * millisecond.
+     *
+     * @param idle How many times in a row there was nothing to do.
+     * @return idle plus one.
+     */
+    private static int idle(int idle)
+    {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(100_000);
+        }
+        return idle + 1;
+    }
+
+    /**
+     * Reads the events of a ring, in order, in batches.
+     */
+    public class Subscription
+    {
+        // What the simulation does when the subscription falls a full ring behind.
+        private final StepPipeline.Backpressure policy;
+        // The sequence of the last event read.
+        private volatile long sequence;
+        // Handed to the handler, filled in for every event.
+        private final Event event;
+        // How many events were overwritten before they were read.
+        private volatile long dropped;
+        // Whether the subscription was closed.
+        private volatile boolean closed;
+        // The thread reading the events, if it was started by the ring.
+        private Thread thread;
+
+        /**
+         * Create a subscription that starts after an event.
+         */
+        private Subscription(StepPipeline.Backpressure policy, long sequence)
+        {
+            this.policy = policy;
+            this.sequence = sequence;
+            this.event = new Event();
+        }
+
+        /**
+         * Hand every event published since the last poll to a handler.
+         * Events of a DROP subscription that were overwritten before they
+         * could be read are skipped and counted.
+         *
+         * @param handler The handler.
+         * @return The number of events handed to the handler.
+         */
+        public int poll(SimulationEventHandler handler)
+        {
+            long available = (long) CURSOR.getAcquire(SimulationEventRing.this);
+            long first = sequence + 1;
+            if (first > available || closed) {
+                return 0;
+            }
+            if (policy == StepPipeline.Backpressure.DROP && available - first >= capacity) {
+                dropped += available - capacity + 1 - first;
+                first = available - capacity + 1;
+            }
+            int handled = 0;
+            for (long s = first; s <= available; s++) {
+                event.read(s);
+                if (policy == StepPipeline.Backpressure.DROP) {
+                    // The slot may have been written again while it was read.
+                    VarHandle.acquireFence();
+                    if (s < (long) CURSOR.getAcquire(SimulationEventRing.this) + 2 - capacity) {
+                        dropped++;
+                        continue;
+                    }
+                }
+                handler.onEvent(event, s, s == available);
+                handled++;
+            }
+            SEQUENCE.setRelease(this, available);
+            return handled;
+        }
+
+        /**
+         * Stop reading. The simulation no longer waits for the subscription,
+         * and the thread started for it, if any, ends.
+         */
+        public void close()
+        {
+            closed = true;
+            synchronized (SimulationEventRing.this) {
+                List<Subscription> remaining = new ArrayList<Subscription>(Arrays.asList(subscriptions));
+                remaining.remove(this);
+                subscriptions = remaining.toArray(new Subscription[0]);
+            }
+            if (thread != null && thread != Thread.currentThread()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * @return Whether the subscription was closed.
+         */
+        public boolean isClosed()
+        {
+            return closed;
+        }
+
+        /**
+         * @return How many events were overwritten before they were read.
+         */
+        public long getDropped()
+        {
+            return dropped;
+        }
+
+        /**
+         * @return The number of events published but not read yet.
+         */
+        public long getBacklog()
+        {
+            return Math.max(0, cursor - sequence);
+        }
+    }
+
+    /**
+     * One event of the ring, as seen by a handler. The same object is
+     * filled in for every event of a subscription, so it must not be kept
+     * after the handler returns. Which fields mean something depends on
+     * the type, as listed with Type.
+     */
+    public class Event
+    {
+        // The fields of the event, copied from its slot.
+        private int type, speciesCode, detail, eventStep, row, col, toRow, toCol, count, strength, otherStrength;
+
+        /**
+         * Copy the fields of an event out of its slot. They are only made
+         * sense of when asked for, since a slot that was being written
+         * again may hold anything.
+         */
+        private void read(long sequence)
+        {
+            int slot = (int) sequence & mask;
+            type = types[slot];
+            speciesCode = species[slot];
+            detail = details[slot];
+            eventStep = steps[slot];
+            row = rows[slot];
+            col = cols[slot];
+            toRow = toRows[slot];
+            toCol = toCols[slot];
+            count = counts[slot];
+            strength = strengths[slot];
+            otherStrength = otherStrengths[slot];
+        }
+
+        /**
+         * @return The type of the event.
+         */
+        public Type getType()
+        {
+            return TYPES[type];
+        }
+
+        /**
+         * @return The step the event happened in.
+         */
+        public int getStep()
+        {
+            return eventStep;
+        }
+
+        /**
+         * @return The species born, died or moved, the killer, or HUNTER for a battle; null for steps.
+         */
+        public Species getSpecies()
+        {
+            return speciesCode == 0 ? null : SPECIES[speciesCode - 1];
+        }
+
+        /**
+         * @return Why the organism died, for a DEATH.
+         */
+        public DeathCause getCause()
+        {
+            return CAUSES[detail];
+        }
+
+        /**
+         * @return The species killed, for a KILL.
+         */
+        public Species getPrey()
+        {
+            return SPECIES[detail - 1];
+        }
+
+        /**
+         * @return Whether the hunter won, for a BATTLE.
+         */
+        public boolean isHunterWon()
+        {
+            return detail == 1;
+        }
+
+        /**
+         * @return The row the event happened at; where a move started.
+         */
+        public int getRow()
+        {
+            return row;
+        }
+
+        /**
+         * @return The column the event happened at; where a move started.
+         */
+        public int getCol()
+        {
+            return col;
+        }
+
+        /**
+         * @return The row a move ended at.
+         */
+        public int getToRow()
+        {
+            return toRow;
+        }
+
+        /**
+         * @return The column a move ended at.
+         */
+        public int getToCol()
+        {
+            return toCol;
+        }
+
+        /**
+         * @return The newborns of a BIRTH, the wolves of a BATTLE, or the organisms that acted in a STEP_END.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return The strength of the hunter before a BATTLE.
+         */
+        public int getHunterStrength()
+        {
+            return strength;
+        }
+
+        /**
+         * @return The combined strength of the wolves in a BATTLE.
+         */
+        public int getWolfStrength()
+        {
+            return otherStrength;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jdk.jfr.EventType;
+
+/**
+ * Collects the events that happen in a simulation (births, deaths and
+ * battles) and reports them to the Java Flight Recorder, and passes them,
+ * with moves, kills and the start and end of every step, on to the
+ * SimulationEventListeners added to it.
+ * There is one instance per field; the organisms reach it through their field.
+ *
+ * Whether an event type is recorded is checked once per step, so while no
+ * recording is running and no listener is added the organisms only test a flag.
+ *
+ * @author Nikolay Tsanov
+ */
+public class SimulationEvents
+{
+    // Battles beyond this number in a single step are only counted.
+    private static final int MAX_BATTLE_EVENTS_PER_STEP = 64;
+    // The event types, asked once per step whether they are recorded.
+    private static final EventType STEP_TYPE = EventType.getEventType(FlightEvents.StepEvent.class);
+    private static final EventType BIRTH_TYPE = EventType.getEventType(FlightEvents.BirthEvent.class);
+    private static final EventType DEATH_TYPE = EventType.getEventType(FlightEvents.DeathEvent.class);
+    private static final EventType BATTLE_TYPE = EventType.getEventType(FlightEvents.BattleEvent.class);
+
+    // The step that is currently being simulated.
+    private int step;
+    // Whether births and deaths are counted in the current step.
+    private boolean countingPopulation;
+    // Whether battles are recorded in the current step.
+    private boolean recordingBattles;
+    // The births of each species in the current step.
+    private final int[] births;
+    // The deaths of each species for each cause in the current step.
+    private final int[][] deaths;
+    // How many battles there were in the current step.
+    private int battles;
+    // The event timing the current step, or null if steps are not recorded.
+    private FlightEvents.StepEvent stepEvent;
+    // The listeners told about births and deaths; replaced as a whole, since
+    // they may be added from another thread while the simulation runs.
+    private volatile SimulationEventListener[] listeners = new SimulationEventListener[0];
+
+    /**
+     * Create the events of a new simulation.
+     */
+    public SimulationEvents()
+    {
+        births = new int[Species.values().length];
+        deaths = new int[Species.values().length][DeathCause.values().length];
+    }
+
+    /**
+     * Tell a listener about every birth and death from now on.
+     *
+     * @param listener The listener.
+     */
+    public synchronized void addListener(SimulationEventListener listener)
+    {
+        SimulationEventListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = listener;
+        listeners = added;
+    }
+
+    /**
+     * Remove a listener that was added with addListener.
+     *
+     * @param listener The listener.
+     */
+    public synchronized void removeListener(SimulationEventListener listener)
+    {
+        List<SimulationEventListener> remaining = new ArrayList<SimulationEventListener>(Arrays.asList(listeners));
+        remaining.remove(listener);
+        listeners = remaining.toArray(new SimulationEventListener[0]);
+    }
+
+    /**
+     * Mark the start of a step.
+     *
+     * @param step The number of the step.
+     */
+    public void beginStep(int step)
+    {
+        this.step = step;
+        battles = 0;
+
+        if (STEP_TYPE.isEnabled()) {
+            stepEvent = new FlightEvents.StepEvent();
+            stepEvent.begin();
+        } else {
+            stepEvent = null;
+        }
+        countingPopulation = stepEvent != null || BIRTH_TYPE.isEnabled() || DEATH_TYPE.isEnabled();
+        recordingBattles = BATTLE_TYPE.isEnabled();
+
+        SimulationEventListener[] current = listeners;
+        for (SimulationEventListener listener : current) {
+            listener.stepStarted(step);
+        }
+    }
+
+    /**
+     * Mark the end of a step and commit the events counted during it.
+     *
+     * @param organisms How many organisms acted in the step.
+     */
+    public void endStep(int organisms)
+    {
+        SimulationEventListener[] current = listeners;
+        for (SimulationEventListener listener : current) {
+            listener.stepEnded(step, organisms);
+        }
+        if (!countingPopulation) {
+            return;
+        }
+
+        int totalBirths = 0;
+        int totalDeaths = 0;
+        for (Species species : Species.values()) {
+            int born = births[species.ordinal()];
+            if (born > 0) {
+                FlightEvents.BirthEvent event = new FlightEvents.BirthEvent();
+                event.step = step;
+                event.species = species.getDisplayName();
+                event.count = born;
+                event.commit();
+                totalBirths += born;
+                births[species.ordinal()] = 0;
+            }
+
+            for (DeathCause cause : DeathCause.values()) {
+                int died = deaths[species.ordinal()][cause.ordinal()];
+                if (died > 0) {
+                    FlightEvents.DeathEvent event = new FlightEvents.DeathEvent();
+                    event.step = step;
+                    event.species = species.getDisplayName();
+                    event.cause = cause.name();
+                    event.count = died;
+                    event.commit();
+                    totalDeaths += died;
+                    deaths[species.ordinal()][cause.ordinal()] = 0;
+                }
+            }
+        }
+
+        if (stepEvent != null) {
+            stepEvent.step = step;
+            stepEvent.organisms = organisms;
+            stepEvent.births = totalBirths;
+            stepEvent.deaths = totalDeaths;
+            stepEvent.battles = battles;
+            stepEvent.commit();
+            stepEvent = null;
+        }
+    }
+
+    /**
+     * @return The step that is currently being simulated.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * Report that organisms of a species were born.
+     *
+     * @param species  The species of the newborns.
+     * @param count    How many were born.
+     * @param location The location of the parent.
+     */
+    public void born(Species species, int count, Location location)
+    {
+        if (countingPopulation) {
+            births[species.ordinal()] += count;
+        }
+        SimulationEventListener[] current = listeners;
+        for (SimulationEventListener listener : current) {
+            listener.born(species, count, location);
+        }
+    }
+
+    /**
+     * Report that an organism died.
+     *
+     * @param species  The species of the organism.
+     * @param cause    Why it died.
+     * @param location Where it died.
+     */
+    public void died(Species species, DeathCause cause, Location location)
+    {
+        if (countingPopulation) {
+            deaths[species.ordinal()][cause.ordinal()]++;
+        }
+        SimulationEventListener[] current = listeners;
+        for (SimulationEventListener listener : current) {
+            listener.died(species, cause, location);
+        }
+    }
+
+    /**
+     * Report that an organism moved to another location.
+     *
+     * @param species The species of the organism.
+     * @param from    Where it was.
+     * @param to      Where it is now.
+     */
+    public void moved(Species species, Location from, Location to)
+    {
+        SimulationEventListener[] current = listeners;
+        for (SimulationEventListener listener : current) {
+            listener.moved(species, from, to);
+        }
+    }
+
+    /**
+     * Report that an organism killed another. The death itself is reported
+     * separately, when the killed organism dies.
+     *
+     * @param predator The species of the killer.
+     * @param prey     The species of the killed organism.
+     * @param location Where the killed organism was.
+     */
+    public void killed(Species predator, Species prey, Location location)
+    {
+        SimulationEventListener[] current = listeners;
+        for (SimulationEventListener listener : current) {
+            listener.killed(predator, prey, location);
+        }
+    }
+
+    /**
+     * Report a fight between a hunter and one or more wolves.
+     *
+     * @param hunterStrength The strength of the hunter before the fight.
+     * @param wolves         How many wolves took part.
+     * @param wolfStrength   The combined strength of the wolves.
+     * @param hunterWon      true if the hunter won the fight.
+     */
+    public void battle(int hunterStrength, int wolves, int wolfStrength, boolean hunterWon)
+    {
+        battles++;
+        if (recordingBattles && battles <= MAX_BATTLE_EVENTS_PER_STEP) {
+            FlightEvents.BattleEvent event = new FlightEvents.BattleEvent();
+            event.step = step;
+            event.hunterStrength = hunterStrength;
+            event.wolves = wolves;
+            event.wolfStrength = wolfStrength;
+            event.hunterWon = hunterWon;
+            event.commit();
+        }
+        SimulationEventListener[] current = listeners;
+        for (SimulationEventListener listener : current) {
+            listener.battle(hunterStrength, wolves, wolfStrength, hunterWon);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The description of a simulation to be run by the SimulationJobService:
+ * the size of the grid, the seed, which species take part and how many
+ * steps to run for.
+ *
+ * @author Nikolay Tsanov
+ */
+public class SimulationJob
+{
+    // Report progress every this many steps, unless told otherwise.
+    private static final int DEFAULT_PROGRESS_INTERVAL = 100;
+
+    // The size of the grid.
+    private final int depth, width;
+    // The seed of the random number generator of the simulation.
+    private final long seed;
+    // How many steps to simulate.
+    private final int steps;
+    // The species that are placed in the field.
+    private final Set<Species> species;
+    // How often the progress is reported, in steps.
+    private int progressInterval;
+    // The estimated memory the job may use, in bytes, or 0 for no limit.
+    private long memoryBudget;
+    // How many threads populate the field; the jobs of a service already share the processors.
+    private int populateThreads;
+    // How many threads the organisms act on; 1 to let them act one by one.
+    private int parallelStepThreads;
+    // Where to record the trajectories of sampled organisms, or null not to record them.
+    private File trajectoryFile;
+    // How many organisms of every species taking part to follow in the trajectories.
+    private int trajectorySampleSize;
+    // Receives the progress and result of the job, may be null.
+    private SimulationJobListener listener;
+
+    /**
+     * Describe a job in which all species take part.
+     *
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param seed  The seed of the random number generator.
+     * @param steps The number of steps to simulate.
+     */
+    public SimulationJob(int depth, int width, long seed, int steps)
+    {
+        if (depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("The dimensions must be greater than zero.");
+        }
+        if (steps < 0) {
+            throw new IllegalArgumentException("The number of steps cannot be negative.");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.seed = seed;
+        this.steps = steps;
+        this.species = EnumSet.allOf(Species.class);
+        this.progressInterval = DEFAULT_PROGRESS_INTERVAL;
+        this.populateThreads = 1;
+        this.parallelStepThreads = 1;
+    }
+
+    /**
+     * Set whether a species takes part in the simulation.
+     *
+     * @param species The species.
+     * @param enabled true if it should be placed in the field.
+     */
+    public void setSpeciesEnabled(Species species, boolean enabled)
+    {
+        if (enabled) {
+            this.species.add(species);
+        } else {
+            this.species.remove(species);
+        }
+    }
+
+    /**
+     * @param species The species.
+     * @return true if the species takes part in the simulation.
+     */
+    public boolean isSpeciesEnabled(Species species)
+    {
+        return this.species.contains(species);
+    }
+
+    /**
+     * Set how often the progress of the job is reported.
+     *
+     * @param progressInterval The number of steps between reports, greater than zero.
+     */
+    public void setProgressInterval(int progressInterval)
+    {
+        if (progressInterval <= 0) {
+            throw new IllegalArgumentException("The progress interval must be greater than zero.");
+        }
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * @return The number of steps between progress reports.
+     */
+    public int getProgressInterval()
+    {
+        return progressInterval;
+    }
+
+    /**
+     * Limit the memory the job may use. The limit is checked against an
+     * estimate based on the size of the grid and the number of organisms.
+     *
+     * @param memoryBudget The budget in bytes, or 0 for no limit.
+     */
+    public void setMemoryBudget(long memoryBudget)
+    {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return The memory budget in bytes, or 0 for no limit.
+     */
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Record the trajectories of a sample of the organisms of every species
+     * taking part with a TrajectoryRecorder, from the start of the job.
+     *
+     * @param file       The trajectory file to write, or null not to record.
+     * @param sampleSize How many organisms of every species to follow at a time.
+     */
+    public void setTrajectories(File file, int sampleSize)
+    {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("The sample size must not be negative.");
+        }
+        this.trajectoryFile = file;
+        this.trajectorySampleSize = sampleSize;
+    }
+
+    /**
+     * @return Where to record the trajectories, or null if they are not recorded.
+     */
+    public File getTrajectoryFile()
+    {
+        return trajectoryFile;
+    }
+
+    /**
+     * @return How many organisms of every species are followed in the trajectories.
+     */
+    public int getTrajectorySampleSize()
+    {
+        return trajectorySampleSize;
+    }
+
+    /**
+     * Create the recorder of the trajectories of this job and add it to
+     * its simulator, unless no trajectories are to be recorded. The state
+     * the simulator is in is recorded right away. Close the recorder when
+     * the job ends.
+     *
+     * @param simulator The simulator of the job.
+     * @return The recorder, or null if no trajectories are recorded.
+     * @throws IOException if the trajectory file cannot be created.
+     */
+    public TrajectoryRecorder createTrajectoryRecorder(Simulator simulator) throws IOException
+    {
+        if (trajectoryFile == null) {
+            return null;
+        }
+        TrajectoryRecorder recorder = new TrajectoryRecorder(trajectoryFile, seed);
+        for (Species enabled : species) {
+            recorder.setSampleSize(enabled, trajectorySampleSize);
+        }
+        simulator.addStepListener(recorder);
+        recorder.stepCompleted(simulator.getStep(), simulator.getField());
+        return recorder;
+    }
+
+    /**
+     * Set who is told about the progress and result of the job.
+     *
+     * @param listener The listener, or null for none.
+     */
+    public void setListener(SimulationJobListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The listener of the job, or null if there is none.
+     */
+    public SimulationJobListener getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return The seed of the random number generator.
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * @return The number of steps to simulate.
+     */
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * Set how many threads populate the field of the job. The field is the
+     * same for any number of threads. By default one, since the service
+     * runs many jobs side by side.
+     *
+     * @param populateThreads The number of threads, at least 1.
+     */
+    public void setPopulateThreads(int populateThreads)
+    {
+        if (populateThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.populateThreads = populateThreads;
+    }
+
+    /**
+     * @return How many threads populate the field of the job.
+     */
+    public int getPopulateThreads()
+    {
+        return populateThreads;
+    }
+
+    /**
+     * Set how many threads the organisms of the job act on, as for
+     * Simulator.setParallelStepThreads. By default one, so that they act
+     * one by one and the job is repeatable; the service shuts the threads
+     * down when the job ends.
+     *
+     * @param parallelStepThreads The number of threads, at least 1.
+     */
+    public void setParallelStepThreads(int parallelStepThreads)
+    {
+        if (parallelStepThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        this.parallelStepThreads = parallelStepThreads;
+    }
+
+    /**
+     * @return How many threads the organisms of the job act on.
+     */
+    public int getParallelStepThreads()
+    {
+        return parallelStepThreads;
+    }
+
+    /**
+     * Create the simulator for this job, populated with the enabled species.
+     * Shut it down when done with it.
+     *
+     * @return A new simulator that shares no state with other simulators.
+     */
+    public Simulator createSimulator()
+    {
+        Simulator simulator = new Simulator(depth, width, seed, populateThreads);
+        simulator.setShowRabbits(isSpeciesEnabled(Species.RABBIT));
+        simulator.setShowFoxes(isSpeciesEnabled(Species.FOX));
+        simulator.setShowWolves(isSpeciesEnabled(Species.WOLF));
+        simulator.setShowHunters(isSpeciesEnabled(Species.HUNTER));
+        if (species.size() != Species.values().length) {
+            // The simulator populated the field with every species on creation.
+            simulator.reset();
+        }
+        simulator.setParallelStepThreads(parallelStepThreads);
+        return simulator;
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * Receives the progress and the result of a simulation job.
+ * The methods are called on the thread that runs the job, so they should
+ * return quickly and must not touch Swing components directly.
+ *
+ * @author Nikolay Tsanov
+ */
+public interface SimulationJobListener
+{
+    /**
+     * Called every few steps while the job runs.
+     *
+     * @param job        The job.
+     * @param step       The number of steps simulated so far.
+     * @param population The living organisms of every species, indexed by species ordinal.
+     */
+    void progress(SimulationJob job, int step, int[] population);
+
+    /**
+     * Called once when the job has finished, was cancelled or failed.
+     *
+     * @param job    The job.
+     * @param result The outcome of the job.
+     */
+    void finished(SimulationJob job, SimulationResult result);
+}
@@ -0,0 +1,364 @@
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many simulation jobs inside one JVM, so that they all share the
+ * same warmed up, JIT compiled code instead of starting a JVM per run.
+ *
+ * Every job gets its own thread and its own Simulator. Jobs take turns:
+ * only as many jobs as there are processors simulate at once, each for a
+ * slice of a few steps, after which it queues up again behind the jobs
+ * that were waiting. The number of jobs that can be queued or running is
+ * bounded; further submissions are rejected.
+ *
+ * On a JVM with virtual threads (Java 21 and later) the jobs run on
+ * virtual threads, otherwise on ordinary daemon threads.
+ *
+ * @author Nikolay Tsanov
+ */
+public class SimulationJobService
+{
+    // The number of steps a job simulates before letting other jobs run.
+    private static final int STEPS_PER_SLICE = 16;
+    // Estimated bytes used by every cell of a field.
+    private static final long BYTES_PER_CELL = 8;
+    // Estimated bytes used by every living organism (the object, its location and list slot).
+    private static final long BYTES_PER_ORGANISM = 96;
+    // The default number of jobs that can be queued or running.
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // Hands out the right to simulate; fair, so waiting jobs are served in order.
+    private final Semaphore carriers;
+    // The maximum number of jobs that can be queued or running.
+    private final int capacity;
+    // The number of jobs that are queued or running.
+    private final AtomicInteger admitted;
+    // The jobs that are queued or running.
+    private final Set<JobHandle> active;
+    // Creates the threads that run the jobs.
+    private final ThreadFactory threadFactory;
+    // Whether the service still accepts jobs.
+    private volatile boolean shutdown;
+
+    /**
+     * Create a service that runs one job per processor at a time.
+     */
+    public SimulationJobService()
+    {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a service.
+     *
+     * @param parallelism How many jobs may simulate at the same time.
+     * @param capacity    How many jobs may be queued or running.
+     */
+    public SimulationJobService(int parallelism, int capacity)
+    {
+        if (parallelism <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("The parallelism and capacity must be greater than zero.");
+        }
+        this.carriers = new Semaphore(parallelism, true);
+        this.capacity = capacity;
+        this.admitted = new AtomicInteger();
+        this.active = ConcurrentHashMap.newKeySet();
+        this.threadFactory = createThreadFactory();
+    }
+
+    /**
+     * Queue a job to be run.
+     *
+     * @param job The job.
+     * @return A handle for following or cancelling the job.
+     * @throws RejectedExecutionException if the service is full or shut down.
+     */
+    public JobHandle submit(SimulationJob job)
+    {
+        if (shutdown) {
+            throw new RejectedExecutionException("The service has been shut down.");
+        }
+        if (admitted.incrementAndGet() > capacity) {
+            admitted.decrementAndGet();
+            throw new RejectedExecutionException("The service already holds " + capacity + " jobs.");
+        }
+
+        JobHandle handle = new JobHandle(job);
+        active.add(handle);
+        Thread thread = threadFactory.newThread(handle::run);
+        handle.thread = thread;
+        thread.start();
+        return handle;
+    }
+
+    /**
+     * @return The number of jobs that are queued or running.
+     */
+    public int getActiveJobs()
+    {
+        return admitted.get();
+    }
+
+    /**
+     * Stop accepting jobs. Jobs that were already submitted keep running.
+     */
+    public void shutdown()
+    {
+        shutdown = true;
+    }
+
+    /**
+     * Stop accepting jobs and cancel all queued and running jobs.
+     */
+    public void shutdownNow()
+    {
+        shutdown = true;
+        for (JobHandle handle : active) {
+            handle.cancel();
+        }
+    }
+
+    /**
+     * Wait until all submitted jobs have ended.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return true if all jobs ended, false if the time ran out.
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (JobHandle handle : active) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !handle.done.await(remaining, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimate the memory a simulation uses.
+     *
+     * @param job       The job being simulated.
+     * @param organisms The number of living organisms.
+     * @return The estimate in bytes.
+     */
+    private static long estimateMemory(SimulationJob job, int organisms)
+    {
+        return (long) job.getDepth() * job.getWidth() * BYTES_PER_CELL + organisms * BYTES_PER_ORGANISM;
+    }
+
+    /**
+     * Create the factory for the job threads: virtual threads if the JVM
+     * has them, daemon platform threads otherwise.
+     *
+     * @return The thread factory.
+     */
+    private static ThreadFactory createThreadFactory()
+    {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "simulation-job-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            // No virtual threads on this JVM.
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        return (runnable) -> {
+            Thread thread = new Thread(runnable, "simulation-job-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A submitted job: used to follow its progress, wait for its result or cancel it.
+     */
+    public class JobHandle
+    {
+        // The job being run.
+        private final SimulationJob job;
+        // Counted down when the job has ended.
+        private final CountDownLatch done;
+        // The thread running the job.
+        private volatile Thread thread;
+        // Whether the job was cancelled.
+        private volatile boolean cancelled;
+        // The number of steps simulated so far.
+        private volatile int step;
+        // The outcome, once the job has ended.
+        private volatile SimulationResult result;
+        // Whether the job thread currently holds a carrier.
+        private boolean holdingCarrier;
+
+        /**
+         * Create the handle of a job.
+         *
+         * @param job The job.
+         */
+        private JobHandle(SimulationJob job)
+        {
+            this.job = job;
+            this.done = new CountDownLatch(1);
+        }
+
+        /**
+         * @return The job.
+         */
+        public SimulationJob getJob()
+        {
+            return job;
+        }
+
+        /**
+         * @return The number of steps simulated so far.
+         */
+        public int getStep()
+        {
+            return step;
+        }
+
+        /**
+         * Cancel the job. A running job stops before its next step.
+         */
+        public void cancel()
+        {
+            cancelled = true;
+            Thread running = thread;
+            if (running != null) {
+                running.interrupt();
+            }
+        }
+
+        /**
+         * @return true if the job has ended.
+         */
+        public boolean isDone()
+        {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Wait for the job to end.
+         *
+         * @return The outcome of the job.
+         * @throws InterruptedException if the waiting thread is interrupted.
+         */
+        public SimulationResult getResult() throws InterruptedException
+        {
+            done.await();
+            return result;
+        }
+
+        /**
+         * Run the job, a slice of steps at a time.
+         */
+        private void run()
+        {
+            long start = System.currentTimeMillis();
+            Simulator simulator = null;
+            TrajectoryRecorder recorder = null;
+            SimulationResult.Status status = SimulationResult.Status.COMPLETED;
+            Throwable failure = null;
+
+            try {
+                carriers.acquire();
+                holdingCarrier = true;
+
+                long budget = job.getMemoryBudget();
+                if (budget > 0 && estimateMemory(job, 0) > budget) {
+                    status = SimulationResult.Status.OVER_BUDGET;
+                } else {
+                    simulator = job.createSimulator();
+                    recorder = job.createTrajectoryRecorder(simulator);
+                    status = simulate(simulator, budget);
+                }
+            } catch (InterruptedException e) {
+                status = SimulationResult.Status.CANCELLED;
+            } catch (IOException | RuntimeException | Error e) {
+                status = SimulationResult.Status.FAILED;
+                failure = e;
+            } finally {
+                if (holdingCarrier) {
+                    carriers.release();
+                    holdingCarrier = false;
+                }
+            }
+
+            int[] population = simulator == null ? new int[Species.values().length] : simulator.countSpecies();
+            if (simulator != null) {
+                simulator.shutdown();
+            }
+            if (recorder != null) {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        status = SimulationResult.Status.FAILED;
+                        failure = e;
+                    }
+                }
+            }
+            result = new SimulationResult(status, step, population, System.currentTimeMillis() - start, failure);
+            active.remove(this);
+            admitted.decrementAndGet();
+            done.countDown();
+
+            SimulationJobListener listener = job.getListener();
+            if (listener != null) {
+                listener.finished(job, result);
+            }
+        }
+
+        /**
+         * Simulate all steps of the job. Must be called while holding a carrier;
+         * returns while holding one as well.
+         *
+         * @param simulator The simulator of the job.
+         * @param budget    The memory budget in bytes, or 0 for none.
+         * @return How the simulation ended.
+         * @throws InterruptedException if the job was cancelled while waiting for its turn.
+         */
+        private SimulationResult.Status simulate(Simulator simulator, long budget) throws InterruptedException
+        {
+            SimulationJobListener listener = job.getListener();
+            int interval = job.getProgressInterval();
+
+            while (step < job.getSteps()) {
+                int sliceEnd = Math.min(job.getSteps(), step + STEPS_PER_SLICE);
+                while (step < sliceEnd) {
+                    if (cancelled) {
+                        return SimulationResult.Status.CANCELLED;
+                    }
+                    simulator.simulateOneStep();
+                    step++;
+                    if (listener != null && step % interval == 0) {
+                        listener.progress(job, step, simulator.countSpecies());
+                    }
+                }
+
+                if (budget > 0 && estimateMemory(job, simulator.getOrganismCount()) > budget) {
+                    return SimulationResult.Status.OVER_BUDGET;
+                }
+
+                // Go to the back of the queue, so that other jobs get their turn.
+                carriers.release();
+                holdingCarrier = false;
+                carriers.acquire();
+                holdingCarrier = true;
+            }
+            return cancelled ? SimulationResult.Status.CANCELLED : SimulationResult.Status.COMPLETED;
+        }
+    }
+}
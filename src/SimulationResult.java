@@ -0,0 +1,107 @@
+/**
+ * The outcome of a simulation job.
+ *
+ * @author Nikolay Tsanov
+ */
+public class SimulationResult
+{
+    /**
+     * How a job ended.
+     */
+    public enum Status
+    {
+        // All requested steps were simulated.
+        COMPLETED,
+        // The job was cancelled before it finished.
+        CANCELLED,
+        // The job would have used more memory than its budget allowed.
+        OVER_BUDGET,
+        // The simulation threw an exception.
+        FAILED
+    }
+
+    // How the job ended.
+    private final Status status;
+    // The number of steps that were simulated.
+    private final int steps;
+    // The living organisms of every species at the end, indexed by species ordinal.
+    private final int[] population;
+    // How long the job ran, in milliseconds.
+    private final long elapsedMillis;
+    // The exception that made the job fail, or null.
+    private final Throwable failure;
+
+    /**
+     * Describe the outcome of a job.
+     *
+     * @param status        How the job ended.
+     * @param steps         The number of steps that were simulated.
+     * @param population    The final population, indexed by species ordinal.
+     * @param elapsedMillis How long the job ran, in milliseconds.
+     * @param failure       The exception that made the job fail, or null.
+     */
+    public SimulationResult(Status status, int steps, int[] population, long elapsedMillis, Throwable failure)
+    {
+        this.status = status;
+        this.steps = steps;
+        this.population = population;
+        this.elapsedMillis = elapsedMillis;
+        this.failure = failure;
+    }
+
+    /**
+     * @return How the job ended.
+     */
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return The number of steps that were simulated.
+     */
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    /**
+     * Return the final population of a species.
+     *
+     * @param species The species.
+     * @return How many of the species were alive at the end.
+     */
+    public int getPopulation(Species species)
+    {
+        return population[species.ordinal()];
+    }
+
+    /**
+     * @return How long the job ran, in milliseconds.
+     */
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return The exception that made the job fail, or null.
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * @return A string of the form "COMPLETED after 100 steps: Rabbit=10 Fox=2 ..."
+     */
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(status).append(" after ").append(steps).append(" steps:");
+        for (Species species : Species.values()) {
+            builder.append(' ').append(species.getDisplayName()).append('=').append(population[species.ordinal()]);
+        }
+        return builder.toString();
+    }
+}
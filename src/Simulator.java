@@ -1,7 +1,16 @@
 import java.util.Random;
 import java.util.List;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A simple predator-prey simulator, based on a rectangular field
@@ -26,6 +35,17 @@ public class Simulator
     private static final double WOLF_CREATION_PROBABILITY = 0.007;
     // The probability that a hunter will be created in any given grid position.
     private static final double HUNTER_CREATION_PROBABILITY = 0.005;
+    // The rows populated together, a whole number of perception buckets.
+    private static final int POPULATE_BAND_ROWS = 8 * PerceptionGrid.BUCKET_SIZE;
+    // The number of trajectories of the population model run for a fast-forward.
+    private static final int FAST_FORWARD_TRAJECTORIES = 64;
+    // Chooses the species of the bands while a field is populated, shared by
+    // every simulator; idle threads end after a minute.
+    private static final ExecutorService POPULATE_WORKERS = Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "populate");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     // List of organisms in the field.
     private List<Organism> organisms;
@@ -33,8 +53,32 @@ public class Simulator
     private Field field;
     // The current step of the simulation.
     private int step;
+    // Latency and throughput metrics for the steps of the simulation.
+    private SimulatorMetrics metrics;
+    // Told about every completed step.
+    private List<StepListener> stepListeners;
+    // Fitted to the populations after every step, for fast-forwards.
+    private PopulationModel populationModel;
+    // Counts the organisms in rectangles of the field, made when first asked for, or null.
+    private RegionCounts regionCounts;
+    // Simulates the parts of the field outside the focus windows coarsely, or null.
+    private LevelOfDetail levelOfDetail;
+    // Every how many steps the organisms are sorted by where they are kept in the field; 0 for never.
+    private int resortInterval;
+    // Reused while sorting: the cell and list position of every organism, and the organisms.
+    private long[] sortKeys = new long[0];
+    private Organism[] sortBuffer = new Organism[0];
+    // How many threads populate the field on a reset.
+    private int populateThreads;
+    // Lets the organisms act on several threads, or null to let them act one by one.
+    private ParallelStepEngine parallelEngine;
 
     private boolean showRabbits = true, showFoxes = true, showWolves = true, showHunters = true;
+    // The probability that each species is created in a grid position, indexed by ordinal.
+    private double[] creationProbability = {
+            RABBIT_CREATION_PROBABILITY, FOX_CREATION_PROBABILITY,
+            WOLF_CREATION_PROBABILITY, HUNTER_CREATION_PROBABILITY
+    };
 
     /**
      * Construct a simulation field with default size.
@@ -52,6 +96,67 @@ public class Simulator
      */
     public Simulator(int depth, int width)
     {
+        this(depth, width, null, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Create a simulation field with the given size and its own random
+     * number generator. Simulations created this way do not share any
+     * state, so several of them can run at the same time.
+     *
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param seed  The seed of the random number generator.
+     */
+    public Simulator(int depth, int width, long seed)
+    {
+        this(depth, width, new Random(seed), Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * Create a simulation field with the given size and its own random
+     * number generator, populated on a given number of threads, e.g. one
+     * when many simulations run side by side.
+     *
+     * @param depth           Depth of the field. Must be greater than zero.
+     * @param width           Width of the field. Must be greater than zero.
+     * @param seed            The seed of the random number generator.
+     * @param populateThreads How many threads populate the field, at least 1.
+     */
+    public Simulator(int depth, int width, long seed, int populateThreads)
+    {
+        this(depth, width, new Random(seed), populateThreads, null);
+    }
+
+    /**
+     * Create a simulation whose field is kept in a store outside the heap
+     * from the start (see Field.attachCellStore), so that no grid the size
+     * of the world is made on the heap. Whatever the store held is
+     * replaced; to go on with a saved world, use restore instead.
+     *
+     * @param store           The store, which gives the size of the field.
+     * @param seed            The seed of the random number generator.
+     * @param populateThreads How many threads populate the field, at least 1.
+     */
+    public Simulator(OffHeapCellStore store, long seed, int populateThreads)
+    {
+        this(store.getDepth(), store.getWidth(), new Random(seed), populateThreads, store);
+    }
+
+    /**
+     * Create a simulation field with the given size.
+     *
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param rand            The random number generator, or null for the shared one.
+     * @param populateThreads How many threads populate the field, at least 1.
+     * @param store           The store to keep the field in, or null to keep it on the heap.
+     */
+    private Simulator(int depth, int width, Random rand, int populateThreads, OffHeapCellStore store)
+    {
+        if (populateThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
         if (width <= 0 || depth <= 0) {
             System.out.println("The dimensions must be greater than zero.");
             System.out.println("Using default values.");
@@ -60,7 +165,16 @@ public class Simulator
         }
 
         organisms = new ArrayList<Organism>();
-        field = new Field(depth, width);
+        if (store != null) {
+            field = new Field(store, rand);
+        } else {
+            field = rand == null ? new Field(depth, width) : new Field(depth, width, rand);
+        }
+        metrics = new SimulatorMetrics();
+        stepListeners = new CopyOnWriteArrayList<StepListener>();
+        populationModel = new PopulationModel();
+        stepListeners.add(populationModel);
+        this.populateThreads = populateThreads;
 
         reset();
     }
@@ -95,20 +209,82 @@ public class Simulator
     public void simulateOneStep()
     {
         step++;
+        SimulationEvents events = field.getEvents();
+        events.beginStep(step);
+        field.getActiveTiles().beginStep();
+
+        // Checked once per step, so that disabled metrics cost next to nothing.
+        boolean measured = metrics.isEnabled();
+        long stepStart = measured ? metrics.beginStep() : 0;
+        long[] actNanos = measured ? new long[Species.values().length] : null;
+        long removalNanos = 0;
+        // Deaths of old age and starvation, all at once; the dead do nothing when asked to act.
+        long deathsStart = measured ? System.nanoTime() : 0;
+        field.getTimingWheel().advance(step);
+        if (measured) {
+            metrics.record(SimulatorMetrics.Phase.SCHEDULED_DEATHS, System.nanoTime() - deathsStart);
+        }
+        if (levelOfDetail != null) {
+            levelOfDetail.update(organisms);
+        }
+        if (resortInterval > 0 && step % resortInterval == 0) {
+            long start = measured ? System.nanoTime() : 0;
+            sortOrganismsByCell();
+            if (measured) {
+                metrics.record(SimulatorMetrics.Phase.RESORT, System.nanoTime() - start);
+            }
+        }
+        int acted = organisms.size();
 
         // Provide space for newborn organisms.
         List<Organism> newOrganisms = new ArrayList<Organism>();
-        // Let all rabbits act.
-        for (Iterator<Organism> it = organisms.iterator(); it.hasNext(); ) {
-            Organism organism = it.next();
-            organism.act(newOrganisms);
-            if (!organism.isAlive()) {
-                it.remove();
+        if (parallelEngine != null) {
+            long start = measured ? System.nanoTime() : 0;
+            parallelEngine.step(organisms, newOrganisms, actNanos);
+            long end = measured ? System.nanoTime() : 0;
+            organisms.removeIf(organism -> !organism.isAlive());
+            if (measured) {
+                metrics.record(SimulatorMetrics.Phase.ACT_PARALLEL, end - start);
+                removalNanos = System.nanoTime() - end;
+            }
+        } else {
+            // Let all rabbits act.
+            for (Iterator<Organism> it = organisms.iterator(); it.hasNext(); ) {
+                Organism organism = it.next();
+                if (measured) {
+                    long start = System.nanoTime();
+                    organism.act(newOrganisms);
+                    long end = System.nanoTime();
+                    actNanos[organism.getSpecies().ordinal()] += end - start;
+                    if (!organism.isAlive()) {
+                        it.remove();
+                        removalNanos += System.nanoTime() - end;
+                    }
+                } else {
+                    organism.act(newOrganisms);
+                    if (!organism.isAlive()) {
+                        it.remove();
+                    }
+                }
             }
         }
 
         // Add the newly born foxes and rabbits to the main lists.
-        organisms.addAll(newOrganisms);
+        if (measured) {
+            long start = System.nanoTime();
+            organisms.addAll(newOrganisms);
+            metrics.record(SimulatorMetrics.Phase.NEWBORN_MERGE, System.nanoTime() - start);
+            for (Species species : Species.values()) {
+                metrics.record(SimulatorMetrics.Phase.actOf(species), actNanos[species.ordinal()]);
+            }
+            metrics.record(SimulatorMetrics.Phase.REMOVAL, removalNanos);
+            metrics.endStep(stepStart, acted);
+        } else {
+            organisms.addAll(newOrganisms);
+        }
+        events.endStep(acted);
+        updateFingerprint();
+        notifyStepListeners(newOrganisms);
     }
 
     /**
@@ -118,7 +294,290 @@ public class Simulator
     {
         step = 0;
         organisms.clear();
-        populate();
+        field.getTimingWheel().reset(step);
+        populate(creationProbability);
+        if (levelOfDetail != null) {
+            levelOfDetail.clear();
+        }
+        updateFingerprint();
+        notifyStepListeners(organisms);
+    }
+
+    /**
+     * Sort the organisms by where their locations are kept in the field
+     * every given number of steps, so that organisms acting one after
+     * another touch nearby memory. Newborns are appended to the end of
+     * the list and organisms move, so the order decays between sorts;
+     * sorting costs O(n log n) on primitive keys, spread over the interval.
+     * The order in which organisms act changes, and with it the course
+     * of the simulation, so runs with different intervals differ.
+     * Combine with Field.setCellLayout(Z_ORDER) for locality in both directions.
+     *
+     * @param steps Every how many steps to sort, or 0 to keep the order of creation.
+     */
+    public void setResortInterval(int steps)
+    {
+        if (steps < 0) {
+            throw new IllegalArgumentException("The interval must not be negative.");
+        }
+        resortInterval = steps;
+    }
+
+    /**
+     * Sort the organisms by the storage index of their locations. Organisms
+     * at the same index (there are none while all are alive) keep their order.
+     */
+    private void sortOrganismsByCell()
+    {
+        int count = organisms.size();
+        if (sortKeys.length < count) {
+            sortKeys = new long[count];
+            sortBuffer = new Organism[count];
+        }
+        for (int i = 0; i < count; i++) {
+            Organism organism = organisms.get(i);
+            Location location = organism.getLocation();
+            // Organisms without a location go last.
+            long cell = location == null ? Integer.MAX_VALUE : field.cellIndex(location.getRow(), location.getCol());
+            sortKeys[i] = (cell << 32) | i;
+            sortBuffer[i] = organism;
+        }
+        Arrays.sort(sortKeys, 0, count);
+        for (int i = 0; i < count; i++) {
+            organisms.set(i, sortBuffer[(int) sortKeys[i]]);
+        }
+        Arrays.fill(sortBuffer, 0, count, null);
+    }
+
+    /**
+     * Save the state of the simulation to the cell store the field is kept
+     * in (see Field.attachCellStore), which already holds the species at
+     * every location, and write it to its file if it has one.
+     * The state of the random number generator and the densities of coarse
+     * regions are not saved.
+     */
+    public void checkpoint()
+    {
+        OffHeapCellStore store = field.getCellStore();
+        if (store == null) {
+            throw new IllegalStateException("The field is not kept in a cell store.");
+        }
+        for (Organism organism : organisms) {
+            Location location = organism.getLocation();
+            if (organism.isAlive() && location != null) {
+                int strength = organism instanceof BattleOrganism ? ((BattleOrganism) organism).getStrengthLevel() : 0;
+                store.setState(location.getRow(), location.getCol(), organism.getAge(), organism.getFoodLevel(), strength);
+            }
+        }
+        store.setStep(step);
+        store.force();
+    }
+
+    /**
+     * Replace the simulation with the one saved in a cell store, and keep
+     * the field in the store from now on (see Field.attachCellStore). The
+     * store the field was kept in before, if any, is no longer used. The
+     * simulation goes on with the random number generator it has, not the
+     * one of the saved run.
+     *
+     * @param store A store of the same size as the field, e.g. OffHeapCellStore.open(file),
+     *              but not the one the field is kept in: that holds the field as it is now.
+     */
+    public void restore(OffHeapCellStore store)
+    {
+        if (store.getDepth() != field.getDepth() || store.getWidth() != field.getWidth()) {
+            throw new IllegalArgumentException("The field is " + field.getDepth() + "x" + field.getWidth()
+                    + ", the store " + store.getDepth() + "x" + store.getWidth());
+        }
+        if (store == field.getCellStore()) {
+            throw new IllegalArgumentException("The field is kept in this store; open the saved file again to restore it.");
+        }
+        field.clear();
+        // The saved ages and food levels are as of the saved step.
+        step = store.getStep();
+        field.getTimingWheel().reset(step);
+        organisms.clear();
+        if (levelOfDetail != null) {
+            levelOfDetail.clear();
+        }
+        for (int row = 0; row < field.getDepth(); row++) {
+            for (int col = 0; col < field.getWidth(); col++) {
+                byte code = store.getCode(row, col);
+                if (code == 0) {
+                    continue;
+                }
+                Organism organism = Species.fromCode(code).create(false, field, new Location(row, col));
+                organism.setAge(store.getAge(row, col));
+                organism.setFoodLevel(store.getFoodLevel(row, col));
+                if (organism instanceof BattleOrganism) {
+                    ((BattleOrganism) organism).setStrengthLevel(store.getStrength(row, col));
+                }
+                organisms.add(organism);
+            }
+        }
+        field.attachCellStore(store);
+        updateFingerprint();
+        notifyStepListeners(organisms);
+    }
+
+    /**
+     * Skip a number of steps without simulating them: the population model
+     * fitted to the steps so far forecasts the populations after them, and
+     * the field is populated again at random with those populations, and
+     * random ages and food levels. The simulation goes on exactly from
+     * there. This is for looking at long-term trends; where the organisms
+     * were and how old they were is lost.
+     *
+     * @param steps The number of steps to skip, greater than zero.
+     * @return The forecast the field was populated from, with its error bounds.
+     * @throws IllegalArgumentException if the number of steps is not greater than zero.
+     * @throws IllegalStateException if the model has not seen enough steps
+     *         yet, or parts of the field are simulated coarsely.
+     */
+    public PopulationForecast fastForward(int steps)
+    {
+        if (steps <= 0) {
+            throw new IllegalArgumentException("The number of steps must be greater than zero.");
+        }
+        if (levelOfDetail != null) {
+            throw new IllegalStateException("Fast-forwarding needs the whole field simulated organism by organism.");
+        }
+        PopulationForecast forecast = populationModel.forecast(steps, FAST_FORWARD_TRAJECTORIES, field.getRandom());
+        // The chance of every species at a location, given that none of the species before it is there.
+        double[] probability = new double[creationProbability.length];
+        double free = field.getDepth() * (double) field.getWidth();
+        for (Species species : Species.values()) {
+            double expected = forecast.getExpected(species);
+            probability[species.ordinal()] = free > 0 ? Math.min(1, expected / free) : 0;
+            free -= expected;
+        }
+        step += steps;
+        organisms.clear();
+        field.getTimingWheel().reset(step);
+        populate(probability);
+        updateFingerprint();
+        notifyStepListeners(organisms);
+        return forecast;
+    }
+
+    /**
+     * @return The model of the populations, fitted after every step.
+     */
+    public PopulationModel getPopulationModel()
+    {
+        return populationModel;
+    }
+
+    /**
+     * Simulate only the regions of the field covered by focus windows
+     * organism by organism, and the rest as densities of the species.
+     * Without focus windows, the whole field becomes coarse at the next step.
+     *
+     * @param regionSize The size of a region, in locations along each side.
+     * @return The level of detail, to set the focus windows on.
+     */
+    public LevelOfDetail enableLevelOfDetail(int regionSize)
+    {
+        levelOfDetail = new LevelOfDetail(field, regionSize);
+        return levelOfDetail;
+    }
+
+    /**
+     * Simulate the whole field organism by organism again. The organisms
+     * of the coarse regions are created right away, from their densities.
+     */
+    public void disableLevelOfDetail()
+    {
+        if (levelOfDetail != null) {
+            levelOfDetail.promoteAll(organisms);
+            levelOfDetail = null;
+        }
+    }
+
+    /**
+     * @return The level of detail of the simulation, or null if the whole field is detailed.
+     */
+    public LevelOfDetail getLevelOfDetail()
+    {
+        return levelOfDetail;
+    }
+
+    /**
+     * Keep a fingerprint of the state of the simulation, updated after
+     * every step, e.g. to record it with a FingerprintTrace.
+     *
+     * @param regionSize The size of the regions of the fingerprint.
+     * @return The fingerprint.
+     */
+    public WorldFingerprint enableFingerprint(int regionSize)
+    {
+        WorldFingerprint fingerprint = field.enableFingerprint(regionSize);
+        fingerprint.updateState(organisms);
+        return fingerprint;
+    }
+
+    /**
+     * Bring the state part of the fingerprint up to date, if there is one.
+     */
+    private void updateFingerprint()
+    {
+        WorldFingerprint fingerprint = field.getFingerprint();
+        if (fingerprint != null) {
+            fingerprint.updateState(organisms);
+        }
+    }
+
+    /**
+     * Return the counts of the organisms in rectangles of the field. They
+     * are made when first asked for, on as many threads as populate the
+     * field, and kept up to date after every step from then on. Ask for
+     * them first while the simulation is not running.
+     *
+     * @return The region counts.
+     */
+    public RegionCounts getRegionCounts()
+    {
+        if (regionCounts == null) {
+            regionCounts = new RegionCounts(field, populateThreads);
+            stepListeners.add(regionCounts);
+        }
+        return regionCounts;
+    }
+
+    /**
+     * Register a listener that is told about every completed step. It is
+     * told about the organisms in the simulation right away.
+     *
+     * @param listener The listener to add.
+     */
+    public void addStepListener(StepListener listener)
+    {
+        listener.organismsAdded(step, organisms);
+        stepListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener that was added with addStepListener.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removeStepListener(StepListener listener)
+    {
+        stepListeners.remove(listener);
+    }
+
+    /**
+     * Tell all step listeners about the organisms that joined the
+     * simulation and the current state of the field.
+     *
+     * @param added The organisms that joined.
+     */
+    private void notifyStepListeners(List<Organism> added)
+    {
+        for (StepListener listener : stepListeners) {
+            listener.organismsAdded(step, added);
+            listener.stepCompleted(step, field);
+        }
     }
 
     /**
@@ -131,6 +590,45 @@ public class Simulator
         return field;
     }
 
+    /**
+     * Return the metrics recorded for the steps of this simulation.
+     *
+     * @return SimulatorMetrics
+     */
+    public SimulatorMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Return the number of organisms currently alive.
+     *
+     * @return int
+     */
+    public int getOrganismCount()
+    {
+        return organisms.size();
+    }
+
+    /**
+     * Count the living organisms of every species.
+     *
+     * @return The counts, indexed by the ordinal of the species.
+     */
+    public int[] countSpecies()
+    {
+        int[] counts = new int[Species.values().length];
+        for (Organism organism : organisms) {
+            counts[organism.getSpecies().ordinal()]++;
+        }
+        if (levelOfDetail != null) {
+            for (Species species : Species.values()) {
+                counts[species.ordinal()] += (int) Math.round(levelOfDetail.getCoarsePopulation(species));
+            }
+        }
+        return counts;
+    }
+
     /**
      * Return the current step of the program
      *
@@ -141,6 +639,17 @@ public class Simulator
         return step;
     }
 
+    /**
+     * Set how far foxes and wolves can see their prey. Predators that see
+     * prey beyond their neighbours move towards it.
+     *
+     * @param visionRadius The radius in locations; 1 or less for neighbours only
+     */
+    public void setVisionRadius(int visionRadius)
+    {
+        field.setVisionRadius(visionRadius);
+    }
+
     /**
      * Set whether the rabbits should be shown in the simulation
      *
@@ -181,36 +690,202 @@ public class Simulator
         this.showWolves = showWolves;
     }
 
+    /**
+     * Set the probability that a species is created in any given grid
+     * position when the field is populated, e.g. to start from a crowded
+     * or a sparse field. Takes effect at the next reset.
+     *
+     * @param species     The species.
+     * @param probability The probability, between 0 and 1.
+     */
+    public void setCreationProbability(Species species, double probability)
+    {
+        this.creationProbability[species.ordinal()] = probability;
+    }
+
+    /**
+     * Set how many threads populate the field on a reset. The field is the
+     * same for any number of threads. Takes effect at the next reset.
+     *
+     * @param threads The number of threads, at least 1.
+     */
+    public void setPopulateThreads(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        populateThreads = threads;
+    }
+
+    /**
+     * Set how many threads the organisms act on. With 1, the default, they
+     * act one by one, in the order of the list. With more, a
+     * ParallelStepEngine plans their steps on that many threads, claiming
+     * the locations they need, and carries the plans out in the order of
+     * the list; aggressive species still act one by one after the others.
+     * Which organism wins a location contested at the same time then
+     * depends on timing, so such a run is not repeatable. A location
+     * freed during a step is only taken again in the next step, unlike
+     * when the organisms act one by one, so the run follows another
+     * course than a sequential one (see ParallelStepEngine).
+     *
+     * The simulator owns the threads of the engine: they are stopped when
+     * the number is set again, or when the simulator is shut down.
+     *
+     * @param threads The number of threads, at least 1.
+     */
+    public void setParallelStepThreads(int threads)
+    {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be at least 1.");
+        }
+        if (parallelEngine != null) {
+            parallelEngine.shutdown();
+        }
+        parallelEngine = threads == 1 ? null : new ParallelStepEngine(field, threads);
+    }
+
+    /**
+     * @return The number of threads the organisms act on; 1 if they act one by one.
+     */
+    public int getParallelStepThreads()
+    {
+        return parallelEngine == null ? 1 : parallelEngine.getThreads();
+    }
+
+    /**
+     * Stop the threads the simulator keeps for itself: those of the
+     * parallel step engine and of the region counts, if any, and take its
+     * metrics off the MBean server if they were registered there. Call it
+     * when the simulator is no longer needed; it must not be stepped
+     * afterwards.
+     * The threads that populate the field are shared by all simulators and
+     * keep running.
+     */
+    public void shutdown()
+    {
+        if (parallelEngine != null) {
+            parallelEngine.shutdown();
+            parallelEngine = null;
+        }
+        if (regionCounts != null) {
+            regionCounts.shutdown();
+        }
+        metrics.unregister();
+    }
+
     /**
      * Randomly populate the field with foxes, rabbits, wolves and hunters.
+     *
+     * Which species, if any, starts at each location is chosen in bands of
+     * rows on up to populateThreads threads of the shared workers. Every row draws from its own random number
+     * generator, seeded from one number drawn from the field's generator
+     * and the number of the row, so the choice does not depend on how the
+     * rows are shared out. The organisms are then created and placed band
+     * by band on this thread, in row order, while later bands are still
+     * being chosen; their age and food level come from the field's
+     * generator, as for any organism.
+     *
+     * @param probability The probability of every species at a location,
+     *                    given that none of the species before it is there, indexed by ordinal.
      */
-    private void populate()
+    private void populate(double[] probability)
     {
-        Random rand = Randomizer.getRandom();
         field.clear();
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) {
+        long seed = field.getRandom().nextLong();
+        int depth = field.getDepth();
+        int bands = (depth + POPULATE_BAND_ROWS - 1) / POPULATE_BAND_ROWS;
+        int threads = Math.min(populateThreads, bands);
+        ExecutorService workers = threads > 1 ? POPULATE_WORKERS : null;
+        // The bands being chosen, at most two per thread ahead of the one being placed.
+        ArrayDeque<Future<byte[]>> chosen = new ArrayDeque<Future<byte[]>>();
+        try {
+            int nextBand = 0;
+            for (int band = 0; band < bands; band++) {
+                while (nextBand < bands && (workers == null ? chosen.isEmpty() : chosen.size() < 2 * threads)) {
+                    int firstRow = nextBand * POPULATE_BAND_ROWS;
+                    chosen.add(workers == null ? CompletableFuture.completedFuture(chooseSpecies(seed, firstRow, probability))
+                            : workers.submit(() -> chooseSpecies(seed, firstRow, probability)));
+                    nextBand++;
+                }
+                placeBand(band * POPULATE_BAND_ROWS, chosen.remove().get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Populating the field failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Populating the field was interrupted", e);
+        } finally {
+            // The shared workers are not shut down; only the bands of this field are given up.
+            for (Future<byte[]> band : chosen) {
+                band.cancel(true);
+            }
+        }
+    }
 
-                if (this.showRabbits && rand.nextDouble() <= RABBIT_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Rabbit rabbit = new Rabbit(true, field, location);
-                    organisms.add(rabbit);
-                } else if (this.showFoxes && rand.nextDouble() <= FOX_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Fox fox = new Fox(true, field, location);
-                    organisms.add(fox);
-                } else if (this.showWolves && rand.nextDouble() <= WOLF_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Wolf wolf = new Wolf(true, field, location);
-                    organisms.add(wolf);
-                } else if (this.showHunters && rand.nextDouble() <= HUNTER_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Hunter hunter = new Hunter(true, field, location);
-                    organisms.add(hunter);
+    /**
+     * Choose which species starts at every location of a band of rows.
+     *
+     * @param seed        The seed of the population.
+     * @param firstRow    The first row of the band.
+     * @param probability The probability of every species at a location, indexed by ordinal.
+     * @return The code of the species at every location of the band, row by row, or 0.
+     */
+    private byte[] chooseSpecies(long seed, int firstRow, double[] probability)
+    {
+        int width = field.getWidth();
+        int endRow = Math.min(field.getDepth(), firstRow + POPULATE_BAND_ROWS);
+        byte[] codes = new byte[(endRow - firstRow) * width];
+        for (int row = firstRow; row < endRow; row++) {
+            SplittableRandom rand = new SplittableRandom(rowSeed(seed, row));
+            int start = (row - firstRow) * width;
+            for (int col = 0; col < width; col++) {
+                if (this.showRabbits && rand.nextDouble() <= probability[Species.RABBIT.ordinal()]) {
+                    codes[start + col] = Species.RABBIT.getCode();
+                } else if (this.showFoxes && rand.nextDouble() <= probability[Species.FOX.ordinal()]) {
+                    codes[start + col] = Species.FOX.getCode();
+                } else if (this.showWolves && rand.nextDouble() <= probability[Species.WOLF.ordinal()]) {
+                    codes[start + col] = Species.WOLF.getCode();
+                } else if (this.showHunters && rand.nextDouble() <= probability[Species.HUNTER.ordinal()]) {
+                    codes[start + col] = Species.HUNTER.getCode();
                 }
 
                 // else leave the location empty.
             }
         }
+        return codes;
+    }
+
+    /**
+     * Create and place the organisms chosen for a band of rows.
+     *
+     * @param firstRow The first row of the band.
+     * @param codes    The code of the species at every location of the band, or 0.
+     */
+    private void placeBand(int firstRow, byte[] codes)
+    {
+        int width = field.getWidth();
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] != 0) {
+                Location location = new Location(firstRow + i / width, i % width);
+                organisms.add(Species.fromCode(codes[i]).create(true, field, location));
+            }
+        }
+    }
+
+    /**
+     * Derive the seed of a row from the seed of the population, mixing
+     * the bits so that the rows get unrelated sequences.
+     *
+     * @param seed The seed of the population.
+     * @param row  The row.
+     * @return The seed of the row.
+     */
+    private static long rowSeed(long seed, int row)
+    {
+        long z = seed + (row + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
     }
 }
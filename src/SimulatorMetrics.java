@@ -0,0 +1,287 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency and throughput metrics for the hot paths of a simulation.
+ * The simulator and the view report how long each phase of a step took;
+ * the metrics keep a histogram per phase, the allocation rate of the
+ * simulation thread and the number of organisms updated.
+ *
+ * Recording is off unless it is switched on through setEnabled, JMX or
+ * the "fnr.metrics" system property. While it is off the simulator only
+ * checks a single flag per step.
+ *
+ * @author Nikolay Tsanov
+ */
+public class SimulatorMetrics implements SimulatorMetricsMBean
+{
+    /**
+     * The phases of a step that are measured separately.
+     */
+    public enum Phase
+    {
+        ACT_RABBIT, ACT_FOX, ACT_WOLF, ACT_HUNTER, ACT_PARALLEL, SCHEDULED_DEATHS, REMOVAL, NEWBORN_MERGE, RESORT, STATS, RENDER, STEP;
+
+        /**
+         * Return the phase in which organisms of a species act.
+         *
+         * @param species The species.
+         * @return The matching ACT_ phase.
+         */
+        public static Phase actOf(Species species)
+        {
+            switch (species) {
+                case RABBIT:
+                    return ACT_RABBIT;
+                case FOX:
+                    return ACT_FOX;
+                case WOLF:
+                    return ACT_WOLF;
+                default:
+                    return ACT_HUNTER;
+            }
+        }
+    }
+
+    // The domain under which all simulator beans are registered.
+    private static final String JMX_DOMAIN = "FoxesAndRabbits";
+    // Used to give every registered bean a distinct name.
+    private static int registeredCount;
+
+    // One histogram for each phase.
+    private final LatencyHistogram[] histograms;
+    // Whether the metrics are being recorded.
+    private volatile boolean enabled;
+    // The number of organisms updated while recording.
+    private long organismsUpdated;
+    // The bytes allocated by the simulation thread while recording.
+    private long allocatedBytes;
+    // Allocation counter of the simulation thread at the start of the current step.
+    private long allocationAtStepStart;
+    // The name the bean is registered under, if it is registered.
+    private ObjectName objectName;
+
+    /**
+     * Create the metrics. They are enabled if the "fnr.metrics" system property is true.
+     */
+    public SimulatorMetrics()
+    {
+        histograms = new LatencyHistogram[Phase.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        enabled = Boolean.getBoolean("fnr.metrics");
+    }
+
+    /**
+     * @return true if the metrics are currently being recorded.
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Turn the recording of metrics on or off.
+     *
+     * @param enabled true to start recording, false to stop.
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Mark the start of a step. Must be followed by a call to endStep.
+     *
+     * @return The start time to pass to endStep.
+     */
+    public long beginStep()
+    {
+        allocationAtStepStart = currentThreadAllocatedBytes();
+        return System.nanoTime();
+    }
+
+    /**
+     * Mark the end of a step.
+     *
+     * @param startNanos The value returned by beginStep.
+     * @param organisms  How many organisms acted during the step.
+     */
+    public void endStep(long startNanos, int organisms)
+    {
+        histograms[Phase.STEP.ordinal()].record(System.nanoTime() - startNanos);
+        organismsUpdated += organisms;
+        if (allocationAtStepStart >= 0) {
+            allocatedBytes += currentThreadAllocatedBytes() - allocationAtStepStart;
+        }
+    }
+
+    /**
+     * Record the latency of one phase.
+     *
+     * @param phase The phase that was measured.
+     * @param nanos How long it took in nanoseconds.
+     */
+    public void record(Phase phase, long nanos)
+    {
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Return the histogram of a phase.
+     *
+     * @param phase The phase.
+     * @return The histogram that the phase is recorded into.
+     */
+    public LatencyHistogram getHistogram(Phase phase)
+    {
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * @return How many steps have been measured.
+     */
+    public long getStepsMeasured()
+    {
+        return getHistogram(Phase.STEP).getCount();
+    }
+
+    /**
+     * @return The mean time of a whole step in milliseconds.
+     */
+    public double getMeanStepMillis()
+    {
+        return getHistogram(Phase.STEP).getMean() / 1e6;
+    }
+
+    /**
+     * @return The 99th percentile of the time of a whole step in milliseconds.
+     */
+    public double getP99StepMillis()
+    {
+        return getHistogram(Phase.STEP).getPercentile(99) / 1e6;
+    }
+
+    /**
+     * @return How many organisms were updated per second of step time.
+     */
+    public double getOrganismsPerSecond()
+    {
+        long stepNanos = getHistogram(Phase.STEP).getTotal();
+        return stepNanos == 0 ? 0 : organismsUpdated * 1e9 / stepNanos;
+    }
+
+    /**
+     * @return How many bytes the simulation thread allocated per second of step time,
+     *         or -1 if the JVM cannot measure it.
+     */
+    public double getAllocatedBytesPerSecond()
+    {
+        if (allocationAtStepStart < 0) {
+            return -1;
+        }
+        long stepNanos = getHistogram(Phase.STEP).getTotal();
+        return stepNanos == 0 ? 0 : allocatedBytes * 1e9 / stepNanos;
+    }
+
+    /**
+     * @return One line per phase with its count, mean, p99 and max latency.
+     */
+    public String[] getPhaseSummaries()
+    {
+        Phase[] phases = Phase.values();
+        String[] summaries = new String[phases.length];
+        for (int i = 0; i < phases.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            summaries[i] = String.format("%-13s n=%d mean=%.3fms p99=%.3fms max=%.3fms",
+                    phases[i], histogram.getCount(), histogram.getMean() / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6);
+        }
+        return summaries;
+    }
+
+    /**
+     * Return the mean latency of a single phase.
+     *
+     * @param phase The name of the phase, e.g. "ACT_FOX" or "RENDER".
+     * @return The mean latency in milliseconds.
+     */
+    public double getPhaseMeanMillis(String phase)
+    {
+        return getHistogram(Phase.valueOf(phase)).getMean() / 1e6;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset()
+    {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        organismsUpdated = 0;
+        allocatedBytes = 0;
+    }
+
+    /**
+     * Publish the metrics on the platform MBean server, so that they can
+     * be inspected with any JMX client. Does nothing if already registered.
+     */
+    public synchronized void register()
+    {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=SimulatorMetrics,name=simulator-" + nextRegistrationId());
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            System.out.println("Could not register the simulator metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the metrics from the platform MBean server, if registered.
+     */
+    public synchronized void unregister()
+    {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            System.out.println("Could not unregister the simulator metrics: " + e.getMessage());
+        }
+        objectName = null;
+    }
+
+    /**
+     * @return A distinct number for the next registered bean.
+     */
+    private static synchronized int nextRegistrationId()
+    {
+        return ++registeredCount;
+    }
+
+    /**
+     * @return The bytes allocated so far by the current thread, or -1 if unknown.
+     */
+    private static long currentThreadAllocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * The management interface of the simulator metrics, as seen through JMX
+ * (e.g. in JConsole or Mission Control).
+ *
+ * @author Nikolay Tsanov
+ */
+public interface SimulatorMetricsMBean
+{
+    /**
+     * @return true if the metrics are currently being recorded.
+     */
+    boolean isEnabled();
+
+    /**
+     * Turn the recording of metrics on or off.
+     *
+     * @param enabled true to start recording, false to stop.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return How many steps have been measured.
+     */
+    long getStepsMeasured();
+
+    /**
+     * @return The mean time of a whole step in milliseconds.
+     */
+    double getMeanStepMillis();
+
+    /**
+     * @return The 99th percentile of the time of a whole step in milliseconds.
+     */
+    double getP99StepMillis();
+
+    /**
+     * @return How many organisms were updated per second of step time.
+     */
+    double getOrganismsPerSecond();
+
+    /**
+     * @return How many bytes the simulation thread allocated per second of step time,
+     *         or -1 if the JVM cannot measure it.
+     */
+    double getAllocatedBytesPerSecond();
+
+    /**
+     * @return One line per phase with its count, mean, p99 and max latency.
+     */
+    String[] getPhaseSummaries();
+
+    /**
+     * Return the mean latency of a single phase.
+     *
+     * @param phase The name of the phase, e.g. "ACT_FOX" or "RENDER".
+     * @return The mean latency in milliseconds.
+     */
+    double getPhaseMeanMillis(String phase);
+
+    /**
+     * Forget everything recorded so far.
+     */
+    void reset();
+}
@@ -1,6 +1,16 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
 import javax.swing.*;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import javax.swing.Timer;
@@ -27,6 +37,15 @@ public class SimulatorView extends JFrame implements ActionListener
     private static final Color EMPTY_COLOR = Color.white;
     // Color used for objects that have no defined color.
     private static final Color UNKNOWN_COLOR = Color.gray;
+    // The height of the population chart, in pixels
+    private static final int CHART_HEIGHT = 140;
+    // The size of a heat cell, and the steps of the heatmap window: 10 slices of 50 steps
+    private static final int HEATMAP_CELL_SIZE = PerceptionGrid.BUCKET_SIZE;
+    private static final int HEATMAP_SLICE_STEPS = 50, HEATMAP_SLICES = 10;
+    // The number of steps skipped by a fast-forward.
+    private static final int FAST_FORWARD_STEPS = 10000;
+    // The font of the performance overlay and the selection counts.
+    private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
 
     // The current height of the window
     private int height;
@@ -49,6 +68,21 @@ public class SimulatorView extends JFrame implements ActionListener
     private Simulator simulator;
     // A timer that runs the whole simulation
     private Timer simTimer;
+    // Whether the performance overlay is drawn on top of the grid
+    private boolean showPerformance;
+    // Whether a run computes the next step while the last one is counted and drawn
+    private boolean pipelined = Boolean.getBoolean("fnr.pipeline");
+    // The step last drawn by showStatus, or -1 if the grid shows something else
+    private int lastPaintedStep = -1;
+    // The pipeline of the current pipelined run, or null
+    private StepPipeline pipeline;
+    // The population of every species over the run, and its chart
+    private PopulationHistory populationHistory;
+    private PopulationChart populationChart;
+    // Where organisms lived, were born and were killed over the last steps
+    private Heatmaps heatmaps;
+    // The organisms of every species in a rectangle, for the selection of the field view
+    private RegionCounts regionCounts;
 
     public SimulatorView()
     {
@@ -76,6 +110,21 @@ public class SimulatorView extends JFrame implements ActionListener
         // Create a new instance of the simulator class and use the height and width that was passed to the
         // simulator view, otherwise use the default height and width.
         this.simulator = new Simulator(this.height, this.width);
+        // Publish the step metrics, so they can be watched with a JMX client
+        this.simulator.getMetrics().register();
+        // Stream the simulation to remote viewers if a port was given
+        this.startFrameStream(Integer.getInteger("fnr.stream.port"));
+        // Record the populations for the chart, starting with the first step
+        this.populationHistory = new PopulationHistory();
+        this.simulator.addStepListener(this.populationHistory);
+        this.populationHistory.stepCompleted(this.simulator.getStep(), this.simulator.getField());
+        // Count where things happen, for the heatmap overlay and export
+        this.heatmaps = new Heatmaps(this.simulator.getField(), HEATMAP_CELL_SIZE, HEATMAP_SLICE_STEPS, HEATMAP_SLICES);
+        this.simulator.addStepListener(this.heatmaps);
+        this.simulator.getField().getEvents().addListener(this.heatmaps);
+        this.heatmaps.stepCompleted(this.simulator.getStep(), this.simulator.getField());
+        // Count the organisms in rectangles, for the selection
+        this.regionCounts = this.simulator.getRegionCounts();
 
         // Make an instance of the Timer class; it is used for the simulation to be run one step at a time
         simTimer = new Timer(DEFAULT_TIMER_DELAY, this);
@@ -100,6 +149,12 @@ public class SimulatorView extends JFrame implements ActionListener
 
         // If the user hits the X on the window, it halts the program
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e)
+            {
+                shutdownSimulation();
+            }
+        });
 
         JMenuBar menubar = new JMenuBar();
         JMenu viewMenu = new JMenu("View");
@@ -164,6 +219,45 @@ public class SimulatorView extends JFrame implements ActionListener
         viewMenu.add(showWolves);
         viewMenu.add(showHunters);
 
+        JCheckBoxMenuItem showPerformance = new JCheckBoxMenuItem("Show Performance");
+        showPerformance.addItemListener((e) -> {
+            this.showPerformance = e.getStateChange() == ItemEvent.SELECTED;
+            if (this.showPerformance) {
+                // The overlay has nothing to show unless the metrics are recorded
+                this.simulator.getMetrics().setEnabled(true);
+            }
+            this.showStatus(this.simulator.getStep(), this.simulator.getField());
+        });
+
+        JCheckBoxMenuItem pipelinedRun = new JCheckBoxMenuItem("Pipelined Run");
+        pipelinedRun.setSelected(this.pipelined);
+        pipelinedRun.addItemListener((e) -> {
+            this.stopSimulation();
+            this.pipelined = e.getStateChange() == ItemEvent.SELECTED;
+        });
+
+        JCheckBoxMenuItem showChart = new JCheckBoxMenuItem("Show Population Chart");
+        showChart.setSelected(true);
+        showChart.addItemListener((e) -> {
+            this.populationChart.setVisible(e.getStateChange() == ItemEvent.SELECTED);
+            pack();
+            this.populationChart.update();
+        });
+
+        JMenuItem fastForward = new JMenuItem("Fast-Forward " + FAST_FORWARD_STEPS + " Steps");
+        fastForward.addActionListener((e) -> this.fastForward());
+
+        JMenuItem zoomToFit = new JMenuItem("Zoom to Fit");
+        zoomToFit.addActionListener((e) -> this.fieldView.zoomToFit());
+
+        viewMenu.addSeparator();
+        viewMenu.add(zoomToFit);
+        viewMenu.add(showChart);
+        viewMenu.add(heatmapMenu());
+        viewMenu.add(showPerformance);
+        viewMenu.add(pipelinedRun);
+        viewMenu.add(fastForward);
+
         menubar.add(viewMenu);
         setJMenuBar(menubar);
 
@@ -218,7 +312,17 @@ public class SimulatorView extends JFrame implements ActionListener
         // Bind everything to the container
         container.add(topPanel, BorderLayout.PAGE_START);
         container.add(middlePanel, BorderLayout.CENTER);
-        container.add(bottomPanel, BorderLayout.PAGE_END);
+        // The chart of the populations sits above the buttons
+        Color[] speciesColors = new Color[Species.values().length];
+        for (Species species : Species.values()) {
+            speciesColors[species.ordinal()] = species.getColor();
+        }
+        populationChart = new PopulationChart(this.populationHistory, speciesColors,
+                fieldView.getPreferredSize().width, CHART_HEIGHT);
+        JPanel southPanel = new JPanel(new BorderLayout());
+        southPanel.add(populationChart, BorderLayout.CENTER);
+        southPanel.add(bottomPanel, BorderLayout.PAGE_END);
+        container.add(southPanel, BorderLayout.PAGE_END);
 
         // Fit all elements on the window
         pack();
@@ -233,15 +337,99 @@ public class SimulatorView extends JFrame implements ActionListener
         setColorsForOrganisms();
     }
 
+    /**
+     * Build the menu that chooses which heatmap is drawn over the grid, and
+     * for which species, and exports the heatmaps.
+     *
+     * @return The menu.
+     */
+    private JMenu heatmapMenu()
+    {
+        JMenu menu = new JMenu("Heatmap");
+        ButtonGroup kinds = new ButtonGroup();
+        JRadioButtonMenuItem none = new JRadioButtonMenuItem("None", true);
+        none.addActionListener((e) -> this.fieldView.setHeatmap(null, this.fieldView.getHeatmapSpecies()));
+        kinds.add(none);
+        menu.add(none);
+        for (Heatmaps.Kind kind : Heatmaps.Kind.values()) {
+            String name = kind.name().charAt(0) + kind.name().substring(1).toLowerCase();
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(name);
+            item.addActionListener((e) -> this.fieldView.setHeatmap(kind, this.fieldView.getHeatmapSpecies()));
+            kinds.add(item);
+            menu.add(item);
+        }
+
+        menu.addSeparator();
+        ButtonGroup species = new ButtonGroup();
+        JRadioButtonMenuItem all = new JRadioButtonMenuItem("All Species", true);
+        all.addActionListener((e) -> this.fieldView.setHeatmap(this.fieldView.getHeatmapKind(), null));
+        species.add(all);
+        menu.add(all);
+        for (Species s : Species.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(s.getDisplayName());
+            item.addActionListener((e) -> this.fieldView.setHeatmap(this.fieldView.getHeatmapKind(), s));
+            species.add(item);
+            menu.add(item);
+        }
+
+        menu.addSeparator();
+        JMenuItem export = new JMenuItem("Export Heatmaps...");
+        export.addActionListener((e) -> this.exportHeatmaps());
+        menu.add(export);
+        return menu;
+    }
+
+    /**
+     * Ask for a file and write the heatmaps to it as comma separated values.
+     */
+    private void exportHeatmaps()
+    {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("heatmaps-step" + this.simulator.getStep() + ".csv"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        try (Writer out = new BufferedWriter(new FileWriter(chooser.getSelectedFile()))) {
+            this.heatmaps.write(out);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not export the heatmaps: " + e.getMessage(),
+                    "Export Failed", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Start streaming the simulation to remote viewers. The stream is only
+     * reachable from this machine, unless the "fnr.stream.address" system
+     * property names another address to listen on (e.g. 0.0.0.0 for all
+     * interfaces); the stream has no authentication.
+     *
+     * @param port The port to listen on, or null to not stream at all.
+     */
+    private void startFrameStream(Integer port)
+    {
+        if (port == null) {
+            return;
+        }
+        String address = System.getProperty("fnr.stream.address");
+        try {
+            FrameStreamServer server = address == null ? new FrameStreamServer(port)
+                    : new FrameStreamServer(InetAddress.getByName(address), port);
+            this.simulator.addStepListener(server);
+            String host = address == null ? "localhost" : server.getAddress().getHostAddress();
+            System.out.println("Streaming the simulation on http://" + host + ":" + server.getPort() + "/");
+        } catch (IOException e) {
+            System.out.println("Could not start streaming on port " + port + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Set the colors for the different species that will be viewed on the grid during simulation
      */
     private void setColorsForOrganisms()
     {
-        this.setColor(Rabbit.class, Color.ORANGE);
-        this.setColor(Fox.class, Color.BLUE);
-        this.setColor(Wolf.class, Color.GRAY);
-        this.setColor(Hunter.class, Color.RED);
+        for (Species species : Species.values()) {
+            this.setColor(species.getOrganismClass(), species.getColor());
+        }
     }
 
     /**
@@ -253,6 +441,7 @@ public class SimulatorView extends JFrame implements ActionListener
     {
         if (event.getSource() == this.quitButton) {
             // Halt the program and exit
+            this.shutdownSimulation();
             dispose();
             System.exit(0);
         } else if (event.getSource() == this.runButton) {
@@ -266,19 +455,7 @@ public class SimulatorView extends JFrame implements ActionListener
             if (this.isViable(this.simulator.getField())) {
                 this.simulator.simulateOneStep();
             } else {
-                // Otherwise, stopSimulation the timer, reset and show a message with information about the population
-                JOptionPane.showMessageDialog(this, "The simulation has finished. \n" + stats.getPopulationDetails(this.simulator.getField()), "Simulation Result", JOptionPane.PLAIN_MESSAGE);
-
-                this.simTimer.stop();
-                this.simulator.reset();
-
-                // Enable the resetButton, runButton, nextStepButton, simulationSpeed
-                // and disable the stopButton
-                this.stopButton.setEnabled(false);
-                this.runButton.setEnabled(true);
-                this.resetButton.setEnabled(true);
-                this.nextStepButton.setEnabled(true);
-                this.simulationSpeed.setEnabled(true);
+                this.finishSimulation(stats.getPopulationDetails(this.simulator.getField()));
             }
 
             // On every step we should redraw the grid
@@ -293,16 +470,58 @@ public class SimulatorView extends JFrame implements ActionListener
 
     }
 
+    /**
+     * Stop the simulation, reset and show a message with information about the population.
+     *
+     * @param populationDetails The population the simulation finished with.
+     */
+    private void finishSimulation(String populationDetails)
+    {
+        this.simTimer.stop();
+        this.stopPipeline();
+        JOptionPane.showMessageDialog(this, "The simulation has finished. \n" + populationDetails, "Simulation Result", JOptionPane.PLAIN_MESSAGE);
+
+        this.simulator.reset();
+
+        // Enable the resetButton, runButton, nextStepButton, simulationSpeed
+        // and disable the stopButton
+        this.stopButton.setEnabled(false);
+        this.runButton.setEnabled(true);
+        this.resetButton.setEnabled(true);
+        this.nextStepButton.setEnabled(true);
+        this.simulationSpeed.setEnabled(true);
+    }
+
     /**
      * Reset the simulation and redraw positions.
      */
     private void resetSimulation()
     {
         this.simTimer.stop();
+        this.stopPipeline();
         this.simulator.reset();
         this.showStatus(this.simulator.getStep(), this.simulator.getField());
     }
 
+    /**
+     * Stop the simulation and skip FAST_FORWARD_STEPS steps with the
+     * population model, then show the forecast and its error bounds.
+     */
+    private void fastForward()
+    {
+        this.stopSimulation();
+        PopulationForecast forecast;
+        try {
+            forecast = this.simulator.fastForward(FAST_FORWARD_STEPS);
+        } catch (IllegalStateException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Cannot Fast-Forward", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        this.showStatus(this.simulator.getStep(), this.simulator.getField());
+        JOptionPane.showMessageDialog(this, forecast.toString().replace(": ", ":\n").replace(") ", ")\n"),
+                "Fast-Forward", JOptionPane.PLAIN_MESSAGE);
+    }
+
     /**
      * Run the simulation, but first disable the nextStepButton, resetButton, runButton,
      * simulationSpeed and enable the stopButton
@@ -315,7 +534,73 @@ public class SimulatorView extends JFrame implements ActionListener
         this.stopButton.setEnabled(true);
         this.simulationSpeed.setEnabled(false);
 
-        this.simTimer.start();
+        if (this.pipelined) {
+            this.startPipeline();
+        } else {
+            this.simTimer.start();
+        }
+    }
+
+    /**
+     * Run the simulation on a pipeline: the next step is computed on one
+     * thread while the last one is counted on a second and drawn on a third.
+     * The display skips steps it cannot keep up with.
+     */
+    private void startPipeline()
+    {
+        FieldStats pipelineStats = new FieldStats();
+        // The pipeline draws the grid from now on.
+        this.lastPaintedStep = -1;
+        this.pipeline = new StepPipeline(this.simulator);
+        this.pipeline.setMinimumStepMillis(this.simTimer.getDelay());
+        this.pipeline.addStage("stats", (snapshot) -> {
+            SimulatorMetrics metrics = this.simulator.getMetrics();
+            long start = metrics.isEnabled() ? System.nanoTime() : 0;
+            pipelineStats.countSnapshot(snapshot);
+            // The counts are up to date, so no field is looked at.
+            String details = pipelineStats.getPopulationDetails(null);
+            boolean viable = pipelineStats.isViable(null);
+            if (metrics.isEnabled()) {
+                metrics.record(SimulatorMetrics.Phase.STATS, System.nanoTime() - start);
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (this.pipeline == null) {
+                    return;
+                }
+                if (viable) {
+                    population.setText(POPULATION_PREFIX + details);
+                    this.populationChart.update();
+                } else {
+                    this.finishSimulation(details);
+                    this.showStatus(this.simulator.getStep(), this.simulator.getField());
+                }
+            });
+        }, 1, StepPipeline.Backpressure.DROP);
+        this.pipeline.addStage("render", new SnapshotRenderer(), 1, StepPipeline.Backpressure.DROP);
+        this.pipeline.start(0);
+    }
+
+    /**
+     * Stop the simulation for good when the view is closed: stop its
+     * threads and take its metrics off the MBean server.
+     */
+    private void shutdownSimulation()
+    {
+        this.simTimer.stop();
+        this.stopPipeline();
+        this.simulator.shutdown();
+    }
+
+    /**
+     * Stop the pipelined run, if there is one. Afterwards the simulator
+     * may be used on this thread again.
+     */
+    private void stopPipeline()
+    {
+        if (this.pipeline != null) {
+            this.pipeline.stop();
+            this.pipeline = null;
+        }
     }
 
     /**
@@ -354,6 +639,7 @@ public class SimulatorView extends JFrame implements ActionListener
         this.stopButton.setEnabled(false);
 
         this.simTimer.stop();
+        this.stopPipeline();
     }
 
     /**
@@ -375,6 +661,27 @@ public class SimulatorView extends JFrame implements ActionListener
     public void setColor(Class organismClass, Color color)
     {
         colors.put(organismClass, color);
+        if (fieldView != null) {
+            fieldView.colorsChanged();
+        }
+        for (Species species : Species.values()) {
+            if (populationChart != null && species.getOrganismClass() == organismClass) {
+                populationChart.setColor(species, color);
+            }
+        }
+    }
+
+    /**
+     * @return The RGB value of every species code, with empty at 0.
+     */
+    private int[] palette()
+    {
+        int[] palette = new int[Species.values().length + 1];
+        palette[0] = EMPTY_COLOR.getRGB();
+        for (Species species : Species.values()) {
+            palette[species.getCode()] = getColor(species.getOrganismClass()).getRGB();
+        }
+        return palette;
     }
 
     /**
@@ -392,13 +699,18 @@ public class SimulatorView extends JFrame implements ActionListener
     }
 
     /**
-     * Show the current status of the field.
+     * Show the current status of the field. Does nothing during a pipelined
+     * run: the pipeline is changing the field on its own thread, and draws
+     * and counts its snapshots itself.
      *
      * @param step  Which iteration step it is.
      * @param field The field whose status is to be displayed.
      */
     public void showStatus(int step, Field field)
     {
+        if (this.pipeline != null) {
+            return;
+        }
         if (!isVisible()) {
             setVisible(true);
         }
@@ -406,23 +718,50 @@ public class SimulatorView extends JFrame implements ActionListener
         stepLabel.setText(STEP_PREFIX + step);
         stats.reset();
 
-        fieldView.preparePaint();
+        SimulatorMetrics metrics = this.simulator.getMetrics();
+        boolean measured = metrics.isEnabled();
+        long renderStart = measured ? System.nanoTime() : 0;
 
-        for (int row = 0; row < field.getDepth(); row++) {
-            for (int col = 0; col < field.getWidth(); col++) {
-                Object organism = field.getObjectAt(row, col);
-                if (organism != null) {
-                    stats.incrementCount(organism.getClass());
-                    fieldView.drawMark(col, row, getColor(organism.getClass()));
-                } else {
-                    fieldView.drawMark(col, row, EMPTY_COLOR);
-                }
-            }
-        }
-        stats.countFinished();
+        // The image already shows the last step, unless something else was
+        // drawn since, so only the tiles that are occupied or changed in
+        // this step need to be drawn again.
+        fieldView.paintField(field, step == this.lastPaintedStep + 1);
+        this.lastPaintedStep = step;
 
+        long statsStart = measured ? System.nanoTime() : 0;
         population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field));
+        if (measured) {
+            long statsEnd = System.nanoTime();
+            metrics.record(SimulatorMetrics.Phase.RENDER, statsStart - renderStart);
+            metrics.record(SimulatorMetrics.Phase.STATS, statsEnd - statsStart);
+        }
+
+        fieldView.setOverlay(this.showPerformance ? performanceSummary(metrics) : null);
         fieldView.repaint();
+        if (populationChart.isVisible()) {
+            populationChart.update();
+        }
+    }
+
+    /**
+     * Build the lines of text shown by the performance overlay.
+     *
+     * @param metrics The metrics to summarise.
+     * @return The lines to draw on top of the grid.
+     */
+    private String[] performanceSummary(SimulatorMetrics metrics)
+    {
+        SimulatorMetrics.Phase[] phases = SimulatorMetrics.Phase.values();
+        String[] lines = new String[phases.length + 2];
+        lines[0] = String.format("step %.2fms (p99 %.2fms)  %.0f organisms/s",
+                metrics.getMeanStepMillis(), metrics.getP99StepMillis(), metrics.getOrganismsPerSecond());
+        double allocated = metrics.getAllocatedBytesPerSecond();
+        lines[1] = allocated < 0 ? "allocation rate unavailable"
+                : String.format("allocation %.1f MB/s", allocated / (1024 * 1024));
+        for (int i = 0; i < phases.length; i++) {
+            lines[i + 2] = String.format("%-13s %.3fms", phases[i], metrics.getHistogram(phases[i]).getMean() / 1e6);
+        }
+        return lines;
     }
 
     /**
@@ -435,6 +774,127 @@ public class SimulatorView extends JFrame implements ActionListener
         return stats.isViable(field);
     }
 
+    /**
+     * Draws the snapshots of a pipelined run into an image off the event
+     * dispatch thread, which only has to copy the finished image into the
+     * field view. Two images are used in turn, so the one on screen is
+     * never drawn into. Only the part of the field in the viewport is
+     * drawn; zoomed out, every pixel shows the location at its centre.
+     */
+    private class SnapshotRenderer implements PipelineStage
+    {
+        // The images, the one on screen and the one being drawn.
+        private final BufferedImage[] images = new BufferedImage[2];
+        // The image to draw the next snapshot into.
+        private int next;
+        // The RGB value of every species code, with empty at 0.
+        private final int[] palette;
+        // The RGB value of the lines between the locations and around the field.
+        private final int background;
+
+        /**
+         * Set up the renderer for the current colors of the view.
+         * Must be called on the event dispatch thread.
+         */
+        public SnapshotRenderer()
+        {
+            palette = palette();
+            background = fieldView.getBackground().getRGB();
+        }
+
+        /**
+         * Draw a snapshot and show it.
+         *
+         * @param snapshot The field after a step.
+         * @throws InterruptedException if the run is stopped while waiting for the display.
+         */
+        public void process(FieldSnapshot snapshot) throws InterruptedException
+        {
+            SimulatorMetrics metrics = simulator.getMetrics();
+            long start = metrics.isEnabled() ? System.nanoTime() : 0;
+            Viewport view = fieldView.getViewport();
+            BufferedImage image = images[next];
+            if (image == null || image.getWidth() != view.getViewWidth() || image.getHeight() != view.getViewHeight()) {
+                image = new BufferedImage(view.getViewWidth(), view.getViewHeight(), BufferedImage.TYPE_INT_RGB);
+                images[next] = image;
+            }
+            next = 1 - next;
+            draw(snapshot, view, image);
+            int step = snapshot.getStep();
+            BufferedImage shown = image;
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    // Stopping the run does not take back a frame that was already on its way.
+                    if (pipeline == null) {
+                        return;
+                    }
+                    stepLabel.setText(STEP_PREFIX + step);
+                    fieldView.showImage(shown);
+                    fieldView.setOverlay(showPerformance ? performanceSummary(metrics) : null);
+                    fieldView.repaint();
+                });
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Showing step " + step + " failed", e.getCause());
+            }
+            if (metrics.isEnabled()) {
+                metrics.record(SimulatorMetrics.Phase.RENDER, System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Draw the locations of a snapshot in a viewport as the field view
+         * does, with a line between neighbouring locations when they are
+         * large enough. Takes as long as there are pixels.
+         */
+        private void draw(FieldSnapshot snapshot, Viewport view, BufferedImage image)
+        {
+            int imageWidth = image.getWidth();
+            int imageHeight = image.getHeight();
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            byte[] cells = snapshot.getCells();
+            // The location shown in every pixel column and row, or -1 for a line or outside the field.
+            int[] colAt = locationsAlong(imageWidth, view, false);
+            int[] rowAt = locationsAlong(imageHeight, view, true);
+            for (int y = 0; y < imageHeight; y++) {
+                int lineStart = y * imageWidth;
+                int row = rowAt[y];
+                if (row < 0) {
+                    Arrays.fill(pixels, lineStart, lineStart + imageWidth, background);
+                } else if (y > 0 && rowAt[y - 1] == row) {
+                    System.arraycopy(pixels, lineStart - imageWidth, pixels, lineStart, imageWidth);
+                } else {
+                    int rowStart = row * width;
+                    for (int x = 0; x < imageWidth; x++) {
+                        int col = colAt[x];
+                        pixels[lineStart + x] = col < 0 ? background : palette[cells[rowStart + col]];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Work out which location every pixel along one side of the view shows.
+         *
+         * @param pixels The number of pixels along the side.
+         * @param view   The viewport.
+         * @param rows   true for the rows, false for the columns.
+         * @return The location of every pixel, or -1 for a line or outside the field.
+         */
+        private int[] locationsAlong(int pixels, Viewport view, boolean rows)
+        {
+            int[] locations = new int[pixels];
+            int cells = rows ? height : width;
+            boolean lines = view.getCellSize() >= FieldView.MIN_LINED_CELL_SIZE;
+            for (int i = 0; i < pixels; i++) {
+                int location = (int) Math.floor(rows ? view.getRowAt(i) + 0.5 / view.getCellSize()
+                        : view.getColAt(i) + 0.5 / view.getCellSize());
+                boolean line = lines && (rows ? view.getY(location + 1) : view.getX(location + 1)) - 1 == i;
+                locations[i] = location < 0 || location >= cells || line ? -1 : location;
+            }
+            return locations;
+        }
+    }
+
     /**
      * Provide a graphical view of a rectangular field. This is
      * a nested class (a class defined inside a class) which
@@ -442,16 +902,45 @@ public class SimulatorView extends JFrame implements ActionListener
      * component displays the field.
      * This is rather advanced GUI stuff - you can ignore this
      * for your project if you like.
+     *
+     * Only the part of the field in the viewport is drawn. Drag with the
+     * mouse to pan and turn the mouse wheel to zoom; drag with the shift key
+     * held to select a rectangle, whose organisms of every species are
+     * counted next to it, and shift-click to drop it. Zoomed out so far that
+     * locations are smaller than a pixel, blocks of locations are drawn in
+     * the mixed colours of the species in them, from a DensityMipmap.
      */
     private class FieldView extends JPanel
     {
         private final int GRID_VIEW_SCALING_FACTOR = 6;
+        // The largest size the view takes on screen, in pixels
+        private static final int MAX_VIEW_WIDTH = 960, MAX_VIEW_HEIGHT = 720;
+        // The smallest locations that get a line between them, in pixels
+        private static final int MIN_LINED_CELL_SIZE = 3;
+        // How much one notch of the mouse wheel zooms
+        private static final double ZOOM_STEP = 1.25;
 
         private int gridWidth, gridHeight;
-        private int xScale, yScale;
         Dimension size;
-        private Graphics g;
-        private Image fieldImage;
+        private BufferedImage fieldImage;
+        // Lines of text drawn on top of the grid, or null for none
+        private String[] overlay;
+        // The heatmap drawn over the grid, or null for none, and its species, or null for all
+        private Heatmaps.Kind heatmapKind;
+        private Species heatmapSpecies;
+        // The part of the field in view; replaced as a whole, since the
+        // renderer of a pipelined run reads it on its own thread
+        private volatile Viewport viewport;
+        // The viewport the image was last drawn with, or null if it shows something else
+        private Viewport paintedViewport;
+        // The colours of blocks of locations, made when first zoomed out
+        private DensityMipmap mipmap;
+        // Where the mouse was last while dragging, or null
+        private Point dragFrom;
+        // The location a selection is being dragged from, or null
+        private Location selectFrom;
+        // The selected locations, x and width being columns, or null for none
+        private Rectangle selection;
 
         /**
          * Create a new FieldView component.
@@ -461,6 +950,51 @@ public class SimulatorView extends JFrame implements ActionListener
             gridHeight = height;
             gridWidth = width;
             size = new Dimension(0, 0);
+            Dimension preferred = getPreferredSize();
+            viewport = Viewport.fit(height, width, preferred.width, preferred.height, GRID_VIEW_SCALING_FACTOR);
+
+            MouseAdapter mouse = new MouseAdapter()
+            {
+                public void mousePressed(MouseEvent e)
+                {
+                    if (e.isShiftDown()) {
+                        selectFrom = locationAt(e.getX(), e.getY());
+                        selection = null;
+                        repaint();
+                    } else {
+                        dragFrom = e.getPoint();
+                    }
+                }
+
+                public void mouseReleased(MouseEvent e)
+                {
+                    dragFrom = null;
+                    selectFrom = null;
+                }
+
+                public void mouseDragged(MouseEvent e)
+                {
+                    if (selectFrom != null) {
+                        Location to = locationAt(e.getX(), e.getY());
+                        int top = Math.min(selectFrom.getRow(), to.getRow());
+                        int left = Math.min(selectFrom.getCol(), to.getCol());
+                        selection = new Rectangle(left, top, Math.abs(to.getCol() - selectFrom.getCol()) + 1,
+                                Math.abs(to.getRow() - selectFrom.getRow()) + 1);
+                        repaint();
+                    } else if (dragFrom != null) {
+                        setViewport(viewport.pan(e.getX() - dragFrom.x, e.getY() - dragFrom.y));
+                        dragFrom = e.getPoint();
+                    }
+                }
+
+                public void mouseWheelMoved(MouseWheelEvent e)
+                {
+                    setViewport(viewport.zoom(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY()));
+                }
+            };
+            addMouseListener(mouse);
+            addMouseMotionListener(mouse);
+            addMouseWheelListener(mouse);
         }
 
         /**
@@ -468,38 +1002,241 @@ public class SimulatorView extends JFrame implements ActionListener
          */
         public Dimension getPreferredSize()
         {
-            return new Dimension(gridWidth * GRID_VIEW_SCALING_FACTOR, gridHeight * GRID_VIEW_SCALING_FACTOR);
+            return new Dimension(Math.min(MAX_VIEW_WIDTH, gridWidth * GRID_VIEW_SCALING_FACTOR),
+                    Math.min(MAX_VIEW_HEIGHT, gridHeight * GRID_VIEW_SCALING_FACTOR));
+        }
+
+        /**
+         * @return The part of the field in view.
+         */
+        public Viewport getViewport()
+        {
+            return viewport;
+        }
+
+        /**
+         * Show another part of the field. Unless a pipelined run is drawing
+         * the field, it is drawn again at once.
+         *
+         * @param newViewport The part to show.
+         */
+        public void setViewport(Viewport newViewport)
+        {
+            viewport = newViewport;
+            if (pipeline == null) {
+                paintField(simulator.getField(), false);
+                repaint();
+            }
+        }
+
+        /**
+         * @return The location shown at a pixel, or the nearest location of the field.
+         */
+        private Location locationAt(int x, int y)
+        {
+            Viewport view = viewport;
+            int row = (int) Math.floor(view.getRowAt(y));
+            int col = (int) Math.floor(view.getColAt(x));
+            return new Location(Math.max(0, Math.min(gridHeight - 1, row)), Math.max(0, Math.min(gridWidth - 1, col)));
+        }
+
+        /**
+         * Show the whole field.
+         */
+        public void zoomToFit()
+        {
+            Dimension current = getSize().width > 0 ? getSize() : getPreferredSize();
+            setViewport(Viewport.fit(gridHeight, gridWidth, current.width, current.height, GRID_VIEW_SCALING_FACTOR));
+        }
+
+        /**
+         * The colours of the species have changed.
+         */
+        public void colorsChanged()
+        {
+            if (mipmap != null) {
+                mipmap.setPalette(palette());
+            }
+            paintedViewport = null;
         }
 
         /**
          * Prepare for a new round of painting. Since the component
-         * may be resized, compute the scaling factor again.
+         * may be resized, make the image and viewport fit again.
+         *
+         * @return true if a new, blank image was made, which has to be painted all over.
          */
-        public void preparePaint()
+        public boolean preparePaint()
         {
             if (!size.equals(getSize())) {  // if the size has changed...
                 size = getSize();
-                fieldImage = fieldView.createImage(size.width, size.height);
-                g = fieldImage.getGraphics();
+                fieldImage = new BufferedImage(Math.max(1, size.width), Math.max(1, size.height), BufferedImage.TYPE_INT_RGB);
+                if (size.width > 0 && size.height > 0) {
+                    viewport = viewport.resize(size.width, size.height);
+                }
+                paintedViewport = null;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Draw the part of a field in the viewport into the image.
+         *
+         * @param field       The field.
+         * @param incremental Whether the image shows the step before, so that
+         *                    only occupied tiles and tiles that changed in this step
+         *                    have to be drawn, if the viewport is still the same.
+         */
+        public void paintField(Field field, boolean incremental)
+        {
+            preparePaint();
+            Viewport view = viewport;
+            int[] pixels = ((DataBufferInt) fieldImage.getRaster().getDataBuffer()).getData();
+            int background = getBackground().getRGB();
+            boolean everyTile = !incremental || view != paintedViewport;
+            if (everyTile) {
+                fill(pixels, 0, 0, fieldImage.getWidth(), fieldImage.getHeight(), background);
+            }
+            if (view.getCellSize() >= 1) {
+                drawCells(field, view, pixels, everyTile);
+            } else {
+                drawBlocks(view, pixels);
+            }
+            paintedViewport = view;
+        }
 
-                xScale = size.width / gridWidth;
-                if (xScale < 1) {
-                    xScale = GRID_VIEW_SCALING_FACTOR;
+        /**
+         * Draw the visible locations one by one, skipping tiles that are empty
+         * and unchanged unless every tile is to be drawn.
+         */
+        private void drawCells(Field field, Viewport view, int[] pixels, boolean everyTile)
+        {
+            int[] palette = palette();
+            int unknown = UNKNOWN_COLOR.getRGB();
+            int tileSize = ActiveTiles.TILE_SIZE;
+            ActiveTiles tiles = field.getActiveTiles();
+            int firstRow = view.getFirstRow(), endRow = view.getEndRow();
+            int firstCol = view.getFirstCol(), endCol = view.getEndCol();
+            for (int tileRow = firstRow / tileSize; tileRow * tileSize < endRow; tileRow++) {
+                for (int tileCol = firstCol / tileSize; tileCol * tileSize < endCol; tileCol++) {
+                    int tile = tileRow * tiles.getTileCols() + tileCol;
+                    boolean occupied = tiles.isOccupied(tile);
+                    if (!everyTile && !occupied && !tiles.isChanged(tile)) {
+                        continue;
+                    }
+                    for (int row = Math.max(firstRow, tiles.getTop(tile)); row < Math.min(endRow, tiles.getBottom(tile)); row++) {
+                        for (int col = Math.max(firstCol, tiles.getLeft(tile)); col < Math.min(endCol, tiles.getRight(tile)); col++) {
+                            Object organism = occupied ? field.getObjectAt(row, col) : null;
+                            int code = Species.codeOf(organism);
+                            int rgb = code == 0 && organism != null ? unknown : palette[code];
+                            drawCell(view, pixels, row, col, rgb);
+                        }
+                    }
                 }
-                yScale = size.height / gridHeight;
-                if (yScale < 1) {
-                    yScale = GRID_VIEW_SCALING_FACTOR;
+            }
+        }
+
+        /**
+         * Draw one location, leaving a line to its right and bottom if it is large enough.
+         */
+        private void drawCell(Viewport view, int[] pixels, int row, int col, int rgb)
+        {
+            int gap = view.getCellSize() >= MIN_LINED_CELL_SIZE ? 1 : 0;
+            fill(pixels, view.getX(col), view.getY(row), view.getX(col + 1) - gap, view.getY(row + 1) - gap, rgb);
+        }
+
+        /**
+         * Draw the visible blocks of the mipmap level whose blocks are at least a pixel.
+         */
+        private void drawBlocks(Viewport view, int[] pixels)
+        {
+            if (mipmap == null) {
+                mipmap = new DensityMipmap(simulator.getField(), palette());
+                simulator.addStepListener(mipmap);
+            }
+            int level = mipmap.getLevelFor(1 / view.getCellSize());
+            int blockSize = mipmap.getBlockSize(level);
+            int endRow = view.getEndRow(), endCol = view.getEndCol();
+            for (int blockRow = view.getFirstRow() / blockSize; blockRow * blockSize < endRow; blockRow++) {
+                int top = view.getY(blockRow * blockSize);
+                int bottom = view.getY(Math.min(gridHeight, (blockRow + 1) * blockSize));
+                for (int blockCol = view.getFirstCol() / blockSize; blockCol * blockSize < endCol; blockCol++) {
+                    int left = view.getX(blockCol * blockSize);
+                    int right = view.getX(Math.min(gridWidth, (blockCol + 1) * blockSize));
+                    fill(pixels, left, top, right, bottom, mipmap.getColor(level, blockRow, blockCol));
                 }
             }
         }
 
         /**
-         * Paint on grid location on this field in a given color.
+         * Fill a rectangle of the image, clipped to the image.
+         */
+        private void fill(int[] pixels, int left, int top, int right, int bottom, int rgb)
+        {
+            int imageWidth = fieldImage.getWidth();
+            left = Math.max(0, left);
+            right = Math.min(imageWidth, right);
+            bottom = Math.min(fieldImage.getHeight(), bottom);
+            if (left >= right) {
+                return;
+            }
+            for (int y = Math.max(0, top); y < bottom; y++) {
+                Arrays.fill(pixels, y * imageWidth + left, y * imageWidth + right, rgb);
+            }
+        }
+
+        /**
+         * Replace the whole grid with an image drawn elsewhere.
+         *
+         * @param image An image of the grid, drawn with the current viewport.
+         */
+        public void showImage(Image image)
+        {
+            preparePaint();
+            Graphics g = fieldImage.getGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            paintedViewport = null;
+        }
+
+        /**
+         * Set the lines of text that are drawn on top of the grid.
+         *
+         * @param overlay The lines to draw, or null to draw nothing.
+         */
+        public void setOverlay(String[] overlay)
+        {
+            this.overlay = overlay;
+        }
+
+        /**
+         * Choose the heatmap drawn over the grid.
+         *
+         * @param kind    The kind of heatmap, or null for none.
+         * @param species The species, or null for all species together.
+         */
+        public void setHeatmap(Heatmaps.Kind kind, Species species)
+        {
+            heatmapKind = kind;
+            heatmapSpecies = species;
+            repaint();
+        }
+
+        /**
+         * @return The kind of heatmap drawn over the grid, or null for none.
+         */
+        public Heatmaps.Kind getHeatmapKind()
+        {
+            return heatmapKind;
+        }
+
+        /**
+         * @return The species of the heatmap, or null for all species together.
          */
-        public void drawMark(int x, int y, Color color)
+        public Species getHeatmapSpecies()
         {
-            g.setColor(color);
-            g.fillRect(x * xScale, y * yScale, xScale - 1, yScale - 1);
+            return heatmapSpecies;
         }
 
         /**
@@ -517,6 +1254,103 @@ public class SimulatorView extends JFrame implements ActionListener
                     g.drawImage(fieldImage, 0, 0, currentSize.width, currentSize.height, null);
                 }
             }
+            if (heatmapKind != null) {
+                drawHeatmap(g);
+            }
+            if (selection != null) {
+                drawSelection(g);
+            }
+            if (overlay != null) {
+                drawOverlay(g);
+            }
+        }
+
+        /**
+         * Outline the selection, and write the number of organisms of every
+         * species in it below, in the colour of the species.
+         */
+        private void drawSelection(Graphics g)
+        {
+            Viewport view = viewport;
+            int left = view.getX(selection.x), top = view.getY(selection.y);
+            int right = view.getX(selection.x + selection.width);
+            int bottom = view.getY(selection.y + selection.height);
+            g.setColor(Color.BLACK);
+            g.drawRect(left, top, right - left - 1, bottom - top - 1);
+
+            int[] counts = regionCounts.countAll(selection);
+            g.setFont(OVERLAY_FONT);
+            FontMetrics fontMetrics = g.getFontMetrics();
+            String[] lines = new String[counts.length];
+            int boxWidth = 0;
+            for (Species species : Species.values()) {
+                lines[species.ordinal()] = species.getDisplayName() + ": " + counts[species.ordinal()];
+                boxWidth = Math.max(boxWidth, fontMetrics.stringWidth(lines[species.ordinal()]));
+            }
+            int lineHeight = fontMetrics.getHeight();
+            int boxHeight = lineHeight * lines.length + 6;
+            // Below the selection, or above it if there is no room below.
+            int boxTop = bottom + boxHeight + 2 <= getHeight() ? bottom + 2 : Math.max(0, top - boxHeight - 2);
+            g.setColor(new Color(0, 0, 0, 170));
+            g.fillRect(left, boxTop, boxWidth + 8, boxHeight);
+            for (Species species : Species.values()) {
+                g.setColor(getColor(species.getOrganismClass()));
+                g.drawString(lines[species.ordinal()], left + 4,
+                        boxTop + 3 + fontMetrics.getAscent() + species.ordinal() * lineHeight);
+            }
+        }
+
+        /**
+         * Draw the chosen heatmap over the grid, from translucent yellow for
+         * heat cells that counted little to red for the one that counted most.
+         */
+        private void drawHeatmap(Graphics g)
+        {
+            Viewport view = viewport;
+            int[] counts = heatmaps.getCounts(heatmapKind, heatmapSpecies);
+            int largest = 0;
+            for (int count : counts) {
+                largest = Math.max(largest, count);
+            }
+            if (largest == 0) {
+                return;
+            }
+            int cellSize = heatmaps.getCellSize();
+            int cols = heatmaps.getCols();
+            int endRow = view.getEndRow(), endCol = view.getEndCol();
+            for (int row = view.getFirstRow() / cellSize; row * cellSize < endRow; row++) {
+                int top = view.getY(row * cellSize);
+                int bottom = view.getY(Math.min(gridHeight, (row + 1) * cellSize));
+                for (int col = view.getFirstCol() / cellSize; col * cellSize < endCol; col++) {
+                    int count = counts[row * cols + col];
+                    if (count > 0) {
+                        float heat = (float) count / largest;
+                        g.setColor(new Color(255, (int) (255 * (1 - heat)), 0, 60 + (int) (150 * heat)));
+                        int left = view.getX(col * cellSize);
+                        int right = view.getX(Math.min(gridWidth, (col + 1) * cellSize));
+                        g.fillRect(left, top, right - left, bottom - top);
+                    }
+                }
+            }
+        }
+        /**
+         * Draw the overlay lines in the top left corner, on a translucent background.
+         */
+        private void drawOverlay(Graphics g)
+        {
+            g.setFont(OVERLAY_FONT);
+            FontMetrics fontMetrics = g.getFontMetrics();
+            int lineHeight = fontMetrics.getHeight();
+            int boxWidth = 0;
+            for (String line : overlay) {
+                boxWidth = Math.max(boxWidth, fontMetrics.stringWidth(line));
+            }
+            g.setColor(new Color(0, 0, 0, 170));
+            g.fillRect(4, 4, boxWidth + 8, lineHeight * overlay.length + 6);
+            g.setColor(Color.WHITE);
+            for (int i = 0; i < overlay.length; i++) {
+                g.drawString(overlay[i], 8, 6 + fontMetrics.getAscent() + i * lineHeight);
+            }
         }
     }
 }
@@ -0,0 +1,132 @@
+import java.awt.Color;
+
+/**
+ * The species that can take part in the simulation.
+ * Each species is tied to the class that models it, so that code which
+ * needs a small, stable index for a species (per-species counters,
+ * histograms etc.) does not have to work with Class objects.
+ *
+ * @author Nikolay Tsanov
+ */
+public enum Species
+{
+    RABBIT(Rabbit.class, "Rabbit", Color.ORANGE),
+    FOX(Fox.class, "Fox", Color.BLUE),
+    WOLF(Wolf.class, "Wolf", Color.GRAY),
+    HUNTER(Hunter.class, "Hunter", Color.RED);
+
+    // The class that models the species.
+    private final Class<? extends Organism> organismClass;
+    // A human readable name for the species.
+    private final String displayName;
+    // The color the species is drawn with.
+    private final Color color;
+
+    /**
+     * Tie a species to the class that models it.
+     *
+     * @param organismClass The class that models the species.
+     * @param displayName   A human readable name, e.g. "Fox".
+     * @param color         The color the species is drawn with.
+     */
+    Species(Class<? extends Organism> organismClass, String displayName, Color color)
+    {
+        this.organismClass = organismClass;
+        this.displayName = displayName;
+        this.color = color;
+    }
+
+    /**
+     * @return The class that models the species.
+     */
+    public Class<? extends Organism> getOrganismClass()
+    {
+        return organismClass;
+    }
+
+    /**
+     * Return the code of the species in compact encodings of the field,
+     * in which 0 stands for an empty location.
+     *
+     * @return A code between 1 and the number of species.
+     */
+    public byte getCode()
+    {
+        return (byte) (ordinal() + 1);
+    }
+
+    /**
+     * Return the species with the given code.
+     *
+     * @param code A code returned by getCode, or 0.
+     * @return The species, or null for 0.
+     */
+    public static Species fromCode(int code)
+    {
+        return code == 0 ? null : values()[code - 1];
+    }
+
+    /**
+     * @return A human readable name for the species.
+     */
+    public String getDisplayName()
+    {
+        return displayName;
+    }
+
+    /**
+     * Return the code of an object found in the field.
+     *
+     * @param object An object from the field, may be null.
+     * @return The code of its species, or 0 if it is not an organism.
+     */
+    public static byte codeOf(Object object)
+    {
+        Species species = of(object);
+        return species == null ? 0 : species.getCode();
+    }
+
+    /**
+     * @return The color the species is drawn with, in the view and in exported frames.
+     */
+    public Color getColor()
+    {
+        return color;
+    }
+
+    /**
+     * Create an organism of this species and place it in a field.
+     *
+     * @param randomAge If true, the organism gets a random age (and food level).
+     * @param field     The field.
+     * @param location  The location within the field.
+     * @return The new organism.
+     */
+    public Organism create(boolean randomAge, Field field, Location location)
+    {
+        switch (this) {
+            case RABBIT:
+                return new Rabbit(randomAge, field, location);
+            case FOX:
+                return new Fox(randomAge, field, location);
+            case WOLF:
+                return new Wolf(randomAge, field, location);
+            default:
+                return new Hunter(randomAge, field, location);
+        }
+    }
+
+    /**
+     * Return the species of an object found in the field.
+     *
+     * @param object An object from the field, may be null.
+     * @return The species of the object, or null if it is not an organism.
+     */
+    public static Species of(Object object)
+    {
+        if (object instanceof Organism) {
+            return ((Organism) object).getSpecies();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,346 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The numbers that make up a species: how long it lives, when and how
+ * much it breeds, what it eats and what it fights. They are declared here
+ * once, as data, rather than as constants of every organism class.
+ *
+ * The organisms do not read the definitions when the simulation runs.
+ * SpeciesKernelGenerator turns every definition into a kernel class
+ * (RabbitKernel, FoxKernel, ...) with the numbers built in as constants,
+ * and the organism classes and the coarse simulation of AggregateRates
+ * use the kernels. After changing a definition, run the generator again.
+ *
+ * @author Nikolay Tsanov
+ */
+public class SpeciesDefinition
+{
+    /**
+     * A kind of prey and what eating it is worth.
+     */
+    public static class Meal
+    {
+        // The species eaten.
+        private final Species prey;
+        // The food level gained, up to the most the predator can hold.
+        private final int foodValue;
+        // The strength gained, for predators that fight.
+        private final int strengthGain;
+        // The predator only looks for this prey with at most this food level.
+        private final int hungerLevel;
+
+        /**
+         * @param prey         The species eaten.
+         * @param foodValue    The food level gained.
+         * @param strengthGain The strength gained, for predators that fight.
+         * @param hungerLevel  The most food the predator may have to look for this prey.
+         */
+        Meal(Species prey, int foodValue, int strengthGain, int hungerLevel)
+        {
+            this.prey = prey;
+            this.foodValue = foodValue;
+            this.strengthGain = strengthGain;
+            this.hungerLevel = hungerLevel;
+        }
+
+        /**
+         * @return The species eaten.
+         */
+        public Species getPrey()
+        {
+            return prey;
+        }
+
+        /**
+         * @return The food level gained, up to the most the predator can hold.
+         */
+        public int getFoodValue()
+        {
+            return foodValue;
+        }
+
+        /**
+         * @return The strength gained, for predators that fight.
+         */
+        public int getStrengthGain()
+        {
+            return strengthGain;
+        }
+
+        /**
+         * @return The most food the predator may have to look for this
+         * prey, or Integer.MAX_VALUE if it always does.
+         */
+        public int getHungerLevel()
+        {
+            return hungerLevel;
+        }
+    }
+
+    /**
+     * A species fought, and what winning is worth.
+     */
+    public static class Battle
+    {
+        // The species fought.
+        private final Species opponent;
+        // The strength the winner gains.
+        private final int winStrengthGain;
+        // The food level the winner gains when fighting alone.
+        private final int winFoodValue;
+        // The food level every member of a winning pack gains.
+        private final int packFoodValue;
+
+        /**
+         * @param opponent        The species fought.
+         * @param winStrengthGain The strength the winner gains.
+         * @param winFoodValue    The food level the winner gains when fighting alone.
+         * @param packFoodValue   The food level every member of a winning pack gains.
+         */
+        Battle(Species opponent, int winStrengthGain, int winFoodValue, int packFoodValue)
+        {
+            this.opponent = opponent;
+            this.winStrengthGain = winStrengthGain;
+            this.winFoodValue = winFoodValue;
+            this.packFoodValue = packFoodValue;
+        }
+
+        /**
+         * @return The species fought.
+         */
+        public Species getOpponent()
+        {
+            return opponent;
+        }
+
+        /**
+         * @return The strength the winner gains.
+         */
+        public int getWinStrengthGain()
+        {
+            return winStrengthGain;
+        }
+
+        /**
+         * @return The food level the winner gains when fighting alone.
+         */
+        public int getWinFoodValue()
+        {
+            return winFoodValue;
+        }
+
+        /**
+         * @return The food level every member of a winning pack gains.
+         */
+        public int getPackFoodValue()
+        {
+            return packFoodValue;
+        }
+    }
+
+    public static final SpeciesDefinition RABBIT = new SpeciesDefinition(Species.RABBIT, 5, 40, 0.12, 4, 0, 0);
+
+    public static final SpeciesDefinition FOX = new SpeciesDefinition(Species.FOX, 15, 150, 0.08, 2, 9, 0)
+            .eats(Species.RABBIT, 9, 0, Integer.MAX_VALUE);
+
+    public static final SpeciesDefinition WOLF = new SpeciesDefinition(Species.WOLF, 35, 160, 0.07, 2, 12, 100)
+            .eats(Species.FOX, 12, 5, Integer.MAX_VALUE)
+            .eats(Species.RABBIT, 4, 1, 2)
+            .fights(Species.HUNTER, 3, 12, 5);
+
+    public static final SpeciesDefinition HUNTER = new SpeciesDefinition(Species.HUNTER, 60, 400, 0.06, 3, 12, 100)
+            .eats(Species.RABBIT, 6, 5, Integer.MAX_VALUE)
+            .fights(Species.WOLF, 10, 12, 12)
+            .aggressive();
+
+    // The species defined.
+    private final Species species;
+    // The age at which the species can start to breed.
+    private final int breedingAge;
+    // The age to which the species can live.
+    private final int maxAge;
+    // The likelihood of an adult breeding at a step.
+    private final double breedingProbability;
+    // The maximum number of births.
+    private final int maxLitterSize;
+    // The most food an organism can hold, or 0 if it does not need to eat.
+    private final int maxFoodLevel;
+    // The most strength an organism can have, or 0 if it does not fight.
+    private final int maxStrength;
+    // What the species eats, the prey it looks for first coming first.
+    private final List<Meal> diet;
+    // What the species fights.
+    private final List<Battle> battles;
+    // Whether the species picks fights with the species it fights, rather than only fighting back.
+    private boolean aggressive;
+
+    /**
+     * Define a species that does not eat or fight yet.
+     *
+     * @param species             The species defined.
+     * @param breedingAge         The age at which it can start to breed.
+     * @param maxAge              The age to which it can live.
+     * @param breedingProbability The likelihood of an adult breeding at a step.
+     * @param maxLitterSize       The maximum number of births.
+     * @param maxFoodLevel        The most food it can hold, or 0 if it does not need to eat.
+     * @param maxStrength         The most strength it can have, or 0 if it does not fight.
+     */
+    SpeciesDefinition(Species species, int breedingAge, int maxAge, double breedingProbability,
+                      int maxLitterSize, int maxFoodLevel, int maxStrength)
+    {
+        this.species = species;
+        this.breedingAge = breedingAge;
+        this.maxAge = maxAge;
+        this.breedingProbability = breedingProbability;
+        this.maxLitterSize = maxLitterSize;
+        this.maxFoodLevel = maxFoodLevel;
+        this.maxStrength = maxStrength;
+        this.diet = new ArrayList<Meal>();
+        this.battles = new ArrayList<Battle>();
+    }
+
+    /**
+     * Add a prey to the diet, after the ones added before.
+     *
+     * @param prey         The species eaten.
+     * @param foodValue    The food level gained, up to the most the predator can hold.
+     * @param strengthGain The strength gained, for predators that fight.
+     * @param hungerLevel  The most food the predator may have to look for
+     *                     this prey; Integer.MAX_VALUE if it always does.
+     * @return This definition.
+     */
+    SpeciesDefinition eats(Species prey, int foodValue, int strengthGain, int hungerLevel)
+    {
+        diet.add(new Meal(prey, foodValue, strengthGain, hungerLevel));
+        return this;
+    }
+
+    /**
+     * Add a species fought.
+     *
+     * @param opponent        The species fought.
+     * @param winStrengthGain The strength the winner gains.
+     * @param winFoodValue    The food level the winner gains when fighting alone.
+     * @param packFoodValue   The food level every member of a winning pack gains.
+     * @return This definition.
+     */
+    SpeciesDefinition fights(Species opponent, int winStrengthGain, int winFoodValue, int packFoodValue)
+    {
+        battles.add(new Battle(opponent, winStrengthGain, winFoodValue, packFoodValue));
+        return this;
+    }
+
+    /**
+     * Make the species pick fights with the species it fights when they
+     * are adjacent, rather than only fight back.
+     *
+     * @return This definition.
+     */
+    SpeciesDefinition aggressive()
+    {
+        aggressive = true;
+        return this;
+    }
+
+    /**
+     * Return the definition of a species.
+     *
+     * @param species The species.
+     * @return Its definition.
+     */
+    public static SpeciesDefinition of(Species species)
+    {
+        switch (species) {
+            case RABBIT:
+                return RABBIT;
+            case FOX:
+                return FOX;
+            case WOLF:
+                return WOLF;
+            default:
+                return HUNTER;
+        }
+    }
+
+    /**
+     * @return The species defined.
+     */
+    public Species getSpecies()
+    {
+        return species;
+    }
+
+    /**
+     * @return The age at which the species can start to breed.
+     */
+    public int getBreedingAge()
+    {
+        return breedingAge;
+    }
+
+    /**
+     * @return The age to which the species can live.
+     */
+    public int getMaxAge()
+    {
+        return maxAge;
+    }
+
+    /**
+     * @return The likelihood of an adult breeding at a step.
+     */
+    public double getBreedingProbability()
+    {
+        return breedingProbability;
+    }
+
+    /**
+     * @return The maximum number of births.
+     */
+    public int getMaxLitterSize()
+    {
+        return maxLitterSize;
+    }
+
+    /**
+     * @return The most food an organism can hold, or 0 if it does not need to eat.
+     */
+    public int getMaxFoodLevel()
+    {
+        return maxFoodLevel;
+    }
+
+    /**
+     * @return The most strength an organism can have, or 0 if it does not fight.
+     */
+    public int getMaxStrength()
+    {
+        return maxStrength;
+    }
+
+    /**
+     * @return What the species eats, the prey it looks for first coming first.
+     */
+    public List<Meal> getDiet()
+    {
+        return Collections.unmodifiableList(diet);
+    }
+
+    /**
+     * @return What the species fights.
+     */
+    public List<Battle> getBattles()
+    {
+        return Collections.unmodifiableList(battles);
+    }
+
+    /**
+     * @return true if the species picks fights with the species it fights.
+     */
+    public boolean isAggressive()
+    {
+        return aggressive;
+    }
+}
@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Write the kernel class of every species from its SpeciesDefinition:
+ * RabbitKernel, FoxKernel and so on. A kernel holds the numbers of the
+ * definition as constants, and the code every species shares with them
+ * built in: how many young an organism has, how they are born, and how
+ * it looks for its prey, in the order of its diet. Every species so runs
+ * its own short code path with nothing left to look up, and a new species
+ * gets one by being defined rather than by copying another.
+ *
+ * The kernel of a species that is not aggressive also plans and carries
+ * out its step for a ParallelStepEngine, with the same numbers, diet and
+ * hunger levels as the code it runs when it acts one by one, so that the
+ * two cannot drift apart; the organism class of the species implements
+ * StepPlanner by calling them. Aggressive species pick fights with whole packs,
+ * which no plan can claim, and act one by one in either case.
+ *
+ * The kernels are checked in next to the rest of the source. Run the
+ * generator after changing a definition:
+ * <pre>
+ *     java SpeciesKernelGenerator src
+ * </pre>
+ * With --check first, nothing is written, and the generator exits with
+ * status 1 if any kernel in the directory is not what it would write, so
+ * that a build can refuse kernels that are out of date.
+ *
+ * @author Nikolay Tsanov
+ */
+public class SpeciesKernelGenerator
+{
+    // The note in the comment of every kernel, followed by the name of its definition.
+    private static final String GENERATED_NOTE = "Generated by SpeciesKernelGenerator from SpeciesDefinition.";
+
+    /**
+     * Write or check the kernels.
+     *
+     * @param args [--check] and the source directory.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        boolean check = args.length > 0 && args[0].equals("--check");
+        if (args.length != (check ? 2 : 1)) {
+            System.err.println("Usage: java SpeciesKernelGenerator [--check] <source directory>");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[check ? 1 : 0]);
+        int stale = 0;
+        for (Species species : Species.values()) {
+            SpeciesDefinition definition = SpeciesDefinition.of(species);
+            Path file = directory.resolve(kernelName(definition) + ".java");
+            String source = generate(definition);
+            boolean current = Files.exists(file)
+                    && new String(Files.readAllBytes(file), StandardCharsets.UTF_8).equals(source);
+            if (current) {
+                continue;
+            }
+            if (check) {
+                System.err.println(file + " is out of date.");
+                stale++;
+            } else {
+                Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+                System.out.println("Wrote " + file);
+            }
+        }
+        if (stale > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Return the name of the kernel class of a species, e.g. FoxKernel.
+     *
+     * @param definition The definition of the species.
+     * @return The class name.
+     */
+    public static String kernelName(SpeciesDefinition definition)
+    {
+        return organismName(definition) + "Kernel";
+    }
+
+    /**
+     * Return the source of the kernel class of a species.
+     *
+     * @param definition The definition of the species.
+     * @return The Java source.
+     */
+    public static String generate(SpeciesDefinition definition)
+    {
+        String organism = organismName(definition);
+        String name = definition.getSpecies().getDisplayName().toLowerCase(Locale.ROOT);
+        String constant = definition.getSpecies().name();
+        boolean eats = !definition.getDiet().isEmpty();
+        boolean fights = definition.getMaxStrength() > 0;
+        boolean plans = !definition.isAggressive();
+        Source out = new Source();
+
+        out.line("import java.util.List;");
+        out.line("import java.util.Random;");
+        if (plans) {
+            out.line("import java.util.SplittableRandom;");
+        }
+        out.line("");
+        out.line("/**");
+        out.line(" * The rules of the " + name + ", with the numbers of SpeciesDefinition." + constant);
+        out.line(" * built in.");
+        out.line(" *");
+        out.line(" * " + GENERATED_NOTE + constant + "; do not");
+        out.line(" * edit, change the definition and run the generator again.");
+        out.line(" *");
+        out.line(" * @author Nikolay Tsanov");
+        out.line(" */");
+        out.line("final class " + kernelName(definition));
+        out.line("{");
+        out.line("    // The age at which a " + name + " can start to breed.");
+        out.line("    static final int BREEDING_AGE = " + definition.getBreedingAge() + ";");
+        out.line("    // The age to which a " + name + " can live.");
+        out.line("    static final int MAX_AGE = " + definition.getMaxAge() + ";");
+        out.line("    // The likelihood of a " + name + " breeding.");
+        out.line("    static final double BREEDING_PROBABILITY = " + definition.getBreedingProbability() + ";");
+        out.line("    // The maximum number of births.");
+        out.line("    static final int MAX_LITTER_SIZE = " + definition.getMaxLitterSize() + ";");
+        if (definition.getMaxFoodLevel() > 0) {
+            out.line("    // The most food a " + name + " can hold.");
+            out.line("    static final int MAX_FOOD_LEVEL = " + definition.getMaxFoodLevel() + ";");
+        }
+        if (fights) {
+            out.line("    // The most strength a " + name + " can have.");
+            out.line("    static final int MAX_STRENGTH = " + definition.getMaxStrength() + ";");
+        }
+        for (SpeciesDefinition.Meal meal : definition.getDiet()) {
+            String prey = meal.getPrey().name();
+            String preyName = meal.getPrey().getDisplayName().toLowerCase(Locale.ROOT);
+            out.line("    // The food a " + preyName + " gives.");
+            out.line("    static final int " + prey + "_FOOD_VALUE = " + meal.getFoodValue() + ";");
+            if (fights) {
+                out.line("    // The strength a " + preyName + " gives.");
+                out.line("    static final int " + prey + "_STRENGTH_GAIN = " + meal.getStrengthGain() + ";");
+            }
+            if (meal.getHungerLevel() != Integer.MAX_VALUE) {
+                out.line("    // The most food a " + name + " may have to look for a " + preyName + ".");
+                out.line("    static final int " + prey + "_HUNGER_LEVEL = " + meal.getHungerLevel() + ";");
+            }
+        }
+        for (SpeciesDefinition.Battle battle : definition.getBattles()) {
+            String opponent = battle.getOpponent().name();
+            String opponentName = battle.getOpponent().getDisplayName().toLowerCase(Locale.ROOT);
+            out.line("    // What winning a fight with a " + opponentName + " gives: strength, food when alone, and food for every member of a pack.");
+            out.line("    static final int " + opponent + "_WIN_STRENGTH_GAIN = " + battle.getWinStrengthGain() + ";");
+            out.line("    static final int " + opponent + "_WIN_FOOD_VALUE = " + battle.getWinFoodValue() + ";");
+            out.line("    static final int " + opponent + "_PACK_FOOD_VALUE = " + battle.getPackFoodValue() + ";");
+        }
+        out.line("");
+        out.line("    private " + kernelName(definition) + "()");
+        out.line("    {");
+        out.line("    }");
+        out.line("");
+
+        // The same rule for the generator of the simulation and, when planning, that of the organism.
+        for (String random : plans ? new String[] {"Random", "SplittableRandom"} : new String[] {"Random"}) {
+            out.line("    /**");
+            out.line("     * Return the number of young a " + name + " has at this step.");
+            out.line("     *");
+            out.line(random.equals("Random") ? "     * @param rand The random number generator of the simulation."
+                    : "     * @param rand The random number generator of the " + name + " in this step.");
+            out.line("     * @param age  The age of the " + name + ".");
+            out.line("     * @return The number of births (may be zero).");
+            out.line("     */");
+            out.line("    static int litterSize(" + random + " rand, int age)");
+            out.line("    {");
+            out.line("        if (age >= BREEDING_AGE && rand.nextDouble() <= BREEDING_PROBABILITY) {");
+            out.line("            return rand.nextInt(MAX_LITTER_SIZE) + 1;");
+            out.line("        }");
+            out.line("        return 0;");
+            out.line("    }");
+            out.line("");
+        }
+
+        out.line("    /**");
+        out.line("     * Let a " + name + " give birth at this step, if it does. New births");
+        out.line("     * are made into free adjacent locations.");
+        out.line("     *");
+        out.line("     * @param parent   The " + name + ".");
+        out.line("     * @param newborns A list to return newly born organisms.");
+        out.line("     */");
+        out.line("    static void giveBirth(" + organism + " parent, List<Organism> newborns)");
+        out.line("    {");
+        out.line("        Field field = parent.getField();");
+        out.line("        Location location = parent.getLocation();");
+        out.line("        List<Location> free = field.getFreeAdjacentLocations(location);");
+        out.line("        // Only as many can be born as there are free locations.");
+        out.line("        int born = Math.min(litterSize(parent.getRandom(), parent.getAge()), free.size());");
+        out.line("        for (int b = 0; b < born; b++) {");
+        out.line("            newborns.add(new " + organism + "(false, field, free.get(b)));");
+        out.line("        }");
+        out.line("        if (born > 0) {");
+        out.line("            field.getEvents().born(Species." + constant + ", born, location);");
+        out.line("        }");
+        out.line("    }");
+
+        if (eats) {
+            List<SpeciesDefinition.Meal> diet = definition.getDiet();
+            out.line("");
+            out.line("    /**");
+            out.line("     * Let a " + name + " look for prey in the adjacent locations, in the");
+            out.line("     * order of its diet, and eat the first live one found.");
+            out.line("     *");
+            out.line("     * @param predator The " + name + ".");
+            out.line("     * @return Where food was found, or null if it wasn't.");
+            out.line("     */");
+            out.line("    static Location findFood(" + organism + " predator)");
+            out.line("    {");
+            out.line("        Field field = predator.getField();");
+            out.line("        Location where;");
+            out.line("        Organism prey;");
+            for (int meal = 0; meal < diet.size(); meal++) {
+                String prey = diet.get(meal).getPrey().name();
+                String indent = "        ";
+                if (hungry(diet.get(meal))) {
+                    out.line("        if (predator.getFoodLevel() <= " + prey + "_HUNGER_LEVEL) {");
+                    indent += "    ";
+                }
+                out.line(indent + "where = field.randomAdjacentLocationOf(Species." + prey + ", predator.getLocation());");
+                out.line(indent + "prey = where == null ? null : (Organism) field.getObjectAt(where);");
+                out.line(indent + "if (prey != null && prey.isAlive()) {");
+                out.line(indent + "    predator.kill(prey);");
+                out.line(indent + "    eat(predator, " + meal + ");");
+                out.line(indent + "    return where;");
+                out.line(indent + "}");
+                if (hungry(diet.get(meal))) {
+                    out.line("        }");
+                }
+            }
+            out.line("        return null;");
+            out.line("    }");
+            out.line("");
+
+            out.line("    /**");
+            out.line("     * Let a " + name + " have the food" + (fights ? " and strength" : "") + " a prey of its diet gives.");
+            out.line("     *");
+            out.line("     * @param predator The " + name + ".");
+            out.line("     * @param meal     The place of the prey in the diet.");
+            out.line("     */");
+            out.line("    static void eat(" + organism + " predator, int meal)");
+            out.line("    {");
+            out.line("        switch (meal) {");
+            for (int meal = 0; meal < diet.size(); meal++) {
+                String prey = diet.get(meal).getPrey().name();
+                out.line("            case " + meal + ":");
+                out.line("                predator.setFoodLevel(Math.min(predator.getFoodLevel() + " + prey + "_FOOD_VALUE, MAX_FOOD_LEVEL));");
+                if (fights) {
+                    out.line("                predator.incrementStrength(" + prey + "_STRENGTH_GAIN);");
+                }
+                out.line("                break;");
+            }
+            out.line("            default:");
+            out.line("                throw new IllegalArgumentException(\"A " + name + " has no meal \" + meal + \".\");");
+            out.line("        }");
+            out.line("    }");
+        }
+        if (plans) {
+            generatePlan(out, definition, organism, name);
+        }
+        out.line("}");
+        return out.toString();
+    }
+
+    /**
+     * Add the plan and apply methods of a kernel, with which a
+     * ParallelStepEngine lets the species act: the step is planned as act
+     * takes it, with the rules above, and carried out later.
+     */
+    private static void generatePlan(Source out, SpeciesDefinition definition, String organism, String name)
+    {
+        List<SpeciesDefinition.Meal> diet = definition.getDiet();
+        boolean fights = definition.getMaxStrength() > 0;
+        out.line("");
+        out.line("    /**");
+        out.line("     * Plan the step of a " + name + " for a ParallelStepEngine, as act takes it:");
+        out.line("     * claim the locations of its young, then that of a prey of its diet to");
+        out.line("     * eat and move to, or else a free location to move to" + (diet.isEmpty() ? "." : ", towards the"));
+        if (!diet.isEmpty()) {
+            out.line("     * first prey of its diet if one is in sight.");
+        }
+        out.line("     *");
+        out.line("     * @param organism The " + name + ".");
+        out.line("     * @param engine   The engine.");
+        out.line("     * @param i        The place of the " + name + " in the list of the step.");
+        out.line("     * @param rand     The random number generator of the " + name + " in this step.");
+        out.line("     */");
+        out.line("    static void plan(" + organism + " organism, ParallelStepEngine engine, int i, SplittableRandom rand)");
+        out.line("    {");
+        out.line("        engine.claimBirths(i, litterSize(rand, organism.getAge()), rand);");
+        for (int meal = 0; meal < diet.size(); meal++) {
+            String prey = diet.get(meal).getPrey().name();
+            String claim = "engine.claimPrey(i, " + meal + ", Species." + prey + ", rand)";
+            if (hungry(diet.get(meal))) {
+                claim = "organism.getFoodLevel() <= " + prey + "_HUNGER_LEVEL && " + claim;
+            }
+            out.line("        if (" + claim + ") {");
+            out.line("            return;");
+            out.line("        }");
+        }
+        out.line("        engine.claimDestination(i, " + (diet.isEmpty() ? "null" : "Species." + diet.get(0).getPrey().name()) + ", rand);");
+        out.line("    }");
+        out.line("");
+
+        out.line("    /**");
+        out.line("     * Carry out the step of a " + name + " planned by plan.");
+        out.line("     *");
+        out.line("     * @param organism The " + name + ".");
+        out.line("     * @param engine   The engine that planned the step.");
+        out.line("     * @param i        The place of the " + name + " in the list of the step.");
+        out.line("     * @param newborns A list to return newly born organisms.");
+        out.line("     */");
+        out.line("    static void apply(" + organism + " organism, ParallelStepEngine engine, int i, List<Organism> newborns)");
+        out.line("    {");
+        out.line("        Field field = organism.getField();");
+        if (fights) {
+            out.line("        organism.decrementStrength();");
+        }
+        out.line("        int born = engine.getBirthCount(i);");
+        out.line("        for (int b = 0; b < born; b++) {");
+        out.line("            newborns.add(new " + organism + "(false, field, engine.getBirth(i, b)));");
+        out.line("        }");
+        out.line("        if (born > 0) {");
+        out.line("            field.getEvents().born(Species." + definition.getSpecies().name() + ", born, organism.getLocation());");
+        out.line("        }");
+        if (!diet.isEmpty()) {
+            out.line("        Location where = engine.getPrey(i);");
+            out.line("        if (where != null) {");
+            out.line("            organism.kill((Organism) field.getObjectAt(where));");
+            out.line("            eat(organism, engine.getMeal(i));");
+            out.line("        }");
+        }
+        out.line("        Location destination = engine.getDestination(i);");
+        out.line("        if (destination != null) {");
+        out.line("            organism.setLocation(destination);");
+        out.line("        } else {");
+        out.line("            // Overcrowding.");
+        out.line("            organism.setDead(DeathCause.OVERCROWDING);");
+        out.line("        }");
+        out.line("    }");
+    }
+
+    /**
+     * @return true if a predator only looks for a prey when it is hungry enough.
+     */
+    private static boolean hungry(SpeciesDefinition.Meal meal)
+    {
+        return meal.getHungerLevel() != Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return The name of the class that models the species of a definition.
+     */
+    private static String organismName(SpeciesDefinition definition)
+    {
+        return definition.getSpecies().getOrganismClass().getSimpleName();
+    }
+
+    /**
+     * Source code, built up line by line.
+     */
+    private static class Source
+    {
+        // The source so far.
+        private final StringBuilder text = new StringBuilder();
+
+        /**
+         * Add a line.
+         *
+         * @param line The line, without the line break.
+         */
+        void line(String line)
+        {
+            text.append(line).append('\n');
+        }
+
+        public String toString()
+        {
+            return text.toString();
+        }
+    }
+}
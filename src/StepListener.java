@@ -0,0 +1,36 @@
+import java.util.List;
+
+/**
+ * Is told every time the simulation has moved on, so that it can look at
+ * the new state of the field (to record, stream or export it).
+ * Listeners are called on the thread that runs the simulation and should
+ * return quickly; the field must not be changed or kept after returning.
+ *
+ * @author Nikolay Tsanov
+ */
+public interface StepListener
+{
+    /**
+     * Called after every step, and after the simulation was reset (with step 0).
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    void stepCompleted(int step, Field field);
+
+    /**
+     * Called before stepCompleted with the organisms that joined the
+     * simulation: those born in the step, or all of them after the
+     * simulation was reset, restored or fast-forwarded. Also called with
+     * all of them when the listener is added to a simulation. Organisms
+     * taken over from a coarsely simulated region are not reported. Some
+     * may have died already. The list must not be changed or kept after
+     * returning.
+     *
+     * @param step      The step.
+     * @param organisms The organisms that joined.
+     */
+    default void organismsAdded(int step, List<Organism> organisms)
+    {
+    }
+}
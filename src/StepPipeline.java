@@ -0,0 +1,347 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a simulation on its own thread and hands a snapshot of the field
+ * after every step to a number of stages (statistics, rendering, export),
+ * each running on a thread of its own. While the stages work on step N,
+ * the simulation already computes step N + 1, so on a machine with enough
+ * cores a step takes as long as the slowest stage rather than all of them.
+ *
+ * Every stage has a bounded queue of snapshots. When the queue of a stage
+ * is full, its backpressure policy decides what happens: BLOCK makes the
+ * simulation wait for the stage (use it where every step matters, like
+ * export), DROP skips the step for that stage only (use it where only the
+ * latest step matters, like the display).
+ *
+ * The snapshots are recycled, so no memory is allocated per step.
+ *
+ * @author Nikolay Tsanov
+ */
+public class StepPipeline
+{
+    /**
+     * What the simulation does when the queue of a stage is full.
+     */
+    public enum Backpressure
+    {
+        // Wait until the stage has room.
+        BLOCK,
+        // Skip the step for this stage.
+        DROP
+    }
+
+    // Marks the end of the steps in the queue of a stage.
+    private static final Frame END = new Frame(null);
+
+    // The simulation being run.
+    private final Simulator simulator;
+    // The stages, in the order they were added.
+    private final List<StageRunner> stages;
+    // The snapshots no stage is using.
+    private BlockingQueue<Frame> free;
+    // Runs the simulation.
+    private Thread producer;
+    // Whether the simulation should keep running.
+    private volatile boolean running;
+    // The shortest time a step may take, to slow the simulation down.
+    private volatile long minimumStepNanos;
+    // The first error a stage ran into, if any.
+    private volatile RuntimeException failure;
+
+    /**
+     * Create a pipeline for a simulation. The simulation must not be
+     * used by any other thread while the pipeline runs.
+     *
+     * @param simulator The simulation.
+     */
+    public StepPipeline(Simulator simulator)
+    {
+        this.simulator = simulator;
+        this.stages = new ArrayList<StageRunner>();
+    }
+
+    /**
+     * Add a stage. Stages can only be added before the pipeline is started.
+     *
+     * @param name      The name of the stage, used for its thread.
+     * @param stage     The stage.
+     * @param queueSize The number of snapshots that may wait for the stage.
+     * @param policy    What to do when that many are waiting.
+     */
+    public void addStage(String name, PipelineStage stage, int queueSize, Backpressure policy)
+    {
+        if (producer != null) {
+            throw new IllegalStateException("The pipeline has already been started.");
+        }
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("The queue size must be greater than zero.");
+        }
+        stages.add(new StageRunner(name, stage, queueSize, policy));
+    }
+
+    /**
+     * Make every step take at least the given time, e.g. to watch the
+     * simulation at a steady speed. 0 runs as fast as the stages allow.
+     *
+     * @param millis The shortest time a step may take.
+     */
+    public void setMinimumStepMillis(long millis)
+    {
+        this.minimumStepNanos = millis * 1000000L;
+    }
+
+    /**
+     * Start running the simulation and the stages.
+     *
+     * @param steps The number of steps to run, or 0 to run until stopped.
+     */
+    public synchronized void start(int steps)
+    {
+        if (producer != null) {
+            throw new IllegalStateException("The pipeline has already been started.");
+        }
+        // Every stage can hold a full queue and one snapshot it is working
+        // on, and the simulation fills one more.
+        int frames = 1;
+        for (StageRunner stage : stages) {
+            frames += stage.queue.remainingCapacity() + 1;
+        }
+        Field field = simulator.getField();
+        free = new ArrayBlockingQueue<Frame>(frames);
+        for (int i = 0; i < frames; i++) {
+            free.add(new Frame(new FieldSnapshot(field.getDepth(), field.getWidth())));
+        }
+
+        running = true;
+        for (StageRunner stage : stages) {
+            stage.thread.start();
+        }
+        producer = new Thread(() -> produce(steps), "pipeline-simulation");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Stop the simulation after the step it is working on, and stop the
+     * stages without waiting for them to finish their queues. When this
+     * returns, the simulation may be used by other threads again, and no
+     * stage is running any more, apart from the one calling this. A stage
+     * must give up when interrupted; what it handed to other threads
+     * before, it has to check for itself.
+     */
+    public void stop()
+    {
+        running = false;
+        for (StageRunner stage : stages) {
+            stage.thread.interrupt();
+        }
+        Thread thread = producer;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        boolean interrupted = false;
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(thread);
+        for (StageRunner stage : stages) {
+            threads.add(stage.thread);
+        }
+        for (Thread other : threads) {
+            while (other != null && other != Thread.currentThread() && other.isAlive()) {
+                try {
+                    other.join();
+                } catch (InterruptedException e) {
+                    // Finish stopping; the interrupt is kept for the caller.
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until all steps have been run and every stage has processed
+     * the snapshots in its queue.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitCompletion() throws InterruptedException
+    {
+        producer.join();
+        for (StageRunner stage : stages) {
+            stage.thread.join();
+        }
+    }
+
+    /**
+     * @return Whether the simulation is still running.
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Return how many steps a stage has skipped because its queue was full.
+     *
+     * @param name The name of the stage.
+     * @return The number of steps skipped.
+     */
+    public long getDropped(String name)
+    {
+        for (StageRunner stage : stages) {
+            if (stage.name.equals(name)) {
+                return stage.dropped.get();
+            }
+        }
+        throw new IllegalArgumentException("No stage named " + name);
+    }
+
+    /**
+     * @return The first error a stage ran into, or null. The pipeline stops after an error.
+     */
+    public RuntimeException getFailure()
+    {
+        return failure;
+    }
+
+    /**
+     * Run the simulation and hand the snapshots to the stages.
+     */
+    private void produce(int steps)
+    {
+        try {
+            for (int step = 1; running && (steps <= 0 || step <= steps); step++) {
+                long start = System.nanoTime();
+                simulator.simulateOneStep();
+
+                Frame frame = free.take();
+                frame.snapshot.copyFrom(simulator.getStep(), simulator.getField());
+                frame.users.set(stages.size());
+                for (StageRunner stage : stages) {
+                    stage.offer(frame);
+                }
+
+                long wait = minimumStepNanos - (System.nanoTime() - start);
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                }
+            }
+            for (StageRunner stage : stages) {
+                stage.queue.put(END);
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Give a snapshot back once a stage is done with it.
+     */
+    private void release(Frame frame)
+    {
+        if (frame.users.decrementAndGet() == 0) {
+            free.offer(frame);
+        }
+    }
+
+    /**
+     * A snapshot, with the number of stages still using it.
+     */
+    private static class Frame
+    {
+        // The field after a step.
+        private final FieldSnapshot snapshot;
+        // The number of stages that have not finished with the snapshot.
+        private final AtomicInteger users;
+
+        private Frame(FieldSnapshot snapshot)
+        {
+            this.snapshot = snapshot;
+            this.users = new AtomicInteger();
+        }
+    }
+
+    /**
+     * A stage with its queue and thread.
+     */
+    private class StageRunner
+    {
+        // The name of the stage.
+        private final String name;
+        // The stage.
+        private final PipelineStage stage;
+        // The snapshots waiting for the stage.
+        private final BlockingQueue<Frame> queue;
+        // What to do when the queue is full.
+        private final Backpressure policy;
+        // Runs the stage.
+        private final Thread thread;
+        // The number of steps skipped because the queue was full.
+        private final AtomicLong dropped;
+
+        private StageRunner(String name, PipelineStage stage, int queueSize, Backpressure policy)
+        {
+            this.name = name;
+            this.stage = stage;
+            this.queue = new ArrayBlockingQueue<Frame>(queueSize);
+            this.policy = policy;
+            this.dropped = new AtomicLong();
+            this.thread = new Thread(this::run, "pipeline-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Queue a snapshot for the stage, following its backpressure policy.
+         */
+        private void offer(Frame frame) throws InterruptedException
+        {
+            if (policy == Backpressure.BLOCK) {
+                queue.put(frame);
+            } else if (!queue.offer(frame)) {
+                dropped.incrementAndGet();
+                release(frame);
+            }
+        }
+
+        /**
+         * Process snapshots until the end of the steps.
+         */
+        private void run()
+        {
+            try {
+                while (true) {
+                    Frame frame = queue.take();
+                    if (frame == END) {
+                        break;
+                    }
+                    try {
+                        stage.process(frame.snapshot);
+                    } finally {
+                        release(frame);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                System.out.println("Pipeline stage " + name + " failed: " + e);
+                running = false;
+                producer.interrupt();
+                for (StageRunner other : stages) {
+                    other.thread.interrupt();
+                }
+            }
+        }
+    }
+}
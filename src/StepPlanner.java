@@ -0,0 +1,36 @@
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * An organism that can plan its step ahead for a ParallelStepEngine, on
+ * any thread, and have the plan carried out afterwards. The plan and its
+ * application are generated into the kernel of the species by the
+ * SpeciesKernelGenerator. Organisms that are not step planners, such as
+ * the hunters who fight whole packs, act one by one after the plans are
+ * carried out.
+ *
+ * @author Nikolay Tsanov
+ */
+public interface StepPlanner
+{
+    /**
+     * Plan the step of the organism, claiming the locations it needs, as
+     * act would take the step. Called on any thread of the engine, with
+     * the field as it was at the start of the step.
+     *
+     * @param engine The engine.
+     * @param i      The place of the organism in the list of the step.
+     * @param rand   The random number generator of the organism in this step.
+     */
+    void planStep(ParallelStepEngine engine, int i, SplittableRandom rand);
+
+    /**
+     * Carry out the step planned by planStep. Called on the thread of the
+     * step, in the order of the organisms.
+     *
+     * @param engine       The engine that planned the step.
+     * @param i            The place of the organism in the list of the step.
+     * @param newOrganisms A list to receive newly born organisms.
+     */
+    void applyStep(ParallelStepEngine engine, int i, List<Organism> newOrganisms);
+}
@@ -0,0 +1,76 @@
+import java.awt.Color;
+
+/**
+ * The web page served by the FrameStreamServer. It connects to the
+ * stream, decodes keyframes and deltas and draws the field on a canvas.
+ *
+ * @author Nikolay Tsanov
+ */
+public class StreamViewerPage
+{
+    // The pixels drawn for every location of the field.
+    private static final int SCALE = 6;
+
+    /**
+     * The whole page.
+     */
+    public static final String HTML = "<!DOCTYPE html>\n"
+            + "<html><head><meta charset=\"utf-8\"><title>Fox and Rabbit Simulation</title></head>\n"
+            + "<body style=\"margin:8px;font:13px sans-serif\">\n"
+            + "<div id=\"status\">Connecting...</div>\n"
+            + "<canvas id=\"field\" style=\"image-rendering:pixelated\"></canvas>\n"
+            + "<script>\n"
+            + "var palette = " + palette() + ";\n"
+            + "var canvas = document.getElementById('field'), status = document.getElementById('status');\n"
+            + "var context, image, width = 0, depth = 0;\n"
+            + "function varint(view, at) {\n"
+            + "  var value = 0, shift = 0, b;\n"
+            + "  do { b = view.getUint8(at.i++); value |= (b & 127) << shift; shift += 7; } while (b & 128);\n"
+            + "  return value;\n"
+            + "}\n"
+            + "function paint(index, code) {\n"
+            + "  var color = palette[code] || [128,128,128], o = index * 4;\n"
+            + "  image.data[o] = color[0]; image.data[o + 1] = color[1]; image.data[o + 2] = color[2]; image.data[o + 3] = 255;\n"
+            + "}\n"
+            + "var socket = new WebSocket('ws://' + location.host + '/stream');\n"
+            + "socket.binaryType = 'arraybuffer';\n"
+            + "socket.onclose = function() { status.textContent += ' (disconnected)'; };\n"
+            + "socket.onmessage = function(message) {\n"
+            + "  var view = new DataView(message.data), at = {i: 13};\n"
+            + "  var type = view.getUint8(0), step = view.getInt32(1), d = view.getInt32(5), w = view.getInt32(9);\n"
+            + "  if (type == 0) {\n"
+            + "    if (w != width || d != depth) {\n"
+            + "      width = w; depth = d; canvas.width = w; canvas.height = d;\n"
+            + "      canvas.style.width = (w * " + SCALE + ") + 'px'; canvas.style.height = (d * " + SCALE + ") + 'px';\n"
+            + "      context = canvas.getContext('2d'); image = context.createImageData(w, d);\n"
+            + "    }\n"
+            + "    for (var index = 0; index < w * d; ) {\n"
+            + "      var run = varint(view, at), code = view.getUint8(at.i++);\n"
+            + "      for (var r = 0; r < run; r++) paint(index++, code);\n"
+            + "    }\n"
+            + "  } else if (image) {\n"
+            + "    var changed = varint(view, at), index = -1;\n"
+            + "    for (var c = 0; c < changed; c++) { index += varint(view, at) + 1; paint(index, view.getUint8(at.i++)); }\n"
+            + "  }\n"
+            + "  if (image) context.putImageData(image, 0, 0);\n"
+            + "  status.textContent = 'Step: ' + step;\n"
+            + "};\n"
+            + "</script></body></html>\n";
+
+    /**
+     * Return the colors of the species as a JavaScript array indexed by
+     * species code, with white for empty locations.
+     *
+     * @return The palette, e.g. "[[255,255,255],[255,200,0],...]".
+     */
+    private static String palette()
+    {
+        StringBuilder palette = new StringBuilder("[[255,255,255]");
+        for (Species species : Species.values()) {
+            Color color = species.getColor();
+            palette.append(",[").append(color.getRed()).append(',').append(color.getGreen())
+                    .append(',').append(color.getBlue()).append(']');
+        }
+        return palette.append(']').toString();
+    }
+}
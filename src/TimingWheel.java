@@ -0,0 +1,215 @@
+import java.util.Arrays;
+
+/**
+ * The steps at which organisms die of old age or starvation, kept as a
+ * hierarchical timing wheel so that nothing has to be done for an organism
+ * between the step it is scheduled at and the step it is due.
+ *
+ * The wheel has LEVELS levels of SLOTS slots. A slot of level 0 holds the
+ * organisms due at one step, a slot of level k those due in a span of
+ * SLOTS^k steps. An organism is kept at the lowest level whose span around
+ * the current step holds its step, so most organisms are scheduled at
+ * levels 0 and 1. Whenever the current step crosses into a new span of a
+ * level above 0, the slot of that span is emptied into the levels below;
+ * the slot of the current step at level 0 then holds exactly the
+ * organisms due. Scheduling and advancing by a step take constant time,
+ * and the organisms are kept in arrays per slot that are reused.
+ *
+ * Nothing is ever taken off the wheel. An organism that dies or is
+ * rescheduled earlier leaves its entry behind, and the entry is dropped
+ * when its slot comes up; Organism.wake tells which entries still count.
+ * An organism is only scheduled again when it is due earlier than
+ * before, so a meal that puts starvation off costs nothing until the old
+ * step comes up.
+ *
+ * @author Nikolay Tsanov
+ */
+public class TimingWheel
+{
+    // The number of bits of a step that pick the slot of a level.
+    private static final int SLOT_BITS = 6;
+    // The number of slots of every level.
+    public static final int SLOTS = 1 << SLOT_BITS;
+    // The number of levels; the top one spans every step there is.
+    public static final int LEVELS = 6;
+    // The number of entries a slot first makes room for.
+    private static final int INITIAL_SLOT_CAPACITY = 8;
+
+    // The organisms of every slot: [level * SLOTS + slot][entry].
+    private final Organism[][] organisms;
+    // The step every entry is scheduled at: [level * SLOTS + slot][entry].
+    private final int[][] steps;
+    // The number of entries of every slot.
+    private final int[] sizes;
+    // The current step.
+    private int now;
+    // The number of entries on the wheel, stale ones included.
+    private int size;
+
+    /**
+     * Create an empty wheel at step 0.
+     */
+    public TimingWheel()
+    {
+        organisms = new Organism[LEVELS * SLOTS][];
+        steps = new int[LEVELS * SLOTS][];
+        sizes = new int[LEVELS * SLOTS];
+    }
+
+    /**
+     * @return The current step.
+     */
+    public int getStep()
+    {
+        return now;
+    }
+
+    /**
+     * @return The number of entries on the wheel, including those of
+     * organisms that died or were rescheduled in the meantime.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Schedule an organism to be woken at a step.
+     *
+     * @param organism The organism.
+     * @param step     The step, after the current one.
+     */
+    public void schedule(Organism organism, int step)
+    {
+        if (step <= now) {
+            throw new IllegalArgumentException("Step " + step + " is not after the current step " + now + ".");
+        }
+        insert(organism, step);
+        size++;
+    }
+
+    /**
+     * Move on to a later step, waking every organism due at the steps on
+     * the way. Woken organisms that are due die; the others schedule
+     * themselves again.
+     *
+     * @param step The new current step, not before the current one.
+     * @return The number of organisms that died.
+     */
+    public int advance(int step)
+    {
+        int died = 0;
+        while (now < step) {
+            now++;
+            // Empty the slots of the spans the step has just entered, top down.
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((now & ((1 << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (now >>> (SLOT_BITS * level)) & (SLOTS - 1));
+                }
+            }
+            died += fire(now & (SLOTS - 1));
+        }
+        return died;
+    }
+
+    /**
+     * Drop every entry and start again at a step.
+     *
+     * @param step The new current step.
+     */
+    public void reset(int step)
+    {
+        for (int slot = 0; slot < sizes.length; slot++) {
+            if (sizes[slot] > 0) {
+                Arrays.fill(organisms[slot], 0, sizes[slot], null);
+                sizes[slot] = 0;
+            }
+        }
+        size = 0;
+        now = step;
+    }
+
+    /**
+     * Drop every entry, staying at the current step.
+     */
+    public void clear()
+    {
+        reset(now);
+    }
+
+    /**
+     * Put an entry into the slot of the lowest level whose span around the
+     * current step holds the step.
+     */
+    private void insert(Organism organism, int step)
+    {
+        int level = 0;
+        while (level < LEVELS - 1 && (step >>> (SLOT_BITS * (level + 1))) != (now >>> (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = level * SLOTS + ((step >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        int entry = sizes[slot];
+        if (organisms[slot] == null) {
+            organisms[slot] = new Organism[INITIAL_SLOT_CAPACITY];
+            steps[slot] = new int[INITIAL_SLOT_CAPACITY];
+        } else if (entry == organisms[slot].length) {
+            organisms[slot] = Arrays.copyOf(organisms[slot], entry * 2);
+            steps[slot] = Arrays.copyOf(steps[slot], entry * 2);
+        }
+        organisms[slot][entry] = organism;
+        steps[slot][entry] = step;
+        sizes[slot] = entry + 1;
+    }
+
+    /**
+     * Move the entries of a slot above level 0 into the levels below,
+     * dropping the stale ones on the way.
+     */
+    private void cascade(int level, int index)
+    {
+        int slot = level * SLOTS + index;
+        int count = sizes[slot];
+        if (count == 0) {
+            return;
+        }
+        Organism[] slotOrganisms = organisms[slot];
+        int[] slotSteps = steps[slot];
+        // The entries all go below this level, so the slot is not refilled meanwhile.
+        sizes[slot] = 0;
+        for (int entry = 0; entry < count; entry++) {
+            Organism organism = slotOrganisms[entry];
+            slotOrganisms[entry] = null;
+            if (organism.isScheduledAt(slotSteps[entry])) {
+                insert(organism, slotSteps[entry]);
+            } else {
+                size--;
+            }
+        }
+    }
+
+    /**
+     * Wake the organisms of a slot of level 0, all of which are due now.
+     *
+     * @return The number of organisms that died.
+     */
+    private int fire(int index)
+    {
+        int count = sizes[index];
+        if (count == 0) {
+            return 0;
+        }
+        Organism[] slotOrganisms = organisms[index];
+        // Woken organisms are only ever scheduled after now, so never into this slot.
+        sizes[index] = 0;
+        size -= count;
+        int died = 0;
+        for (int entry = 0; entry < count; entry++) {
+            Organism organism = slotOrganisms[entry];
+            slotOrganisms[entry] = null;
+            if (organism.wake(now)) {
+                died++;
+            }
+        }
+        return died;
+    }
+}
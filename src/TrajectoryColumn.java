@@ -0,0 +1,24 @@
+/**
+ * The columns of a trajectory file: what is recorded of a sampled
+ * organism at every step it is alive. The order of the constants is the
+ * order of the columns in the file.
+ *
+ * @author Nikolay Tsanov
+ */
+public enum TrajectoryColumn
+{
+    // The id of the organism.
+    ID,
+    // The step.
+    STEP,
+    // The code of the species of the organism.
+    SPECIES,
+    // The location of the organism.
+    ROW, COL,
+    // The age of the organism.
+    AGE,
+    // The food level of the organism, or 0 if it does not need to eat.
+    FOOD_LEVEL,
+    // The strength of the organism, or 0 if it does not fight.
+    STRENGTH
+}
@@ -0,0 +1,265 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a trajectory file written by a TrajectoryWriter. Only the chunks
+ * that hold the steps asked for are read, as found in the index at the
+ * end of the file, and of them only the columns asked for are inflated;
+ * the others are skipped.
+ *
+ * To print the rows of some steps as CSV, run
+ * "java TrajectoryReader run.traj [fromStep toStep]".
+ *
+ * @author Nikolay Tsanov
+ */
+public class TrajectoryReader implements Closeable
+{
+    // The file being read.
+    private final RandomAccessFile in;
+    // The offset, first step, last step and rows of every chunk.
+    private final long[] offsets;
+    private final int[] firstSteps, lastSteps, rowCounts;
+    // Reused for the columns read: the deflated and coded bytes.
+    private byte[] deflated = new byte[0];
+    private byte[] coded = new byte[0];
+    private final Inflater inflater;
+
+    /**
+     * Open a trajectory file and read its index.
+     *
+     * @param file The file.
+     * @throws IOException if the file cannot be read or is not a complete trajectory file.
+     */
+    public TrajectoryReader(File file) throws IOException
+    {
+        in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() < TrajectoryWriter.HEADER_SIZE + TrajectoryWriter.FOOTER_SIZE
+                    || in.readInt() != TrajectoryWriter.MAGIC) {
+                throw new IOException(file + " is not a trajectory file.");
+            }
+            int version = in.readInt();
+            if (version != TrajectoryWriter.VERSION) {
+                throw new IOException(file + " has version " + version + ", expected " + TrajectoryWriter.VERSION + ".");
+            }
+            if (in.readInt() != TrajectoryColumn.values().length) {
+                throw new IOException(file + " has different columns.");
+            }
+            in.seek(in.length() - TrajectoryWriter.FOOTER_SIZE);
+            int chunks = in.readInt();
+            long indexOffset = in.readLong();
+            if (in.readInt() != TrajectoryWriter.MAGIC) {
+                throw new IOException(file + " was not finished; its index is missing.");
+            }
+            offsets = new long[chunks];
+            firstSteps = new int[chunks];
+            lastSteps = new int[chunks];
+            rowCounts = new int[chunks];
+            in.seek(indexOffset);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                offsets[chunk] = in.readLong();
+                firstSteps[chunk] = in.readInt();
+                lastSteps[chunk] = in.readInt();
+                rowCounts[chunk] = in.readInt();
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        inflater = new Inflater();
+    }
+
+    /**
+     * @return The number of chunks in the file.
+     */
+    public int getChunkCount()
+    {
+        return offsets.length;
+    }
+
+    /**
+     * @return The number of rows in the file.
+     */
+    public long getRowCount()
+    {
+        long rows = 0;
+        for (int count : rowCounts) {
+            rows += count;
+        }
+        return rows;
+    }
+
+    /**
+     * Read the values of some columns of the rows of a range of steps. The
+     * rows come chunk by chunk; within a chunk, they are ordered by the id
+     * of the organism and then by step, so every trajectory is one run of
+     * rows per chunk.
+     *
+     * @param fromStep The first step.
+     * @param toStep   The last step.
+     * @param columns  The columns to read.
+     * @return The values of every column asked for, in the order asked: [column][row].
+     * @throws IOException if the file cannot be read.
+     */
+    public long[][] read(int fromStep, int toStep, TrajectoryColumn... columns) throws IOException
+    {
+        long[][] result = new long[columns.length][];
+        int rows = 0;
+        for (int chunk = 0; chunk < offsets.length; chunk++) {
+            if (lastSteps[chunk] >= fromStep && firstSteps[chunk] <= toStep) {
+                rows += rowCounts[chunk];
+            }
+        }
+        for (int i = 0; i < columns.length; i++) {
+            result[i] = new long[rows];
+        }
+
+        int count = 0;
+        long[][] values = new long[TrajectoryColumn.values().length][];
+        for (int chunk = 0; chunk < offsets.length; chunk++) {
+            if (lastSteps[chunk] < fromStep || firstSteps[chunk] > toStep) {
+                continue;
+            }
+            readChunk(chunk, values, columns);
+            long[] steps = values[TrajectoryColumn.STEP.ordinal()];
+            for (int row = 0; row < rowCounts[chunk]; row++) {
+                if (steps[row] < fromStep || steps[row] > toStep) {
+                    continue;
+                }
+                for (int i = 0; i < columns.length; i++) {
+                    result[i][count] = values[columns[i].ordinal()][row];
+                }
+                count++;
+            }
+        }
+        for (int i = 0; i < columns.length; i++) {
+            result[i] = Arrays.copyOf(result[i], count);
+        }
+        return result;
+    }
+
+    /**
+     * Close the file.
+     *
+     * @throws IOException if closing fails.
+     */
+    public void close() throws IOException
+    {
+        inflater.end();
+        in.close();
+    }
+
+    /**
+     * Print the rows of a trajectory file as CSV.
+     *
+     * @param args The file, and optionally the first and last step.
+     * @throws IOException if the file cannot be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 1 && args.length != 3) {
+            System.out.println("Usage: TrajectoryReader run.traj [fromStep toStep]");
+            return;
+        }
+        int fromStep = args.length == 3 ? Integer.parseInt(args[1]) : 0;
+        int toStep = args.length == 3 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+        TrajectoryColumn[] columns = TrajectoryColumn.values();
+        try (TrajectoryReader reader = new TrajectoryReader(new File(args[0]))) {
+            long[][] values = reader.read(fromStep, toStep, columns);
+            StringBuilder line = new StringBuilder();
+            for (TrajectoryColumn column : columns) {
+                line.append(line.length() == 0 ? "" : ",").append(column.name().toLowerCase(Locale.ROOT));
+            }
+            System.out.println(line);
+            for (int row = 0; row < values[0].length; row++) {
+                line.setLength(0);
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    if (columns[i] == TrajectoryColumn.SPECIES) {
+                        line.append(Species.fromCode((int) values[i][row]).getDisplayName());
+                    } else {
+                        line.append(values[i][row]);
+                    }
+                }
+                System.out.println(line);
+            }
+        }
+    }
+
+    /**
+     * Read the step column and the columns asked for of a chunk, skipping
+     * the others.
+     *
+     * @param values Receives the values of every column read: [column][row].
+     */
+    private void readChunk(int chunk, long[][] values, TrajectoryColumn[] columns) throws IOException
+    {
+        boolean[] wanted = new boolean[values.length];
+        wanted[TrajectoryColumn.STEP.ordinal()] = true;
+        for (TrajectoryColumn column : columns) {
+            wanted[column.ordinal()] = true;
+        }
+        in.seek(offsets[chunk]);
+        int rows = in.readInt();
+        // The first and last step are in the index already.
+        in.skipBytes(8);
+        for (int column = 0; column < values.length; column++) {
+            int codedLength = in.readInt();
+            int deflatedLength = in.readInt();
+            if (!wanted[column]) {
+                in.seek(in.getFilePointer() + deflatedLength);
+                continue;
+            }
+            if (deflated.length < deflatedLength) {
+                deflated = new byte[deflatedLength];
+            }
+            if (coded.length < codedLength) {
+                coded = new byte[codedLength];
+            }
+            in.readFully(deflated, 0, deflatedLength);
+            inflater.reset();
+            inflater.setInput(deflated, 0, deflatedLength);
+            try {
+                if (inflater.inflate(coded, 0, codedLength) != codedLength) {
+                    throw new IOException("Column " + TrajectoryColumn.values()[column] + " of chunk " + chunk + " is cut short.");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Column " + TrajectoryColumn.values()[column] + " of chunk " + chunk + " is damaged.", e);
+            }
+            values[column] = decode(coded, rows);
+        }
+    }
+
+    /**
+     * Decode the zigzag varint differences of a column.
+     *
+     * @return The values of the column.
+     */
+    private static long[] decode(byte[] coded, int rows)
+    {
+        long[] values = new long[rows];
+        long value = 0;
+        int position = 0;
+        for (int row = 0; row < rows; row++) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = coded[position++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[row] = value;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Follows a sample of the organisms of every species through the
+ * simulation, and records where they are, their age, food level and
+ * strength at every step they are alive, into a trajectory file written
+ * by a TrajectoryWriter.
+ *
+ * How many organisms of a species are followed at a time is set per
+ * species, and none are by default. An organism is followed from the
+ * step it is first seen until it dies. When there are fewer organisms of
+ * a species followed than there should be, the free places are filled
+ * from the organisms that joined the simulation in the step, as the
+ * simulator reports them to its step listeners: the newborns, or all
+ * organisms after a reset and when the recorder is added. As they are
+ * reported, a sample of as many of them as could be followed is kept by
+ * reservoir sampling, so that every newcomer of a species has the same
+ * chance, however many there are; the free places are filled at random
+ * from the sample. The field is never searched for newcomers.
+ *
+ * The rows are handed to the writer every CHUNK_STEPS steps. When the
+ * simulation is reset, the rows of the new run start a new chunk, so
+ * every chunk covers the steps of one run only.
+ *
+ * @author Nikolay Tsanov
+ */
+public class TrajectoryRecorder implements StepListener, Closeable
+{
+    // The number of steps of a chunk.
+    public static final int CHUNK_STEPS = 128;
+    // The number of chunks that may wait to be written.
+    private static final int QUEUE_SIZE = 4;
+
+    // Writes the chunks.
+    private final TrajectoryWriter writer;
+    // How many organisms of every species to follow, indexed by ordinal.
+    private final int[] sampleSizes;
+    // The organisms followed, by species.
+    private final List<List<Organism>> followed;
+    // A sample of the organisms that joined since the last step recorded, by species.
+    private final List<List<Organism>> picked;
+    // The number of organisms of every species that joined since the last step recorded.
+    private final int[] seen;
+    // Picks the organisms to follow.
+    private final SplittableRandom rand;
+    // The last step recorded, or -1.
+    private int lastStep;
+    // The rows since the last chunk was written.
+    private TrajectoryWriter.Chunk chunk;
+
+    /**
+     * Create a recorder that follows no organisms yet.
+     *
+     * @param file The trajectory file to write.
+     * @param seed Seeds the choice of the organisms followed.
+     * @throws IOException if the file cannot be created.
+     */
+    public TrajectoryRecorder(File file, long seed) throws IOException
+    {
+        writer = new TrajectoryWriter(file, QUEUE_SIZE);
+        int speciesCount = Species.values().length;
+        sampleSizes = new int[speciesCount];
+        followed = new ArrayList<List<Organism>>();
+        picked = new ArrayList<List<Organism>>();
+        for (int i = 0; i < speciesCount; i++) {
+            followed.add(new ArrayList<Organism>());
+            picked.add(new ArrayList<Organism>());
+        }
+        seen = new int[speciesCount];
+        rand = new SplittableRandom(seed);
+        lastStep = -1;
+        chunk = new TrajectoryWriter.Chunk();
+    }
+
+    /**
+     * Set how many organisms of a species to follow at a time. With fewer,
+     * the organisms over the new number are no longer followed.
+     *
+     * @param species    The species.
+     * @param sampleSize The number of organisms, or 0 to follow none.
+     */
+    public void setSampleSize(Species species, int sampleSize)
+    {
+        if (sampleSize < 0) {
+            throw new IllegalArgumentException("The sample size must not be negative.");
+        }
+        sampleSizes[species.ordinal()] = sampleSize;
+        List<Organism> organisms = followed.get(species.ordinal());
+        while (organisms.size() > sampleSize) {
+            organisms.remove(organisms.size() - 1);
+        }
+    }
+
+    /**
+     * @return How many organisms of a species are followed at a time.
+     */
+    public int getSampleSize(Species species)
+    {
+        return sampleSizes[species.ordinal()];
+    }
+
+    /**
+     * @return How many organisms of a species are followed now.
+     */
+    public int getFollowedCount(Species species)
+    {
+        return followed.get(species.ordinal()).size();
+    }
+
+    /**
+     * Keep a sample of the organisms that joined the simulation, as many
+     * of every species as could be followed at a time.
+     *
+     * @param step      The step.
+     * @param organisms The organisms that joined.
+     */
+    public void organismsAdded(int step, List<Organism> organisms)
+    {
+        for (Organism organism : organisms) {
+            int species = organism.getSpecies().ordinal();
+            int sampleSize = sampleSizes[species];
+            if (sampleSize == 0) {
+                continue;
+            }
+            // Reservoir sampling: the n-th newcomer takes one of k places with probability k / n.
+            List<Organism> sample = picked.get(species);
+            seen[species]++;
+            if (sample.size() < sampleSize) {
+                sample.add(organism);
+            } else {
+                int place = rand.nextInt(seen[species]);
+                if (place < sampleSize) {
+                    sample.set(place, organism);
+                }
+            }
+        }
+    }
+
+    /**
+     * Record the organisms followed after a step, after letting go of the
+     * ones that died or are no longer in the field, and picking newcomers
+     * for their places.
+     *
+     * @param step  The step that was just completed.
+     * @param field The field in its state after the step.
+     */
+    public void stepCompleted(int step, Field field)
+    {
+        if (step <= lastStep || chunk.getRowCount() > 0 && step - chunk.getFirstStep() >= CHUNK_STEPS) {
+            flush();
+        }
+        lastStep = step;
+
+        for (Species species : Species.values()) {
+            List<Organism> organisms = followed.get(species.ordinal());
+            for (Iterator<Organism> it = organisms.iterator(); it.hasNext(); ) {
+                if (!isInField(it.next(), field)) {
+                    it.remove();
+                }
+            }
+            fillPlaces(species, field);
+        }
+
+        for (List<Organism> organisms : followed) {
+            for (Organism organism : organisms) {
+                Location location = organism.getLocation();
+                int strength = organism instanceof BattleOrganism ? ((BattleOrganism) organism).getStrengthLevel() : 0;
+                chunk.add(organism.getId(), step, organism.getSpecies(), location.getRow(), location.getCol(),
+                        organism.getAge(), organism.getFoodLevel(), strength);
+                if (chunk.getRowCount() == TrajectoryWriter.Chunk.MAX_ROWS) {
+                    flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the rows recorded, wait for the writer and finish the file.
+     *
+     * @throws IOException if writing failed.
+     */
+    public void close() throws IOException
+    {
+        flush();
+        writer.close();
+    }
+
+    /**
+     * Fill the free places of a species at random from the sample of its
+     * newcomers, and start the next sample. A random part of a random
+     * sample is a random sample too.
+     */
+    private void fillPlaces(Species species, Field field)
+    {
+        List<Organism> organisms = followed.get(species.ordinal());
+        List<Organism> sample = picked.get(species.ordinal());
+        // Take newcomers from the sample at random, moving the last one into the gap.
+        for (int left = sample.size(); left > 0 && organisms.size() < sampleSizes[species.ordinal()]; left--) {
+            int pick = rand.nextInt(left);
+            Organism organism = sample.get(pick);
+            sample.set(pick, sample.get(left - 1));
+            if (isInField(organism, field)) {
+                organisms.add(organism);
+            }
+        }
+        sample.clear();
+        seen[species.ordinal()] = 0;
+    }
+
+    /**
+     * @return true if an organism is alive and in the field; a reset
+     *         leaves the organisms of the old run alive, but no longer in it.
+     */
+    private static boolean isInField(Organism organism, Field field)
+    {
+        return organism.isAlive() && field.getObjectAt(organism.getLocation()) == organism;
+    }
+
+    /**
+     * Hand the rows recorded to the writer, and start a new chunk.
+     */
+    private void flush()
+    {
+        if (chunk.getRowCount() > 0) {
+            writer.write(chunk);
+            chunk = new TrajectoryWriter.Chunk();
+        }
+    }
+}
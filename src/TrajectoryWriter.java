@@ -0,0 +1,330 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the trajectories of organisms to a file, column by column, on a
+ * thread of its own. The rows are handed over in chunks of a number of
+ * steps; the simulation thread only fills the chunks, and waits only if
+ * too many of them are waiting to be written.
+ *
+ * A trajectory file starts with a header (magic number, version and the
+ * number of columns), followed by the chunks and then an index. In a
+ * chunk the rows are ordered by the id of the organism and then by step,
+ * so that a trajectory is one run of rows. A chunk holds its number of
+ * rows, first step and last step; then every column of TrajectoryColumn,
+ * in order, as the difference of every value to the one in the row
+ * before, zigzag and varint coded, and deflated. Along a trajectory the
+ * id stays the same, the step and the age go up by one and the location
+ * by at most one, so most differences take a byte before they are even
+ * deflated. Every column has its length up front, so that a reader can
+ * skip the columns it does not need.
+ *
+ * The index lists the offset, first step, last step and number of rows
+ * of every chunk, so that a reader can go straight to the chunks of the
+ * steps it wants. The file ends with the number of chunks, the offset of
+ * the index and the magic number again. See TrajectoryReader.
+ *
+ * @author Nikolay Tsanov
+ */
+public class TrajectoryWriter implements Closeable
+{
+    // Identifies trajectory files: "FNRJ".
+    static final int MAGIC = 0x464E524A;
+    // The version of the file format.
+    static final int VERSION = 1;
+    // The size of the header.
+    static final int HEADER_SIZE = 12;
+    // The size of the end of the file after the index.
+    static final int FOOTER_SIZE = 16;
+
+    // The file being written.
+    private final DataOutputStream out;
+    // Encodes and writes the chunks, one at a time, in order.
+    private final ExecutorService worker;
+    // Bounds the number of chunks that are waiting or being written.
+    private final Semaphore pending;
+    // The offset of the next chunk in the file.
+    private long offset;
+    // The index: the offset, first step, last step and rows of every chunk written.
+    private final List<long[]> index;
+    // The first error that happened while writing, if any.
+    private volatile IOException failure;
+    // Reused by the worker: the coded differences of a column, and the deflated column.
+    private byte[] coded = new byte[0];
+    private byte[] deflated = new byte[0];
+    private final Deflater deflater;
+    // Reused by the worker: the order of the rows of a chunk.
+    private long[] order = new long[0];
+
+    /**
+     * Create a trajectory file.
+     *
+     * @param file      The file to write.
+     * @param queueSize The number of chunks that may wait to be written.
+     * @throws IOException if the file cannot be created.
+     */
+    public TrajectoryWriter(File file, int queueSize) throws IOException
+    {
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("The queue size must be greater than zero.");
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(TrajectoryColumn.values().length);
+        offset = HEADER_SIZE;
+        index = new ArrayList<long[]>();
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        worker = Executors.newSingleThreadExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "trajectory-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pending = new Semaphore(1 + queueSize);
+    }
+
+    /**
+     * Queue a chunk to be written. Waits if too many chunks are already
+     * waiting. The chunk must not be changed afterwards.
+     *
+     * @param chunk The chunk; ignored if it is empty.
+     */
+    public void write(Chunk chunk)
+    {
+        if (chunk.getRowCount() == 0 || failure != null) {
+            return;
+        }
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        worker.submit(() -> {
+            try {
+                if (failure == null) {
+                    writeChunk(chunk);
+                }
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * Wait for the chunks queued, write the index and finish the file.
+     *
+     * @throws IOException if writing any of the chunks failed.
+     */
+    public void close() throws IOException
+    {
+        worker.shutdown();
+        try {
+            while (!worker.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting; the chunks must be written before the index.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            worker.shutdownNow();
+            out.close();
+            throw new IOException("Interrupted while writing the trajectories", e);
+        }
+        try {
+            if (failure == null) {
+                long indexOffset = offset;
+                for (long[] entry : index) {
+                    out.writeLong(entry[0]);
+                    out.writeInt((int) entry[1]);
+                    out.writeInt((int) entry[2]);
+                    out.writeInt((int) entry[3]);
+                }
+                out.writeInt(index.size());
+                out.writeLong(indexOffset);
+                out.writeInt(MAGIC);
+            }
+        } finally {
+            out.close();
+            deflater.end();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Encode a chunk, write it and add it to the index. Runs on the worker.
+     */
+    private void writeChunk(Chunk chunk) throws IOException
+    {
+        int rows = chunk.getRowCount();
+        // By id, then by the order the rows were added in, which is by step.
+        if (order.length < rows) {
+            order = new long[Math.max(rows, order.length * 2)];
+        }
+        long[] ids = chunk.columns[TrajectoryColumn.ID.ordinal()];
+        for (int row = 0; row < rows; row++) {
+            order[row] = ids[row] << Chunk.ROW_BITS | row;
+        }
+        Arrays.sort(order, 0, rows);
+
+        long chunkOffset = offset;
+        out.writeInt(rows);
+        out.writeInt(chunk.firstStep);
+        out.writeInt(chunk.lastStep);
+        offset += 12;
+        for (long[] values : chunk.columns) {
+            int codedLength = code(values, rows);
+            int deflatedLength = deflate(codedLength);
+            out.writeInt(codedLength);
+            out.writeInt(deflatedLength);
+            out.write(deflated, 0, deflatedLength);
+            offset += 8 + deflatedLength;
+        }
+        index.add(new long[] {chunkOffset, chunk.firstStep, chunk.lastStep, rows});
+    }
+
+    /**
+     * Code the differences between the values of a column in row order.
+     *
+     * @return The number of bytes coded.
+     */
+    private int code(long[] values, int rows)
+    {
+        // A varint takes at most 10 bytes.
+        if (coded.length < rows * 10) {
+            coded = new byte[rows * 10];
+        }
+        int length = 0;
+        long previous = 0;
+        int mask = (1 << Chunk.ROW_BITS) - 1;
+        for (int i = 0; i < rows; i++) {
+            long value = values[(int) (order[i] & mask)];
+            long delta = value - previous;
+            previous = value;
+            // Zigzag: small differences of either sign become small numbers.
+            long zigzag = (delta << 1) ^ (delta >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                coded[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            coded[length++] = (byte) zigzag;
+        }
+        return length;
+    }
+
+    /**
+     * Deflate the coded bytes of a column.
+     *
+     * @return The number of bytes deflated.
+     */
+    private int deflate(int codedLength)
+    {
+        deflater.reset();
+        deflater.setInput(coded, 0, codedLength);
+        deflater.finish();
+        if (deflated.length < 64) {
+            deflated = new byte[Math.max(64, codedLength / 4)];
+        }
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == deflated.length) {
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            }
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        return length;
+    }
+
+    /**
+     * The rows of a number of steps, column by column, as they are recorded.
+     */
+    public static class Chunk
+    {
+        // The bits of a row number in the sort keys of the rows.
+        static final int ROW_BITS = 20;
+        // The most rows of a chunk.
+        public static final int MAX_ROWS = 1 << 16;
+
+        // The values of every column: [column][row].
+        private final long[][] columns;
+        // The number of rows.
+        private int rows;
+        // The first and last step of the rows.
+        private int firstStep, lastStep;
+
+        /**
+         * Create an empty chunk.
+         */
+        public Chunk()
+        {
+            columns = new long[TrajectoryColumn.values().length][256];
+        }
+
+        /**
+         * Add a row. Rows must be added by step.
+         *
+         * @param id        The id of the organism.
+         * @param step      The step.
+         * @param species   The species of the organism.
+         * @param row       The row of its location.
+         * @param col       The column of its location.
+         * @param age       Its age.
+         * @param foodLevel Its food level.
+         * @param strength  Its strength.
+         */
+        public void add(long id, int step, Species species, int row, int col, int age, int foodLevel, int strength)
+        {
+            if (rows == MAX_ROWS) {
+                throw new IllegalStateException("The chunk is full.");
+            }
+            if (rows == columns[0].length) {
+                for (int column = 0; column < columns.length; column++) {
+                    columns[column] = Arrays.copyOf(columns[column], rows * 2);
+                }
+            }
+            if (rows == 0) {
+                firstStep = step;
+            }
+            lastStep = step;
+            columns[TrajectoryColumn.ID.ordinal()][rows] = id;
+            columns[TrajectoryColumn.STEP.ordinal()][rows] = step;
+            columns[TrajectoryColumn.SPECIES.ordinal()][rows] = species.getCode();
+            columns[TrajectoryColumn.ROW.ordinal()][rows] = row;
+            columns[TrajectoryColumn.COL.ordinal()][rows] = col;
+            columns[TrajectoryColumn.AGE.ordinal()][rows] = age;
+            columns[TrajectoryColumn.FOOD_LEVEL.ordinal()][rows] = foodLevel;
+            columns[TrajectoryColumn.STRENGTH.ordinal()][rows] = strength;
+            rows++;
+        }
+
+        /**
+         * @return The number of rows.
+         */
+        public int getRowCount()
+        {
+            return rows;
+        }
+
+        /**
+         * @return The step of the first row.
+         */
+        public int getFirstStep()
+        {
+            return firstStep;
+        }
+    }
+}
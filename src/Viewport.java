@@ -0,0 +1,241 @@
+/**
+ * The part of a field shown on screen: how many pixels a location takes,
+ * and which location is in the top left corner. A viewport does not
+ * change; zooming and panning give a new one, so a viewport can be handed
+ * to a thread that draws while the user keeps moving around.
+ *
+ * Locations are measured in fractions, so zooming keeps the location
+ * under the mouse pointer where it is.
+ *
+ * @author Nikolay Tsanov
+ */
+public class Viewport
+{
+    // The most pixels a location may take.
+    public static final double MAX_CELL_SIZE = 32;
+
+    // The size of the field, in locations.
+    private final int depth, width;
+    // The size of the view, in pixels.
+    private final int viewWidth, viewHeight;
+    // The pixels along each side of a location.
+    private final double cellSize;
+    // The location in the top left corner of the view.
+    private final double originRow, originCol;
+
+    /**
+     * Create a viewport.
+     *
+     * @param depth      The depth of the field.
+     * @param width      The width of the field.
+     * @param viewWidth  The width of the view, in pixels.
+     * @param viewHeight The height of the view, in pixels.
+     * @param cellSize   The pixels along each side of a location.
+     * @param originRow  The row at the top of the view.
+     * @param originCol  The column at the left of the view.
+     */
+    public Viewport(int depth, int width, int viewWidth, int viewHeight, double cellSize, double originRow, double originCol)
+    {
+        this.depth = depth;
+        this.width = width;
+        this.viewWidth = Math.max(1, viewWidth);
+        this.viewHeight = Math.max(1, viewHeight);
+        this.cellSize = Math.max(getFitCellSize(), Math.min(MAX_CELL_SIZE, cellSize));
+        // Keep the field in view: centred if it is smaller than the view, else filling it.
+        this.originRow = clamp(originRow, depth, this.viewHeight / this.cellSize);
+        this.originCol = clamp(originCol, width, this.viewWidth / this.cellSize);
+    }
+
+    /**
+     * Create a viewport showing the whole field. Small fields get whole
+     * pixels per location, at most the given number.
+     *
+     * @param depth       The depth of the field.
+     * @param width       The width of the field.
+     * @param viewWidth   The width of the view, in pixels.
+     * @param viewHeight  The height of the view, in pixels.
+     * @param maxCellSize The most pixels a location may take.
+     * @return The viewport.
+     */
+    public static Viewport fit(int depth, int width, int viewWidth, int viewHeight, int maxCellSize)
+    {
+        double cellSize = Math.min((double) viewWidth / width, (double) viewHeight / depth);
+        if (cellSize >= 1) {
+            cellSize = Math.min(maxCellSize, Math.floor(cellSize));
+        }
+        return new Viewport(depth, width, viewWidth, viewHeight, cellSize, 0, 0);
+    }
+
+    /**
+     * Zoom in or out, keeping the location under a pixel where it is.
+     *
+     * @param factor How much larger locations become; below 1 zooms out.
+     * @param x      The column of the pixel.
+     * @param y      The row of the pixel.
+     * @return The zoomed viewport.
+     */
+    public Viewport zoom(double factor, int x, int y)
+    {
+        double newSize = cellSize * factor;
+        // Snap to whole pixels when zoomed in, so that locations stay the same size.
+        if (newSize >= 1) {
+            newSize = factor > 1 ? Math.ceil(newSize) : Math.floor(newSize);
+        }
+        double row = getRowAt(y);
+        double col = getColAt(x);
+        return new Viewport(depth, width, viewWidth, viewHeight, newSize, row - y / newSize, col - x / newSize);
+    }
+
+    /**
+     * Move the view.
+     *
+     * @param dx The pixels to move the field to the right.
+     * @param dy The pixels to move the field down.
+     * @return The moved viewport.
+     */
+    public Viewport pan(int dx, int dy)
+    {
+        return new Viewport(depth, width, viewWidth, viewHeight, cellSize,
+                originRow - dy / cellSize, originCol - dx / cellSize);
+    }
+
+    /**
+     * Give the view a new size, keeping the zoom and the top left corner.
+     *
+     * @param newWidth  The width of the view, in pixels.
+     * @param newHeight The height of the view, in pixels.
+     * @return The resized viewport.
+     */
+    public Viewport resize(int newWidth, int newHeight)
+    {
+        return new Viewport(depth, width, newWidth, newHeight, cellSize, originRow, originCol);
+    }
+
+    /**
+     * @return The cell size at which the whole field just fits in the view.
+     */
+    public double getFitCellSize()
+    {
+        return Math.min(1.0, Math.min((double) viewWidth / width, (double) viewHeight / depth));
+    }
+
+    /**
+     * @return The pixels along each side of a location.
+     */
+    public double getCellSize()
+    {
+        return cellSize;
+    }
+
+    /**
+     * @return The row at the top of the view, possibly a fraction or negative.
+     */
+    public double getOriginRow()
+    {
+        return originRow;
+    }
+
+    /**
+     * @return The column at the left of the view, possibly a fraction or negative.
+     */
+    public double getOriginCol()
+    {
+        return originCol;
+    }
+
+    /**
+     * @return The row shown at a pixel row, as a fraction.
+     */
+    public double getRowAt(int y)
+    {
+        return originRow + y / cellSize;
+    }
+
+    /**
+     * @return The column shown at a pixel column, as a fraction.
+     */
+    public double getColAt(int x)
+    {
+        return originCol + x / cellSize;
+    }
+
+    /**
+     * @return The pixel row at which a row of locations starts.
+     */
+    public int getY(double row)
+    {
+        return (int) Math.floor((row - originRow) * cellSize);
+    }
+
+    /**
+     * @return The pixel column at which a column of locations starts.
+     */
+    public int getX(double col)
+    {
+        return (int) Math.floor((col - originCol) * cellSize);
+    }
+
+    /**
+     * @return The first row that is at least partly visible.
+     */
+    public int getFirstRow()
+    {
+        return Math.max(0, (int) Math.floor(originRow));
+    }
+
+    /**
+     * @return The row after the last row that is at least partly visible.
+     */
+    public int getEndRow()
+    {
+        return Math.min(depth, (int) Math.ceil(getRowAt(viewHeight)));
+    }
+
+    /**
+     * @return The first column that is at least partly visible.
+     */
+    public int getFirstCol()
+    {
+        return Math.max(0, (int) Math.floor(originCol));
+    }
+
+    /**
+     * @return The column after the last column that is at least partly visible.
+     */
+    public int getEndCol()
+    {
+        return Math.min(width, (int) Math.ceil(getColAt(viewWidth)));
+    }
+
+    /**
+     * @return The width of the view, in pixels.
+     */
+    public int getViewWidth()
+    {
+        return viewWidth;
+    }
+
+    /**
+     * @return The height of the view, in pixels.
+     */
+    public int getViewHeight()
+    {
+        return viewHeight;
+    }
+
+    /**
+     * Keep the origin along one side so the field covers the view, or is
+     * centred in it if it is smaller.
+     *
+     * @param origin  The wanted origin.
+     * @param cells   The size of the field along this side.
+     * @param visible The number of locations the view can show along this side.
+     */
+    private static double clamp(double origin, int cells, double visible)
+    {
+        if (visible >= cells) {
+            return -(visible - cells) / 2;
+        }
+        return Math.max(0, Math.min(cells - visible, origin));
+    }
+}
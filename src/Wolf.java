@@ -1,6 +1,5 @@
-import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A simple model of a wolf.
@@ -8,30 +7,22 @@ import java.util.Random;
  *
  * @author Nikolay Tsanov
  */
-public class Wolf extends BattleOrganism
+public class Wolf extends BattleOrganism implements StepPlanner
 {
     // Characteristics shared by all wolves (class variables).
 
     // The max strength for a wolf
-    private static final int MAX_STRENGTH = 100;
+    private static final int MAX_STRENGTH = WolfKernel.MAX_STRENGTH;
     // How much a wolf can eat
-    private static final int MAX_FOOD_LEVEL = 12;
+    static final int MAX_FOOD_LEVEL = WolfKernel.MAX_FOOD_LEVEL;
     // The age at which a wolf can start to breed.
-    private static final int BREEDING_AGE = 35;
+    static final int BREEDING_AGE = WolfKernel.BREEDING_AGE;
     // The age to which a wolf can live.
-    private static final int MAX_AGE = 160;
+    static final int MAX_AGE = WolfKernel.MAX_AGE;
     // The likelihood of a wolf breeding.
-    private static final double BREEDING_PROBABILITY = 0.07;
+    static final double BREEDING_PROBABILITY = WolfKernel.BREEDING_PROBABILITY;
     // The maximum number of births.
-    private static final int MAX_LITTER_SIZE = 2;
-
-    // Individual characteristics (instance fields).
-
-    // The wolf's food level, which is increased by eating rabbits.
-    private int foodLevel;
-
-    // A shared random number generator to control breeding.
-    private static final Random rand = Randomizer.getRandom();
+    static final int MAX_LITTER_SIZE = WolfKernel.MAX_LITTER_SIZE;
 
     /**
      * Create a wolf. A wolf can be created as a new born (age zero
@@ -43,15 +34,10 @@ public class Wolf extends BattleOrganism
      */
     public Wolf(boolean randomAge, Field field, Location location)
     {
-        super(field, location);
-        if (randomAge) {
-            super.setAge(rand.nextInt(MAX_AGE));
-            this.foodLevel = rand.nextInt(MAX_FOOD_LEVEL);
-        } else {
-            this.foodLevel = MAX_FOOD_LEVEL;
-        }
+        super(field, location, randomAge ? field.getRandom().nextInt(MAX_AGE) : 0,
+                randomAge ? field.getRandom().nextInt(MAX_FOOD_LEVEL) : MAX_FOOD_LEVEL);
         // Always assign random strength so the simulation can be more interesting
-        this.setStrengthLevel(rand.nextInt(this.getMaxStrengthLevel()));
+        this.setStrengthLevel(getRandom().nextInt(this.getMaxStrengthLevel()));
     }
 
     /**
@@ -63,23 +49,22 @@ public class Wolf extends BattleOrganism
      */
     public void act(List<Organism> newWolves)
     {
-        incrementAge();
-        decrementFoodLevel();
+        // Death of old age or hunger comes from the timing wheel of the field.
         decrementStrength();
         if (isAlive()) {
             giveBirth(newWolves);
             // Move towards a source of food if found.
             Location newLocation = findFood();
             if (newLocation == null) {
-                // No food found - try to move to a free location.
-                newLocation = getField().freeAdjacentLocation(getLocation());
+                // No food found - try to move to a free location, towards foxes in sight.
+                newLocation = freeLocationTowards(Species.FOX);
             }
             // See if it was possible to move.
             if (newLocation != null) {
                 setLocation(newLocation);
             } else {
                 // Overcrowding.
-                setDead();
+                setDead(DeathCause.OVERCROWDING);
             }
         }
     }
@@ -93,80 +78,42 @@ public class Wolf extends BattleOrganism
      */
     private Location findFood()
     {
-        Field field = getField();
-        List<Location> adjacent = field.adjacentLocations(getLocation());
-        Iterator<Location> it = adjacent.iterator();
-
-        // Backup rabbit that will be eaten in case there are no foxes around and the wolf is too hungry
-        Rabbit randomRabbit = null;
-
-        while (it.hasNext()) {
-            Location where = it.next();
-            Object animal = field.getObjectAt(where);
-
-            // The wolf first searches for a fox in all nearby locations
-            if (animal instanceof Fox) {
-                Fox fox = (Fox) animal;
-                if (fox.isAlive()) {
-                    fox.setDead();
-                    this.foodLevel = MAX_FOOD_LEVEL;
-                    this.incrementStrength(5);
-                    // Remove the dead fox from the field.
-                    return where;
-                }
-            } else if (animal instanceof Rabbit) {
-                Rabbit rabbit = (Rabbit) animal;
-                if (rabbit.isAlive()) randomRabbit = rabbit;
-            }
-        }
-
-        // If no fox was found around and the hunger level of the wolf is low, then the wolf eats a rabbit if there is one.
-        if (this.foodLevel <= 2 && randomRabbit != null) {
-            Location where = randomRabbit.getLocation();
-            randomRabbit.setDead();
-            this.incrementFoodLevel(4);
-            this.incrementStrength(1);
-
-            // Remove the dead rabbit from the field.
-            return where;
-        }
+        return WolfKernel.findFood(this);
+    }
 
-        return null;
+    /**
+     * Plan the step of the wolf for a ParallelStepEngine.
+     *
+     * @param engine The engine.
+     * @param i      The place of the wolf in the list of the step.
+     * @param rand   The random number generator of the wolf in this step.
+     */
+    public void planStep(ParallelStepEngine engine, int i, SplittableRandom rand)
+    {
+        WolfKernel.plan(this, engine, i, rand);
     }
 
     /**
-     * Check whether or not this wolf is to give birth at this step.
-     * New births will be made into free adjacent locations.
+     * Carry out the step planned by planStep.
      *
+     * @param engine    The engine that planned the step.
+     * @param i         The place of the wolf in the list of the step.
      * @param newWolves A list to return newly born wolves.
      */
-    private void giveBirth(List<Organism> newWolves)
+    public void applyStep(ParallelStepEngine engine, int i, List<Organism> newWolves)
     {
-        // New wolves are born into adjacent locations.
-        // Get a list of adjacent free locations.
-        Field field = getField();
-        List<Location> free = field.getFreeAdjacentLocations(getLocation());
-        int births = breed();
-        for (int b = 0; b < births && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            Wolf young = new Wolf(false, field, loc);
-            newWolves.add(young);
-        }
+        WolfKernel.apply(this, engine, i, newWolves);
     }
 
     /**
-     * Generate a number representing the number of births,
-     * if it can breed.
+     * Check whether or not this wolf is to give birth at this step.
+     * New births will be made into free adjacent locations.
      *
-     * @return The number of births (may be zero).
+     * @param newWolves A list to return newly born wolves.
      */
-    private int breed()
+    private void giveBirth(List<Organism> newWolves)
     {
-        int births = 0;
-        if (canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
-        }
-        return births;
+        WolfKernel.giveBirth(this, newWolves);
     }
 
     /**
@@ -176,31 +123,27 @@ public class Wolf extends BattleOrganism
      */
     protected void incrementFoodLevel(int foodLevel)
     {
-        this.foodLevel = this.foodLevel + foodLevel;
-        if (this.foodLevel > MAX_FOOD_LEVEL) {
-            this.foodLevel = MAX_FOOD_LEVEL;
-        }
+        setFoodLevel(Math.min(getFoodLevel() + foodLevel, MAX_FOOD_LEVEL));
     }
 
     /**
-     * Make this wolf more hungry. This could result in the wolf's death.
+     * Return the max strength of the wolf
+     *
+     * @return MAX_STRENGTH an integer between 0 and 100
      */
-    private void decrementFoodLevel()
+    protected int getMaxStrengthLevel()
     {
-        foodLevel--;
-        if (foodLevel <= 0) {
-            setDead();
-        }
+        return MAX_STRENGTH;
     }
 
     /**
-     * Return the max strength of the wolf
+     * Wolves starve when they do not eat.
      *
-     * @return MAX_STRENGTH an integer between 0 and 100
+     * @return true
      */
-    protected int getMaxStrengthLevel()
+    protected boolean needsFood()
     {
-        return MAX_STRENGTH;
+        return true;
     }
 
     /**
@@ -232,4 +175,14 @@ public class Wolf extends BattleOrganism
     {
         return BREEDING_AGE;
     }
+
+    /**
+     * Return the species of the wolf.
+     *
+     * @return Species.WOLF
+     */
+    protected Species getSpecies()
+    {
+        return Species.WOLF;
+    }
 }
@@ -0,0 +1,207 @@
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * The rules of the wolf, with the numbers of SpeciesDefinition.WOLF
+ * built in.
+ *
+ * Generated by SpeciesKernelGenerator from SpeciesDefinition.WOLF; do not
+ * edit, change the definition and run the generator again.
+ *
+ * @author Nikolay Tsanov
+ */
+final class WolfKernel
+{
+    // The age at which a wolf can start to breed.
+    static final int BREEDING_AGE = 35;
+    // The age to which a wolf can live.
+    static final int MAX_AGE = 160;
+    // The likelihood of a wolf breeding.
+    static final double BREEDING_PROBABILITY = 0.07;
+    // The maximum number of births.
+    static final int MAX_LITTER_SIZE = 2;
+    // The most food a wolf can hold.
+    static final int MAX_FOOD_LEVEL = 12;
+    // The most strength a wolf can have.
+    static final int MAX_STRENGTH = 100;
+    // The food a fox gives.
+    static final int FOX_FOOD_VALUE = 12;
+    // The strength a fox gives.
+    static final int FOX_STRENGTH_GAIN = 5;
+    // The food a rabbit gives.
+    static final int RABBIT_FOOD_VALUE = 4;
+    // The strength a rabbit gives.
+    static final int RABBIT_STRENGTH_GAIN = 1;
+    // The most food a wolf may have to look for a rabbit.
+    static final int RABBIT_HUNGER_LEVEL = 2;
+    // What winning a fight with a hunter gives: strength, food when alone, and food for every member of a pack.
+    static final int HUNTER_WIN_STRENGTH_GAIN = 3;
+    static final int HUNTER_WIN_FOOD_VALUE = 12;
+    static final int HUNTER_PACK_FOOD_VALUE = 5;
+
+    private WolfKernel()
+    {
+    }
+
+    /**
+     * Return the number of young a wolf has at this step.
+     *
+     * @param rand The random number generator of the simulation.
+     * @param age  The age of the wolf.
+     * @return The number of births (may be zero).
+     */
+    static int litterSize(Random rand, int age)
+    {
+        if (age >= BREEDING_AGE && rand.nextDouble() <= BREEDING_PROBABILITY) {
+            return rand.nextInt(MAX_LITTER_SIZE) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Return the number of young a wolf has at this step.
+     *
+     * @param rand The random number generator of the wolf in this step.
+     * @param age  The age of the wolf.
+     * @return The number of births (may be zero).
+     */
+    static int litterSize(SplittableRandom rand, int age)
+    {
+        if (age >= BREEDING_AGE && rand.nextDouble() <= BREEDING_PROBABILITY) {
+            return rand.nextInt(MAX_LITTER_SIZE) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Let a wolf give birth at this step, if it does. New births
+     * are made into free adjacent locations.
+     *
+     * @param parent   The wolf.
+     * @param newborns A list to return newly born organisms.
+     */
+    static void giveBirth(Wolf parent, List<Organism> newborns)
+    {
+        Field field = parent.getField();
+        Location location = parent.getLocation();
+        List<Location> free = field.getFreeAdjacentLocations(location);
+        // Only as many can be born as there are free locations.
+        int born = Math.min(litterSize(parent.getRandom(), parent.getAge()), free.size());
+        for (int b = 0; b < born; b++) {
+            newborns.add(new Wolf(false, field, free.get(b)));
+        }
+        if (born > 0) {
+            field.getEvents().born(Species.WOLF, born, location);
+        }
+    }
+
+    /**
+     * Let a wolf look for prey in the adjacent locations, in the
+     * order of its diet, and eat the first live one found.
+     *
+     * @param predator The wolf.
+     * @return Where food was found, or null if it wasn't.
+     */
+    static Location findFood(Wolf predator)
+    {
+        Field field = predator.getField();
+        Location where;
+        Organism prey;
+        where = field.randomAdjacentLocationOf(Species.FOX, predator.getLocation());
+        prey = where == null ? null : (Organism) field.getObjectAt(where);
+        if (prey != null && prey.isAlive()) {
+            predator.kill(prey);
+            eat(predator, 0);
+            return where;
+        }
+        if (predator.getFoodLevel() <= RABBIT_HUNGER_LEVEL) {
+            where = field.randomAdjacentLocationOf(Species.RABBIT, predator.getLocation());
+            prey = where == null ? null : (Organism) field.getObjectAt(where);
+            if (prey != null && prey.isAlive()) {
+                predator.kill(prey);
+                eat(predator, 1);
+                return where;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Let a wolf have the food and strength a prey of its diet gives.
+     *
+     * @param predator The wolf.
+     * @param meal     The place of the prey in the diet.
+     */
+    static void eat(Wolf predator, int meal)
+    {
+        switch (meal) {
+            case 0:
+                predator.setFoodLevel(Math.min(predator.getFoodLevel() + FOX_FOOD_VALUE, MAX_FOOD_LEVEL));
+                predator.incrementStrength(FOX_STRENGTH_GAIN);
+                break;
+            case 1:
+                predator.setFoodLevel(Math.min(predator.getFoodLevel() + RABBIT_FOOD_VALUE, MAX_FOOD_LEVEL));
+                predator.incrementStrength(RABBIT_STRENGTH_GAIN);
+                break;
+            default:
+                throw new IllegalArgumentException("A wolf has no meal " + meal + ".");
+        }
+    }
+
+    /**
+     * Plan the step of a wolf for a ParallelStepEngine, as act takes it:
+     * claim the locations of its young, then that of a prey of its diet to
+     * eat and move to, or else a free location to move to, towards the
+     * first prey of its diet if one is in sight.
+     *
+     * @param organism The wolf.
+     * @param engine   The engine.
+     * @param i        The place of the wolf in the list of the step.
+     * @param rand     The random number generator of the wolf in this step.
+     */
+    static void plan(Wolf organism, ParallelStepEngine engine, int i, SplittableRandom rand)
+    {
+        engine.claimBirths(i, litterSize(rand, organism.getAge()), rand);
+        if (engine.claimPrey(i, 0, Species.FOX, rand)) {
+            return;
+        }
+        if (organism.getFoodLevel() <= RABBIT_HUNGER_LEVEL && engine.claimPrey(i, 1, Species.RABBIT, rand)) {
+            return;
+        }
+        engine.claimDestination(i, Species.FOX, rand);
+    }
+
+    /**
+     * Carry out the step of a wolf planned by plan.
+     *
+     * @param organism The wolf.
+     * @param engine   The engine that planned the step.
+     * @param i        The place of the wolf in the list of the step.
+     * @param newborns A list to return newly born organisms.
+     */
+    static void apply(Wolf organism, ParallelStepEngine engine, int i, List<Organism> newborns)
+    {
+        Field field = organism.getField();
+        organism.decrementStrength();
+        int born = engine.getBirthCount(i);
+        for (int b = 0; b < born; b++) {
+            newborns.add(new Wolf(false, field, engine.getBirth(i, b)));
+        }
+        if (born > 0) {
+            field.getEvents().born(Species.WOLF, born, organism.getLocation());
+        }
+        Location where = engine.getPrey(i);
+        if (where != null) {
+            organism.kill((Organism) field.getObjectAt(where));
+            eat(organism, engine.getMeal(i));
+        }
+        Location destination = engine.getDestination(i);
+        if (destination != null) {
+            organism.setLocation(destination);
+        } else {
+            // Overcrowding.
+            organism.setDead(DeathCause.OVERCROWDING);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hash of the state of a simulation, to check cheaply that two runs
+ * (e.g. of the reference engine and of a faster one) follow the same
+ * trajectory without comparing whole fields.
+ *
+ * The field is divided into square regions, and every region has a hash
+ * of its own, so a difference can be narrowed down to a region. A region's
+ * hash has two parts:
+ * <ul>
+ * <li>the contents: which species is at which location. The field updates
+ *     this part whenever something is placed or removed, by adding or
+ *     subtracting a hash of the location and species, so it is always
+ *     up to date without looking at the whole field;</li>
+ * <li>the state of the organisms: their age, food and strength. These
+ *     change for every organism in every step, so this part is computed
+ *     again after every step from the list of organisms.</li>
+ * </ul>
+ * Hashes are added rather than combined in order, so the order in which
+ * organisms act or are listed does not matter.
+ *
+ * @author Nikolay Tsanov
+ */
+public class WorldFingerprint
+{
+    // The default size of a region, in locations along each side.
+    public static final int DEFAULT_REGION_SIZE = 64;
+
+    // Seeds that keep the hashes of the two parts apart.
+    private static final long CONTENT_SEED = 0x3C6EF372FE94F82BL;
+    private static final long STATE_SEED = 0xA54FF53A5F1D36F1L;
+
+    // The size of the field.
+    private final int depth, width;
+    // The size of a region, in locations along each side.
+    private final int regionSize;
+    // The number of regions in each direction.
+    private final int regionRows, regionCols;
+    // The hash of the contents of every region.
+    private final long[] content;
+    // The hash of the state of the organisms of every region.
+    private final long[] state;
+
+    /**
+     * Create the fingerprint of an empty field.
+     *
+     * @param depth      The depth of the field.
+     * @param width      The width of the field.
+     * @param regionSize The size of a region, in locations along each side.
+     */
+    public WorldFingerprint(int depth, int width, int regionSize)
+    {
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("The region size must be greater than zero.");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.regionSize = regionSize;
+        regionRows = (depth + regionSize - 1) / regionSize;
+        regionCols = (width + regionSize - 1) / regionSize;
+        content = new long[regionRows * regionCols];
+        state = new long[regionRows * regionCols];
+    }
+
+    /**
+     * Count an organism that was placed at a location.
+     *
+     * @param species The species of the organism.
+     * @param row     The row of the location.
+     * @param col     The column of the location.
+     */
+    public void placed(Species species, int row, int col)
+    {
+        content[regionOf(row, col)] += contentHash(species, row, col);
+    }
+
+    /**
+     * Stop counting an organism that was removed from a location.
+     *
+     * @param species The species of the organism.
+     * @param row     The row of the location.
+     * @param col     The column of the location.
+     */
+    public void removed(Species species, int row, int col)
+    {
+        content[regionOf(row, col)] -= contentHash(species, row, col);
+    }
+
+    /**
+     * Forget everything, as for an empty field.
+     */
+    public void clear()
+    {
+        Arrays.fill(content, 0);
+        Arrays.fill(state, 0);
+    }
+
+    /**
+     * Compute the state part of the hash again from the organisms.
+     * Organisms that are no longer alive are left out.
+     *
+     * @param organisms The organisms of the simulation.
+     */
+    public void updateState(List<Organism> organisms)
+    {
+        Arrays.fill(state, 0);
+        for (Organism organism : organisms) {
+            Location location = organism.getLocation();
+            if (!organism.isAlive() || location == null) {
+                continue;
+            }
+            int strength = organism instanceof BattleOrganism ? ((BattleOrganism) organism).getStrengthLevel() : 0;
+            int row = location.getRow();
+            int col = location.getCol();
+            long packed = ((long) organism.getAge() << 40) ^ ((long) organism.getFoodLevel() << 20) ^ strength;
+            state[regionOf(row, col)] += mix(STATE_SEED + cellKey(row, col) * 31 + organism.getSpecies().ordinal() + mix(packed));
+        }
+    }
+
+    /**
+     * Return the hash of a region.
+     *
+     * @param region The index of the region, row by row.
+     * @return The hash of its contents and organisms.
+     */
+    public long getRegionHash(int region)
+    {
+        return mix(content[region] ^ Long.rotateLeft(state[region], 29));
+    }
+
+    /**
+     * @return The hash of all regions together.
+     */
+    public long getWorldHash()
+    {
+        long hash = 0;
+        for (int region = 0; region < content.length; region++) {
+            hash += mix(getRegionHash(region) + region);
+        }
+        return hash;
+    }
+
+    /**
+     * @return The hash of the contents of all regions, without the state of the organisms.
+     */
+    public long getContentHash()
+    {
+        long hash = 0;
+        for (long regionContent : content) {
+            hash += regionContent;
+        }
+        return hash;
+    }
+
+    /**
+     * @return The number of regions.
+     */
+    public int getRegionCount()
+    {
+        return content.length;
+    }
+
+    /**
+     * @return The number of region columns.
+     */
+    public int getRegionCols()
+    {
+        return regionCols;
+    }
+
+    /**
+     * @return The size of a region, in locations along each side.
+     */
+    public int getRegionSize()
+    {
+        return regionSize;
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Scramble the bits of a value (the finaliser of SplitMix64).
+     *
+     * @param value The value.
+     * @return A hash of the value.
+     */
+    public static long mix(long value)
+    {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * @return The hash of a species at a location.
+     */
+    private long contentHash(Species species, int row, int col)
+    {
+        return mix(CONTENT_SEED + cellKey(row, col) * 31 + species.ordinal());
+    }
+
+    /**
+     * @return A number identifying a location.
+     */
+    private long cellKey(int row, int col)
+    {
+        return (long) row * width + col;
+    }
+
+    /**
+     * @return The region holding a location.
+     */
+    private int regionOf(int row, int col)
+    {
+        return (row / regionSize) * regionCols + col / regionSize;
+    }
+}